@@ -16,7 +16,7 @@ class AllCccAnalyzer extends Worker<AllCccResults> {
 	}	
 
 	@Override
-	public AllCccResults call() throws Exception {
+	protected AllCccResults analyze() throws Exception {
 		callNumCodeCells();
 		callLOC();
 		callLanguage();
@@ -8,7 +8,7 @@ class AllLanguagesExtractor extends Worker<Map<LangSpec, LangName>> {
 	}
 	
 	@Override
-	public Map<LangSpec, LangName> call() throws Exception {
+	protected Map<LangSpec, LangName> analyze() throws Exception {
 		return notebook.allLanguageValues();
 	}
 }
\ No newline at end of file
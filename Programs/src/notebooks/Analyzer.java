@@ -1,11 +1,11 @@
 package notebooks;
 
 import java.io.IOException;
-import java.io.Writer;
-import java.util.Locale;
 
 public class Analyzer {
 	protected String outputDir = ".";
+	protected boolean backgroundFlush = false;
+	protected boolean approximateRepros = false;
 
 	/**
 	 * Get the part of arg located after the (first) '=' sign. If the '=' is
@@ -21,6 +21,34 @@ public class Analyzer {
 		}
 	}
 	
+	/**
+	 * Open a CSV output file. The file is written by a dedicated thread if
+	 * background flushing is enabled.
+	 * @param fileName Name of the file
+	 * @return A writer that writes to the file
+	 * @throws IOException If the file cannot be opened
+	 */
+	protected CsvWriter csvWriter(String fileName) throws IOException {
+		return new CsvWriter(fileName, backgroundFlush);
+	}
+	
+	/**
+	 * Count the distinct repros that notebooks are connected to approximately,
+	 * with a small HyperLogLog sketch per notebook, instead of exactly. The
+	 * standard error of the counts is given in the connections header.
+	 * @param approximateRepros True iff repros should be counted approximately
+	 */
+	void setApproximateRepros(boolean approximateRepros) {
+		this.approximateRepros = approximateRepros;
+	}
+	
+	/**
+	 * @return Note to add to the names of connections columns that are computed from the number of distinct repros
+	 */
+	protected String reproCountNote() {
+		return approximateRepros ? HyperLogLog.columnNote() : "";
+	}
+	
 	/**
 	 * @return Header for the cloneFrequency csv file
 	 */
@@ -39,23 +67,26 @@ public class Analyzer {
 	 * @param numIntra Number of intra notebook connections
 	 * @param numIntraNE Number of intra notebook connections, empty snippet excluded
 	 */
-	protected void printCloneFrequencyLine(Writer writer, String notebook, int numClones,
+	protected void printCloneFrequencyLine(CsvWriter writer, String notebook, int numClones,
 			int numUnique, int numEmpty, int numClonesNE, int numIntra, int numIntraNE) throws IOException {
-		writer.write(notebook + ", " + numUnique + ", " + numClones + ", " + numEmpty + ", ");
+		StringBuilder line = writer.newRow();
+		line.append(notebook).append(", ").append(numUnique).append(", ")
+			.append(numClones).append(", ").append(numEmpty).append(", ");
 		int numSnippets = numClones + numUnique;
 		int numSnippetsNE = numSnippets - numEmpty;
 		if (0 != numSnippets) {
 			double cloneFrequency = (double)numClones / numSnippets;
-			writer.write(String.format(Locale.US, "%.4f", cloneFrequency) + ", ");
+			CsvWriter.appendDecimal(line, cloneFrequency, 4).append(", ");
 		} else {
-			writer.write("0, ");
+			line.append("0, ");
 		}
 		if (0 != numSnippetsNE) {
 			double cloneFrequency = (double)numClonesNE / numSnippetsNE;
-			writer.write(String.format(Locale.US, "%.4f", cloneFrequency) + ", ");
+			CsvWriter.appendDecimal(line, cloneFrequency, 4).append(", ");
 		} else {
-			writer.write("0, ");
+			line.append("0, ");
 		}
-		writer.write(numIntra + ", " + numIntraNE + "\n");
+		line.append(numIntra).append(", ").append(numIntraNE);
+		writer.endRow();
 	}
-}
\ No newline at end of file
+}
@@ -6,7 +6,7 @@ class BlankLOCCounter extends Worker<Integer> {
 	}
 	
 	@Override
-	public Integer call() throws Exception {
+	protected Integer analyze() throws Exception {
 		return notebook.LOCBlank();
 	}
 }
\ No newline at end of file
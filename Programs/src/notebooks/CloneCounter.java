@@ -0,0 +1,67 @@
+package notebooks;
+
+/**
+ * Counts the clones and unique snippets of a notebook in a clone index. The
+ * same counter can be reused for all notebooks.
+ */
+final class CloneCounter {
+	int numClones, numUnique, numEmpty;
+	int numIntra, numIntraNE;	// # intra notebook clones
+	
+	/**
+	 * Count the snippets of notebook. The counts of any earlier notebook are
+	 * overwritten.
+	 * @param clones Index of all snippets
+	 * @param notebook Id of notebook to count snippets in
+	 */
+	void count(CloneIndex clones, int notebook) {
+		numClones = 0;
+		numUnique = 0;
+		numEmpty = 0;
+		numIntra = 0;
+		numIntraNE = 0;
+		int numSnippets = clones.numSnippets(notebook);
+		for (int cell=0; cell<numSnippets; cell++) {
+			int group = clones.group(notebook, cell);
+			if(clones.isClone(group)) {
+				numClones++;
+				boolean intra = isIntraClone(group, notebook, clones);
+				if (intra) {
+					numIntra++;
+				}
+				if (clones.isEmpty(group)) {
+					numEmpty++;
+				} else {
+					if (intra) {
+						numIntraNE++;
+					}
+				}
+			} else {
+				numUnique++;
+			}
+		}
+	}
+	
+	/**
+	 * @return Number of clones, excluding empty snippets
+	 */
+	int numClonesNE() {
+		return numClones - numEmpty;
+	}
+	
+	/**
+	 * @return True if group occurs more than once in notebook
+	 */
+	private static boolean isIntraClone(int group, int notebook, CloneIndex clones) {
+		int copies = 0;
+		for (int cell=0; cell<clones.numSnippets(notebook); cell++) {
+			if (group == clones.group(notebook, cell)) {
+				copies++;
+				if (1 < copies) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
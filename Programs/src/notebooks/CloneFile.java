@@ -0,0 +1,427 @@
+package notebooks;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary version of the clone files, with the same information as
+ * file2hashes, hash2files and cloneFrequency. All records have a fixed width,
+ * so a reader that maps the file into memory can look up any notebook or
+ * group directly, without parsing the rest of the file. All values are
+ * stored in big-endian byte order.
+ *
+ * The file consists of the following sections:
+ * - Header: magic number, version, number of notebooks, groups, snippets,
+ *   repros and strings, followed by the byte offset of each of the sections
+ *   below.
+ * - Notebooks: for each notebook, repro id, index of the first snippet,
+ *   number of snippets, and number of clones, unique snippets, empty clones,
+ *   intra notebook clones and non-empty intra notebook clones.
+ * - Groups: for each group (distinct snippet code), the hash as two longs,
+ *   the median line count, the index of the first member and the number of
+ *   members.
+ * - Snippets: the group id of each snippet, in notebook order.
+ * - Members: notebook id and cell index of each member of each group, in
+ *   group order.
+ * - Strings: the start offset of each string, followed by the UTF-8 encoded
+ *   strings. The notebook names come first, then the repro names.
+ *
+ * A file is created with write and read by creating a CloneFile from it.
+ * Since a mapped buffer holds at most 2 GB, each section is mapped in
+ * chunks of 1 GB. The record sizes divide the chunk size, so no record
+ * crosses the border between two chunks.
+ */
+public class CloneFile implements Closeable {
+	private static final int MAGIC = 0x4E42434C;	// "NBCL"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8*4 + 5*8;
+	private static final int NOTEBOOK_RECORD_SIZE = 8*4;
+	private static final int GROUP_RECORD_SIZE = 2*8 + 4*4;
+	private static final int SNIPPET_RECORD_SIZE = 4;
+	private static final int MEMBER_RECORD_SIZE = 2*4;
+	private static final int CHUNK_BITS = 30;
+
+	private final FileChannel channel;
+	private final int chunkBits;
+	private final int numNotebooks, numGroups, numSnippets, numRepros, numStrings;
+	private final Section notebooks, groups, snippets, members, strings;
+	private final long stringsStart;
+
+	/**
+	 * Map the clone file fileName into memory.
+	 * @param fileName Name of a file created by write
+	 * @throws IOException If the file cannot be read or is not a clone file
+	 */
+	public CloneFile(String fileName) throws IOException {
+		this(fileName, CHUNK_BITS);
+	}
+
+	/**
+	 * Map the clone file fileName into memory, in chunks of 2^chunkBits bytes.
+	 * @param fileName Name of a file created by write
+	 * @param chunkBits Base 2 logarithm of the chunk size, at least 5 (the size of the largest record) and at most 30
+	 * @throws IOException If the file cannot be read or is not a clone file
+	 */
+	CloneFile(String fileName, int chunkBits) throws IOException {
+		this.chunkBits = chunkBits;
+		channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		try {
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(HEADER_SIZE, channel.size()));
+			if (HEADER_SIZE != header.remaining() || MAGIC != header.getInt() || VERSION != header.getInt()) {
+				throw new IOException(fileName + " is not a clone file of version " + VERSION);
+			}
+			numNotebooks = header.getInt();
+			numGroups = header.getInt();
+			numSnippets = header.getInt();
+			numRepros = header.getInt();
+			numStrings = header.getInt();
+			header.getInt();	// Reserved
+			long notebooksOffset = header.getLong();
+			long groupsOffset = header.getLong();
+			long snippetsOffset = header.getLong();
+			long membersOffset = header.getLong();
+			long stringsOffset = header.getLong();
+			notebooks = map(notebooksOffset, groupsOffset);
+			groups = map(groupsOffset, snippetsOffset);
+			snippets = map(snippetsOffset, membersOffset);
+			members = map(membersOffset, stringsOffset);
+			strings = map(stringsOffset, channel.size());
+			stringsStart = 4L * (numStrings+1);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private Section map(long start, long end) throws IOException {
+		if (start < 0 || end < start || channel.size() < end) {
+			throw new IOException("Invalid section in clone file: " + start + "-" + end);
+		}
+		return new Section(channel, start, end, chunkBits);
+	}
+
+	/**
+	 * Close the file. Buffers already mapped stay valid until they are
+	 * garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * @return Number of notebooks in the file
+	 */
+	public int numNotebooks() {
+		return numNotebooks;
+	}
+
+	/**
+	 * @return Number of groups, that is, distinct snippet codes, in the file
+	 */
+	public int numGroups() {
+		return numGroups;
+	}
+
+	/**
+	 * @return Total number of snippets in the file
+	 */
+	public int numSnippets() {
+		return numSnippets;
+	}
+
+	/**
+	 * @return Number of repros in the file
+	 */
+	public int numRepros() {
+		return numRepros;
+	}
+
+	public String notebookName(int notebook) {
+		return string(notebook);
+	}
+
+	/**
+	 * @return Id of the repro that notebook resides in
+	 */
+	public int repro(int notebook) {
+		return notebookField(notebook, 0);
+	}
+
+	/**
+	 * @return Name of the repro with id repro, or the empty string if the repro is unknown
+	 */
+	public String reproName(int repro) {
+		return string(numNotebooks + repro);
+	}
+
+	/**
+	 * @return Number of snippets in notebook
+	 */
+	public int numSnippets(int notebook) {
+		return notebookField(notebook, 2);
+	}
+
+	/**
+	 * @return Id of the group that snippet number cell in notebook belongs to
+	 */
+	public int group(int notebook, int cell) {
+		return snippets.getInt((long)SNIPPET_RECORD_SIZE * (notebookField(notebook, 1) + cell));
+	}
+
+	/**
+	 * @return Number of snippets in notebook that are clones
+	 */
+	public int numClones(int notebook) {
+		return notebookField(notebook, 3);
+	}
+
+	/**
+	 * @return Number of snippets in notebook that are unique
+	 */
+	public int numUnique(int notebook) {
+		return notebookField(notebook, 4);
+	}
+
+	/**
+	 * @return Number of snippets in notebook that are empty clones
+	 */
+	public int numEmpty(int notebook) {
+		return notebookField(notebook, 5);
+	}
+
+	/**
+	 * @return Number of snippets in notebook that have a clone in notebook
+	 */
+	public int numIntraClones(int notebook) {
+		return notebookField(notebook, 6);
+	}
+
+	/**
+	 * @return Number of non-empty snippets in notebook that have a clone in notebook
+	 */
+	public int numNonEmptyIntraClones(int notebook) {
+		return notebookField(notebook, 7);
+	}
+
+	/**
+	 * @return The code of group, with the median line count
+	 */
+	public SnippetCode code(int group) {
+		long record = (long)GROUP_RECORD_SIZE * group;
+		return new SnippetCode(groups.getInt(record + 16), groups.getLong(record), groups.getLong(record + 8));
+	}
+
+	/**
+	 * @return The hash of the code of group, in hexadecimal form
+	 */
+	public String hash(int group) {
+		return code(group).getHash();
+	}
+
+	/**
+	 * @return Median line count of the snippets in group
+	 */
+	public int loc(int group) {
+		return groups.getInt((long)GROUP_RECORD_SIZE * group + 16);
+	}
+
+	/**
+	 * @return Number of snippets in group
+	 */
+	public int groupSize(int group) {
+		return groups.getInt((long)GROUP_RECORD_SIZE * group + 24);
+	}
+
+	/**
+	 * @return True iff group contains more than one snippet
+	 */
+	public boolean isClone(int group) {
+		return 2 <= groupSize(group);
+	}
+
+	/**
+	 * @return Notebook id of member number member of group
+	 */
+	public int memberNotebook(int group, int member) {
+		return members.getInt((long)MEMBER_RECORD_SIZE * (firstMember(group) + member));
+	}
+
+	/**
+	 * @return Cell index of member number member of group
+	 */
+	public int memberCell(int group, int member) {
+		return members.getInt((long)MEMBER_RECORD_SIZE * (firstMember(group) + member) + 4);
+	}
+
+	private int firstMember(int group) {
+		return groups.getInt((long)GROUP_RECORD_SIZE * group + 20);
+	}
+
+	private int notebookField(int notebook, int field) {
+		return notebooks.getInt((long)NOTEBOOK_RECORD_SIZE * notebook + 4 * field);
+	}
+
+	private String string(int index) {
+		int start = strings.getInt(4L * index);
+		int end = strings.getInt(4L * (index+1));
+		byte[] bytes = new byte[end - start];
+		strings.get(stringsStart + start, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Write the contents of clones to a binary clone file.
+	 * @param clones Index of all snippets
+	 * @param fileName Name of the file to create
+	 * @throws IOException On problems writing the file
+	 */
+	public static void write(CloneIndex clones, String fileName) throws IOException {
+		int numNotebooks = clones.numNotebooks();
+		int numGroups = clones.numGroups();
+		int numSnippets = 0;
+		for (int notebook=0; notebook<numNotebooks; notebook++) {
+			numSnippets += clones.numSnippets(notebook);
+		}
+		int numStrings = numNotebooks + clones.numRepros();
+		byte[][] stringBytes = new byte[numStrings][];
+		for (int notebook=0; notebook<numNotebooks; notebook++) {
+			stringBytes[notebook] = clones.notebookName(notebook).getBytes(StandardCharsets.UTF_8);
+		}
+		for (int repro=0; repro<clones.numRepros(); repro++) {
+			// Notebooks missing in the repro file have no repro name
+			String reproName = null == clones.reproName(repro) ? "" : clones.reproName(repro);
+			stringBytes[numNotebooks + repro] = reproName.getBytes(StandardCharsets.UTF_8);
+		}
+		long stringsSize = 0;
+		for (byte[] string: stringBytes) {
+			stringsSize += string.length;
+		}
+		if (Integer.MAX_VALUE < stringsSize) {
+			throw new IOException("Notebook and repro names too long for a clone file: " + stringsSize + " bytes");
+		}
+		long notebooksOffset = HEADER_SIZE;
+		long groupsOffset = notebooksOffset + (long)NOTEBOOK_RECORD_SIZE * numNotebooks;
+		long snippetsOffset = groupsOffset + (long)GROUP_RECORD_SIZE * numGroups;
+		long membersOffset = snippetsOffset + (long)SNIPPET_RECORD_SIZE * numSnippets;
+		long stringsOffset = membersOffset + (long)MEMBER_RECORD_SIZE * numSnippets;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(numNotebooks);
+			out.writeInt(numGroups);
+			out.writeInt(numSnippets);
+			out.writeInt(clones.numRepros());
+			out.writeInt(numStrings);
+			out.writeInt(0);	// Reserved
+			out.writeLong(notebooksOffset);
+			out.writeLong(groupsOffset);
+			out.writeLong(snippetsOffset);
+			out.writeLong(membersOffset);
+			out.writeLong(stringsOffset);
+
+			CloneCounter counter = new CloneCounter();
+			int firstSnippet = 0;
+			for (int notebook=0; notebook<numNotebooks; notebook++) {
+				counter.count(clones, notebook);
+				out.writeInt(clones.repro(notebook));
+				out.writeInt(firstSnippet);
+				out.writeInt(clones.numSnippets(notebook));
+				out.writeInt(counter.numClones);
+				out.writeInt(counter.numUnique);
+				out.writeInt(counter.numEmpty);
+				out.writeInt(counter.numIntra);
+				out.writeInt(counter.numIntraNE);
+				firstSnippet += clones.numSnippets(notebook);
+			}
+
+			int firstMember = 0;
+			for (int group=0; group<numGroups; group++) {
+				out.writeLong(clones.high(group));
+				out.writeLong(clones.low(group));
+				out.writeInt(clones.loc(group));
+				out.writeInt(firstMember);
+				out.writeInt(clones.groupSize(group));
+				out.writeInt(0);	// Reserved
+				firstMember += clones.groupSize(group);
+			}
+
+			for (int notebook=0; notebook<numNotebooks; notebook++) {
+				for (int cell=0; cell<clones.numSnippets(notebook); cell++) {
+					out.writeInt(clones.group(notebook, cell));
+				}
+			}
+
+			for (int group=0; group<numGroups; group++) {
+				for (int member=0; member<clones.groupSize(group); member++) {
+					out.writeInt(clones.memberNotebook(group, member));
+					out.writeInt(clones.memberCell(group, member));
+				}
+			}
+
+			int stringOffset = 0;
+			out.writeInt(stringOffset);
+			for (byte[] string: stringBytes) {
+				stringOffset += string.length;
+				out.writeInt(stringOffset);
+			}
+			for (byte[] string: stringBytes) {
+				out.write(string);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * A section of the file, mapped in chunks of 2^chunkBits bytes. Positions
+	 * are relative to the start of the section.
+	 */
+	private static class Section {
+		private final MappedByteBuffer[] chunks;
+		private final int chunkBits;
+		private final int chunkMask;
+
+		Section(FileChannel channel, long start, long end, int chunkBits) throws IOException {
+			long chunkSize = 1L << chunkBits;
+			this.chunkBits = chunkBits;
+			this.chunkMask = (int)(chunkSize - 1);
+			chunks = new MappedByteBuffer[(int)((end - start + chunkSize - 1) >>> chunkBits)];
+			for (int i=0; i<chunks.length; i++) {
+				long chunkStart = start + i * chunkSize;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, Math.min(chunkSize, end - chunkStart));
+			}
+		}
+
+		int getInt(long position) {
+			return chunks[(int)(position >>> chunkBits)].getInt((int)position & chunkMask);
+		}
+
+		long getLong(long position) {
+			return chunks[(int)(position >>> chunkBits)].getLong((int)position & chunkMask);
+		}
+
+		/**
+		 * Fill bytes with the contents of the section from position, which
+		 * may span several chunks.
+		 */
+		void get(long position, byte[] bytes) {
+			int copied = 0;
+			while (copied < bytes.length) {
+				ByteBuffer chunk = chunks[(int)(position >>> chunkBits)].duplicate();
+				chunk.position((int)position & chunkMask);
+				int length = Math.min(bytes.length - copied, chunk.remaining());
+				chunk.get(bytes, copied, length);
+				copied += length;
+				position += length;
+			}
+		}
+	}
+}
@@ -0,0 +1,576 @@
+package notebooks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Index of the snippets of a set of notebooks, grouped by code. Everything is
+ * stored in primitive arrays:
+ * - Notebooks and repros are identified by int ids. Each name is stored once.
+ * - The snippets of notebook n are found at positions
+ *   snippetStart[n]..snippetStart[n+1]-1 of snippetGroup, which holds the
+ *   id of the group (that is, the code) of each snippet.
+ * - The members (notebook id and cell index) of group g are found at
+ *   positions memberStart[g]..memberStart[g+1]-1 of memberNotebook and
+ *   memberCell, in the order in which they were added.
+ * - The hash of each group is stored as two longs, and its line count is the
+ *   median line count of its members.
+ * Groups are found through an open addressing table from hash to group id.
+ * The table can be split into shards that are built in parallel.
+ */
+public class CloneIndex {
+	private final String[] notebookNames;
+	private final int[] notebookRepro;
+	private final String[] reproNames;
+	private final int[] snippetStart;
+	private final int[] snippetGroup;
+
+	private int numGroups;
+	private long[] groupHigh;
+	private long[] groupLow;
+	private int[] groupLoc;
+	private int[] memberStart;
+	private final int[] memberNotebook;
+	private final int[] memberCell;
+
+	/**
+	 * Build an index of all snippets in file2hashes on the current thread.
+	 * @param file2hashes Map from notebook to the code of each snippet in it
+	 */
+	public CloneIndex(Map<Notebook, SnippetCode[]> file2hashes) {
+		this(file2hashes, 1);
+	}
+
+	/**
+	 * Build an index of all snippets in file2hashes, in numShards shards
+	 * (see CloneIndex(Snippets, int)).
+	 * @param file2hashes Map from notebook to the code of each snippet in it
+	 * @param numShards Number of shards. Rounded up to a power of 2. With 1 shard, the index is built on the current thread.
+	 */
+	public CloneIndex(Map<Notebook, SnippetCode[]> file2hashes, int numShards) {
+		this(columns(file2hashes), numShards);
+	}
+
+	private static Snippets columns(Map<Notebook, SnippetCode[]> file2hashes) {
+		Snippets snippets = new Snippets();
+		for (Map.Entry<Notebook, SnippetCode[]> entry: file2hashes.entrySet()) {
+			snippets.add(entry.getKey(), entry.getValue());
+		}
+		return snippets;
+	}
+
+	/**
+	 * Build an index of all snippets collected in snippets. The columns are
+	 * moved into the index, so snippets is empty afterwards. The snippets are
+	 * partitioned into shards by the first bits of their hashes. Each shard
+	 * is grouped, and the median line count of its groups computed,
+	 * independently by the ThreadExecutor. The groups of shard i get
+	 * ids directly after those of shard i-1, so the shards don't have to be
+	 * merged.
+	 * @param snippets The snippets of all notebooks
+	 * @param numShards Number of shards. Rounded up to a power of 2. With 1 shard, the index is built on the current thread.
+	 */
+	public CloneIndex(Snippets snippets, int numShards) {
+		int numNotebooks = snippets.numNotebooks;
+		int numSnippets = snippets.numSnippets;
+		notebookNames = snippets.notebookNames.toArray(new String[numNotebooks]);
+		notebookRepro = Arrays.copyOf(snippets.notebookRepro, numNotebooks);
+		snippetStart = Arrays.copyOf(snippets.snippetStart, numNotebooks+1);
+		snippetStart[numNotebooks] = numSnippets;
+		reproNames = snippets.repros.toArray(new String[snippets.repros.size()]);
+		long[] high = Arrays.copyOf(snippets.high, numSnippets);
+		long[] low = Arrays.copyOf(snippets.low, numSnippets);
+		int[] loc = Arrays.copyOf(snippets.loc, numSnippets);
+		snippets.clear();
+
+		int[] snippetNotebook = new int[numSnippets];
+		for (int notebookId=0; notebookId<numNotebooks; notebookId++) {
+			if (0 == notebookId%10000) {
+				Utils.heartBeat("Finding clones in " + notebookNames[notebookId]);
+			}
+			Arrays.fill(snippetNotebook, snippetStart[notebookId], snippetStart[notebookId+1], notebookId);
+		}
+
+		snippetGroup = new int[numSnippets];
+		memberNotebook = new int[numSnippets];
+		memberCell = new int[numSnippets];
+		Shard[] shards = partition(high, low, loc, snippetNotebook, numShards);
+		if (1 == shards.length) {
+			shards[0].call();
+		} else {
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(Arrays.asList(shards));
+			for (Future<Void> result: ThreadExecutor.getInstance().invokeAll(tasks)) {
+				await(result);
+			}
+		}
+		merge(shards);
+	}
+
+	/**
+	 * The snippets of a set of notebooks, stored in primitive columns as the
+	 * notebooks are added, so that the SnippetCode arrays don't have to be
+	 * kept until the index is built. Each notebook should be added once.
+	 */
+	public static class Snippets {
+		private List<String> notebookNames;
+		private List<String> repros;
+		private Map<String, Integer> reproIds;
+		private int[] notebookRepro;
+		private int[] snippetStart;
+		private long[] high;
+		private long[] low;
+		private int[] loc;
+		private int numNotebooks, numSnippets;
+
+		public Snippets() {
+			clear();
+		}
+
+		/**
+		 * Add the snippets of a notebook.
+		 * @param notebook Notebook containing the snippets
+		 * @param codes Code of each snippet in the notebook
+		 */
+		public void add(Notebook notebook, SnippetCode[] codes) {
+			if (notebookRepro.length == numNotebooks) {
+				notebookRepro = Arrays.copyOf(notebookRepro, 2*numNotebooks);
+				snippetStart = Arrays.copyOf(snippetStart, 2*numNotebooks+1);
+			}
+			String repro = notebook.getRepro();
+			Integer reproId = reproIds.get(repro);
+			if (null == reproId) {
+				reproId = repros.size();
+				reproIds.put(repro, reproId);
+				repros.add(repro);
+			}
+			notebookNames.add(notebook.getName());
+			notebookRepro[numNotebooks] = reproId;
+			snippetStart[numNotebooks] = numSnippets;
+			numNotebooks++;
+
+			if (high.length < numSnippets + codes.length) {
+				int capacity = Math.max(2*high.length, numSnippets + codes.length);
+				high = Arrays.copyOf(high, capacity);
+				low = Arrays.copyOf(low, capacity);
+				loc = Arrays.copyOf(loc, capacity);
+			}
+			for (SnippetCode code: codes) {
+				high[numSnippets] = code.getHigh();
+				low[numSnippets] = code.getLow();
+				loc[numSnippets] = code.getLOC();
+				numSnippets++;
+			}
+		}
+
+		/**
+		 * @return Number of notebooks added
+		 */
+		public int numNotebooks() {
+			return numNotebooks;
+		}
+
+		private void clear() {
+			notebookNames = new ArrayList<String>();
+			repros = new ArrayList<String>();
+			reproIds = new HashMap<String, Integer>();
+			notebookRepro = new int[16];
+			snippetStart = new int[17];
+			high = new long[64];
+			low = new long[64];
+			loc = new int[64];
+			numNotebooks = 0;
+			numSnippets = 0;
+		}
+	}
+
+	/**
+	 * Wait for the grouping of a shard, and pass on its failure, if any.
+	 */
+	private static void await(Future<Void> result) {
+		try {
+			result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while grouping snippets", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			} else if (cause instanceof Error) {
+				throw (Error)cause;
+			} else {
+				throw new IllegalStateException("Grouping of snippets failed: " + cause, cause);
+			}
+		}
+	}
+
+	/**
+	 * Split the snippets into shards by the first bits of their hashes. The
+	 * snippets of each shard are kept in the order in which they were added.
+	 * @param numShards Requested number of shards
+	 * @return The shards, ready to be grouped
+	 */
+	private Shard[] partition(long[] high, long[] low, int[] loc, int[] snippetNotebook, int numShards) {
+		int shardBits = 0;
+		while ((1 << shardBits) < numShards && shardBits < 16) {
+			shardBits++;
+		}
+		int[] shardStart = new int[(1 << shardBits) + 1];
+		for (long h: high) {
+			shardStart[shardOf(h, shardBits) + 1]++;
+		}
+		for (int i=1; i<shardStart.length; i++) {
+			shardStart[i] += shardStart[i-1];
+		}
+		int[] next = Arrays.copyOf(shardStart, shardStart.length-1);
+		int[] snippets = new int[high.length];
+		for (int s=0; s<high.length; s++) {
+			snippets[next[shardOf(high[s], shardBits)]++] = s;
+		}
+		Shard[] shards = new Shard[shardStart.length-1];
+		for (int i=0; i<shards.length; i++) {
+			shards[i] = new Shard(snippets, shardStart[i], shardStart[i+1], high, low, loc, snippetNotebook);
+		}
+		return shards;
+	}
+
+	private static int shardOf(long high, int shardBits) {
+		return 0 == shardBits ? 0 : (int)(high >>> (64 - shardBits));
+	}
+
+	/**
+	 * Concatenate the groups of all shards and translate the group ids
+	 * stored by each shard to global ids.
+	 */
+	private void merge(Shard[] shards) {
+		numGroups = 0;
+		for (Shard shard: shards) {
+			numGroups += shard.numGroups;
+		}
+		groupHigh = new long[numGroups];
+		groupLow = new long[numGroups];
+		groupLoc = new int[numGroups];
+		memberStart = new int[numGroups+1];
+		int offset = 0;
+		for (Shard shard: shards) {
+			System.arraycopy(shard.groupHigh, 0, groupHigh, offset, shard.numGroups);
+			System.arraycopy(shard.groupLow, 0, groupLow, offset, shard.numGroups);
+			System.arraycopy(shard.groupLoc, 0, groupLoc, offset, shard.numGroups);
+			for (int g=0; g<shard.numGroups; g++) {
+				memberStart[offset + g] = shard.start + shard.memberStart[g];
+			}
+			for (int i=shard.start; i<shard.end; i++) {
+				snippetGroup[shard.snippets[i]] += offset;
+			}
+			offset += shard.numGroups;
+		}
+		memberStart[numGroups] = snippetGroup.length;
+	}
+
+	/**
+	 * The snippets whose hashes start with the same bits. A shard groups its
+	 * snippets, stores the (local) group id of each snippet in snippetGroup
+	 * and its members in the part of memberNotebook and memberCell that
+	 * corresponds to its range of snippets.
+	 */
+	private class Shard implements Callable<Void> {
+		final int[] snippets;
+		final int start, end;
+		private final long[] high, low;
+		private final int[] loc, snippetNotebook;
+		int numGroups = 0;
+		long[] groupHigh, groupLow;
+		int[] groupLoc, memberStart;
+
+		/**
+		 * @param snippets Snippet indices, sorted by shard
+		 * @param start Position in snippets of the first snippet of the shard
+		 * @param end Position in snippets after the last snippet of the shard
+		 */
+		Shard(int[] snippets, int start, int end, long[] high, long[] low, int[] loc, int[] snippetNotebook) {
+			this.snippets = snippets;
+			this.start = start;
+			this.end = end;
+			this.high = high;
+			this.low = low;
+			this.loc = loc;
+			this.snippetNotebook = snippetNotebook;
+		}
+
+		@Override
+		public Void call() {
+			group();
+			collectMembers();
+			computeLoc();
+			return null;
+		}
+
+		/**
+		 * Assign a group id to each snippet, so that snippets with the same
+		 * hash get the same id. Ids are assigned in order of first occurrence.
+		 */
+		private void group() {
+			int size = end - start;
+			groupHigh = new long[Math.max(16, size/4)];
+			groupLow = new long[groupHigh.length];
+			int[] table = new int[tableSize(size)];	// Group id + 1, 0 if empty
+			int mask = table.length - 1;
+			for (int i=start; i<end; i++) {
+				int s = snippets[i];
+				int slot = mix(high[s], low[s]) & mask;
+				int group = -1;
+				while (0 != table[slot]) {
+					int candidate = table[slot] - 1;
+					if (groupHigh[candidate] == high[s] && groupLow[candidate] == low[s]) {
+						group = candidate;
+						break;
+					}
+					slot = (slot + 1) & mask;
+				}
+				if (-1 == group) {
+					group = addGroup(high[s], low[s]);
+					table[slot] = group + 1;
+				}
+				snippetGroup[s] = group;
+			}
+		}
+
+		private int addGroup(long high, long low) {
+			if (groupHigh.length == numGroups) {
+				groupHigh = Arrays.copyOf(groupHigh, 2*numGroups);
+				groupLow = Arrays.copyOf(groupLow, 2*numGroups);
+			}
+			groupHigh[numGroups] = high;
+			groupLow[numGroups] = low;
+			return numGroups++;
+		}
+
+		/**
+		 * Fill the shard's part of the member arrays (CSR style). memberStart
+		 * is relative to the start of the shard.
+		 */
+		private void collectMembers() {
+			memberStart = new int[numGroups+1];
+			for (int i=start; i<end; i++) {
+				memberStart[snippetGroup[snippets[i]] + 1]++;
+			}
+			for (int g=0; g<numGroups; g++) {
+				memberStart[g+1] += memberStart[g];
+			}
+			int[] next = Arrays.copyOf(memberStart, numGroups);
+			for (int i=start; i<end; i++) {
+				int s = snippets[i];
+				int position = start + next[snippetGroup[s]]++;
+				memberNotebook[position] = snippetNotebook[s];
+				memberCell[position] = s - snippetStart[snippetNotebook[s]];
+			}
+		}
+
+		/**
+		 * Set the line count of each group to the median of the line counts of
+		 * its members.
+		 */
+		private void computeLoc() {
+			groupLoc = new int[numGroups];
+			LocMessage message = new LocMessage();
+			int[] values = new int[0];
+			for (int g=0; g<numGroups; g++) {
+				int size = memberStart[g+1] - memberStart[g];
+				if (values.length < size) {
+					values = new int[size];
+				}
+				for (int m=0; m<size; m++) {
+					int member = start + memberStart[g] + m;
+					values[m] = loc[snippetStart[memberNotebook[member]] + memberCell[member]];
+				}
+				message.high = groupHigh[g];
+				message.low = groupLow[g];
+				groupLoc[g] = Utils.median(values, size, message);
+			}
+		}
+	}
+
+	/**
+	 * Message logged when the snippets of a group have different line
+	 * counts. The message is only created if it is logged.
+	 */
+	private static class LocMessage implements Supplier<String> {
+		long high, low;
+
+		@Override
+		public String get() {
+			return "Different line count for snippet " + new SnippetCode(0, high, low).getHash();
+		}
+	}
+
+	/**
+	 * @return A power of 2 that is at least twice as large as numEntries
+	 */
+	private static int tableSize(int numEntries) {
+		int size = 16;
+		while (size < 2*numEntries) {
+			size *= 2;
+		}
+		return size;
+	}
+
+	private static int mix(long high, long low) {
+		long hash = (high ^ low) * 0x9E3779B97F4A7C15L;
+		return (int)(hash >>> 32);
+	}
+
+	/**
+	 * @return Number of notebooks in the index
+	 */
+	public int numNotebooks() {
+		return notebookNames.length;
+	}
+
+	/**
+	 * @return Number of groups, that is, distinct snippet codes, in the index
+	 */
+	public int numGroups() {
+		return numGroups;
+	}
+
+	public String notebookName(int notebook) {
+		return notebookNames[notebook];
+	}
+
+	/**
+	 * @return Id of the repro that notebook resides in
+	 */
+	public int repro(int notebook) {
+		return notebookRepro[notebook];
+	}
+
+	/**
+	 * @return Number of repros in the index
+	 */
+	public int numRepros() {
+		return reproNames.length;
+	}
+
+	/**
+	 * @return Name of the repro with id repro
+	 */
+	public String reproName(int repro) {
+		return reproNames[repro];
+	}
+
+	/**
+	 * @return Number of snippets in notebook
+	 */
+	public int numSnippets(int notebook) {
+		return snippetStart[notebook+1] - snippetStart[notebook];
+	}
+
+	/**
+	 * @return Id of the group that snippet number cell in notebook belongs to
+	 */
+	public int group(int notebook, int cell) {
+		return snippetGroup[snippetStart[notebook] + cell];
+	}
+
+	/**
+	 * @return Number of snippets in group
+	 */
+	public int groupSize(int group) {
+		return memberStart[group+1] - memberStart[group];
+	}
+
+	/**
+	 * @return Notebook id of member number member of group
+	 */
+	public int memberNotebook(int group, int member) {
+		return memberNotebook[memberStart[group] + member];
+	}
+
+	/**
+	 * @return Cell index of member number member of group
+	 */
+	public int memberCell(int group, int member) {
+		return memberCell[memberStart[group] + member];
+	}
+
+	/**
+	 * @return Median line count of the snippets in group
+	 */
+	public int loc(int group) {
+		return groupLoc[group];
+	}
+
+	/**
+	 * @return The first 8 bytes of the hash of the code of group
+	 */
+	long high(int group) {
+		return groupHigh[group];
+	}
+
+	/**
+	 * @return The last 8 bytes of the hash of the code of group
+	 */
+	long low(int group) {
+		return groupLow[group];
+	}
+
+	/**
+	 * @return The hash of the code of group, in hexadecimal form
+	 */
+	public String hash(int group) {
+		return code(group).getHash();
+	}
+
+	/**
+	 * Append the hash of the code of group, in hexadecimal form, to builder.
+	 * @return builder
+	 */
+	public StringBuilder appendHash(int group, StringBuilder builder) {
+		return code(group).appendHash(builder);
+	}
+
+	/**
+	 * @return True iff the code of group is empty
+	 */
+	public boolean isEmpty(int group) {
+		return SnippetCode.isEmpty(groupLoc[group], groupHigh[group], groupLow[group]);
+	}
+
+	/**
+	 * @return True iff group contains more than one snippet
+	 */
+	public boolean isClone(int group) {
+		return 2 <= groupSize(group);
+	}
+
+	/**
+	 * @return The code of group, with the median line count
+	 */
+	public SnippetCode code(int group) {
+		return new SnippetCode(groupLoc[group], groupHigh[group], groupLow[group]);
+	}
+
+	/**
+	 * @return A map from snippet code to the snippets that contain it
+	 */
+	public Map<SnippetCode, List<Snippet>> toMap() {
+		Map<SnippetCode, List<Snippet>> result = new HashMap<SnippetCode, List<Snippet>>(2*numGroups);
+		for (int g=0; g<numGroups; g++) {
+			List<Snippet> snippets = new ArrayList<Snippet>(groupSize(g));
+			for (int m=0; m<groupSize(g); m++) {
+				int notebook = memberNotebook(g, m);
+				snippets.add(new Snippet(notebookNames[notebook],
+						reproNames[notebookRepro[notebook]], memberCell(g, m)));
+			}
+			result.put(code(g), snippets);
+		}
+		return result;
+	}
+}
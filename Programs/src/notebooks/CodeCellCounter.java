@@ -6,7 +6,7 @@ class CodeCellCounter extends Worker<Integer> {
 	}
 
 	@Override
-	public Integer call() throws Exception {
+	protected Integer analyze() throws Exception {
 		return notebook.numCodeCells();
 	}
 }
\ No newline at end of file
@@ -1,13 +1,14 @@
 package notebooks;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class CodeState {
 	private String code;
 	private String[] stringDelimiters;
-	private List<List<Integer>> stringDelimiterPositions;
-	private boolean[] inString;
+	// Index of the delimiter starting at each position in code, or -1
+	private int[] delimiterStarts;
+	// True for each position in code that is part of a delimiter
+	private boolean[] inDelimiter;
+	// Index of the delimiter of the string we are inside, or -1
+	private int inString;
 	private boolean escaped;
 	private boolean inComment;
 	private int index;
@@ -19,13 +20,10 @@ public class CodeState {
 	public CodeState(String code, int startIndex, String[] stringDelimiters) {
 		this.code = code;
 		this.stringDelimiters = stringDelimiters;
-		stringDelimiterPositions = delimiterPositions();
+		findDelimiters();
 		
 		escaped = false;
-		inString = new boolean[stringDelimiters.length];
-		for (int i=0; i<stringDelimiters.length; i++) {
-			inString[i] = false;
-		}
+		inString = -1;
 		index = startIndex;
 	}
 	
@@ -33,15 +31,7 @@ public class CodeState {
 	 * @return True if the current character is a string delimiter, false otherwise
 	 */
 	public boolean atDelimiter() {
-		for (int i=0; i<stringDelimiterPositions.size(); i++) {
-			int delimiterLength = stringDelimiters[i].length();
-			for (int position: stringDelimiterPositions.get(i)) {
-				if (index >= position && index < position+delimiterLength) {
-					return true;
-				}
-			}
-		}
-		return false;
+		return index < inDelimiter.length && inDelimiter[index];
 	}
 	
 	/**
@@ -69,7 +59,7 @@ public class CodeState {
 	 * @return True if we are inside a string, false otherwise
 	 */
 	public boolean inString() {
-		return anyTrue(inString);
+		return -1 != inString;
 	}
 	
 	/**
@@ -77,10 +67,9 @@ public class CodeState {
 	 */
 	public void step() {
 		// Keep track of whether we are inside a string
-		for (int i=0; i<stringDelimiters.length; i++) {
-			if (!otherTrue(inString, i) && stringDelimiterPositions.get(i).contains(index) && !escaped && !inComment) {
-				inString[i] = !inString[i];
-			}
+		int delimiter = delimiterStarts[index];
+		if (-1 != delimiter && (-1 == inString || delimiter == inString) && !escaped && !inComment) {
+			inString = delimiter == inString ? -1 : delimiter;
 		}
 		
 		if (!inString() && !escaped && '#' == code.charAt(index)) {
@@ -115,68 +104,24 @@ public class CodeState {
 	}
 	
 	/**
-	 * @param bools Array of booleans
-	 * @return true if any of the values in the argument is true
-	 */
-	private static boolean anyTrue(boolean[] bools) {
-		for (boolean inside: bools) {
-			if (inside) {
-				return true;
-			}
-		}
-		return false;
-	}
-	
-	/**
-	 * @param str String to check
-	 * @param pos An index in the string
-	 * @param seq Char sequence to look for
-	 * @return true if the specified char sequence can be found at position pos in str
-	 */
-	private static boolean charSequenceFound(String str, int pos, String seq) {
-		for (int i=0; i<seq.length(); i++) {
-			if (pos+i >= str.length() || str.charAt(pos+i) != seq.charAt(i)) {
-				return false;
-			}
-		}
-		return true;
-	}
-	
-	/**
-	 * Find all positions of all delimiters. Return as a list containing one
-	 * list per delimiter. These lists contain all indices on which the actual
-	 * delimiter is located.
-	 * @return
+	 * Find the positions of all delimiters. At each position, the first
+	 * delimiter found there is stored in delimiterStarts, and all characters
+	 * it covers are marked in inDelimiter.
 	 */
-	private List<List<Integer>> delimiterPositions() {
-		int numDelimiters = stringDelimiters.length;
-		List<List<Integer>> result = new ArrayList<List<Integer>>(numDelimiters);
-		for (int i=0; i<numDelimiters; i++) {
-			result.add(new ArrayList<Integer>());
-		}
+	private void findDelimiters() {
+		delimiterStarts = new int[code.length()];
+		inDelimiter = new boolean[code.length()];
+		int delimiterEnd = 0;
 		for (int i=0; i<code.length(); i++) {
-			for (int d=0; d<numDelimiters; d++) {
-				if (charSequenceFound(code, i, stringDelimiters[d])) {
-					result.get(d).add(i);
+			delimiterStarts[i] = -1;
+			for (int d=0; d<stringDelimiters.length; d++) {
+				if (code.startsWith(stringDelimiters[d], i)) {
+					delimiterStarts[i] = d;
+					delimiterEnd = Math.max(delimiterEnd, i + stringDelimiters[d].length());
 					break;
 				}
 			}
+			inDelimiter[i] = i < delimiterEnd;
 		}
-		return result;
 	}
-	
-	/**
-	 * @param bools Array of booleans
-	 * @param current Value to skip
-	 * @return true if any of the values in bool, except bool[current], is true
-	 */
-	private static boolean otherTrue(boolean[] bool, int current) {
-		for (int i=0; i<bool.length; i++) {
-			if (bool[i] && i != current) {
-				return true;
-			}
-		}
-		return false;
-	}
-
 }
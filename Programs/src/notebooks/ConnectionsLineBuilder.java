@@ -1,10 +1,5 @@
 package notebooks;
 
-import java.util.List;
-import java.util.Locale;
-import java.util.Map;
-import java.util.Set;
-import java.util.HashSet;
 import java.util.concurrent.Callable;
 
 /**
@@ -12,29 +7,38 @@ import java.util.concurrent.Callable;
  * certain notebook.
  */
 public class ConnectionsLineBuilder implements Callable<String> {
-	private Notebook notebook;
-	private Map <Notebook, SnippetCode[]> file2hashes;
-	private Map<SnippetCode, List<Snippet>> hash2files;
+	private CloneIndex clones;
+	private int notebook;
 	private boolean heartBeat;
+	private boolean approximateRepros;
 	
 	/**
-	 * @param notebook Notebook to print connections for
-	 * @param file2hashes Mapping from notebook to snippets
-	 * @param hash2files Mapping from snippets to position in notebooks
+	 * @param clones Index of all snippets
+	 * @param notebook Id of notebook to print connections for
 	 * @param heartBeat Tells whether a heart beat text should be printed for this notebook
 	 */
-	public ConnectionsLineBuilder(Notebook notebook, Map<Notebook, SnippetCode[]> file2hashes,
-			Map<SnippetCode, List<Snippet>> hash2files, boolean heartBeat) {
+	public ConnectionsLineBuilder(CloneIndex clones, int notebook, boolean heartBeat) {
+		this(clones, notebook, heartBeat, false);
+	}
+	
+	/**
+	 * @param clones Index of all snippets
+	 * @param notebook Id of notebook to print connections for
+	 * @param heartBeat Tells whether a heart beat text should be printed for this notebook
+	 * @param approximateRepros True iff the other repros should be counted approximately, see HyperLogLog
+	 */
+	public ConnectionsLineBuilder(CloneIndex clones, int notebook, boolean heartBeat, boolean approximateRepros) {
+		this.clones = clones;
 		this.notebook = notebook;
-		this.file2hashes = file2hashes;
-		this.hash2files = hash2files;
 		this.heartBeat = heartBeat;
+		this.approximateRepros = approximateRepros;
 	}
 
 	@Override
 	public String call() throws Exception {
+		String name = clones.notebookName(notebook);
 		if (heartBeat) {
-			Utils.heartBeat("Analyzing connections of " + notebook.getName());
+			Utils.heartBeat("Analyzing connections of " + name);
 		}
 		int connections = 0;
 		int nonEmptyConnections = 0;	// Connections excluding empty snippets
@@ -42,61 +46,61 @@ public class ConnectionsLineBuilder implements Callable<String> {
 		int nonEmtpyIntraReproConnections = 0;
 		int interReproConnections = 0;
 		int nonEmptyInterReproConnections = 0;
-		String currentRepro = notebook.getRepro();
-		SnippetCode[] snippets = file2hashes.get(notebook);
-		Set<String> otherRepros = new HashSet<String>();
-		Set<String> otherNonEmptyRepros = new HashSet<String>();	// Other repros with non-empty friends
+		int currentRepro = clones.repro(notebook);
+		int numSnippets = clones.numSnippets(notebook);
+		DistinctCounter otherRepros = DistinctCounter.create(approximateRepros);
+		DistinctCounter otherNonEmptyRepros = DistinctCounter.create(approximateRepros);	// Other repros with non-empty friends
 		int numNonEmptySnippets = 0;
-		for (SnippetCode snippet: snippets) {
-			// Locations where the current snippet can be found
-			List<Snippet> locations = hash2files.get(snippet);
-			int connectionsForSnippet = connections(locations);
-			int intraReproConnectionsForSnippet = intraReproConnections(locations, currentRepro); 
+		for (int cell=0; cell<numSnippets; cell++) {
+			// Group containing the locations where the current snippet can be found
+			int group = clones.group(notebook, cell);
+			int connectionsForSnippet = connections(group);
+			int intraReproConnectionsForSnippet = intraReproConnections(group, currentRepro); 
 			connections += connectionsForSnippet;
 			intraReproConnections += intraReproConnectionsForSnippet;
-			interReproConnections += interReproConnections(locations, currentRepro, otherRepros);
-			if (0 < snippet.getLOC()) {	// Non-empty snippet
+			interReproConnections += interReproConnections(group, currentRepro, otherRepros);
+			if (0 < clones.loc(group)) {	// Non-empty snippet
 				numNonEmptySnippets++;
 				nonEmptyConnections += connectionsForSnippet;
 				nonEmtpyIntraReproConnections += intraReproConnectionsForSnippet;
-				nonEmptyInterReproConnections += interReproConnections(locations, currentRepro, otherNonEmptyRepros);
+				nonEmptyInterReproConnections += interReproConnections(group, currentRepro, otherNonEmptyRepros);
 			}
 		}
-		int numSnippets = snippets.length;
 		double normalizedConnections = normalized(connections, numSnippets);
 		double normalizedNonEmptyConnections = normalized(nonEmptyConnections, numNonEmptySnippets);
 		double meanInterReproConnections = normalized(interReproConnections, otherRepros.size());
 		double meanNonEmptyInterReproConnections = normalized(nonEmptyInterReproConnections, otherNonEmptyRepros.size());
 		
-		return notebook.getName() + ", " + connections + ", "
-				+ String.format(Locale.US, "%.4f", normalizedConnections) + ", "
-				+ nonEmptyConnections + ", "
-				+ String.format(Locale.US, "%.4f", normalizedNonEmptyConnections) + ", "
-				+ intraReproConnections + ", " + nonEmtpyIntraReproConnections + ", "
-				+ String.format(Locale.US, "%.4f", meanInterReproConnections) + ", "
-				+ String.format(Locale.US, "%.4f", meanNonEmptyInterReproConnections) + "\n";
+		StringBuilder line = new StringBuilder(name.length() + 80);
+		line.append(name).append(", ").append(connections).append(", ");
+		CsvWriter.appendDecimal(line, normalizedConnections, 4).append(", ")
+			.append(nonEmptyConnections).append(", ");
+		CsvWriter.appendDecimal(line, normalizedNonEmptyConnections, 4).append(", ")
+			.append(intraReproConnections).append(", ").append(nonEmtpyIntraReproConnections).append(", ");
+		CsvWriter.appendDecimal(line, meanInterReproConnections, 4).append(", ");
+		CsvWriter.appendDecimal(line, meanNonEmptyInterReproConnections, 4).append('\n');
+		return line.toString();
 	}
 	
 	/**
-	 * Count the number of connections from a snippet in locations to other
-	 * snippets in locations.
-	 * @param locations Locations where the current snippet can be found
+	 * Count the number of connections from a snippet in group to other
+	 * snippets in group.
+	 * @param group Group containing the locations where the current snippet can be found
 	 */
-	private static int connections(List<Snippet> locations) {
-		return locations.size() - 1;	// -1 for current notebook
+	private int connections(int group) {
+		return clones.groupSize(group) - 1;	// -1 for current notebook
 	}
 	
 	/**
-	 * Count the number of connection from a snippet in locations to other
-	 * snippets in locations that reside in the same repro.
-	 * @param location Locations where the current snippet can be found
-	 * @param currentRepro Name of the repro where the snippet for which we count connections reside
+	 * Count the number of connection from a snippet in group to other
+	 * snippets in group that reside in the same repro.
+	 * @param group Group containing the locations where the current snippet can be found
+	 * @param currentRepro Id of the repro where the snippet for which we count connections reside
 	 */
-	private int intraReproConnections(List<Snippet> locations, String currentRepro) {
+	private int intraReproConnections(int group, int currentRepro) {
 		int connections = 0;
-		for (Snippet friend: locations) {
-			String friendRepro = friend.getRepro();
-			if (friendRepro.equals(currentRepro)) {
+		for (int member=0; member<clones.groupSize(group); member++) {
+			if (clones.repro(clones.memberNotebook(group, member)) == currentRepro) {
 				connections++;
 			}
 		}
@@ -105,19 +109,19 @@ public class ConnectionsLineBuilder implements Callable<String> {
 	}
 	
 	/**
-	 * Count the number of connections from a snippet in locations to other
-	 * snippets in locations that reside in another repro. Make sure that the
-	 * name of each repro where any of the locations reside (except the current
+	 * Count the number of connections from a snippet in group to other
+	 * snippets in group that reside in another repro. Make sure that the
+	 * id of each repro where any of the members reside (except the current
 	 * one) are stored in the set otherRepros.
-	 * @param location Locations where the current snippet can be found
-	 * @param currentRepro Name of the repro where the current snippet reside
+	 * @param group Group containing the locations where the current snippet can be found
+	 * @param currentRepro Id of the repro where the current snippet reside
 	 * @param otherRepros Set that will contain all other repros that the snippet is connected to
 	 */
-	private int interReproConnections(List<Snippet> locations, String currentRepro, Set<String> otherRepros) {
+	private int interReproConnections(int group, int currentRepro, DistinctCounter otherRepros) {
 		int connections = 0;
-		for (Snippet friend: locations) {
-			String friendRepro = friend.getRepro();
-			if (!friendRepro.equals(currentRepro)) {
+		for (int member=0; member<clones.groupSize(group); member++) {
+			int friendRepro = clones.repro(clones.memberNotebook(group, member));
+			if (friendRepro != currentRepro) {
 				connections++;
 				otherRepros.add(friendRepro);
 			}
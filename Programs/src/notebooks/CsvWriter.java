@@ -0,0 +1,369 @@
+package notebooks;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writer for the CSV output files. Text is collected in a large character
+ * buffer and encoded, in the same charset as a FileWriter uses, into large
+ * direct byte buffers that are written to the file channel when full.
+ * Optionally, the full byte buffers are written by a dedicated thread, so that
+ * the thread producing the rows never waits for the disk unless all buffers
+ * are full.
+ *
+ * Rows can be built in a StringBuilder owned by the writer, see newRow and
+ * endRow, and decimal numbers can be appended to it without creating any
+ * strings, see appendDecimal.
+ */
+public class CsvWriter extends Writer {
+	private static final int CHAR_BUFFER_SIZE = 1 << 16;
+	private static final int BYTE_BUFFER_SIZE = 1 << 20;
+	private static final int NUM_SPARE_BUFFERS = 2;
+	private static final long[] POWERS_OF_10 = {1L, 10L, 100L, 1000L, 10000L,
+			100000L, 1000000L, 10000000L, 100000000L, 1000000000L};
+	private static final double MAX_FAST_SCALED = 1e9;
+	private static final double TIE_MARGIN = 1e-4;
+
+	private final FileChannel channel;
+	private final CharsetEncoder encoder;
+	private final char[] chars = new char[CHAR_BUFFER_SIZE];
+	private final CharBuffer charBuffer = CharBuffer.wrap(chars);
+	private int numChars = 0;
+	private ByteBuffer bytes = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+	private final Flusher flusher;
+	private final StringBuilder row = new StringBuilder();
+	private boolean closed = false;
+
+	/**
+	 * Create a writer that writes to the file fileName on the calling thread.
+	 * @param fileName Name of the file to write to. The file is overwritten if it exists.
+	 * @throws IOException If the file cannot be opened
+	 */
+	public CsvWriter(String fileName) throws IOException {
+		this(fileName, false);
+	}
+
+	/**
+	 * @param fileName Name of the file to write to. The file is overwritten if it exists.
+	 * @param backgroundFlush True iff full buffers should be written to the file by a dedicated thread
+	 * @throws IOException If the file cannot be opened
+	 */
+	public CsvWriter(String fileName, boolean backgroundFlush) throws IOException {
+		channel = new FileOutputStream(fileName).getChannel();
+		encoder = Charset.defaultCharset().newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		if (backgroundFlush) {
+			flusher = new Flusher(fileName);
+			flusher.start();
+		} else {
+			flusher = null;
+		}
+	}
+
+	/**
+	 * @return The row builder of this writer, emptied
+	 */
+	public StringBuilder newRow() {
+		row.setLength(0);
+		return row;
+	}
+
+	/**
+	 * Write the contents of the row builder, followed by a line break.
+	 */
+	public void endRow() throws IOException {
+		row.append('\n');
+		append(row);
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		if (chars.length == numChars) {
+			encode(false);
+		}
+		chars[numChars++] = (char)c;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		while (0 < len) {
+			int n = reserve(len);
+			System.arraycopy(cbuf, off, chars, numChars, n);
+			numChars += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		while (0 < len) {
+			int n = reserve(len);
+			str.getChars(off, off + n, chars, numChars);
+			numChars += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Write the characters of csq without creating a string from it.
+	 */
+	@Override
+	public CsvWriter append(CharSequence csq) throws IOException {
+		if (null == csq) {
+			write("null");
+		} else if (csq instanceof String) {
+			write((String)csq);
+		} else if (csq instanceof StringBuilder) {
+			StringBuilder builder = (StringBuilder)csq;
+			int off = 0, len = builder.length();
+			while (0 < len) {
+				int n = reserve(len);
+				builder.getChars(off, off + n, chars, numChars);
+				numChars += n;
+				off += n;
+				len -= n;
+			}
+		} else {
+			for (int i=0; i<csq.length(); i++) {
+				write(csq.charAt(i));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Make room for characters in the character buffer.
+	 * @param len Number of characters to write
+	 * @return Number of characters that can be put in the buffer now, at most len
+	 */
+	private int reserve(int len) throws IOException {
+		if (chars.length == numChars) {
+			encode(false);
+		}
+		return Math.min(len, chars.length - numChars);
+	}
+
+	/**
+	 * Encode the characters in the character buffer into the byte buffer,
+	 * writing the byte buffer whenever it is full. A high surrogate at the
+	 * end of the buffer is kept until its low surrogate has been written,
+	 * unless endOfInput is true.
+	 */
+	private void encode(boolean endOfInput) throws IOException {
+		checkOpen();
+		charBuffer.limit(numChars).position(0);
+		CoderResult result = encoder.encode(charBuffer, bytes, endOfInput);
+		while (result.isOverflow()) {
+			writeBytes();
+			result = encoder.encode(charBuffer, bytes, endOfInput);
+		}
+		if (endOfInput) {
+			while (encoder.flush(bytes).isOverflow()) {
+				writeBytes();
+			}
+		}
+		int remaining = charBuffer.remaining();
+		System.arraycopy(chars, charBuffer.position(), chars, 0, remaining);
+		numChars = remaining;
+	}
+
+	/**
+	 * Write the contents of the byte buffer to the file, or hand it over to
+	 * the flush thread.
+	 */
+	private void writeBytes() throws IOException {
+		bytes.flip();
+		if (null == flusher) {
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+			bytes.clear();
+		} else {
+			bytes = flusher.exchange(bytes);
+		}
+	}
+
+	/**
+	 * Write all text written so far to the file.
+	 */
+	@Override
+	public void flush() throws IOException {
+		encode(false);
+		writeBytes();
+		if (null != flusher) {
+			flusher.drain();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			encode(true);
+			writeBytes();
+			if (null != flusher) {
+				flusher.finish();
+			}
+		} finally {
+			closed = true;
+			channel.close();
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Writer closed");
+		}
+	}
+
+	/**
+	 * Append value, rounded half up to the given number of decimals, to
+	 * builder. The result is identical to
+	 * String.format(Locale.US, "%.<decimals>f", value). For non-negative
+	 * values less than 10^(9-decimals) that are not close to a tie, the digits
+	 * are computed directly, without creating any objects. Other values are
+	 * formatted by String.format.
+	 * @param builder Builder to append to
+	 * @param value Value to append
+	 * @param decimals Number of decimals, between 0 and 9
+	 * @return builder
+	 */
+	public static StringBuilder appendDecimal(StringBuilder builder, double value, int decimals) {
+		if (0 <= decimals && decimals < POWERS_OF_10.length
+				&& 0 <= value && 0 == Double.doubleToRawLongBits(value) >>> 63) {
+			long scale = POWERS_OF_10[decimals];
+			double scaled = value * scale;
+			if (scaled < MAX_FAST_SCALED) {
+				long truncated = (long)scaled;
+				double fraction = scaled - truncated;
+				if (TIE_MARGIN < Math.abs(fraction - 0.5)) {
+					long rounded = 0.5 < fraction ? truncated + 1 : truncated;
+					builder.append(rounded / scale);
+					if (0 < decimals) {
+						builder.append('.');
+						long decimalPart = rounded % scale;
+						for (long digit=scale/10; 0 < digit; digit/=10) {
+							builder.append((char)('0' + decimalPart/digit%10));
+						}
+					}
+					return builder;
+				}
+			}
+		}
+		return builder.append(String.format(Locale.US, "%." + decimals + "f", value));
+	}
+
+	/**
+	 * Thread that writes full byte buffers to the file. The buffers are
+	 * passed back and forth through two queues, so the number of buffers in
+	 * use is bounded.
+	 */
+	private class Flusher extends Thread {
+		private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(NUM_SPARE_BUFFERS + 1);
+		private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(NUM_SPARE_BUFFERS + 1);
+		private final ByteBuffer endMarker = ByteBuffer.allocate(0);
+		private volatile IOException failure = null;
+
+		Flusher(String fileName) {
+			super("csv-writer " + fileName);
+			setDaemon(true);
+			for (int i=0; i<NUM_SPARE_BUFFERS; i++) {
+				free.add(ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE));
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				ByteBuffer buffer = full.take();
+				while (endMarker != buffer) {
+					if (null == failure) {
+						try {
+							while (buffer.hasRemaining()) {
+								channel.write(buffer);
+							}
+						} catch (IOException e) {
+							failure = e;
+						}
+					}
+					buffer.clear();
+					free.put(buffer);
+					buffer = full.take();
+				}
+			} catch (InterruptedException e) {
+				failure = new IOException("Interrupted while writing", e);
+			}
+		}
+
+		/**
+		 * Hand over a full buffer to be written.
+		 * @return An empty buffer
+		 */
+		ByteBuffer exchange(ByteBuffer buffer) throws IOException {
+			checkFailure();
+			try {
+				full.put(buffer);
+				return free.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for writer thread", e);
+			}
+		}
+
+		/**
+		 * Wait until all buffers handed over have been written.
+		 */
+		void drain() throws IOException {
+			List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(NUM_SPARE_BUFFERS);
+			try {
+				while (buffers.size() < NUM_SPARE_BUFFERS) {
+					buffers.add(free.take());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for writer thread", e);
+			} finally {
+				free.addAll(buffers);
+			}
+			checkFailure();
+		}
+
+		/**
+		 * Write the remaining buffers and stop the thread.
+		 */
+		void finish() throws IOException {
+			try {
+				full.put(endMarker);
+				join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for writer thread", e);
+			}
+			checkFailure();
+		}
+
+		private void checkFailure() throws IOException {
+			if (null != failure) {
+				throw new IOException("Could not write CSV file: " + failure.getMessage(), failure);
+			}
+		}
+	}
+}
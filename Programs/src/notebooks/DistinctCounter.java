@@ -0,0 +1,29 @@
+package notebooks;
+
+/**
+ * Counter of the number of distinct ints added to it, used to count the
+ * repros that a notebook is connected to.
+ */
+abstract class DistinctCounter {
+	/**
+	 * Add value to the values counted.
+	 */
+	abstract void add(int value);
+
+	/**
+	 * @return (Estimated) number of distinct values added
+	 */
+	abstract int size();
+
+	/**
+	 * @param approximate True iff the count may be approximate, to save memory
+	 * @return A new, empty counter, a HyperLogLog if approximate is true and an exact ReproSet otherwise
+	 */
+	static DistinctCounter create(boolean approximate) {
+		if (approximate) {
+			return new HyperLogLog();
+		} else {
+			return new ReproSet();
+		}
+	}
+}
@@ -2,23 +2,46 @@ package notebooks;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CountDownLatch;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Future;
 
 public abstract class Dumper {
-	private List<String> sources = new ArrayList<String>();
-	private List<String> targets = new ArrayList<String>();
+	private ThreadExecutor.TaskStream<Void> dumps;
 
 	/**
 	 * Dump all snippets in the Python notebook(s) stored in src to a separate
 	 * file in target. Every notebook in src/somePath is stored in
-	 * target/somePath. target/somePath is created if needed.
+	 * target/somePath. target/somePath is created if needed. src may also be
+	 * a zip or tar archive, whose notebooks are dumped as if it were a
+	 * directory. The notebooks
+	 * are dumped while the directories are traversed (in parallel, see
+	 * NotebookFinder). In I/O mode, the
+	 * notebooks are read and dumped by the I/O executor, and parsed by the
+	 * CPU executor.
 	 */
 	public void dumpAll(String src, String target) {
-		identifyNotebooks(src, target);
-		dumpNotebooks();
+		if (ThreadExecutor.isIoMode()) {
+			dumps = ThreadExecutor.getIoInstance().stream();
+		} else {
+			dumps = ThreadExecutor.getInstance().stream();
+		}
+		NotebookFinder notebooks = NotebookFinder.walk(src);
+		try {
+			dumpNotebooks(notebooks, Paths.get(src), target);
+			while (null != dumps.take()) {
+				// Wait for all dumps to finish
+			}
+		} catch (InterruptedException e) {
+			System.err.println("Thread was interrupted while dumping notebooks: " + e);
+			e.printStackTrace();
+			notebooks.cancel();
+			dumps.cancel();
+			Thread.currentThread().interrupt();
+		} finally {
+			NotebookArchive.closeAll();
+		}
 	}
 	
 	/**
@@ -28,44 +51,34 @@ public abstract class Dumper {
 	 */
 	protected abstract void dump(Notebook src, String target) throws IOException;
 	
-	private void identifyNotebooks(String src, String target) {
-		File srcFile = new File(src);
-		if (!srcFile.isDirectory()) {
-			if (srcFile.getName().endsWith(".ipynb")) {
-				sources.add(src);
-				targets.add(target);
+	private void dumpNotebooks(NotebookFinder notebooks, Path src, String target) throws InterruptedException {
+		boolean srcIsDirectory = Files.isDirectory(src);
+		boolean srcIsArchive = !srcIsDirectory && NotebookArchive.isArchive(src.toString());
+		while (notebooks.hasNext()) {
+			String path = notebooks.next();
+			String targetDirName = target;
+			if (srcIsDirectory) {
+				Path relativeDir = src.relativize(Paths.get(path).getParent());
+				targetDirName = Paths.get(target, src.getFileName().toString()).resolve(relativeDir).toString();
+			} else if (srcIsArchive) {
+				String entry = path.substring(NotebookArchive.separatorIndex(path) + NotebookArchive.SEPARATOR.length());
+				Path targetDir = Paths.get(target, src.getFileName().toString());
+				Path entryDir = Paths.get(entry).getParent();
+				if (null != entryDir) {
+					targetDir = targetDir.resolve(entryDir);
+				}
+				targetDirName = targetDir.toString();
 			}
-		} else {
-			Utils.heartBeat("Traversing " + srcFile.getPath());
-			// This is a directory. Traverse.
-			String[] subFiles = srcFile.list();
-			String targetDirName = target + File.separatorChar + srcFile.getName();
-			for (String subFile: subFiles) {
-				identifyNotebooks(src + File.separatorChar + subFile, targetDirName);
+			createDirectoryIfMissing(targetDirName);
+			dumps.submit(new NotebookDumper(path, targetDirName, this));
+			// Forget about the dumps that are done
+			Future<Void> done = dumps.poll();
+			while (null != done) {
+				done = dumps.poll();
 			}
 		}
 	}
 	
-	private void dumpNotebooks() {
-		int numNotebooks = sources.size();
-		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numNotebooks);
-		CountDownLatch counter = new CountDownLatch(numNotebooks);
-		for (int i=0; i<numNotebooks; i++) {
-			String source = sources.get(i);
-			String target = targets.get(i);
-			createDirectoryIfMissing(target);
-			tasks.add(new NotebookDumper(source, target, this, counter));
-		}
-		ThreadExecutor.getInstance().invokeAll(tasks);
-		
-		try {
-			counter.await();
-		} catch (InterruptedException e) {
-			System.err.println("Thread was interrupted while dumping a notebook: " + e);
-			e.printStackTrace();
-		}
-	}
-
 	/**
 	 * Create a directory if it doesn't already exist. Also create its parent
 	 * directories if needed.
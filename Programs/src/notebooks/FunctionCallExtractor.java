@@ -0,0 +1,231 @@
+package notebooks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the calls to a list of functions from the code lines of a
+ * notebook, given the modules imported in it (see Notebook.functionCalls).
+ *
+ * Which modules each function is reachable through is resolved once, when
+ * the extractor is created. Functions that are not reachable through any of
+ * the modules are not considered at all. Each line is then scanned once for
+ * call sites of the form "qualifier.function(" and "function(". The calls of
+ * a function are taken from the call sites with its name, and checked
+ * against the qualifiers of the modules it is reachable through.
+ *
+ * The calls are registered in, and popped from, the call lists of the
+ * modules, in the same order as PythonModule.registerCalls followed by
+ * popParentsCalls or popFunctionCalls would do it. Hence, the result is the
+ * same. As in ModuleUsageScanner, AllModules, unusual names and lines with
+ * characters outside the BMP are handed over to registerCalls.
+ */
+class FunctionCallExtractor {
+	private static final Pattern IDENTIFIER = Pattern.compile(PythonModule.IDENTIFIER);
+
+	private final String path;
+	private final List<PythonModule> functions = new ArrayList<PythonModule>();
+	// For each function: the modules through which it is reachable
+	private final List<List<Route>> routes = new ArrayList<List<Route>>();
+
+	// Call sites of the current line
+	private String line;
+	private Map<String, List<int[]>> qualifiedCalls;
+	private Map<String, List<Integer>> calls;
+	private Map<Integer, String> extracted;
+
+	/**
+	 * @param functions Functions to which we want to find calls
+	 * @param modules The modules imported in the notebook, in the order in which they are iterated in Notebook.functionCalls
+	 * @param path Path to the notebook, for error messages
+	 */
+	FunctionCallExtractor(List<PythonModule> functions, Collection<PythonModule> modules, String path) {
+		this.path = path;
+		for (PythonModule function: functions) {
+			List<Route> functionRoutes = new ArrayList<Route>();
+			boolean identifier = isIdentifier(function.name);
+			for (PythonModule module: modules) {
+				if (function.is(module)) {
+					functionRoutes.add(new Route(module, true, function.name, identifier));
+				} else if (function.parentIs(module)) {
+					functionRoutes.add(new Route(module, false, function.name, identifier));
+				}
+			}
+			if (!functionRoutes.isEmpty()) {
+				this.functions.add(function);
+				routes.add(functionRoutes);
+			}
+		}
+	}
+
+	/**
+	 * Add all calls in line to the functions to the call lists of result.
+	 * @param line Code line to extract calls from
+	 * @param result Map from each function to a list with all calls for that function
+	 */
+	void extract(String line, Map<PythonModule, List<String>> result) {
+		if (functions.isEmpty()) {
+			return;
+		}
+		boolean general = ModuleUsageScanner.hasSurrogates(line);
+		if (!general) {
+			findCallSites(line);
+		}
+		for (int i=0; i<functions.size(); i++) {
+			PythonModule function = functions.get(i);
+			List<String> functionCalls = result.get(function);
+			for (Route route: routes.get(i)) {
+				PythonModule module = route.module;
+				try {
+					if (general || null == route.qualifier) {
+						module.registerCalls(function.name, line);
+					} else {
+						registerCalls(route, function.name);
+					}
+					if (route.isFunction) {
+						if (null != module.parent && !module.parent.functionCalls.isEmpty()) {
+							functionCalls.addAll(module.popParentsCalls());
+						}
+					} else if (!module.functionCalls.isEmpty()) {
+						functionCalls.addAll(module.popFunctionCalls());
+					}
+				} catch (NotebookException e) {
+					System.err.println("Could not extract function calls for "
+							+ path + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Store the call sites of line, by name of the function called.
+	 */
+	private void findCallSites(String line) {
+		this.line = line;
+		qualifiedCalls = new HashMap<String, List<int[]>>();
+		calls = new HashMap<String, List<Integer>>();
+		extracted = new HashMap<Integer, String>();
+		Matcher call = ModuleUsageScanner.QUALIFIED_CALL.matcher(line);
+		while (call.find()) {
+			int qualifierEnd = call.start();
+			while (0 < qualifierEnd && ModuleUsageScanner.isSpace(line.charAt(qualifierEnd-1))) {
+				qualifierEnd--;
+			}
+			int identifierStart = qualifierEnd;
+			while (0 < identifierStart && ModuleUsageScanner.isIdentifierChar(line.charAt(identifierStart-1))) {
+				identifierStart--;
+			}
+			if (identifierStart < qualifierEnd) {
+				addTo(qualifiedCalls, call.group(1), new int[]{identifierStart, qualifierEnd, call.end()});
+			}
+		}
+		call = ModuleUsageScanner.CALL.matcher(line);
+		while (call.find()) {
+			addTo(calls, call.group(1), call.start());
+		}
+	}
+
+	/**
+	 * Register the calls to functionName in the current line in the call
+	 * lists of route.module and its parent, like PythonModule.registerCalls.
+	 */
+	private void registerCalls(Route route, String functionName) throws NotebookException {
+		List<int[]> sites = qualifiedCalls.get(functionName);
+		if (null != sites) {
+			List<String> result = new ArrayList<String>(1);
+			int lastEnd = 0;
+			for (int[] site: sites) {
+				int start = qualifierStart(route.qualifier, site[0], site[1]);
+				if (-1 != start && lastEnd <= start && !ModuleUsageScanner.precededByDotOrIdentifier(line, start)) {
+					result.add(extract(start));
+					lastEnd = site[2];
+				}
+			}
+			route.module.functionCalls.addAll(result);
+		}
+		if (route.importedFunction) {
+			List<Integer> starts = calls.get(functionName);
+			if (null != starts) {
+				List<String> result = new ArrayList<String>(starts.size());
+				for (int start: starts) {
+					result.add(extract(start));
+				}
+				route.module.parent.functionCalls.addAll(result);
+			}
+		}
+	}
+
+	/**
+	 * @return The index where qualifier starts, if it ends at qualifierEnd in the current line, -1 otherwise
+	 */
+	private int qualifierStart(String qualifier, int identifierStart, int qualifierEnd) {
+		if (-1 == qualifier.indexOf('.')) {
+			if (qualifierEnd - identifierStart == qualifier.length()
+					&& line.startsWith(qualifier, identifierStart)) {
+				return identifierStart;
+			}
+		} else {
+			int start = qualifierEnd - qualifier.length();
+			if (0 <= start && ModuleUsageScanner.matchesQualifier(line, start, qualifier)) {
+				return start;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The call starting at start in the current line
+	 */
+	private String extract(int start) throws NotebookException {
+		String call = extracted.get(start);
+		if (null == call) {
+			call = PythonModule.extractFunctionCall(line, start);
+			extracted.put(start, call);
+		}
+		return call;
+	}
+
+	private static boolean isIdentifier(String name) {
+		return !ModuleUsageScanner.hasSurrogates(name) && IDENTIFIER.matcher(name).matches();
+	}
+
+	private static <T> void addTo(Map<String, List<T>> map, String key, T value) {
+		List<T> values = map.get(key);
+		if (null == values) {
+			values = new ArrayList<T>(1);
+			map.put(key, values);
+		}
+		values.add(value);
+	}
+
+	/**
+	 * A module through which a function is reachable.
+	 */
+	private static class Route {
+		final PythonModule module;
+		// True if the function is the module itself, false if it is located in the module
+		final boolean isFunction;
+		// Qualifier of the module, or null if the calls are registered by registerCalls
+		final String qualifier;
+		// True if the function can be called without qualifier (only possible with from imports)
+		final boolean importedFunction;
+
+		Route(PythonModule module, boolean isFunction, String functionName, boolean identifier) {
+			this.module = module;
+			this.isFunction = isFunction;
+			String qualifier = PythonModule.class == module.getClass() ? module.qualifier() : null;
+			if (identifier && ModuleUsageScanner.isQualifier(qualifier)) {
+				this.qualifier = qualifier;
+			} else {
+				this.qualifier = null;
+			}
+			this.importedFunction = null != module.parent && ImportType.FROM == module.parent.importedWith
+					&& functionName.equals(qualifier);
+		}
+	}
+}
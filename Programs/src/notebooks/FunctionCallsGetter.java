@@ -17,7 +17,7 @@ public class FunctionCallsGetter extends Worker<Map<PythonModule, List<String>>>
 	}
 
 	@Override
-	public Map<PythonModule, List<String>> call() throws Exception {
+	protected Map<PythonModule, List<String>> analyze() throws Exception {
 		if (heartBeat) {
 			Utils.heartBeat("Retreiving function calls from " + notebook.getName());
 		}
@@ -8,7 +8,7 @@ class HashExtractor extends Worker<SnippetCode[]> {
 	}
 	
 	@Override
-	public SnippetCode[] call() throws Exception {
+	protected SnippetCode[] analyze() throws Exception {
 		return notebook.snippetCodes();
 	}
 }
\ No newline at end of file
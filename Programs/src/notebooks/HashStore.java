@@ -0,0 +1,283 @@
+package notebooks;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent store of analysis results from earlier runs, keyed by notebook
+ * path. For each notebook, the size and modification time of the file (or
+ * of the archive entry, for notebooks in archives) are stored together with
+ * the snippet codes and (after a characteristics and clone analysis) the cell
+ * count, line counts and languages. A notebook whose file has the same size
+ * and modification time as when it was stored is not read again; its stored
+ * results are used instead.
+ *
+ * The store is loaded with load and written back with save. Entries for
+ * notebooks that are not analyzed in a run are kept. Results of notebooks
+ * that could not be parsed are not stored.
+ */
+public class HashStore {
+	private static final int MAGIC = 0x4E424853;	// "NBHS"
+	private static final int VERSION = 1;
+	private final String fileName;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final AtomicInteger numReused = new AtomicInteger(0);
+
+	/**
+	 * Create an empty store that will be saved to the file fileName.
+	 * @param fileName Name of the file in which the store is kept between runs
+	 */
+	public HashStore(String fileName) {
+		this.fileName = fileName;
+	}
+
+	/**
+	 * Load the entries stored in the store file. If there is no such file,
+	 * the store is left empty.
+	 * @throws IOException If the file cannot be read or is not a valid store
+	 */
+	public void load() throws IOException {
+		File file = new File(fileName);
+		if (!file.exists()) {
+			return;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (MAGIC != in.readInt() || VERSION != in.readInt()) {
+				throw new IOException(fileName + " is not a hash store of version " + VERSION);
+			}
+			int numEntries = in.readInt();
+			Map<String, Entry> loaded = new HashMap<String, Entry>(2*numEntries);
+			for (int i=0; i<numEntries; i++) {
+				String path = in.readUTF();
+				loaded.put(path, readEntry(in));
+			}
+			entries.putAll(loaded);
+		} catch (IllegalArgumentException | EOFException e) {
+			throw new IOException(fileName + " is not a valid hash store: " + e, e);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write all entries to the store file. The entries are first written to a
+	 * temporary file that then replaces the store file, so that an interrupted
+	 * save doesn't destroy the results of earlier runs.
+	 * @throws IOException On problems writing the file
+	 */
+	public void save() throws IOException {
+		File file = new File(fileName);
+		File tmpFile = new File(fileName + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			Map<String, Entry> snapshot = new HashMap<String, Entry>(entries);
+			out.writeInt(snapshot.size());
+			for (Map.Entry<String, Entry> entry: snapshot.entrySet()) {
+				out.writeUTF(entry.getKey());
+				writeEntry(entry.getValue(), out);
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * @return Number of notebooks in the store
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return Number of analyses for which stored results have been used since the store was created
+	 */
+	public int numReused() {
+		return numReused.get();
+	}
+
+	/**
+	 * @param notebook Notebook to analyze
+	 * @return A task that returns the stored characteristics and snippets of notebook if they are up to date, and otherwise analyzes notebook and stores the results
+	 */
+	Callable<AllCccResults> cccTask(final Notebook notebook) {
+		return new IoTask.Analysis<AllCccResults>() {
+			@Override
+			public boolean needsFile() {
+				long[] sizeAndTime = sizeAndTime(notebook);
+				return null == stored(notebook, sizeAndTime[0], sizeAndTime[1], true);
+			}
+
+			@Override
+			public AllCccResults call() throws Exception {
+				long[] sizeAndTime = sizeAndTime(notebook);
+				long size = sizeAndTime[0];
+				long lastModified = sizeAndTime[1];
+				Entry entry = stored(notebook, size, lastModified, true);
+				if (null != entry) {
+					numReused.incrementAndGet();
+					return entry.results;
+				}
+				AllCccResults results = new AllCccAnalyzer(notebook).call();
+				if (notebook.isParsed()) {
+					entries.put(notebook.getPath(), new Entry(size, lastModified, results, true));
+				}
+				return results;
+			}
+		};
+	}
+
+	/**
+	 * @param notebook Notebook to analyze
+	 * @return A task that returns the stored snippets of notebook if they are up to date, and otherwise computes the snippets and stores them
+	 */
+	Callable<SnippetCode[]> hashTask(final Notebook notebook) {
+		return new IoTask.Analysis<SnippetCode[]>() {
+			@Override
+			public boolean needsFile() {
+				long[] sizeAndTime = sizeAndTime(notebook);
+				return null == stored(notebook, sizeAndTime[0], sizeAndTime[1], false);
+			}
+
+			@Override
+			public SnippetCode[] call() throws Exception {
+				long[] sizeAndTime = sizeAndTime(notebook);
+				long size = sizeAndTime[0];
+				long lastModified = sizeAndTime[1];
+				Entry entry = stored(notebook, size, lastModified, false);
+				if (null != entry) {
+					numReused.incrementAndGet();
+					return entry.results.getHashes();
+				}
+				SnippetCode[] hashes = new HashExtractor(notebook).call();
+				if (notebook.isParsed()) {
+					AllCccResults results = new AllCccResults();
+					results.setHashes(hashes);
+					entries.put(notebook.getPath(), new Entry(size, lastModified, results, false));
+				}
+				return hashes;
+			}
+		};
+	}
+
+	/**
+	 * @return The size and modification time of the notebook file, or of the entry if the notebook is stored in an archive
+	 */
+	private static long[] sizeAndTime(Notebook notebook) {
+		String path = notebook.getPath();
+		if (-1 != NotebookArchive.separatorIndex(path)) {
+			return NotebookArchive.entrySizeAndTime(path);
+		}
+		File file = new File(path);
+		return new long[]{file.length(), file.lastModified()};
+	}
+
+	/**
+	 * @param complete True if all results are needed, false if the snippets are enough
+	 * @return The entry stored for notebook, if it is up to date and contains the results needed, null otherwise
+	 */
+	private Entry stored(Notebook notebook, long size, long lastModified, boolean complete) {
+		Entry entry = entries.get(notebook.getPath());
+		if (null != entry && (entry.complete || !complete) && entry.isFor(size, lastModified)) {
+			return entry;
+		}
+		return null;
+	}
+
+	private static Entry readEntry(DataInputStream in) throws IOException {
+		long size = in.readLong();
+		long lastModified = in.readLong();
+		boolean complete = in.readBoolean();
+		AllCccResults results = new AllCccResults();
+		if (complete) {
+			results.setNumCodeCells(in.readInt());
+			int totalLOC = in.readInt();
+			int nonBlankLOC = in.readInt();
+			int blankLOC = in.readInt();
+			results.setLOC(totalLOC, nonBlankLOC, blankLOC);
+			LangName name = LangName.valueOf(in.readUTF());
+			results.setLanguage(new Language(name, LangSpec.valueOf(in.readUTF())));
+			int numLanguages = in.readInt();
+			if (0 <= numLanguages) {
+				Map<LangSpec, LangName> allLanguages = new HashMap<LangSpec, LangName>();
+				for (int i=0; i<numLanguages; i++) {
+					LangSpec spec = LangSpec.valueOf(in.readUTF());
+					allLanguages.put(spec, LangName.valueOf(in.readUTF()));
+				}
+				results.setLanguageMap(allLanguages);
+			}
+		}
+		SnippetCode[] hashes = new SnippetCode[in.readInt()];
+		for (int i=0; i<hashes.length; i++) {
+			int LOC = in.readInt();
+			long high = in.readLong();
+			hashes[i] = new SnippetCode(LOC, high, in.readLong());
+		}
+		results.setHashes(hashes);
+		return new Entry(size, lastModified, results, complete);
+	}
+
+	private static void writeEntry(Entry entry, DataOutputStream out) throws IOException {
+		out.writeLong(entry.size);
+		out.writeLong(entry.lastModified);
+		out.writeBoolean(entry.complete);
+		AllCccResults results = entry.results;
+		if (entry.complete) {
+			out.writeInt(results.getNumCodeCells());
+			out.writeInt(results.getTotalLOC());
+			out.writeInt(results.getNonBlankLOC());
+			out.writeInt(results.getBlankLOC());
+			out.writeUTF(results.getLanguage().getName().name());
+			out.writeUTF(results.getLanguage().getSpec().name());
+			Map<LangSpec, LangName> allLanguages = results.getAllLanguages();
+			if (null == allLanguages) {
+				out.writeInt(-1);
+			} else {
+				out.writeInt(allLanguages.size());
+				for (Map.Entry<LangSpec, LangName> language: allLanguages.entrySet()) {
+					out.writeUTF(language.getKey().name());
+					out.writeUTF(language.getValue().name());
+				}
+			}
+		}
+		SnippetCode[] hashes = results.getHashes();
+		out.writeInt(hashes.length);
+		for (SnippetCode hash: hashes) {
+			out.writeInt(hash.getLOC());
+			out.writeLong(hash.getHigh());
+			out.writeLong(hash.getLow());
+		}
+	}
+
+	/**
+	 * Results stored for a notebook, together with the size and modification
+	 * time of the file when it was analyzed. An entry that is not complete
+	 * only contains the snippets of the notebook.
+	 */
+	private static class Entry {
+		final long size;
+		final long lastModified;
+		final AllCccResults results;
+		final boolean complete;
+
+		Entry(long size, long lastModified, AllCccResults results, boolean complete) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.results = results;
+			this.complete = complete;
+		}
+
+		boolean isFor(long size, long lastModified) {
+			return this.size == size && this.lastModified == lastModified;
+		}
+	}
+}
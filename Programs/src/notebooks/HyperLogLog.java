@@ -0,0 +1,104 @@
+package notebooks;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Approximate counter of distinct ints (HyperLogLog, see Flajolet et al.,
+ * "HyperLogLog: the analysis of a near-optimal cardinality estimation
+ * algorithm", 2007). The counter uses 2^PRECISION registers of one byte,
+ * which gives a relative standard error of 1.04/sqrt(2^PRECISION), see
+ * STANDARD_ERROR. Small ranges are corrected with linear counting.
+ *
+ * Until more than SPARSE_LIMIT distinct values have been added, the values
+ * are kept in a small array instead, and counted exactly. Since most
+ * notebooks are connected to few repros, most counters never allocate the
+ * registers.
+ */
+final class HyperLogLog extends DistinctCounter {
+	private static final int PRECISION = 10;
+	private static final int NUM_REGISTERS = 1 << PRECISION;
+	private static final int SPARSE_LIMIT = 64;
+	private static final double ALPHA = 0.7213 / (1 + 1.079/NUM_REGISTERS);
+	static final double STANDARD_ERROR = 1.04 / Math.sqrt(NUM_REGISTERS);
+
+	private int[] values = new int[4];
+	private int numValues = 0;
+	private byte[] registers = null;
+
+	@Override
+	void add(int value) {
+		if (null != registers) {
+			addToRegisters(value);
+		} else {
+			for (int i=0; i<numValues; i++) {
+				if (value == values[i]) {
+					return;
+				}
+			}
+			if (SPARSE_LIMIT == numValues) {
+				registers = new byte[NUM_REGISTERS];
+				for (int i=0; i<numValues; i++) {
+					addToRegisters(values[i]);
+				}
+				addToRegisters(value);
+				values = null;
+			} else {
+				if (values.length == numValues) {
+					values = Arrays.copyOf(values, 2*values.length);
+				}
+				values[numValues++] = value;
+			}
+		}
+	}
+
+	private void addToRegisters(int value) {
+		long hash = hash(value);
+		int register = (int)(hash >>> (64 - PRECISION));
+		// Position of the first 1 bit in the remaining bits
+		byte rank = (byte)Math.min(Long.numberOfLeadingZeros(hash << PRECISION) + 1, 64 - PRECISION + 1);
+		if (registers[register] < rank) {
+			registers[register] = rank;
+		}
+	}
+
+	@Override
+	int size() {
+		if (null == registers) {
+			return numValues;
+		}
+		double sum = 0;
+		int numZeros = 0;
+		for (byte register: registers) {
+			sum += 1.0 / (1L << register);
+			if (0 == register) {
+				numZeros++;
+			}
+		}
+		double estimate = ALPHA * NUM_REGISTERS * NUM_REGISTERS / sum;
+		if (estimate <= 2.5 * NUM_REGISTERS && 0 < numZeros) {
+			estimate = NUM_REGISTERS * Math.log((double)NUM_REGISTERS / numZeros);
+		}
+		return (int)Math.round(estimate);
+	}
+
+	/**
+	 * @return Note to add to the names of CSV columns computed from approximate counts
+	 */
+	static String columnNote() {
+		return String.format(Locale.US, " (approximate repro count, standard error %.1f%%)", 100*STANDARD_ERROR);
+	}
+
+	/**
+	 * Mix the bits of value (finalizer of MurmurHash3).
+	 */
+	private static long hash(int value) {
+		long hash = value * 0x9E3779B97F4A7C15L;
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB93FE53E63D3L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,115 @@
+package notebooks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Task for the I/O executor that reads a notebook file and then runs the
+ * analysis of the notebook on the CPU executor. If there is no notebook, the
+ * analysis is just passed on to the CPU executor. The I/O thread waits for the
+ * analysis, so the number of notebooks being read is limited by the I/O
+ * executor, and the number of notebooks being analyzed by the CPU executor.
+ */
+class IoTask<T> implements Callable<T> {
+	private final Notebook notebook;
+	private final Callable<T> analysis;
+
+	/**
+	 * @param notebook Notebook to read, or null
+	 * @param analysis Task to run on the CPU executor when the notebook has been read
+	 */
+	IoTask(Notebook notebook, Callable<T> analysis) {
+		this.notebook = notebook;
+		this.analysis = analysis;
+	}
+
+	/**
+	 * Read the notebook file, unless the analysis doesn't need it, and run
+	 * the analysis. The file is dropped afterwards, also if the analysis
+	 * didn't parse it, so that it isn't kept in memory with the notebook.
+	 */
+	@Override
+	public T call() throws Exception {
+		try {
+			if (null != notebook && needsFile()) {
+				notebook.readFile();
+			}
+			return runOnCpu(analysis);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception)cause;
+			} else if (cause instanceof Error) {
+				throw (Error)cause;
+			} else {
+				throw e;
+			}
+		} finally {
+			if (null != notebook) {
+				notebook.discardFile();
+			}
+		}
+	}
+
+	private boolean needsFile() {
+		return !(analysis instanceof Analysis) || ((Analysis<?>)analysis).needsFile();
+	}
+
+	/**
+	 * Read the notebook file on the calling thread and parse it on the CPU
+	 * executor. Used by tasks that run on the I/O executor and need the
+	 * contents of the notebook.
+	 * @throws InterruptedException If the calling thread is interrupted while waiting for the parsing
+	 */
+	static void load(Notebook notebook) throws InterruptedException {
+		notebook.readFile();
+		try {
+			runOnCpu(new Parser(notebook));
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			} else if (cause instanceof Error) {
+				throw (Error)cause;
+			} else {
+				throw new IllegalStateException("Parsing failed for " + notebook.getName(), cause);
+			}
+		}
+	}
+
+	private static <T> T runOnCpu(Callable<T> task) throws InterruptedException, ExecutionException {
+		Future<T> result = ThreadExecutor.getInstance().submit(task);
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			result.cancel(true);
+			throw e;
+		}
+	}
+
+	/**
+	 * An analysis that may not need the notebook file, for instance because
+	 * its result is stored from an earlier run (see HashStore).
+	 */
+	interface Analysis<T> extends Callable<T> {
+		/**
+		 * @return True if the notebook file should be read before the analysis is run
+		 */
+		boolean needsFile();
+	}
+
+	private static class Parser implements Callable<Void> {
+		private final Notebook notebook;
+
+		Parser(Notebook notebook) {
+			this.notebook = notebook;
+		}
+
+		@Override
+		public Void call() {
+			notebook.getContents();
+			return null;
+		}
+	}
+}
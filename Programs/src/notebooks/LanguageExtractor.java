@@ -6,7 +6,7 @@ class LanguageExtractor extends Worker<Language> {
 	}
 	
 	@Override
-	public Language call() throws Exception {
+	protected Language analyze() throws Exception {
 		return notebook.language();
 	}
 }
\ No newline at end of file
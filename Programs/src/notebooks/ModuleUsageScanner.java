@@ -0,0 +1,239 @@
+package notebooks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Registers the function usages of all modules imported in a notebook with
+ * one scan of each code line, instead of one scan per module (see
+ * PythonModule.registerUsage, which gives the same result for a single
+ * module).
+ *
+ * Each line is scanned once for call sites of the form ".function(", and
+ * once for identifiers followed by "(". For each call site, the modules
+ * whose qualifier ends right before the dot are looked up from the
+ * identifier preceding it. The call is then registered in the usages of
+ * these modules. An identifier call is registered for each module imported
+ * with from whose qualifier is that identifier.
+ *
+ * Since the qualifiers are inserted unquoted in the regular expressions of
+ * PythonModule, the "." between two module names in a qualifier matches any
+ * character there. The scanner does the same. Lines containing characters
+ * outside the BMP, and modules that the scanner cannot handle (like
+ * AllModules), are handed over to registerUsage.
+ */
+class ModuleUsageScanner {
+	static final Pattern QUALIFIED_CALL = Pattern.compile("\\.\\s*(" + PythonModule.IDENTIFIER + ")\\s*\\(");
+	static final Pattern CALL = Pattern.compile(
+			"(?<!\\.\\s?)(?<!" + PythonModule.IDENTIFIER_CHAR + ")(" + PythonModule.IDENTIFIER_CHAR + "+)\\s*\\(");
+
+	private final List<PythonModule> modules = new ArrayList<PythonModule>();
+	private final List<String> qualifiers = new ArrayList<String>();
+	// Qualifier without "." -> indices of the modules that have it
+	private final Map<String, List<Integer>> simpleQualifiers = new HashMap<String, List<Integer>>();
+	// Indices of the modules whose qualifier contains "."
+	private final List<Integer> compoundQualifiers = new ArrayList<Integer>();
+	// Qualifier -> modules whose calls are registered at their parent
+	private final Map<String, List<PythonModule>> importedFunctions = new HashMap<String, List<PythonModule>>();
+	private final List<PythonModule> others = new ArrayList<PythonModule>();
+
+	/**
+	 * @param modules The modules to register usages for
+	 */
+	ModuleUsageScanner(Collection<PythonModule> modules) {
+		for (PythonModule module: modules) {
+			String qualifier = PythonModule.class == module.getClass() ? module.qualifier() : null;
+			boolean importedFunction = null != module.parent && ImportType.FROM == module.parent.importedWith;
+			if (!isQualifier(qualifier) || (importedFunction && qualifier.contains("."))) {
+				others.add(module);
+				continue;
+			}
+			int index = this.modules.size();
+			this.modules.add(module);
+			qualifiers.add(qualifier);
+			if (qualifier.contains(".")) {
+				compoundQualifiers.add(index);
+			} else {
+				addTo(simpleQualifiers, qualifier, index);
+			}
+			if (importedFunction) {
+				addTo(importedFunctions, qualifier, module);
+			}
+		}
+	}
+
+	/**
+	 * Register the functions called in line in the function usages of the
+	 * modules.
+	 * @param line Code line to check for usages
+	 */
+	void registerUsages(String line) {
+		if (hasSurrogates(line)) {
+			for (PythonModule module: modules) {
+				module.registerUsage(line);
+			}
+		} else {
+			registerQualifiedCalls(line);
+			registerImportedFunctionCalls(line);
+		}
+		for (PythonModule module: others) {
+			module.registerUsage(line);
+		}
+	}
+
+	private void registerQualifiedCalls(String line) {
+		if (modules.isEmpty()) {
+			return;
+		}
+		// End of the last match of each module, to skip overlapping matches
+		int[] lastEnd = new int[modules.size()];
+		Matcher call = QUALIFIED_CALL.matcher(line);
+		while (call.find()) {
+			int qualifierEnd = call.start();
+			while (0 < qualifierEnd && isSpace(line.charAt(qualifierEnd-1))) {
+				qualifierEnd--;
+			}
+			int identifierStart = qualifierEnd;
+			while (0 < identifierStart && isIdentifierChar(line.charAt(identifierStart-1))) {
+				identifierStart--;
+			}
+			if (identifierStart == qualifierEnd) {
+				continue;
+			}
+			String function = call.group(1);
+			List<Integer> candidates = simpleQualifiers.get(line.substring(identifierStart, qualifierEnd));
+			if (null != candidates) {
+				for (int index: candidates) {
+					register(index, line, identifierStart, call.end(), function, lastEnd);
+				}
+			}
+			for (int index: compoundQualifiers) {
+				int start = qualifierEnd - qualifiers.get(index).length();
+				if (0 <= start && matchesQualifier(line, start, qualifiers.get(index))) {
+					register(index, line, start, call.end(), function, lastEnd);
+				}
+			}
+		}
+	}
+
+	private void register(int index, String line, int start, int end, String function, int[] lastEnd) {
+		if (lastEnd[index] <= start && !precededByDotOrIdentifier(line, start)) {
+			Utils.addOrIncrease(modules.get(index).functionUsages, function);
+			lastEnd[index] = end;
+		}
+	}
+
+	private void registerImportedFunctionCalls(String line) {
+		if (importedFunctions.isEmpty()) {
+			return;
+		}
+		Matcher call = CALL.matcher(line);
+		while (call.find()) {
+			List<PythonModule> functions = importedFunctions.get(call.group(1));
+			if (null != functions) {
+				for (PythonModule function: functions) {
+					Utils.addOrIncrease(function.parent.functionUsages, function.name);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return True iff the qualifier starting at start in line is preceded by a ".", possibly followed by a space, or by an identifier character
+	 */
+	static boolean precededByDotOrIdentifier(String line, int start) {
+		if (0 == start) {
+			return false;
+		}
+		char previous = line.charAt(start-1);
+		return '.' == previous || isIdentifierChar(previous)
+				|| (1 < start && '.' == line.charAt(start-2) && isSpace(previous));
+	}
+
+	/**
+	 * @return True iff qualifier matches line from start, with "." matching any character but a line terminator
+	 */
+	static boolean matchesQualifier(String line, int start, String qualifier) {
+		for (int i=0; i<qualifier.length(); i++) {
+			char c = line.charAt(start + i);
+			if ('.' == qualifier.charAt(i) ? isLineTerminator(c) : qualifier.charAt(i) != c) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return True iff qualifier is a non-empty string of identifier characters, in the BMP, and "." between them
+	 */
+	static boolean isQualifier(String qualifier) {
+		if (null == qualifier || qualifier.isEmpty()
+				|| qualifier.startsWith(".") || qualifier.endsWith(".")) {
+			return false;
+		}
+		for (int i=0; i<qualifier.length(); i++) {
+			char c = qualifier.charAt(i);
+			if ('.' != c && (Character.isSurrogate(c) || !isIdentifierChar(c))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static boolean hasSurrogates(String line) {
+		for (int i=0; i<line.length(); i++) {
+			if (Character.isSurrogate(line.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return True iff c is matched by PythonModule.IDENTIFIER_CHAR
+	 */
+	static boolean isIdentifierChar(char c) {
+		switch (Character.getType(c)) {
+		case Character.UPPERCASE_LETTER:
+		case Character.LOWERCASE_LETTER:
+		case Character.TITLECASE_LETTER:
+		case Character.MODIFIER_LETTER:
+		case Character.OTHER_LETTER:
+		case Character.LETTER_NUMBER:
+		case Character.DECIMAL_DIGIT_NUMBER:
+		case Character.NON_SPACING_MARK:
+		case Character.CONNECTOR_PUNCTUATION:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return True iff c is matched by \s in a regular expression
+	 */
+	static boolean isSpace(char c) {
+		return ' ' == c || '\t' == c || '\n' == c || '\u000B' == c || '\f' == c || '\r' == c;
+	}
+
+	/**
+	 * @return True iff c is not matched by . in a regular expression
+	 */
+	static boolean isLineTerminator(char c) {
+		return '\n' == c || '\r' == c || '\u0085' == c || '\u2028' == c || '\u2029' == c;
+	}
+
+	private static <T> void addTo(Map<String, List<T>> map, String key, T value) {
+		List<T> values = map.get(key);
+		if (null == values) {
+			values = new ArrayList<T>(1);
+			map.put(key, values);
+		}
+		values.add(value);
+	}
+}
@@ -11,7 +11,7 @@ public class ModulesIdentifier extends Worker<List<PythonModule>> {
 	}
 
 	@Override
-	public List<PythonModule> call() throws Exception {
+	protected List<PythonModule> analyze() throws Exception {
 		if (heartBeat) {
 			Utils.heartBeat("Identifying modules in " + notebook.getName());
 		}
@@ -1,22 +1,19 @@
 package notebooks;
 
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
 
 public class ModulesMerger extends Worker<Void> {
 	PythonModule module;
 	List<List<PythonModule>> allModules;
-	CountDownLatch counter;
 
-	ModulesMerger(PythonModule module, List<List<PythonModule>> allModules, CountDownLatch counter) {
+	ModulesMerger(PythonModule module, List<List<PythonModule>> allModules) {
 		super(null);
 		this.module = module;
 		this.allModules = allModules;
-		this.counter = counter;
 	}
 
 	@Override
-	public Void call() {
+	protected Void analyze() {
 		for (List<PythonModule> modulesList: allModules) {
 			for (PythonModule moduleFromCorpus: modulesList) {
 				if (moduleFromCorpus.is(module)) {
@@ -28,7 +25,6 @@ public class ModulesMerger extends Worker<Void> {
 				}
 			}
 		}
-		counter.countDown();
 		return null;
 	}
 }
@@ -6,7 +6,7 @@ class NonBlankLOCCounter extends Worker<Integer> {
 	}
 	
 	@Override
-	public Integer call() throws Exception {
+	protected Integer analyze() throws Exception {
 		return notebook.LOCNonBlank();
 	}
 }
\ No newline at end of file
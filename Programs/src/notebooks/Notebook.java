@@ -1,8 +1,7 @@
 package notebooks;
 
 import java.io.*;
-import java.lang.ref.WeakReference;
-import java.security.MessageDigest;
+import java.nio.file.Files;
 import java.security.NoSuchAlgorithmException;
 import java.util.zip.ZipOutputStream;
 
@@ -15,16 +14,34 @@ import java.util.regex.Pattern;
 import org.json.*;
 
 /**
- * A Jupyter notebook.
+ * A Jupyter notebook. The notebook file may be an entry in a zip or tar
+ * archive (see NotebookArchive).
  */
 public class Notebook {
+	private static final Pattern IMPORT_LINE = Pattern.compile("import\\s+.*");
+	private static final Pattern FROM_IMPORT_LINE = Pattern.compile("from\\s+.*\\s+import.*");
+	private static final String FROM_START = "from\\s+((\\.*" + PythonModule.SUB_MODULE_IDENTIFIER + ")|(\\.+))";
+	private static final Pattern IMPORT = Pattern.compile("import\\s+(" + moduleListRegex(PythonModule.SUB_MODULE_IDENTIFIER) + ")");
+	private static final Pattern FROM = Pattern.compile(FROM_START + "\\s+(import\\s+(" + moduleListRegex(PythonModule.IDENTIFIER) + "))");
+	private static final Pattern FROM_WITH_PARENTHESES = Pattern.compile(
+			FROM_START + "\\s+(import\\s*\\(\\s*" + moduleListRegex(PythonModule.IDENTIFIER) + "\\,?\\s*\\))");
+	private static final Pattern ALL_FROM = Pattern.compile(FROM_START + "\\s+import\\s*\\*");
+	private static final Pattern IMPORT_KEYWORD = Pattern.compile("\\simport\\s");
+	private static final Pattern UNSPACED_LEFT_PARENTHESIS = Pattern.compile("(?<!\\s)\\(");
+	private static final Pattern LEFT_PARENTHESIS = Pattern.compile("\\(");
+	private static final Pattern RIGHT_PARENTHESIS = Pattern.compile("\\,?\\s*\\)");
+	private static final Pattern ORDINARY_IDENTIFIER = Pattern.compile("(" + PythonModule.SUB_MODULE_IDENTIFIER + ")");
+	private static final Pattern ALIAS_IDENTIFIER = Pattern.compile(
+			"(" + PythonModule.SUB_MODULE_IDENTIFIER + ")\\s+as\\s+(" + PythonModule.IDENTIFIER + ")");
 	private String path;
 	private String repro = "";
 	private int locTotal;		// Total number of lines of code
 	private int locBlank;		// Number of empty code lines
 	private int locContents;	// Number of non-empty code lines
 	private volatile boolean locCounted = false;
-	private WeakReference<JSONObject> contents;
+	private NotebookContents contents;
+	private byte[] fileData;	// Notebook file, read ahead of parsing
+	private volatile boolean parsed = false;	// True if the last parsing of the file succeeded
 	private ReentrantLock contentsLock = new ReentrantLock();
 	
 	public Notebook(String path) {
@@ -59,19 +76,20 @@ public class Notebook {
 	public List<PythonModule> modules() {
 		List<PythonModule> modules = new ArrayList<PythonModule>();
 		Set<PythonModule> moduleSet = new HashSet<PythonModule>(modules);
-		List<JSONObject> codeCells = getCodeCells();
-		for (JSONObject cell: codeCells) {
-			JSONArray lines = getSource(cell);
+		ModuleUsageScanner scanner = new ModuleUsageScanner(moduleSet);
+		NotebookContents contents = getContents();
+		for (int i=0; i<contents.numCodeCells(); i++) {
+			String[] lines = contents.source(i);
 			List<String> splitLines = new PythonPreprocessor(lines).process();
 			for (String line: splitLines) {
 				line = line.trim();
-				if (line.matches("import\\s+.*") || line.matches("from\\s+.*\\s+import.*")) {
+				if (isImport(line)) {
 					addImportedModules(line, modules);
-					moduleSet.addAll(modules);
-				} else {
-					for (PythonModule module: moduleSet) {
-						module.registerUsage(line);
+					if (moduleSet.addAll(modules)) {
+						scanner = new ModuleUsageScanner(moduleSet);
 					}
+				} else {
+					scanner.registerUsages(line);
 				}
 			}
 		}
@@ -91,38 +109,34 @@ public class Notebook {
 		
 		List<PythonModule> modules = new ArrayList<PythonModule>();
 		Set<PythonModule> moduleSet = new HashSet<PythonModule>();
-		List<JSONObject> codeCells = getCodeCells();
-		for (JSONObject cell: codeCells) {
-			JSONArray lines = getSource(cell);
+		FunctionCallExtractor extractor = new FunctionCallExtractor(functions, moduleSet, path);
+		NotebookContents contents = getContents();
+		for (int i=0; i<contents.numCodeCells(); i++) {
+			String[] lines = contents.source(i);
 			List<String> splitLines = new PythonPreprocessor(lines).process();
 			for (String line: splitLines) {
 				line = line.trim();
-				if (line.matches("import\\s+.*") || line.matches("from\\s+.*\\s+import.*")) {
+				if (isImport(line)) {
 					addImportedModules(line, modules);
-					moduleSet.addAll(modules);
-				} else {
-					for (PythonModule function: functions) {
-						for (PythonModule module: moduleSet) {
-							try {
-								if (function.is(module)) {
-									module.registerCalls(function.name, line);
-									result.get(function).addAll(module.popParentsCalls());
-								} else if (function.parentIs(module)) {
-									module.registerCalls(function.name, line);
-									result.get(function).addAll(module.popFunctionCalls());
-								}
-							} catch (NotebookException e) {
-								System.err.println("Could not extract function calls for "
-										+ this.path + ": " + e.getMessage());
-							}
-						}
+					if (moduleSet.addAll(modules)) {
+						extractor = new FunctionCallExtractor(functions, moduleSet, path);
 					}
+				} else {
+					extractor.extract(line, result);
 				}
 			}
 		}
 		return result;
 	}
 
+	/**
+	 * @param line Trimmed code line
+	 * @return True iff line is a Python import statement
+	 */
+	private static boolean isImport(String line) {
+		return IMPORT_LINE.matcher(line).matches() || FROM_IMPORT_LINE.matcher(line).matches();
+	}
+
 	/**
 	 * Add all modules in a Python import statement to a list of modules
 	 * @param importStatement Code line containing import statements
@@ -142,18 +156,10 @@ public class Notebook {
 	 * @return A list of all modules found in importStatment
 	 */
 	private List<PythonModule> modulesInImport(String importStatement) throws NotebookException {
-		final String SUB_MODULE_IDENTIFIER = PythonModule.SUB_MODULE_IDENTIFIER;
-		final String subModuleList = moduleList(SUB_MODULE_IDENTIFIER);
-		Pattern importPattern = Pattern.compile("import\\s+(" + subModuleList + ")");
-		Matcher importMatcher = importPattern.matcher(importStatement);
-		final String moduleList = moduleList(PythonModule.IDENTIFIER);
-		String fromPatternStart = "from\\s+((\\.*" + SUB_MODULE_IDENTIFIER + ")|(\\.+))";
-		Pattern fromPattern = Pattern.compile(fromPatternStart + "\\s+(import\\s+(" + moduleList + "))");
-		Matcher fromMatcher = fromPattern.matcher(importStatement);
-		Pattern fromPatternWithParentheses = Pattern.compile(fromPatternStart + "\\s+(import\\s*\\(\\s*" + moduleList + "\\,?\\s*\\))");
-		Matcher fromWithParenthesesMatcher = fromPatternWithParentheses.matcher(importStatement);
-		Pattern allFromPattern = Pattern.compile(fromPatternStart + "\\s+import\\s*\\*");
-		Matcher allFromMatcher = allFromPattern.matcher(importStatement);
+		Matcher importMatcher = IMPORT.matcher(importStatement);
+		Matcher fromMatcher = FROM.matcher(importStatement);
+		Matcher fromWithParenthesesMatcher = FROM_WITH_PARENTHESES.matcher(importStatement);
+		Matcher allFromMatcher = ALL_FROM.matcher(importStatement);
 		if (importMatcher.matches()) {
 			return modulesInIdentifierList(importMatcher.group(1));
 		} else if(allFromMatcher.matches()) {
@@ -162,7 +168,7 @@ public class Notebook {
 			result.add(new AllModules(parent));
 			return result;
 		} else if (fromMatcher.matches()) {
-			int importStart = indexOf("\\simport\\s", importStatement);
+			int importStart = indexOf(IMPORT_KEYWORD, importStatement);
 			String substatement = importStatement.substring(importStart).trim();
 			List<PythonModule> result = modulesInImport(substatement);
 			PythonModule parent = new PythonModule(fromMatcher.group(1), ImportType.FROM);
@@ -172,7 +178,9 @@ public class Notebook {
 			return result;
 		} else if(fromWithParenthesesMatcher.matches()) {
 			String ImportStatementWithoutParentheses =
-					importStatement.replaceAll("(?<!\\s)\\(", " ").replaceAll("\\(", "").replaceAll("\\,?\\s*\\)", "");
+					UNSPACED_LEFT_PARENTHESIS.matcher(importStatement).replaceAll(" ");
+			ImportStatementWithoutParentheses = LEFT_PARENTHESIS.matcher(ImportStatementWithoutParentheses).replaceAll("");
+			ImportStatementWithoutParentheses = RIGHT_PARENTHESIS.matcher(ImportStatementWithoutParentheses).replaceAll("");
 			return modulesInImport(ImportStatementWithoutParentheses);
 		} else {
 			throw new NotebookException("Invalid import statement: " + importStatement);
@@ -186,6 +194,10 @@ public class Notebook {
 	 * @return A regular expression matching the list of modules in a Python import statement
 	 */
 	public String moduleList(final String moduleIdentifier) {
+		return moduleListRegex(moduleIdentifier);
+	}
+
+	private static String moduleListRegex(final String moduleIdentifier) {
 		final String moduleDescr = moduleIdentifier + "\\s*(\\s+as\\s+" + PythonModule.IDENTIFIER + ")?";
 		return "(" + moduleDescr + "\\s*,\\s*)*" + moduleDescr;
 	}
@@ -197,14 +209,12 @@ public class Notebook {
 	 * @return A List of all modules in identifierList 
 	 */
 	private List<PythonModule> modulesInIdentifierList(String identifierList) {
-		final Pattern ordinaryPattern = Pattern.compile("(" + PythonModule.SUB_MODULE_IDENTIFIER + ")");
-		final Pattern asPattern = Pattern.compile("(" + PythonModule.SUB_MODULE_IDENTIFIER + ")\\s+as\\s+(" + PythonModule.IDENTIFIER + ")");
 		List<PythonModule> result = new ArrayList<PythonModule>();
 		String[] identifiers = identifierList.split(",");
 		for (int i=0; i<identifiers.length; i++) {
 			String identifier = identifiers[i].trim();
-			Matcher ordinaryMatcher = ordinaryPattern.matcher(identifier);
-			Matcher asMatcher = asPattern.matcher(identifier);
+			Matcher ordinaryMatcher = ORDINARY_IDENTIFIER.matcher(identifier);
+			Matcher asMatcher = ALIAS_IDENTIFIER.matcher(identifier);
 			if (ordinaryMatcher.matches()) {
 				String[] moduleNames = identifier.split("\\.");
 				String name = lastElementOf(moduleNames).trim();
@@ -226,12 +236,11 @@ public class Notebook {
 	/**
 	 * Get the index of the first occurrence of the regular expression in the
 	 * string. If the regular expression cannot be found, -1 is returned.
-	 * @param regexp Regular expression to look for
+	 * @param pattern Regular expression to look for
 	 * @param string String to find the regular expression in.
 	 * @param The index of the first occurrence of the regexp in the string, or -1 if it doesn't occur
 	 */
-	private int indexOf(String regexp, String string) {
-		Pattern pattern = Pattern.compile(regexp);
+	private int indexOf(Pattern pattern, String string) {
 		Matcher matcher = pattern.matcher(string);
 		if (matcher.find()) {
 			return matcher.start();
@@ -264,10 +273,18 @@ public class Notebook {
 	 * @return The file name of the notebook, without preceding path
 	 */
 	public String getName() {
-		int namePos = path.lastIndexOf(File.separatorChar) + 1;
+		// Entries in archives are always separated by '/'
+		int namePos = Math.max(path.lastIndexOf(File.separatorChar), path.lastIndexOf('/')) + 1;
 		return path.substring(namePos);
 	}
 	
+	/**
+	 * @return The path to the notebook file
+	 */
+	String getPath() {
+		return path;
+	}
+	
 	public String getRepro() {
 		return repro;
 	}
@@ -286,14 +303,13 @@ public class Notebook {
 	 * @param suffix Suffix of output files
 	 */
 	public void dumpCode(String location, String suffix) throws IOException {
-		List<JSONObject> cells = this.getCodeCells();
+		NotebookContents contents = getContents();
 		String noteBookName = getNameWithoutSuffix();
-		for (int i=0; i<cells.size(); i++) {
+		for (int i=0; i<contents.numCodeCells(); i++) {
 			String outputFile = location + File.separator + noteBookName + "_" + i + "." + suffix;
 			Writer writer = new FileWriter(outputFile);
-			JSONArray lines = getSource(cells.get(i));
-			for (int j=0; j<lines.length(); j++) {
-				writer.write(lines.getString(j));
+			for (String line: contents.source(i)) {
+				writer.write(line);
 			}
 			writer.close();
 		}
@@ -309,17 +325,16 @@ public class Notebook {
 	 * @param suffix Suffix of output files (inside zip)
 	 */
 	public void dumpCodeAsZipWithSingleFile(String location, String suffix) throws IOException {
-		List<JSONObject> cells = this.getCodeCells();
+		NotebookContents contents = getContents();
 		String noteBookName = getNameWithoutSuffix();
 		String outputFile = location + File.separator + noteBookName + ".zip";
 		FileOutputStream zipFileStream = new FileOutputStream(outputFile);
 		ZipOutputStream targetStream = new ZipOutputStream(zipFileStream);
 		ZipEntry codeFile = new ZipEntry(noteBookName + "." + suffix);
 		targetStream.putNextEntry(codeFile);
-		for (int i=0; i<cells.size(); i++) {
-			JSONArray lines = getSource(cells.get(i));
-			for (int j=0; j<lines.length(); j++) {
-				targetStream.write(lines.getString(j).getBytes());
+		for (int i=0; i<contents.numCodeCells(); i++) {
+			for (String line: contents.source(i)) {
+				targetStream.write(line.getBytes());
 			}
 		}
 		targetStream.close();
@@ -337,16 +352,15 @@ public class Notebook {
 	 */
 	public void dumpCodeAsZip(String location, String suffix) throws IOException {
 		String noteBookName = getNameWithoutSuffix();
-		List<JSONObject> cells = this.getCodeCells();
+		NotebookContents contents = getContents();
 		try {
 			FileOutputStream fos = new FileOutputStream(location + File.separator + noteBookName + ".zip");
 			ZipOutputStream zos = new ZipOutputStream(fos);
-			for (int i=0; i<cells.size(); i++) {
+			for (int i=0; i<contents.numCodeCells(); i++) {
 				ZipEntry entry = new ZipEntry(noteBookName + "_" + i + "." + suffix); 
 				zos.putNextEntry(entry);
-				JSONArray lines = getSource(cells.get(i));
-				for (int j=0; j<lines.length(); j++) {
-					zos.write(lines.getString(j).getBytes());
+				for (String line: contents.source(i)) {
+					zos.write(line.getBytes());
 				}
 				zos.closeEntry();
 			}
@@ -364,30 +378,24 @@ public class Notebook {
 	 * @return Array containing a representation of the code of the snippets of the notebook
 	 */
 	public SnippetCode[] snippetCodes() {
-		MessageDigest hasher;
+		SnippetHasher hasher;
 		try {
-			hasher = MessageDigest.getInstance("MD5");
+			hasher = SnippetHasher.forCurrentThread();
 		} catch (NoSuchAlgorithmException e) {
 			System.err.println("MessageDigest cannot hash using MD5!");
 			return null;
 		}
-		List<JSONObject> codeCells = getCodeCells();
-		int numSnippets = codeCells.size();
+		NotebookContents contents = getContents();
+		int numSnippets = contents.numCodeCells();
 		SnippetCode[] code = new SnippetCode[numSnippets];
 		for (int i=0; i<numSnippets; i++) {
-			String snippet = "";
-			JSONArray lines = getSource(codeCells.get(i));
 			int loc = 0;
-			for (int j=0; j<lines.length(); j++) {
-				String line = lines.getString(j);
-				line = line.replaceAll("\\s", "");
-				if(!"".equals(line)) {
+			for (String line: contents.source(i)) {
+				if (hasher.add(line)) {
 					loc++;	// Count non-empty lines
 				}
-				snippet += line;
 			}
-			String hash = Utils.toHexString(hasher.digest(snippet.getBytes()));
-			code[i] = new SnippetCode(loc, hash);
+			code[i] = new SnippetCode(loc, hasher.digest());
 		}
 		return code;
 	}
@@ -400,26 +408,16 @@ public class Notebook {
 	public Map<LangSpec, LangName> allLanguageValues() {
 		Map<LangSpec, LangName> result
 			= new HashMap<LangSpec, LangName>(LangSpec.values().length-1);
-		JSONObject notebook = this.getNotebook();
-		if (!notebook.has("metadata")) {
-			result.put(LangSpec.METADATA_LANGUAGE, LangName.UNKNOWN);
-			result.put(LangSpec.METADATA_LANGUAGEINFO_NAME, LangName.UNKNOWN);
-			result.put(LangSpec.METADATA_KERNELSPEC_LANGUAGE, LangName.UNKNOWN);
-			result.put(LangSpec.METADATA_KERNELSPEC_NAME, LangName.UNKNOWN);
-		} else {
-			JSONObject metadata = notebook.getJSONObject("metadata");
-			result.put(LangSpec.METADATA_LANGUAGE, getLanguageFromLanguage(metadata).getName());
-			result.put(LangSpec.METADATA_LANGUAGEINFO_NAME, getLanguageFromLanguageinfo(metadata).getName());
-			if (!metadata.has("kernelspec")) {
-				result.put(LangSpec.METADATA_KERNELSPEC_LANGUAGE, LangName.UNKNOWN);
-				result.put(LangSpec.METADATA_KERNELSPEC_NAME, LangName.UNKNOWN);
-			} else {
-				JSONObject kernelspec = metadata.getJSONObject("kernelspec");
-				result.put(LangSpec.METADATA_KERNELSPEC_LANGUAGE, getLanguageFromKernelspecLanguage(kernelspec).getName());
-				result.put(LangSpec.METADATA_KERNELSPEC_NAME, getLanguageFromKernelSpecName(kernelspec).getName());
-			}
-		}
-		result.put(LangSpec.CODE_CELLS, getLanguageFromCodeCells(notebook).getName());
+		NotebookContents contents = getContents();
+		result.put(LangSpec.METADATA_LANGUAGE,
+				getLanguage(contents.metadataLanguage(), LangSpec.METADATA_LANGUAGE).getName());
+		result.put(LangSpec.METADATA_LANGUAGEINFO_NAME,
+				getLanguage(contents.languageInfoName(), LangSpec.METADATA_LANGUAGEINFO_NAME).getName());
+		result.put(LangSpec.METADATA_KERNELSPEC_LANGUAGE,
+				getLanguage(contents.kernelspecLanguage(), LangSpec.METADATA_KERNELSPEC_LANGUAGE).getName());
+		result.put(LangSpec.METADATA_KERNELSPEC_NAME,
+				getLanguage(contents.kernelspecName(), LangSpec.METADATA_KERNELSPEC_NAME).getName());
+		result.put(LangSpec.CODE_CELLS, getLanguageFromCodeCells(contents).getName());
 
 		return result;
 	}
@@ -428,11 +426,11 @@ public class Notebook {
 	 * @return The language of the notebook
 	 */
 	public Language language() {
-		JSONObject notebook = this.getNotebook();
+		NotebookContents contents = getContents();
 		
-		Language language = getLanguageFromMetadata(notebook);
+		Language language = getLanguageFromMetadata(contents);
 		if (!language.isSet()) {
-			language = getLanguageFromCodeCells(notebook);
+			language = getLanguageFromCodeCells(contents);
 		}
 		return language;
 	}
@@ -465,24 +463,20 @@ public class Notebook {
 	 * @return Number of code cells in notebook
 	 */
 	public int numCodeCells() {
-		return getCodeCells().size();
+		return getContents().numCodeCells();
 	}
 	
 	/**
 	 * @return An array with the number of characters in each snippet
 	 */
 	public int[] numCodeChars() {
-		List<JSONObject> codeCells = this.getCodeCells();
-		int[] result = new int[codeCells.size()];
-		for (int i=0; i<codeCells.size(); i++) {
-			JSONObject cell = codeCells.get(i);
-			JSONArray lines = getSource(cell);
+		NotebookContents contents = getContents();
+		int[] result = new int[contents.numCodeCells()];
+		for (int i=0; i<result.length; i++) {
 			result[i] = 0;
-			for (int j=0; j<lines.length(); j++) {
-				String line = lines.getString(j);	// Type is checked in getSource.
+			for (String line: contents.source(i)) {
 				result[i] += line.length();
 			}
-			
 		}
 		return result;
 	}
@@ -493,9 +487,8 @@ public class Notebook {
 	 * @param Index of snippet to print
 	 */
 	public void printSnippet(int index) {
-		JSONArray snippet = getSource(this.getCodeCells().get(index));
-		for (int i=0; i<snippet.length(); i++) {
-			System.out.print(snippet.getString(i));
+		for (String line: getContents().source(index)) {
+			System.out.print(line);
 		}
 	}
 	
@@ -512,10 +505,9 @@ public class Notebook {
 			locTotal = 0;	// May have been partly counted before.
 			locBlank = 0;
 			locContents = 0;
-			List<JSONObject> codeCells = getCodeCells();
-			for (JSONObject cell: codeCells) {
-				JSONArray source = getSource(cell);
-				countLines(source);
+			NotebookContents contents = getContents();
+			for (int i=0; i<contents.numCodeCells(); i++) {
+				countLines(contents.source(i));
 			}
 			locCounted = true;
 		}
@@ -524,10 +516,10 @@ public class Notebook {
 	/**
 	 * Count lines in source.
 	 */
-	private synchronized void countLines(JSONArray source) {
-		locTotal += source.length();
-		for (int i=0; i<source.length(); i++) {
-			String line = (source.getString(i)).trim();
+	private synchronized void countLines(String[] source) {
+		locTotal += source.length;
+		for (int i=0; i<source.length; i++) {
+			String line = source[i].trim();
 			if ("".equals(line)) {
 				locBlank++;
 			} else {
@@ -536,62 +528,6 @@ public class Notebook {
 		}
 	}
 	
-	/**
-	 * Extract cell array from notebook. Handles cell array on the top level
-	 * but also an array of worksheets, each containing a cell array.
-	 * @param notebook Notebook/worksheet to extract cells from
-	 * @return Array containing all cells of the notebook
-	 */
-	private static JSONArray getCellArray(JSONObject notebook) {
-		JSONArray cells = new JSONArray();
-		if (notebook.has("cells")) {
-			JSONArray notebookCells = notebook.getJSONArray("cells");
-			for (int i=0; i< notebookCells.length(); i++) {
-				cells.put(notebookCells.getJSONObject(i));
-			}
-		}
-		if (notebook.has("worksheets")) {
-			// Not according to spec, but occurring
-			JSONArray worksheets = notebook.getJSONArray("worksheets");
-			for (int i=0; i<worksheets.length(); i++) {
-				JSONArray workSheetCells = getCellArray(worksheets.getJSONObject(i));
-				for (int j=0; j<workSheetCells.length(); j++) {
-					cells.put(workSheetCells.getJSONObject(j));
-				}
-			}
-		}
-		return cells;
-	}
-	
-	/**
-	 * @return A list containing all code cells in the notebook represented by this object
-	 */
-	private List<JSONObject> getCodeCells() {
-		JSONObject notebook = this.getNotebook();
-		return getCodeCells(notebook);
-	}
-	
-	/**
-	 * @param notebook Notebook to extract code cells from
-	 * @return A list containing all code cells in notebook
-	 */
-	private List<JSONObject> getCodeCells(JSONObject notebook) {
-		JSONArray cells = getCellArray(notebook);
-		List<JSONObject> result = new ArrayList<JSONObject>();
-		for (int i=0; i<cells.length(); i++) {
-			JSONObject cell = cells.getJSONObject(i);
-			if (cell.has("cell_type")) {
-				String type = cell.getString("cell_type");
-				if (type.equals("code")) {
-					result.add(cell);
-				}
-			} else {
-				System.err.println("Key \"cell_type\" is missing in a cell in " + this.path);
-			}
-		}
-		return result;
-	}
-	
 	/**
 	 * Translate a string specifying the language to a LangName value.
 	 * @param language String specifying the language
@@ -614,19 +550,16 @@ public class Notebook {
 	}
 
 	/**
-	 * @param notebook Notebook to extract language from
+	 * @param contents Contents of notebook to extract language from
 	 * @return The language specified in code cells, if it exists and is consistent. Unset language otherwise.
 	 */
-	private Language getLanguageFromCodeCells(JSONObject notebook) {
-		List<JSONObject> codeCells = getCodeCells(notebook);
-		if (0 < codeCells.size()) {
-			String langName = "";
-			JSONObject cell = codeCells.get(0);
-			if (cell.has("language")) {
-				langName = cell.getString("language");
-				for (int i=1; i<codeCells.size(); i++) {
-					cell = codeCells.get(i);
-					if (!cell.has("language") || !(cell.getString("language")).equals(langName)) {
+	private Language getLanguageFromCodeCells(NotebookContents contents) {
+		int numCodeCells = contents.numCodeCells();
+		if (0 < numCodeCells) {
+			String langName = contents.codeCellLanguage(0);
+			if (null != langName) {
+				for (int i=1; i<numCodeCells; i++) {
+					if (!langName.equals(contents.codeCellLanguage(i))) {
 						System.err.println("Ambiguous language in " + this.path);
 						return new Language(LangName.UNKNOWN, LangSpec.CODE_CELLS);
 					}
@@ -638,18 +571,17 @@ public class Notebook {
 	}
 
 	/**
-	 * @param notebook Notebook to extract language from
+	 * @param contents Contents of notebook to extract language from
 	 * @return The language specified in metadata, if any. Unset language otherwise.
 	 */
-	private Language getLanguageFromMetadata(JSONObject notebook) {
-		if (notebook.has("metadata")) {
-			JSONObject metadata = notebook.getJSONObject("metadata");
-			Language language = getLanguageFromLanguageinfo(metadata);
+	private Language getLanguageFromMetadata(NotebookContents contents) {
+		if (contents.hasMetadata()) {
+			Language language = getLanguage(contents.languageInfoName(), LangSpec.METADATA_LANGUAGEINFO_NAME);
 			if (!language.isSet()) {
-				language = getLanguageFromLanguage(metadata);
+				language = getLanguage(contents.metadataLanguage(), LangSpec.METADATA_LANGUAGE);
 			}
 			if (!language.isSet()) {
-				language = getLanguageFromKernelspec(metadata);
+				language = getLanguage(contents.kernelspecLanguage(), LangSpec.METADATA_KERNELSPEC_LANGUAGE);
 			}
 			if (language.isSet()) {
 				return language;
@@ -661,141 +593,169 @@ public class Notebook {
 	}
 
 	/**
-	 * @param metadata Metadata to analyze
-	 * @return The language specified in Get source code metadata->kernelspec. Unset language otherwise.
+	 * @param language Value of a language field, null if the field is missing
+	 * @param spec The field that language was fetched from
+	 * @return The language specified in the field, if any. Unset language otherwise.
 	 */
-	private Language getLanguageFromKernelspec(JSONObject metadata) {
-		if (metadata.has("kernelspec")) {
-			JSONObject kernelspec = metadata.getJSONObject("kernelspec");
-			return getLanguageFromKernelspecLanguage(kernelspec);
+	private static Language getLanguage(String language, LangSpec spec) {
+		if (null == language) {
+			return new Language();
 		}
-		return new Language();
+		return new Language(getLangName(language), spec);
 	}
-
+	
 	/**
-	 * @param kernelspec
+	 * @return The name of the notebook, with everything after the last "." removed
 	 */
-	private Language getLanguageFromKernelSpecName(JSONObject kernelspec) {
-		if (kernelspec.has("name")) {
-			LangName name = getLangName(kernelspec.getString("name"));
-			return new Language(name, LangSpec.METADATA_KERNELSPEC_NAME);
+	private String getNameWithoutSuffix() {
+		String fullName = this.getName();
+		int separatorIndex = fullName.lastIndexOf(".");
+		if (-1 == separatorIndex) {
+			return fullName;
+		} else {
+			return fullName.substring(0, separatorIndex);
 		}
-		return new Language();
 	}
-
+	
 	/**
-	 * @param kernelspec
+	 * Parse the notebook file unless it has already been parsed.
+	 * @return The contents of the notebook
 	 */
-	private Language getLanguageFromKernelspecLanguage(JSONObject kernelspec) {
-		if (kernelspec.has("language")) {
-			LangName name = getLangName(kernelspec.getString("language"));
-			return new Language (name, LangSpec.METADATA_KERNELSPEC_LANGUAGE);
+	NotebookContents getContents() {
+		contentsLock.lock();
+		try {
+			if (null == contents) {
+				contents = parse();
+			}
+			return contents;
+		} finally {
+			contentsLock.unlock();
 		}
-		return new Language();
 	}
 	
 	/**
-	 * @param metadata Metadata to analyze
-	 * @return The language specified in metadata->language, if any. UNKNOWN otherwise.
+	 * @return True if the notebook file has been parsed, and the last parsing succeeded
 	 */
-	private Language getLanguageFromLanguage(JSONObject metadata) {
-		if (metadata.has("language")) {
-			LangName name = getLangName(metadata.getString("language"));
-			return new Language(name, LangSpec.METADATA_LANGUAGE);
-			
-		}
-		return new Language();
+	boolean isParsed() {
+		return parsed;
 	}
 	
 	/**
-	 * @param metadata Metadata to analyze
-	 * @return The language specified in metadata->language_info, if any. Unset language otherwise.
+	 * Drop the parsed contents of the notebook. The file will be parsed again
+	 * if the contents are needed later.
 	 */
-	private  Language getLanguageFromLanguageinfo(JSONObject metadata) {
-		if (metadata.has("language_info")) {
-			JSONObject languageinfo = metadata.getJSONObject("language_info");
-			if (languageinfo.has("name")) {
-				LangName name = getLangName(languageinfo.getString("name"));
-				return new Language(name, LangSpec.METADATA_LANGUAGEINFO_NAME);
-			}
+	void discardContents() {
+		contentsLock.lock();
+		try {
+			contents = null;
+			fileData = null;
+		} finally {
+			contentsLock.unlock();
 		}
-		return new Language();
 	}
 	
 	/**
-	 * @return The name of the notebook, with everything after the last "." removed
+	 * Drop the notebook file read by readFile, if it hasn't been parsed.
 	 */
-	private String getNameWithoutSuffix() {
-		String fullName = this.getName();
-		int separatorIndex = fullName.lastIndexOf(".");
-		if (-1 == separatorIndex) {
-			return fullName;
-		} else {
-			return fullName.substring(0, separatorIndex);
+	void discardFile() {
+		contentsLock.lock();
+		try {
+			fileData = null;
+		} finally {
+			contentsLock.unlock();
 		}
 	}
 	
 	/**
-	 * @return A JSONObject containing the contents of the notebook
+	 * Read the notebook file into memory, unless it has already been parsed,
+	 * so that the parsing doesn't have to wait for the file system. If the
+	 * file cannot be read, nothing happens; the error is reported when the
+	 * notebook is parsed.
 	 */
-	private JSONObject getNotebook() {
+	void readFile() {
 		contentsLock.lock();
-		JSONObject contentsReferent = null;
 		try {
-			if (null != contents && null != contents.get()) {
-				contentsReferent = contents.get();
+			if (null != contents || null != fileData) {
+				return;
+			}
+		} finally {
+			contentsLock.unlock();
+		}
+		byte[] data;
+		try {
+			if (-1 == NotebookArchive.separatorIndex(this.path)) {
+				data = Files.readAllBytes(new File(this.path).toPath());
 			} else {
-				InputStream input = new DataInputStream(new FileInputStream(new File(this.path)));
-				JSONTokener tokener = new JSONTokener(input);
-				contentsReferent = new JSONObject(tokener);
-				contents = new WeakReference<JSONObject>(contentsReferent);
+				InputStream input = NotebookArchive.openEntry(this.path);
+				try {
+					data = input.readAllBytes();
+				} finally {
+					input.close();
+				}
+			}
+		} catch (IOException e) {
+			return;
+		}
+		contentsLock.lock();
+		try {
+			if (null == contents) {
+				fileData = data;
 			}
-		} catch (FileNotFoundException e) {
-			System.err.println("Could not read " + this.path + ": " + e + ". Skipping notebook!");
-			contentsReferent = new JSONObject();
-			contents = new WeakReference<JSONObject>(contentsReferent);
 		} finally {
 			contentsLock.unlock();
 		}
-		return contentsReferent;
 	}
 	
 	/**
-	 * @param cell Code cell to fetch source code from
-	 * @return The source code stored in cell (with each line as a separate element), empty array if source code is missing 
+	 * Read the notebook file with the streaming reader. Fall back to org.json
+	 * if the file contains something that the streaming reader doesn't handle.
+	 * If the file has been read by readFile, the data in memory is parsed
+	 * instead, and released.
+	 * @return The contents of the notebook file
 	 */
-	private JSONArray getSource(JSONObject cell) {
-		// Source can be either a JSONArray or a string. :-/
-		Object source = null;
-		if (cell.has("source")) {
-			source = cell.get("source");
-		} else if (cell.has("input")) {
-			source = cell.get("input");
-		} else {
-			System.err.println("Keys \"source\" and \"input\" are missing in a cell in " + this.path);
-			source = new JSONArray();
-		}
-		if (source instanceof JSONArray) {
-			JSONArray result = (JSONArray)source;
-			// Add newlines if missing
-			for (int i=0; i<result.length(); i++) {
-				String line = result.getString(i);
-				if (0 == line.length() || '\n' != line.charAt(line.length()-1)) {
-					result.put(i, line + "\n");
-				}
+	private NotebookContents parse() {
+		byte[] data = fileData;
+		fileData = null;
+		parsed = false;
+		try {
+			NotebookContents result = null;
+			InputStream input = open(data);
+			try {
+				result = NotebookReader.read(input, this.path);
+			} finally {
+				input.close();
 			}
-			return result;
-		} else if (source instanceof String) {
-			JSONArray result = new JSONArray();
-			String[] lines = ((String) source).split("\\n");
-			for (String line: lines) {
-				result.put(line + "\n");
+			if (null == result) {
+				input = new BufferedInputStream(open(data));
+				try {
+					JSONTokener tokener = new JSONTokener(input);
+					result = NotebookContents.fromJson(new JSONObject(tokener), this.path);
+				} finally {
+					input.close();
+				}
 			}
+			parsed = true;
 			return result;
+		} catch (FileNotFoundException e) {
+			System.err.println("Could not read " + this.path + ": " + e + ". Skipping notebook!");
+			return NotebookContents.empty();
+		} catch (IOException e) {
+			System.err.println("Could not read " + this.path + ": " + e + ". Skipping notebook!");
+			return NotebookContents.empty();
+		}
+	}
+	
+	/**
+	 * @param data Contents of the notebook file, or null if it hasn't been read
+	 * @return A stream of the contents of the notebook file, which may be an entry in an archive (see NotebookArchive)
+	 */
+	private InputStream open(byte[] data) throws IOException {
+		if (null != data) {
+			return new ByteArrayInputStream(data);
+		} else if (-1 == NotebookArchive.separatorIndex(this.path)) {
+			return new FileInputStream(new File(this.path));
 		} else {
-			System.err.println("Unknown source type in " + this.path
-					+ ": " + source.getClass() + "! Skipping source.");
-			return new JSONArray();
+			return NotebookArchive.openEntry(this.path);
 		}
 	}
 }
@@ -5,6 +5,7 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
@@ -14,6 +15,9 @@ import java.util.concurrent.*;
  */
 public class NotebookAnalyzer extends Analyzer {
 	private List<Notebook> notebooks;
+	private int cloneShards = 1;
+	private HashStore hashStore = null;
+	private boolean binaryClones = false;
 	private static LangSpec[] langSpecFields = {LangSpec.METADATA_LANGUAGE , LangSpec.METADATA_LANGUAGEINFO_NAME, 
 			LangSpec.METADATA_KERNELSPEC_LANGUAGE, LangSpec.METADATA_KERNELSPEC_NAME,
 			LangSpec.CODE_CELLS};
@@ -28,23 +32,75 @@ public class NotebookAnalyzer extends Analyzer {
 	 * file whose name is given as an argument to the method, and its sub
 	 * directories (recursively). Create a Notebook from each file and store
 	 * it. (The argument may be the path to a Jupyter notebook file. In that
-	 * case, a Notebook is created from it.)
+	 * case, a Notebook is created from it.) The directories are traversed in
+	 * parallel, so the notebooks are stored in no particular order.
 	 * @param fileName Name of directory or file to look in for notebooks
 	 */
 	public void initializeNotebooksFrom(String fileName) {
-		File file = new File(fileName);
-		if (!file.isDirectory()) {
-			// Regular file
-			if (fileName.endsWith(".ipynb")) {
-				this.notebooks.add(new Notebook(fileName));
+		addAll(new FoundNotebooks(NotebookFinder.walk(fileName), null, true));
+	}
+	
+	/**
+	 * Create a Notebook from each notebook path listed in a file, and store
+	 * it. See NotebookFinder.readPathList for the format of the file.
+	 * @param pathsFile Name of file with notebook paths
+	 * @throws IOException If the file cannot be opened
+	 */
+	public void initializeNotebooksFromPathList(String pathsFile) throws IOException {
+		addAll(new FoundNotebooks(NotebookFinder.readPathList(pathsFile), null, true));
+	}
+	
+	private static void addAll(Iterator<Notebook> notebooks) {
+		while (notebooks.hasNext()) {
+			notebooks.next();
+		}
+	}
+	
+	/**
+	 * Creates a Notebook from each path found, sets its repro and, if the
+	 * notebooks are needed by later analyses, stores it in notebooks, as the
+	 * paths are iterated over.
+	 */
+	private class FoundNotebooks implements Iterator<Notebook> {
+		private final Iterator<String> paths;
+		private final Map<String, String> reproMap;
+		private final boolean store;
+		private int numFound = 0;
+		
+		/**
+		 * @param paths Paths to the notebooks, or null if there are none
+		 * @param reproMap Map from notebook name to repro name, or null if the repros are unknown
+		 * @param store True if the notebooks should be stored in notebooks
+		 */
+		FoundNotebooks(Iterator<String> paths, Map<String, String> reproMap, boolean store) {
+			this.paths = paths;
+			this.reproMap = reproMap;
+			this.store = store;
+		}
+		
+		/**
+		 * @return Number of notebooks returned by next so far
+		 */
+		int numFound() {
+			return numFound;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return null != paths && paths.hasNext();
+		}
+		
+		@Override
+		public Notebook next() {
+			Notebook notebook = new Notebook(paths.next());
+			if (null != reproMap) {
+				notebook.setRepro(reproMap.get(notebook.getName()));
 			}
-		} else {
-			Utils.heartBeat("Traversing " + file.getPath());
-			// The file is a directory. Traverse it.
-			String[] subFiles = file.list();
-			for (String subFileName: subFiles) {
-				initializeNotebooksFrom(file.getPath() + File.separator + subFileName);
+			if (store) {
+				notebooks.add(notebook);
 			}
+			numFound++;
+			return notebook;
 		}
 	}
 	
@@ -87,54 +143,99 @@ public class NotebookAnalyzer extends Analyzer {
 	
 	/**
 	 * Create CSV files with information about LOC, languages (actual one and
-	 * all defined ones respectively) and clones.
+	 * all defined ones respectively) and clones. The notebooks are analyzed in
+	 * a streaming fashion: the lines of the code_cells, loc, languages and
+	 * all_languages files are written as soon as the analysis of each notebook
+	 * is done, and only the snippet hashes are kept until the clone analysis.
 	 * @throws IOException On problems handling the output file
 	 */
 	public void allCccAnalyzes() throws IOException {
-		List<Callable<AllCccResults>> tasks = new ArrayList<>(notebooks.size());
-		for (Notebook notebook: this.notebooks) {
-			tasks.add(new AllCccAnalyzer(notebook));
-		}
-		List<Future<AllCccResults>> result = ThreadExecutor.getInstance().invokeAll(tasks);
-		
-		Writer codeCellsWriter = new FileWriter(outputDir + "/code_cells" + LocalDateTime.now() + ".csv");
+		allCccAnalyzes(notebooks.iterator());
+	}
+	
+	/**
+	 * Run the analyses described for allCccAnalyzes on the notebooks returned
+	 * by an iterator, as soon as they are returned.
+	 * @param notebooks Notebooks to analyze
+	 * @throws IOException On problems handling the output file
+	 */
+	private void allCccAnalyzes(Iterator<Notebook> notebooks) throws IOException {
+		CsvWriter codeCellsWriter = csvWriter(outputDir + "/code_cells" + LocalDateTime.now() + ".csv");
 		codeCellsWriter.write(numCodeCellsHeader());
-		Writer LOCWriter = new FileWriter(outputDir + "/loc" + LocalDateTime.now() + ".csv");
+		CsvWriter LOCWriter = csvWriter(outputDir + "/loc" + LocalDateTime.now() + ".csv");
 		LOCWriter.write(LOCHeader());
-		Writer langWriter = new FileWriter(outputDir + "/languages" + LocalDateTime.now() + ".csv");
+		CsvWriter langWriter = csvWriter(outputDir + "/languages" + LocalDateTime.now() + ".csv");
 		langWriter.write(languagesHeader());
-		Writer allLangWriter = new FileWriter(outputDir + "/all_languages" + LocalDateTime.now() + ".csv");
+		CsvWriter allLangWriter = csvWriter(outputDir + "/all_languages" + LocalDateTime.now() + ".csv");
 		allLangWriter.write(allLanguagesHeader());
-		Map<Notebook, SnippetCode[]> snippets = new HashMap<Notebook, SnippetCode[]>();
+		CloneIndex.Snippets snippets = new CloneIndex.Snippets();
 		
-		for (int i=0; i<notebooks.size(); i++) {
-			Notebook notebook = notebooks.get(i);
-			AllCccResults results;
-			try {
-				results = result.get(i).get();
-			} catch (InterruptedException | ExecutionException e) {
-				/* This should only happen when a thread gets interrupted
-				   Other exceptions are handled in AllCccAnalyzer. */
-				System.err.println("Could not get results for " + notebook.getName() + ": " + e);
-				e.printStackTrace();
-				results = new AllCccResults();
+		CccPipeline pipeline = new CccPipeline(codeCellsWriter, LOCWriter, langWriter, allLangWriter, snippets);
+		try {
+			pipeline.run(notebooks);
+			saveHashStore();
+		} finally {
+			/* Language summary is not printed here, since the information can
+			   easily be extracted from the CSV file. */
+			codeCellsWriter.close();
+			LOCWriter.close();
+			langWriter.close();
+			allLangWriter.close();
+		}
+		
+		CloneIndex clones = getClones(snippets);
+		writeCloneFiles(clones);
+	}
+	
+	/**
+	 * Pipeline that runs all characteristics and code clone analyzes on each
+	 * notebook, writes the characteristics to the CSV files and stores the
+	 * snippet hashes for the clone analysis.
+	 */
+	private class CccPipeline extends NotebookPipeline<AllCccResults> {
+		private final CsvWriter codeCellsWriter, LOCWriter, langWriter, allLangWriter;
+		private final CloneIndex.Snippets snippets;
+		private int numConsumed = 0;
+		
+		CccPipeline(CsvWriter codeCellsWriter, CsvWriter LOCWriter, CsvWriter langWriter,
+				CsvWriter allLangWriter, CloneIndex.Snippets snippets) {
+			this.codeCellsWriter = codeCellsWriter;
+			this.LOCWriter = LOCWriter;
+			this.langWriter = langWriter;
+			this.allLangWriter = allLangWriter;
+			this.snippets = snippets;
+		}
+		
+		@Override
+		protected Callable<AllCccResults> task(Notebook notebook) {
+			if (null == hashStore) {
+				return new AllCccAnalyzer(notebook);
+			} else {
+				return hashStore.cccTask(notebook);
+			}
+		}
+		
+		@Override
+		protected void consume(Notebook notebook, AllCccResults results) throws IOException {
+			if (0 == numConsumed%10000) {
+				Utils.heartBeat("Writing characteristics of " + notebook.getName());
 			}
 			writeCodeCellsLine(results.getNumCodeCells(), notebook, codeCellsWriter);
 			writeLocLine(results.getTotalLOC(), results.getNonBlankLOC(), results.getBlankLOC(), notebook, LOCWriter);
 			writeLanguagesLine(results.getLanguage(), notebook, langWriter);
 			writeAllLanguagesLine(results.getAllLanguages(), notebook, allLangWriter);
 			storeHashes(results.getHashes(), notebook, snippets);
+			numConsumed++;
 		}
 		
-		/* Language summary is not printed here, since the information can
-		   easily be extracted from the CSV file. */
-		codeCellsWriter.close();
-		LOCWriter.close();
-		langWriter.close();
-		allLangWriter.close();
-		
-		Map<SnippetCode, List<Snippet>> clones = getClones(snippets);
-		writeCloneFiles(snippets, clones);
+		@Override
+		protected AllCccResults failed(Notebook notebook, Exception e) {
+			/* This should only happen when a thread gets interrupted
+			   Other exceptions are handled in AllCccAnalyzer. */
+			System.err.println("Could not get results for " + notebook.getName() + ": " + e);
+			e.printStackTrace();
+			return new AllCccResults();
+		}
 	}
 	
 	/**
@@ -155,22 +256,34 @@ public class NotebookAnalyzer extends Analyzer {
 	 * @throws IOException On problems handling the output file.
 	 */
 	public Map<SnippetCode, List<Snippet>> clones() throws IOException {
-		Map<Notebook, SnippetCode[]> snippets = getSnippets();
-		Map<SnippetCode, List<Snippet>> clones = getClones(snippets);
-		writeCloneFiles(snippets, clones);
+		return cloneIndex().toMap();
+	}
+	
+	/**
+	 * Perform the clone analysis described for clones.
+	 * @return An index of all snippets, grouped by code
+	 * @throws IOException On problems handling the output file.
+	 */
+	private CloneIndex cloneIndex() throws IOException {
+		CloneIndex clones = getClones(getSnippets());
+		writeCloneFiles(clones);
 		return clones;
 	}
 	
 	/**
-	 * @return A map from file names to snippets
+	 * @return The snippets of all notebooks
 	 */
-	private Map<Notebook, SnippetCode[]> getSnippets() throws IOException {
+	private CloneIndex.Snippets getSnippets() throws IOException {
 		List<Callable<SnippetCode[]>> tasks = new ArrayList<Callable<SnippetCode[]>>(notebooks.size());
 		for (Notebook notebook: notebooks) {
-			tasks.add(new HashExtractor(notebook));
+			if (null == hashStore) {
+				tasks.add(new HashExtractor(notebook));
+			} else {
+				tasks.add(hashStore.hashTask(notebook));
+			}
 		}
 		List<Future<SnippetCode[]>> result = ThreadExecutor.getInstance().invokeAll(tasks);
-		Map<Notebook, SnippetCode[]> snippets = new HashMap<Notebook, SnippetCode[]>();
+		CloneIndex.Snippets snippets = new CloneIndex.Snippets();
 		for (int i=0; i<notebooks.size(); i++) {
 			Notebook notebook = notebooks.get(i);
 			if (0 == i%10000) {
@@ -178,16 +291,35 @@ public class NotebookAnalyzer extends Analyzer {
 			}
 			storeHashes(result.get(i), notebook, snippets);
 		}
+		saveHashStore();
 		return snippets;
 	}
 	
 	/**
-	 * Store the hash array wrapped in result with notebook as key in the map snippets.
+	 * Write the hash store, if any, to disk. Failures are reported, but don't
+	 * stop the analysis, since the results of the current run are not
+	 * affected.
+	 */
+	private void saveHashStore() {
+		if (null == hashStore) {
+			return;
+		}
+		Utils.heartBeat("Reused stored results for " + hashStore.numReused()
+				+ " notebooks. Saving hash store with " + hashStore.size() + " notebooks.");
+		try {
+			hashStore.save();
+		} catch (IOException e) {
+			System.err.println("Could not save hash store: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Add the hash array wrapped in result to snippets, as the snippets of notebook.
 	 * @param hashes Wrapper around hashes
-	 * @param notebook Key to store in the map
-	 * @param snippets Map to store the result in
+	 * @param notebook Notebook containing the snippets
+	 * @param snippets Collection to add the result to
 	 */
-	private void storeHashes(Future<SnippetCode[]> hashes, Notebook notebook, Map<Notebook, SnippetCode[]> snippets) {
+	private void storeHashes(Future<SnippetCode[]> hashes, Notebook notebook, CloneIndex.Snippets snippets) {
 		SnippetCode[] hashValues;
 		try {
 			hashValues = hashes.get();
@@ -199,141 +331,84 @@ public class NotebookAnalyzer extends Analyzer {
 		storeHashes(hashValues, notebook, snippets);
 	}
 	
-	private void storeHashes(SnippetCode[] hashes, Notebook notebook, Map<Notebook, SnippetCode[]> snippets) {
-		snippets.put(new Notebook(notebook), hashes);
-	}
-	
-	/**
-	 * @return A map from snippet (hash and loc) to location in a notebook
-	 */
-	private Map<SnippetCode, List<Snippet>> getClones(Map<Notebook, SnippetCode[]> fileMap) throws IOException {
-		int numAnalyzed = 0;
-		Map<SnippetCode, List<Snippet>> clones = new HashMap<SnippetCode, List<Snippet>>();
-		Map<SnippetCode, List<Integer>> loc = new HashMap<SnippetCode, List<Integer>>();
-		// Add all snippets to clone map
-		for (Notebook notebook: fileMap.keySet()) {
-			if (0 == numAnalyzed%10000) {
-				Utils.heartBeat("Finding clones in " + notebook.getName());
-			}
-			SnippetCode[] snippetCodes = fileMap.get(notebook);
-			for (int j=0; j<snippetCodes.length; j++) {
-				addToMap(snippetCodes[j], new Snippet(notebook, j), clones);
-				addToMap(snippetCodes[j], snippetCodes[j].getLOC(), loc);
-			}
-			numAnalyzed++;
-		}
-		// Update line count for snippets
-		for (SnippetCode snippet: clones.keySet()) {
-			List<Integer> locValues = loc.get(snippet);
-			int medianLoc = Utils.median(locValues, "Different line count for snippet " + snippet.getHash());
-			snippet.setLOC(medianLoc);
-		}
-		return clones;
+	private void storeHashes(SnippetCode[] hashes, Notebook notebook, CloneIndex.Snippets snippets) {
+		snippets.add(notebook, hashes);
 	}
 	
 	/**
-	 * If the specified key exists in map, add the value to the list stored for
-	 * this key. Otherwise, create a new lost containing (only) the value and
-	 * add to map with the actual key.
-	 * @param key Key value
-	 * @param value Value to store
-	 * @param map Map to store the value in
+	 * @return An index from snippet (hash and loc) to location in a notebook
 	 */
-	private<K, V> void addToMap(K key, V value, Map<K, List<V>> map) {
-		if (map.containsKey(key)) {
-			map.get(key).add(value);
-		} else {
-			List<V> values = new ArrayList<V>();
-			values.add(value);
-			map.put(key, values);
-		}
+	private CloneIndex getClones(CloneIndex.Snippets snippets) {
+		return new CloneIndex(snippets, cloneShards);
 	}
 	
 	/**
 	 * Create and fill file2Hashes, hash2Files cloneFrequencies and connections
 	 * files with data for all notebooks.
-	 * @param file2hashes A map from file names to snippets
-	 * @param hash2files A map from snippets to files
+	 * @param clones Index of all snippets
 	 * @throws IOException On problems handling the output files
 	 */
-	public void writeCloneFiles(Map<Notebook, SnippetCode[]> file2hashes,
-			Map<SnippetCode, List<Snippet>> hash2files) throws IOException {
-		writeCloneFiles(file2hashes, hash2files, file2hashes.keySet().size());
+	public void writeCloneFiles(CloneIndex clones) throws IOException {
+		writeCloneFiles(clones, clones.numNotebooks());
 	}
 	
 	/**
 	 * Create and fill file2Hashes, hash2Files cloneFrequencies  files with
 	 * data for all notebooks. Create and fill connections file for
-	 * CONNECTION_NOTEBOOKS notebooks
-	 * @param file2hashes A map from file names to snippets
-	 * @param hash2files A map from snippets to files
+	 * CONNECTION_NOTEBOOKS notebooks. If binary clone output is enabled, also
+	 * create a binary clone file (see CloneFile).
+	 * @param clones Index of all snippets
 	 * @param CONNECTION_NOTEBOOKS Number of notebooks to print connection data for
 	 * @throws IOException On problems handling the output files
 	 */
-	private void writeCloneFiles(Map<Notebook, SnippetCode[]> file2hashes,
-			Map<SnippetCode, List<Snippet>> hash2files, int CONNECTION_NOTEBOOKS) throws IOException {
-		printFile2hashes(file2hashes);
-		printHash2files(hash2files);
-		printCloneFrequencies(file2hashes, hash2files);
-		printConnectionsFile(file2hashes, hash2files, CONNECTION_NOTEBOOKS);
+	private void writeCloneFiles(CloneIndex clones, int CONNECTION_NOTEBOOKS) throws IOException {
+		printFile2hashes(clones);
+		printHash2files(clones);
+		printCloneFrequencies(clones);
+		printConnectionsFile(clones, CONNECTION_NOTEBOOKS);
+		if (binaryClones) {
+			CloneFile.write(clones, outputDir + "/clones" + LocalDateTime.now() + ".bin");
+		}
 	}
 	
-	private void printFile2hashes(Map<Notebook, SnippetCode[]> file2hashes) throws IOException {
+	private void printFile2hashes(CloneIndex clones) throws IOException {
 		String timeStamp = LocalDateTime.now().toString();
-		Writer writerA = new FileWriter(outputDir + "/file2hashesA" + timeStamp + ".csv");
+		CsvWriter writerA = csvWriter(outputDir + "/file2hashesA" + timeStamp + ".csv");
 		writerA.write(file2hashesHeader());
-		for (Notebook notebook: file2hashes.keySet()) {
-			writerA.write(notebook.getName());
-			SnippetCode[] code = file2hashes.get(notebook);
-			for (SnippetCode snippet: code) {
-				writerA.write(", " + snippet.getHash());
+		for (int notebook=0; notebook<clones.numNotebooks(); notebook++) {
+			StringBuilder line = writerA.newRow();
+			line.append(clones.notebookName(notebook));
+			for (int cell=0; cell<clones.numSnippets(notebook); cell++) {
+				clones.appendHash(clones.group(notebook, cell), line.append(", "));
 			}
-			writerA.write("\n");
+			writerA.endRow();
 		}
 		writerA.close();
 	}
 	
-	private void printHash2files(Map<SnippetCode, List<Snippet>> hash2files) throws IOException {
-		Writer writer = new FileWriter(outputDir + "/hash2filesA" + LocalDateTime.now() + ".csv");
+	private void printHash2files(CloneIndex clones) throws IOException {
+		CsvWriter writer = csvWriter(outputDir + "/hash2filesA" + LocalDateTime.now() + ".csv");
 		writer.write(hash2filesHeader());
-		for (SnippetCode code: hash2files.keySet()) {
-			writer.write(code.getHash() + ", " + code.getLOC());
-			for (Snippet s: hash2files.get(code)) {
-				writer.write(", " + s.toString());
+		for (int group=0; group<clones.numGroups(); group++) {
+			StringBuilder line = writer.newRow();
+			clones.appendHash(group, line).append(", ").append(clones.loc(group));
+			for (int member=0; member<clones.groupSize(group); member++) {
+				line.append(", ").append(clones.notebookName(clones.memberNotebook(group, member)))
+					.append(", ").append(clones.memberCell(group, member));
 			}
-			writer.write("\n");
+			writer.endRow();
 		}
 		writer.close();
 	}
 	
-	private void printCloneFrequencies(Map<Notebook, SnippetCode[]> file2hashes,
-			Map<SnippetCode, List<Snippet>> hash2files) throws IOException {
-		Writer writer = new FileWriter(outputDir + "/cloneFrequency" + LocalDateTime.now() + ".csv");
+	private void printCloneFrequencies(CloneIndex clones) throws IOException {
+		CsvWriter writer = csvWriter(outputDir + "/cloneFrequency" + LocalDateTime.now() + ".csv");
 		writer.write(cloneFrequencyHeader());
-		for (Notebook notebook: file2hashes.keySet()) {
-			int numClones = 0, numUnique = 0, numEmpty = 0, numClonesNE = 0;
-			int numIntra = 0, numIntraNE = 0;	// # intra notebook clones
-			SnippetCode[] code = file2hashes.get(notebook);
-			for (SnippetCode snippet: code) {
-				if(isClone(snippet, hash2files)) {
-					numClones++;
-					boolean intra = snippet.isIntraClone(code);
-					if (intra) {
-						numIntra++;
-					}
-					if (snippet.isEmpty()) {
-						numEmpty++;
-					} else {
-						if (intra) {
-							numIntraNE++;
-						}
-					}
-				} else {
-					numUnique++;
-				}
-			}
-			numClonesNE = numClones - numEmpty;
-			printCloneFrequencyLine(writer, notebook.getName(), numClones, numUnique, numEmpty, numClonesNE, numIntra, numIntraNE);
+		CloneCounter counter = new CloneCounter();
+		for (int notebook=0; notebook<clones.numNotebooks(); notebook++) {
+			counter.count(clones, notebook);
+			printCloneFrequencyLine(writer, clones.notebookName(notebook), counter.numClones, counter.numUnique,
+					counter.numEmpty, counter.numClonesNE(), counter.numIntra, counter.numIntraNE);
 		}
 		writer.close();
 	}
@@ -355,25 +430,26 @@ public class NotebookAnalyzer extends Analyzer {
 	 * - mean number edges to other repros, excl. those representing empty snippets
 	 * Print the values, in the order mentioned, separated with commas to the file
 	 * connections<current-date-time>.csv for a random sample of NUM_CONNECTIONS
-	 * notebooks in file2hashes (unless NUM_CONNECTIONS > number of notebooks
+	 * notebooks in the index (unless NUM_CONNECTIONS > number of notebooks
 	 * in the analysis --then data is printed for the whole set of notebooks).
 	 * Note that when computing the mean, only repros for which there is a
 	 * connection are included.
-	 * @param file2hashes Mapping from notebook name to snippets
-	 * @param hash2files Mapping from snippets to position in notebooks
+	 * @param clones Index of all snippets
 	 * @param NUM_NOTEBOOKS Maximum number of notebooks to print connection information for
 	 */
-	private void printConnectionsFile(Map<Notebook, SnippetCode[]> file2hashes,
-			Map<SnippetCode, List<Snippet>> hash2files, final int NUM_CONNECTIONS) throws IOException {
-		Writer writer = new FileWriter(outputDir + "/connections" + LocalDateTime.now() + ".csv");
+	private void printConnectionsFile(CloneIndex clones, final int NUM_CONNECTIONS) throws IOException {
+		CsvWriter writer = csvWriter(outputDir + "/connections" + LocalDateTime.now() + ".csv");
 		writer.write(connectionsHeader());
-		List<Notebook> notebooks = new ArrayList<Notebook>(file2hashes.keySet());
+		List<Integer> notebooks = new ArrayList<Integer>(clones.numNotebooks());
+		for (int notebook=0; notebook<clones.numNotebooks(); notebook++) {
+			notebooks.add(notebook);
+		}
 		Collections.shuffle(notebooks);
-		int connectionsToPrint = Math.min(NUM_CONNECTIONS, file2hashes.size());
+		int connectionsToPrint = Math.min(NUM_CONNECTIONS, clones.numNotebooks());
 		List<Callable<String>> tasks = new ArrayList<Callable<String>>(connectionsToPrint);
 		for (int i=0; i<connectionsToPrint; i++) {
 			boolean heartBeat = 0 == i%10000;
-			tasks.add(new ConnectionsLineBuilder(notebooks.get(i), file2hashes, hash2files, heartBeat));
+			tasks.add(new ConnectionsLineBuilder(clones, notebooks.get(i), heartBeat, approximateRepros));
 		}
 		List<Future<String>> result = ThreadExecutor.getInstance().invokeAll(tasks);
 		for (int i=0; i<connectionsToPrint; i++) {
@@ -381,7 +457,7 @@ public class NotebookAnalyzer extends Analyzer {
 				writer.write(result.get(i).get());
 			} catch (InterruptedException | ExecutionException e) {
 				System.err.println("Printing connections for notebook "
-						+ notebooks.get(i).getName() + " failed!");
+						+ clones.notebookName(notebooks.get(i)) + " failed!");
 				e.printStackTrace();
 			}
 		}
@@ -405,19 +481,10 @@ public class NotebookAnalyzer extends Analyzer {
 	/**
 	 * @return Header for the connections csv file
 	 */
-	private static String connectionsHeader() {
+	private String connectionsHeader() {
 		return "file, connections, connections normalized, non-empty connections, non-empty connections normalized, "
-				+ "intra repro connections, non-empty intra repro connections, mean inter repro connections, mean non-empty inter repro connections\n";
-	}
-	
-	/**
-	 * Look in clones to decide whether snippet is a clone or a unique snippet
-	 * (that is, if the list of snippets is at least 2).
-	 * @return true if snippet is a clone, false otherwise
-	 */
-	private static boolean isClone(SnippetCode snippet, Map<SnippetCode, List<Snippet>> hash2files) {
-		List<Snippet> snippets = hash2files.get(snippet);
-		return snippets.size() >= 2;
+				+ "intra repro connections, non-empty intra repro connections, mean inter repro connections" + reproCountNote()
+				+ ", mean non-empty inter repro connections" + reproCountNote() + "\n";
 	}
 	
 	/**
@@ -432,7 +499,7 @@ public class NotebookAnalyzer extends Analyzer {
 			tasks.add(new AllLanguagesExtractor(notebook));
 		}
 		List<Future<Map<LangSpec, LangName>>> result = ThreadExecutor.getInstance().invokeAll(tasks);
-		Writer writer = new FileWriter(outputDir + "/all_languages" + LocalDateTime.now() + ".csv");
+		CsvWriter writer = csvWriter(outputDir + "/all_languages" + LocalDateTime.now() + ".csv");
 		writer.write(allLanguagesHeader());
 		for (int i=0; i<notebooks.size(); i++) {
 			Notebook notebook = notebooks.get(i);
@@ -459,7 +526,7 @@ public class NotebookAnalyzer extends Analyzer {
 	 * @param notebook Notebook to write information for
 	 * @param writer Writer that appends text to the all_languages file
 	 */
-	private void writeAllLanguagesLine(Future<Map<LangSpec, LangName>> languages, Notebook notebook, Writer writer) throws IOException {
+	private void writeAllLanguagesLine(Future<Map<LangSpec, LangName>> languages, Notebook notebook, CsvWriter writer) throws IOException {
 		Map<LangSpec, LangName> languageValues = null;
 		try {
 			languageValues = languages.get();
@@ -470,18 +537,18 @@ public class NotebookAnalyzer extends Analyzer {
 		writeAllLanguagesLine(languageValues, notebook, writer);
 	}
 	
-	private void writeAllLanguagesLine(Map<LangSpec, LangName> languages, Notebook notebook, Writer writer) throws IOException {
-		writer.write(notebook.getName());
+	private void writeAllLanguagesLine(Map<LangSpec, LangName> languages, Notebook notebook, CsvWriter writer) throws IOException {
+		StringBuilder line = writer.newRow().append(notebook.getName());
 		if (null == languages) {
 			for (int j=0; j<langSpecFields.length; j++) {
-				writer.write(", UNKNOWN");
+				line.append(", UNKNOWN");
 			}
 		} else {
 			for (LangSpec field: langSpecFields) {
-				writer.write(", " + languages.get(field));
+				line.append(", ").append(languages.get(field));
 			}
 		}
-		writer.write("\n");
+		writer.endRow();
 	}
 
 	/**
@@ -502,7 +569,7 @@ public class NotebookAnalyzer extends Analyzer {
 			tasks.add(new LanguageExtractor(notebook));
 		}
 		List<Future<Language>> langResult = ThreadExecutor.getInstance().invokeAll(tasks);
-		Writer writer = new FileWriter(outputDir + "/languages" + LocalDateTime.now() + ".csv");
+		CsvWriter writer = csvWriter(outputDir + "/languages" + LocalDateTime.now() + ".csv");
 		writer.write(languagesHeader());
 		for (int i=0; i<notebooks.size(); i++) {
 			LangName language = writeLanguagesLine(langResult.get(i), notebooks.get(i), writer);
@@ -518,7 +585,7 @@ public class NotebookAnalyzer extends Analyzer {
 	 * @param notebook Notebook to write information for
 	 * @param writer Writer that appends text to the languages file
 	 */
-	private LangName writeLanguagesLine(Future<Language> language, Notebook notebook, Writer writer) throws IOException {
+	private LangName writeLanguagesLine(Future<Language> language, Notebook notebook, CsvWriter writer) throws IOException {
 		Language languageValue = getLanguage(language, notebook);
 		writeLanguagesLine(languageValue, notebook, writer);
 		return languageValue.getName();
@@ -534,8 +601,10 @@ public class NotebookAnalyzer extends Analyzer {
 		}
 	}
 	
-	private void writeLanguagesLine(Language language, Notebook notebook, Writer writer) throws IOException {
-		writer.write(notebook.getName() + ", " + language.toString() + "\n");
+	private void writeLanguagesLine(Language language, Notebook notebook, CsvWriter writer) throws IOException {
+		writer.newRow().append(notebook.getName()).append(", ")
+			.append(language.getName()).append(", ").append(language.getSpec());
+		writer.endRow();
 	}
 	
 	/**
@@ -566,7 +635,7 @@ public class NotebookAnalyzer extends Analyzer {
 		List<Future<Integer>> nonBlankLocResults = ThreadExecutor.getInstance().invokeAll(nonBlankLocTasks);
 		List<Future<Integer>> blankLocResults = ThreadExecutor.getInstance().invokeAll(blankLocTasks);
 		
-		Writer writer = new FileWriter(outputDir + "/loc" + LocalDateTime.now() + ".csv");
+		CsvWriter writer = csvWriter(outputDir + "/loc" + LocalDateTime.now() + ".csv");
 		writer.write(LOCHeader());
 		int totalLoc = 0;
 		for (int i=0; i<notebooks.size(); i++) {
@@ -584,7 +653,7 @@ public class NotebookAnalyzer extends Analyzer {
 	 * @param notebook Notebook to write information for
 	 * @param writer Writer that appends text to the loc file
 	 */
-	private int writeLocLine(Future<Integer> loc, Future<Integer> nonBlankLoc, Future<Integer> blankLoc, Notebook notebook, Writer writer) throws IOException {
+	private int writeLocLine(Future<Integer> loc, Future<Integer> nonBlankLoc, Future<Integer> blankLoc, Notebook notebook, CsvWriter writer) throws IOException {
 		int locValue = 0, nonBlankLocValue = 0, blankLocValue = 0;
 		try {
 			locValue = loc.get();
@@ -598,8 +667,10 @@ public class NotebookAnalyzer extends Analyzer {
 		return locValue;
 	}
 	
-	private void writeLocLine(int loc, int nonBlankLoc, int blankLoc, Notebook notebook, Writer writer) throws IOException {
-		writer.write(notebook.getName() + ", " + loc + ", " + nonBlankLoc + ", " + blankLoc + "\n");
+	private void writeLocLine(int loc, int nonBlankLoc, int blankLoc, Notebook notebook, CsvWriter writer) throws IOException {
+		writer.newRow().append(notebook.getName()).append(", ").append(loc)
+			.append(", ").append(nonBlankLoc).append(", ").append(blankLoc);
+		writer.endRow();
 	}
 
 	/**
@@ -646,7 +717,7 @@ public class NotebookAnalyzer extends Analyzer {
 		List<Future<List<PythonModule>>> modules = ThreadExecutor.getInstance().invokeAll(moduleTasks);
 		
 		List<List<PythonModule>> result = new ArrayList<List<PythonModule>>(pythonNotebooks.size());
-		Writer writer = new FileWriter(outputDir + "/modules" + LocalDateTime.now() + ".csv");
+		CsvWriter writer = csvWriter(outputDir + "/modules" + LocalDateTime.now() + ".csv");
 		writer.write(modulesHeader());
 		for (int i=0; i<modules.size(); i++) {
 			Notebook notebook = pythonNotebooks.get(i);
@@ -684,7 +755,7 @@ public class NotebookAnalyzer extends Analyzer {
 	 * @param notebook Notebook to write information for
 	 * @param writer Writer that appends text to the modules file
 	 */
-	private List<PythonModule> writeModuleLine(Future<List<PythonModule>> modules, Notebook notebook, Writer writer) throws IOException {
+	private List<PythonModule> writeModuleLine(Future<List<PythonModule>> modules, Notebook notebook, CsvWriter writer) throws IOException {
 		List<PythonModule> result;
 		try {
 			result = modules.get();
@@ -697,12 +768,12 @@ public class NotebookAnalyzer extends Analyzer {
 		return result;
 	}
 
-	private void writeModuleLine(List<PythonModule> modules, Notebook notebook, Writer writer) throws IOException {
-		writer.write(notebook.getName());
+	private void writeModuleLine(List<PythonModule> modules, Notebook notebook, CsvWriter writer) throws IOException {
+		StringBuilder line = writer.newRow().append(notebook.getName());
 		for (PythonModule module: modules) {
-			writer.write(", " + module);
+			line.append(", ").append(module);
 		}
-		writer.write("\n");
+		writer.endRow();
 	}
 	
 	private String modulesHeader() {
@@ -736,7 +807,7 @@ public class NotebookAnalyzer extends Analyzer {
 	 */
 	private void createModuleTopList(List<Quantity> modules, int maxNum) throws IOException {
 		final int modulesToPrint = Math.min(maxNum, modules.size());
-		Writer writer = new FileWriter(outputDir + "/module_top_list" + LocalDateTime.now() + ".csv");
+		CsvWriter writer = csvWriter(outputDir + "/module_top_list" + LocalDateTime.now() + ".csv");
 		for (int i=0; i<modulesToPrint; i++) {
 			writer.write(modules.get(i).toCsvString() + "\n");
 		}
@@ -766,23 +837,17 @@ public class NotebookAnalyzer extends Analyzer {
 		}
 		// Merge all modules from allModules into the top modules (in parallel)
 		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numModules);
-		CountDownLatch counter = new CountDownLatch(numModules);
 		for (PythonModule module: topModulesWithFunctions) {
-			tasks.add(new ModulesMerger(module, allModules, counter));
+			tasks.add(new ModulesMerger(module, allModules));
 		}
+		// Blocks until all tasks have finished
 		ThreadExecutor.getInstance().invokeAll(tasks);
-		try {
-			counter.await();	// Block until all tasks have finished.
-		} catch (InterruptedException e) {
-			System.err.println("Thread was interrupted while merging modules:" + e);
-			e.printStackTrace();
-		}
 		
 		// Write result
 		for (PythonModule module: topModulesWithFunctions) {
 			List<Quantity> functionQuantities = sortedQuantities(module.functionUsages);
 			String csvFileName = outputDir + File.separator + module.pedigreeString() + "-functions" + LocalDateTime.now() + ".csv";
-			Writer writer = new FileWriter(csvFileName);
+			CsvWriter writer = csvWriter(csvFileName);
 			writer.write(functionUsagesHeader());
 			for (Quantity function: functionQuantities) {
 				writer.write(function.toCsvString() + "\n");
@@ -901,7 +966,7 @@ public class NotebookAnalyzer extends Analyzer {
 	private void writeFunctionLists(Map<PythonModule, List<String>> calls,
 			List<PythonModule> functions) throws IOException {
 		for (PythonModule function: functions) {
-			Writer writer = new FileWriter(outputDir + "/" + function.pedigreeString() + "-calls" + LocalDateTime.now() + ".csv");
+			CsvWriter writer = csvWriter(outputDir + "/" + function.pedigreeString() + "-calls" + LocalDateTime.now() + ".csv");
 			for (String call: calls.get(function)) {
 				writer.write(call + "\n");
 			}
@@ -922,7 +987,7 @@ public class NotebookAnalyzer extends Analyzer {
 			tasks.add(new CodeCellCounter(notebook));
 		}
 		List<Future<Integer>> result = ThreadExecutor.getInstance().invokeAll(tasks);
-		Writer writer = new FileWriter(outputDir + "/code_cells" + LocalDateTime.now() + ".csv");
+		CsvWriter writer = csvWriter(outputDir + "/code_cells" + LocalDateTime.now() + ".csv");
 		writer.write(numCodeCellsHeader());
 		int totalNumCodeCells = 0;
 		for (int i=0; i<notebooks.size(); i++) {
@@ -938,7 +1003,7 @@ public class NotebookAnalyzer extends Analyzer {
 	 * @param notebook Notebook to write information for
 	 * @param writer Writer that appends text to the code_cells file
 	 */
-	private int writeCodeCellsLine(Future<Integer> numCodeCells, Notebook notebook, Writer writer) throws IOException {
+	private int writeCodeCellsLine(Future<Integer> numCodeCells, Notebook notebook, CsvWriter writer) throws IOException {
 		int numCodeCellsValue = 0;
 		try {
 			numCodeCellsValue = numCodeCells.get();
@@ -950,8 +1015,9 @@ public class NotebookAnalyzer extends Analyzer {
 		return numCodeCellsValue;
 	}
 	
-	private void writeCodeCellsLine(int numCodeCells, Notebook notebook, Writer writer) throws IOException {
-		writer.write(notebook.getName() + ", " + numCodeCells + "\n");
+	private void writeCodeCellsLine(int numCodeCells, Notebook notebook, CsvWriter writer) throws IOException {
+		writer.newRow().append(notebook.getName()).append(", ").append(numCodeCells);
+		writer.endRow();
 	}
 	
 	/**
@@ -961,6 +1027,45 @@ public class NotebookAnalyzer extends Analyzer {
 		return "file, code cells\n";
 	}
 	
+	/**
+	 * Make the clone analysis group the snippets in numShards shards, in
+	 * parallel. Results are the same as with a single shard, except for the
+	 * order of the lines in hash2filesA.
+	 * @param numShards Number of shards (1 means no parallel grouping)
+	 */
+	void setCloneShards(int numShards) {
+		if (numShards < 1) {
+			throw new IllegalArgumentException("Number of clone shards must be positive!");
+		}
+		this.cloneShards = numShards;
+	}
+	
+	/**
+	 * Make the clone analysis write the binary clone file
+	 * clones<current-date-time>.bin (see CloneFile) in addition to the CSV
+	 * files.
+	 * @param binaryClones True iff the binary clone file should be written
+	 */
+	void setBinaryClones(boolean binaryClones) {
+		this.binaryClones = binaryClones;
+	}
+	
+	/**
+	 * Keep the results of the characteristics and clone analyzes in a store
+	 * file between runs. Notebooks whose files are unchanged since they were
+	 * stored are not read again. If the store file cannot be loaded, all
+	 * notebooks are analyzed and the file is overwritten.
+	 * @param fileName Name of the store file
+	 */
+	void useHashStore(String fileName) {
+		hashStore = new HashStore(fileName);
+		try {
+			hashStore.load();
+		} catch (IOException e) {
+			System.err.println("Could not load hash store: " + e.getMessage() + ". Analyzing all notebooks.");
+		}
+	}
+	
 	/**
 	 * @return Number of notebooks stored in analyzer
 	 */
@@ -981,12 +1086,15 @@ public class NotebookAnalyzer extends Analyzer {
 				modules = false;
 		String reproFile = null;
 		String nbPath = null;
+		String nbPathsFile = null;
 		String listFunctionsFile = null;
 		
 		// Read arguments
 		for (int i=0; i<args.length; i++) {
 			String arg = args[i];
-			if (arg.startsWith("--nb_path")) {
+			if (arg.startsWith("--nb_paths_file")) {
+				nbPathsFile = getValueFromArgument(arg);
+			} else if (arg.startsWith("--nb_path")) {
 				nbPath = getValueFromArgument(arg);
 			} else if (arg.startsWith("--output_dir")) {
 				this.outputDir = getValueFromArgument(arg);
@@ -994,6 +1102,26 @@ public class NotebookAnalyzer extends Analyzer {
 				reproFile = getValueFromArgument(arg);
 			} else if (arg.startsWith("--functions")) {
 				listFunctionsFile = getValueFromArgument(arg);
+			} else if (arg.startsWith("--hash_store")) {
+				useHashStore(getValueFromArgument(arg));
+			} else if (arg.startsWith("--threads")) {
+				try {
+					ThreadExecutor.setParallelism(Integer.parseInt(getValueFromArgument(arg)));
+				} catch (IllegalArgumentException e) {
+					System.err.println("Invalid number of threads: " + arg + ". Using the default number of threads.");
+				}
+			} else if (arg.startsWith("--io_threads")) {
+				try {
+					ThreadExecutor.setIoThreads(Integer.parseInt(getValueFromArgument(arg)));
+				} catch (IllegalArgumentException e) {
+					System.err.println("Invalid number of I/O threads: " + arg + ". Using the default number of I/O threads.");
+				}
+			} else if (arg.startsWith("--clone_shards")) {
+				try {
+					setCloneShards(Integer.parseInt(getValueFromArgument(arg)));
+				} catch (IllegalArgumentException e) {
+					System.err.println("Invalid number of clone shards: " + arg + ". Grouping clones on one thread.");
+				}
 			} else {
 				switch (arg) {
 				case "--ccc":
@@ -1011,6 +1139,18 @@ public class NotebookAnalyzer extends Analyzer {
 				case "--clones":
 					clones = true;
 					break;
+				case "--io_mode":
+					ThreadExecutor.setIoMode(true);
+					break;
+				case "--background_flush":
+					backgroundFlush = true;
+					break;
+				case "--binary_clones":
+					setBinaryClones(true);
+					break;
+				case "--approximate_repros":
+					setApproximateRepros(true);
+					break;
 				case "--lang_all":
 					langAll = true;
 					break;
@@ -1023,15 +1163,25 @@ public class NotebookAnalyzer extends Analyzer {
 			}
 		}
 			
-		// Set up
-		if (null != nbPath && "" != nbPath) {
-			this.initializeNotebooksFrom(nbPath);
+		// Set up. The notebooks are found while they are analyzed by --ccc,
+		// and before the other analyses are run.
+		Iterator<String> notebookPaths = null;
+		if (null != nbPathsFile && "" != nbPathsFile) {
+			try {
+				notebookPaths = NotebookFinder.readPathList(nbPathsFile);
+			} catch (IOException e) {
+				System.err.println("I/O error when opening notebook path list: " + e.getMessage());
+				System.err.println("No notebooks will be analyzed.");
+			}
+		} else if (null != nbPath && "" != nbPath) {
+			notebookPaths = NotebookFinder.walk(nbPath);
 		} else {
 			System.err.println("Warning! Notebook path not set! No notebooks will be analyzed.");
 		}
+		Map<String, String> reproMap = null;
 		if (null != reproFile && "" != reproFile) {
 			try {
-				this.initializeReproInfo(reproFile);
+				reproMap = createReproMap(reproFile);
 			} catch (IOException e) {
 				System.err.println("I/O error when initializing repro info: " + e.getMessage());
 				System.err.println("Repro information not initialized!");
@@ -1040,11 +1190,18 @@ public class NotebookAnalyzer extends Analyzer {
 			System.err.println("Warning! Clone analysis run without repro information!");
 		}
 			
+		// The notebooks are only kept in memory if an analysis after --ccc needs them
+		boolean keepNotebooks = count || lang || loc || clones || langAll || modules || null != listFunctionsFile;
+		FoundNotebooks found = new FoundNotebooks(notebookPaths, reproMap, keepNotebooks);
+			
 		// Perform analyzes
 		try {
 			if (ccc) {
-				this.allCccAnalyzes();
-				System.out.println("All characteristics and code clone analyzes made for " + this.numNotebooks() + " notebooks.");
+				this.allCccAnalyzes(found);
+				System.out.println("All characteristics and code clone analyzes made for " + found.numFound() + " notebooks.");
+			}
+			if (keepNotebooks) {
+				addAll(found);
 			}
 			if (count) {
 				System.out.println("Notebooks parsed: " + this.numNotebooks());
@@ -1058,7 +1215,7 @@ public class NotebookAnalyzer extends Analyzer {
 				System.out.println("Lines of code: " + this.LOC());
 			}
 			if (clones) {
-				this.clones();
+				this.cloneIndex();
 				System.out.println("Clone files created!");
 			}
 			if (langAll) {
@@ -1090,6 +1247,7 @@ public class NotebookAnalyzer extends Analyzer {
 	public static void main(String[] args) {
 		NotebookAnalyzer analyzer = new NotebookAnalyzer();
 		analyzer.analyze(args);
+		NotebookArchive.closeAll();
 		ThreadExecutor.tearDown();
 	}
 }
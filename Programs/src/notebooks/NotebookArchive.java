@@ -0,0 +1,393 @@
+package notebooks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A zip or tar archive containing notebook files. A notebook in an archive is
+ * identified by the path to the archive, followed by "!/" and the name of
+ * the entry, for example corpus.zip!/dir/nb_1.ipynb. Notebooks with such
+ * paths are read directly from the archive, without extracting it.
+ *
+ * The entries are read with random access, so that different entries can be
+ * read by different threads at the same time. Each archive is opened once
+ * per run, and kept open until closeAll is called.
+ */
+abstract class NotebookArchive {
+	static final String SEPARATOR = "!/";
+	private static final Map<String, NotebookArchive> archives = new HashMap<String, NotebookArchive>();
+
+	/**
+	 * @return True iff path has the suffix of an archive that notebooks can be read from
+	 */
+	static boolean isArchive(String path) {
+		String lowerCase = path.toLowerCase();
+		return lowerCase.endsWith(".zip") || lowerCase.endsWith(".tar");
+	}
+
+	/**
+	 * @return The index of the separator between the archive path and the entry name in path, or -1 if path is not a path into an archive
+	 */
+	static int separatorIndex(String path) {
+		int index = path.indexOf(SEPARATOR);
+		while (-1 != index && !isArchive(path.substring(0, index))) {
+			index = path.indexOf(SEPARATOR, index + 1);
+		}
+		return index;
+	}
+
+	/**
+	 * @return The path to the entry with name entryName in the archive archivePath
+	 */
+	static String entryPath(String archivePath, String entryName) {
+		return archivePath + SEPARATOR + entryName;
+	}
+
+	/**
+	 * Open an archive, unless it is already open.
+	 * @param path Path to a zip or tar archive
+	 * @return The archive
+	 * @throws IOException If the archive cannot be opened or its index cannot be read
+	 */
+	static synchronized NotebookArchive get(String path) throws IOException {
+		NotebookArchive archive = archives.get(path);
+		if (null == archive) {
+			if (path.toLowerCase().endsWith(".zip")) {
+				archive = new Zip(path);
+			} else {
+				archive = new Tar(path);
+			}
+			archives.put(path, archive);
+		}
+		return archive;
+	}
+
+	/**
+	 * Open a stream to a notebook in an archive.
+	 * @param path Path to the notebook, on the form archive!/entry
+	 * @return A stream of the contents of the notebook
+	 * @throws IOException If the archive cannot be read, or doesn't contain the notebook
+	 */
+	static InputStream openEntry(String path) throws IOException {
+		int separator = separatorIndex(path);
+		NotebookArchive archive = get(path.substring(0, separator));
+		return archive.open(path.substring(separator + SEPARATOR.length()));
+	}
+
+	/**
+	 * @param path Path to a notebook in an archive, on the form archive!/entry
+	 * @return The size and the modification time (in milliseconds since the epoch) of the notebook. If the archive doesn't store them for the notebook, those of the archive file are returned.
+	 */
+	static long[] entrySizeAndTime(String path) {
+		int separator = separatorIndex(path);
+		String archivePath = path.substring(0, separator);
+		long[] result = {-1, -1};
+		try {
+			result = get(archivePath).sizeAndTime(path.substring(separator + SEPARATOR.length()));
+		} catch (IOException e) {
+			// Use the size and modification time of the archive
+		}
+		File archiveFile = new File(archivePath);
+		if (result[0] < 0) {
+			result[0] = archiveFile.length();
+		}
+		if (result[1] < 0) {
+			result[1] = archiveFile.lastModified();
+		}
+		return result;
+	}
+
+	/**
+	 * Close all open archives.
+	 */
+	static synchronized void closeAll() {
+		for (Map.Entry<String, NotebookArchive> archive: archives.entrySet()) {
+			try {
+				archive.getValue().close();
+			} catch (IOException e) {
+				System.err.println("Could not close " + archive.getKey() + ": " + e);
+			}
+		}
+		archives.clear();
+	}
+
+	/**
+	 * @return The names of the entries that are notebooks (i.e. whose names end with ".ipynb"), in the order in which they are stored
+	 */
+	abstract List<String> notebookEntries();
+
+	/**
+	 * @param entryName Name of an entry in the archive
+	 * @return A stream of the contents of the entry
+	 * @throws FileNotFoundException If there is no entry with the given name
+	 * @throws IOException If the entry cannot be read
+	 */
+	abstract InputStream open(String entryName) throws IOException;
+
+	/**
+	 * @param entryName Name of an entry in the archive
+	 * @return The size and the modification time (in milliseconds since the epoch) of the entry, each -1 if it is unknown
+	 * @throws FileNotFoundException If there is no entry with the given name
+	 */
+	abstract long[] sizeAndTime(String entryName) throws FileNotFoundException;
+
+	abstract void close() throws IOException;
+
+	private static class Zip extends NotebookArchive {
+		private final ZipFile zip;
+
+		Zip(String path) throws IOException {
+			zip = new ZipFile(path);
+		}
+
+		@Override
+		List<String> notebookEntries() {
+			List<String> result = new ArrayList<String>();
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (!entry.isDirectory() && entry.getName().endsWith(".ipynb")) {
+					result.add(entry.getName());
+				}
+			}
+			return result;
+		}
+
+		@Override
+		InputStream open(String entryName) throws IOException {
+			return zip.getInputStream(entry(entryName));
+		}
+
+		@Override
+		long[] sizeAndTime(String entryName) throws FileNotFoundException {
+			ZipEntry entry = entry(entryName);
+			return new long[]{entry.getSize(), entry.getTime()};
+		}
+
+		private ZipEntry entry(String entryName) throws FileNotFoundException {
+			ZipEntry entry = zip.getEntry(entryName);
+			if (null == entry) {
+				throw new FileNotFoundException("No entry " + entryName + " in " + zip.getName());
+			}
+			return entry;
+		}
+
+		@Override
+		void close() throws IOException {
+			zip.close();
+		}
+	}
+
+	/**
+	 * Tar archive (ustar, pax or GNU format). The headers are read when the
+	 * archive is opened, to find the offset, size and modification time of
+	 * each regular file.
+	 * The contents of the files are then read with positional reads.
+	 */
+	private static class Tar extends NotebookArchive {
+		private static final int BLOCK_SIZE = 512;
+		private final String path;
+		private final FileChannel channel;
+		// Entry name -> {offset of contents, size, modification time}
+		private final Map<String, long[]> entries = new LinkedHashMap<String, long[]>();
+
+		Tar(String path) throws IOException {
+			this.path = path;
+			channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+			try {
+				readHeaders();
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		private void readHeaders() throws IOException {
+			byte[] header = new byte[BLOCK_SIZE];
+			long position = 0;
+			String longName = null;
+			while (readFully(header, position) && !isZero(header)) {
+				long size = parseNumber(header, 124, 12);
+				long dataStart = position + BLOCK_SIZE;
+				char type = (char)header[156];
+				if ('L' == type) {
+					longName = trim(read(dataStart, size));
+				} else if ('x' == type) {
+					String paxPath = paxPath(read(dataStart, size));
+					if (null != paxPath) {
+						longName = paxPath;
+					}
+				} else if ('g' != type) {
+					String name = null != longName ? longName : name(header);
+					longName = null;
+					if (('0' == type || 0 == type) && name.endsWith(".ipynb")) {
+						entries.put(name, new long[]{dataStart, size, 1000 * parseNumber(header, 136, 12)});
+					}
+				}
+				position = dataStart + (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+			}
+		}
+
+		private boolean readFully(byte[] buffer, long position) throws IOException {
+			ByteBuffer target = ByteBuffer.wrap(buffer);
+			while (target.hasRemaining()) {
+				int read = channel.read(target, position + target.position());
+				if (read < 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private byte[] read(long position, long size) throws IOException {
+			if (Integer.MAX_VALUE < size) {
+				throw new IOException("Entry at offset " + position + " in " + path + " is too large");
+			}
+			byte[] result = new byte[(int)size];
+			if (!readFully(result, position)) {
+				throw new IOException("Unexpected end of " + path);
+			}
+			return result;
+		}
+
+		private static boolean isZero(byte[] block) {
+			for (byte b: block) {
+				if (0 != b) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return The numeric field (like size or modification time) of header at offset, stored as an octal string or (GNU) as a base-256 number
+		 */
+		private long parseNumber(byte[] header, int offset, int length) throws IOException {
+			long number = 0;
+			if (0 != (header[offset] & 0x80)) {
+				for (int i=offset+1; i<offset+length; i++) {
+					number = number << 8 | (header[i] & 0xFF);
+				}
+				return number;
+			}
+			for (int i=offset; i<offset+length; i++) {
+				byte b = header[i];
+				if ('0' <= b && b <= '7') {
+					number = 8*number + b - '0';
+				} else if (0 == b || ' ' == b) {
+					if (0 < i-offset && 0 < number) {
+						break;
+					}
+				} else {
+					throw new IOException("Invalid tar header in " + path);
+				}
+			}
+			return number;
+		}
+
+		/**
+		 * @return The name of the entry, with the ustar prefix if there is one
+		 */
+		private static String name(byte[] header) {
+			String name = string(header, 0, 100);
+			if ("ustar".equals(string(header, 257, 5))) {
+				String prefix = string(header, 345, 155);
+				if (!prefix.isEmpty()) {
+					name = prefix + "/" + name;
+				}
+			}
+			return name;
+		}
+
+		private static String string(byte[] header, int offset, int length) {
+			int end = offset;
+			while (end < offset + length && 0 != header[end]) {
+				end++;
+			}
+			return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+		}
+
+		private static String trim(byte[] data) {
+			int end = data.length;
+			while (0 < end && 0 == data[end-1]) {
+				end--;
+			}
+			return new String(data, 0, end, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * @param data Records of a pax extended header, on the form "length key=value\n"
+		 * @return The value of the path record, or null if there is none
+		 */
+		private static String paxPath(byte[] data) {
+			int start = 0;
+			while (start < data.length) {
+				int space = start;
+				while (space < data.length && ' ' != data[space]) {
+					space++;
+				}
+				int length;
+				try {
+					length = Integer.parseInt(new String(data, start, space - start, StandardCharsets.UTF_8));
+				} catch (NumberFormatException e) {
+					return null;
+				}
+				if (length <= 0 || data.length < start + length) {
+					return null;
+				}
+				String record = new String(data, space + 1, start + length - space - 2, StandardCharsets.UTF_8);
+				if (record.startsWith("path=")) {
+					return record.substring("path=".length());
+				}
+				start += length;
+			}
+			return null;
+		}
+
+		@Override
+		List<String> notebookEntries() {
+			return new ArrayList<String>(entries.keySet());
+		}
+
+		@Override
+		InputStream open(String entryName) throws IOException {
+			long[] entry = entry(entryName);
+			return new ByteArrayInputStream(read(entry[0], entry[1]));
+		}
+
+		@Override
+		long[] sizeAndTime(String entryName) throws FileNotFoundException {
+			long[] entry = entry(entryName);
+			return new long[]{entry[1], entry[2]};
+		}
+
+		private long[] entry(String entryName) throws FileNotFoundException {
+			long[] entry = entries.get(entryName);
+			if (null == entry) {
+				throw new FileNotFoundException("No entry " + entryName + " in " + path);
+			}
+			return entry;
+		}
+
+		@Override
+		void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package notebooks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compact, immutable view of the parts of a notebook file that are used by
+ * the analyses: the language fields of the metadata, and the source code and
+ * language of each code cell. Everything else (outputs, markdown cells,
+ * attachments etc.) is dropped when the view is created.
+ *
+ * Values with an unexpected JSON type are not reported when the view is
+ * created, but when they are accessed, so that an analysis only fails if it
+ * actually uses a malformed part of the notebook.
+ */
+final class NotebookContents {
+	private final boolean hasMetadata;
+	// Each field is a String, null (if missing) or an Invalid
+	private final Object metadataLanguage;
+	private final Object languageInfoName;
+	private final Object kernelspecLanguage;
+	private final Object kernelspecName;
+	// One entry per code cell. Sources are String[] or Invalid, languages String, null or Invalid.
+	private final Object[] sources;
+	private final Object[] languages;
+	private final String cellsError;
+
+	/**
+	 * @param hasMetadata True iff the notebook has a metadata field
+	 * @param metadataLanguage metadata.language
+	 * @param languageInfoName metadata.language_info.name
+	 * @param kernelspecLanguage metadata.kernelspec.language
+	 * @param kernelspecName metadata.kernelspec.name
+	 * @param sources Source lines of each code cell, each line ending with a newline
+	 * @param languages language field of each code cell
+	 * @param cellsError Description of the error if the cells couldn't be read, null otherwise
+	 */
+	NotebookContents(boolean hasMetadata, Object metadataLanguage, Object languageInfoName,
+			Object kernelspecLanguage, Object kernelspecName,
+			Object[] sources, Object[] languages, String cellsError) {
+		this.hasMetadata = hasMetadata;
+		this.metadataLanguage = metadataLanguage;
+		this.languageInfoName = languageInfoName;
+		this.kernelspecLanguage = kernelspecLanguage;
+		this.kernelspecName = kernelspecName;
+		this.sources = sources;
+		this.languages = languages;
+		this.cellsError = cellsError;
+	}
+
+	/**
+	 * @return Contents of a notebook without metadata and cells
+	 */
+	static NotebookContents empty() {
+		return new NotebookContents(false, null, null, null, null, new Object[0], new Object[0], null);
+	}
+
+	/**
+	 * Extract the contents used by the analyses from a parsed notebook.
+	 * @param notebook Notebook to extract contents from
+	 * @param path Path to the notebook file, used in diagnostic messages
+	 * @return The contents of notebook
+	 */
+	static NotebookContents fromJson(JSONObject notebook, String path) {
+		boolean hasMetadata = notebook.has("metadata");
+		Object metadataLanguage = null, languageInfoName = null;
+		Object kernelspecLanguage = null, kernelspecName = null;
+		if (hasMetadata) {
+			Object metadata = notebook.get("metadata");
+			if (metadata instanceof JSONObject) {
+				JSONObject metadataObject = (JSONObject)metadata;
+				metadataLanguage = stringValue(metadataObject, "language");
+				languageInfoName = nestedStringValue(metadataObject, "language_info", "name");
+				kernelspecLanguage = nestedStringValue(metadataObject, "kernelspec", "language");
+				kernelspecName = nestedStringValue(metadataObject, "kernelspec", "name");
+			} else {
+				Invalid notAnObject = notAnObject("metadata");
+				metadataLanguage = notAnObject;
+				languageInfoName = notAnObject;
+				kernelspecLanguage = notAnObject;
+				kernelspecName = notAnObject;
+			}
+		}
+
+		List<Object> sources = new ArrayList<Object>();
+		List<Object> languages = new ArrayList<Object>();
+		String cellsError = null;
+		try {
+			List<JSONObject> cells = new ArrayList<JSONObject>();
+			addCells(notebook, cells);
+			for (JSONObject cell: cells) {
+				if (cell.has("cell_type")) {
+					if ("code".equals(cell.getString("cell_type"))) {
+						sources.add(source(cell, path));
+						languages.add(stringValue(cell, "language"));
+					}
+				} else {
+					System.err.println("Key \"cell_type\" is missing in a cell in " + path);
+				}
+			}
+		} catch (JSONException e) {
+			cellsError = e.getMessage();
+		}
+		return new NotebookContents(hasMetadata, metadataLanguage, languageInfoName,
+				kernelspecLanguage, kernelspecName, sources.toArray(), languages.toArray(), cellsError);
+	}
+
+	/**
+	 * Add all cells of a notebook to a list. Handles cell array on the top
+	 * level but also an array of worksheets, each containing a cell array.
+	 * @param notebook Notebook/worksheet to extract cells from
+	 * @param cells List to add the cells to
+	 */
+	private static void addCells(JSONObject notebook, List<JSONObject> cells) {
+		if (notebook.has("cells")) {
+			JSONArray notebookCells = notebook.getJSONArray("cells");
+			for (int i=0; i<notebookCells.length(); i++) {
+				cells.add(notebookCells.getJSONObject(i));
+			}
+		}
+		if (notebook.has("worksheets")) {
+			// Not according to spec, but occurring
+			JSONArray worksheets = notebook.getJSONArray("worksheets");
+			for (int i=0; i<worksheets.length(); i++) {
+				addCells(worksheets.getJSONObject(i), cells);
+			}
+		}
+	}
+
+	/**
+	 * @param cell Code cell to fetch source code from
+	 * @param path Path to the notebook file, used in diagnostic messages
+	 * @return The source code stored in cell (with each line as a separate element), empty array if source code is missing
+	 */
+	private static Object source(JSONObject cell, String path) {
+		// Source can be either a JSONArray or a string. :-/
+		Object source = null;
+		if (cell.has("source")) {
+			source = cell.get("source");
+		} else if (cell.has("input")) {
+			source = cell.get("input");
+		} else {
+			System.err.println("Keys \"source\" and \"input\" are missing in a cell in " + path);
+			return new String[0];
+		}
+		if (source instanceof JSONArray) {
+			JSONArray array = (JSONArray)source;
+			String[] lines = new String[array.length()];
+			for (int i=0; i<lines.length; i++) {
+				Object line = array.get(i);
+				if (!(line instanceof String)) {
+					return new Invalid("JSONArray[" + i + "] not a string.");
+				}
+				lines[i] = (String)line;
+			}
+			return withNewlines(lines);
+		} else if (source instanceof String) {
+			return splitLines((String)source);
+		} else {
+			System.err.println("Unknown source type in " + path
+					+ ": " + source.getClass() + "! Skipping source.");
+			return new String[0];
+		}
+	}
+
+	/**
+	 * Add a newline to each line that doesn't end with one.
+	 * @param lines Lines to modify
+	 * @return lines
+	 */
+	static String[] withNewlines(String[] lines) {
+		for (int i=0; i<lines.length; i++) {
+			String line = lines[i];
+			if (0 == line.length() || '\n' != line.charAt(line.length()-1)) {
+				lines[i] = line + "\n";
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * @param source Source code stored as a single string
+	 * @return The lines of source, each ending with a newline
+	 */
+	static String[] splitLines(String source) {
+		String[] lines = source.split("\\n");
+		for (int i=0; i<lines.length; i++) {
+			lines[i] = lines[i] + "\n";
+		}
+		return lines;
+	}
+
+	/**
+	 * @return The string stored for key in object, null if it is missing, or an Invalid if it is not a string
+	 */
+	private static Object stringValue(JSONObject object, String key) {
+		if (!object.has(key)) {
+			return null;
+		}
+		Object value = object.get(key);
+		if (value instanceof String) {
+			return value;
+		} else {
+			return new Invalid("JSONObject[" + JSONObject.quote(key) + "] not a string.");
+		}
+	}
+
+	/**
+	 * @return The string stored for object.outer.inner, null if any of them is missing, or an Invalid if the types are wrong
+	 */
+	private static Object nestedStringValue(JSONObject object, String outer, String inner) {
+		if (!object.has(outer)) {
+			return null;
+		}
+		Object value = object.get(outer);
+		if (value instanceof JSONObject) {
+			return stringValue((JSONObject)value, inner);
+		} else {
+			return notAnObject(outer);
+		}
+	}
+
+	private static Invalid notAnObject(String key) {
+		return new Invalid("JSONObject[" + JSONObject.quote(key) + "] is not a JSONObject.");
+	}
+
+	/**
+	 * @return True iff the notebook has a metadata field
+	 */
+	boolean hasMetadata() {
+		return hasMetadata;
+	}
+
+	/**
+	 * @return metadata.language, null if missing
+	 */
+	String metadataLanguage() {
+		return checked(metadataLanguage);
+	}
+
+	/**
+	 * @return metadata.language_info.name, null if missing
+	 */
+	String languageInfoName() {
+		return checked(languageInfoName);
+	}
+
+	/**
+	 * @return metadata.kernelspec.language, null if missing
+	 */
+	String kernelspecLanguage() {
+		return checked(kernelspecLanguage);
+	}
+
+	/**
+	 * @return metadata.kernelspec.name, null if missing
+	 */
+	String kernelspecName() {
+		return checked(kernelspecName);
+	}
+
+	/**
+	 * @return Number of code cells in the notebook
+	 */
+	int numCodeCells() {
+		checkCells();
+		return sources.length;
+	}
+
+	/**
+	 * @param cell Index of code cell
+	 * @return The source lines of the code cell, each ending with a newline. The array must not be modified.
+	 */
+	String[] source(int cell) {
+		checkCells();
+		Object source = sources[cell];
+		if (source instanceof Invalid) {
+			throw new JSONException(((Invalid)source).message);
+		}
+		return (String[])source;
+	}
+
+	/**
+	 * @param cell Index of code cell
+	 * @return The language field of the code cell, null if missing
+	 */
+	String codeCellLanguage(int cell) {
+		checkCells();
+		return checked(languages[cell]);
+	}
+
+	private void checkCells() {
+		if (null != cellsError) {
+			throw new JSONException(cellsError);
+		}
+	}
+
+	private static String checked(Object value) {
+		if (value instanceof Invalid) {
+			throw new JSONException(((Invalid)value).message);
+		}
+		return (String)value;
+	}
+
+	/**
+	 * Placeholder for a value that has the wrong JSON type.
+	 */
+	static final class Invalid {
+		final String message;
+
+		Invalid(String message) {
+			this.message = message;
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package notebooks;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the notebook files (i.e. files whose name ends with ".ipynb") in a
+ * directory and its sub directories, in a zip or tar archive, or in a list
+ * of paths, on a background thread. The paths are handed out by the iterator as soon as they are
+ * found, so that the analysis can start before all notebooks are found.
+ *
+ * Directories are traversed in parallel by a fork/join pool with one task
+ * per directory. Hence, the paths are not handed out in any particular
+ * order. If the traversal fails, the iterator throws the cause of the
+ * failure when the paths found before it have been handed out.
+ */
+class NotebookFinder implements Iterator<String> {
+	private static final int QUEUE_SIZE = 16384;
+	private static final int THREADS = 2 * Runtime.getRuntime().availableProcessors();
+	// Marks the end of the stream. Compared by identity.
+	private static final String END = new String("END");
+
+	private final BlockingQueue<String> found = new ArrayBlockingQueue<String>(QUEUE_SIZE);
+	private Thread finder;
+	private ForkJoinPool pool = null;
+	private String next = null;
+	private boolean ended = false;
+	private volatile boolean cancelled = false;
+	// Cause of a failed traversal, handed over before END
+	private volatile Throwable failure = null;
+
+	private NotebookFinder() {}
+
+	/**
+	 * Start looking for notebooks in a directory and its sub directories.
+	 * @param path Path to the directory. May also be the path to a zip or tar archive, whose notebook entries are then found in the order in which they are stored (see NotebookArchive), or the path to a notebook, which is then the only notebook found.
+	 * @return An iterator over the paths to the notebooks found
+	 */
+	static NotebookFinder walk(String path) {
+		NotebookFinder finder = new NotebookFinder();
+		finder.pool = new ForkJoinPool(THREADS);
+		finder.start(finder.new Walk(Paths.get(path)));
+		return finder;
+	}
+
+	/**
+	 * Start reading notebook paths from a file with one path per line, like
+	 * the one listed as notebookPathsFile in paths.sh. Relative paths are
+	 * resolved against the directory of the file. Lines that don't end with
+	 * ".ipynb", like the header, are skipped.
+	 * @param pathsFile Path to the file with notebook paths
+	 * @return An iterator over the paths to the notebooks listed
+	 * @throws IOException If the file cannot be opened
+	 */
+	static NotebookFinder readPathList(String pathsFile) throws IOException {
+		NotebookFinder finder = new NotebookFinder();
+		BufferedReader reader = new BufferedReader(new FileReader(pathsFile));
+		Path baseDir = Paths.get(pathsFile).toAbsolutePath().getParent();
+		finder.start(finder.new PathListReader(reader, baseDir, pathsFile));
+		return finder;
+	}
+
+	private void start(Runnable search) {
+		finder = new Thread(search, "notebook-finder");
+		finder.setDaemon(true);
+		finder.start();
+	}
+
+	/**
+	 * @throws RuntimeException If the traversal failed, when all paths found before the failure have been handed out
+	 */
+	@Override
+	public boolean hasNext() {
+		if (null == next && !ended) {
+			try {
+				String path = found.take();
+				if (END == path) {
+					ended = true;
+					if (failure instanceof RuntimeException) {
+						throw (RuntimeException)failure;
+					} else if (failure instanceof Error) {
+						throw (Error)failure;
+					}
+				} else {
+					next = path;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				cancel();
+			}
+		}
+		return null != next;
+	}
+
+	@Override
+	public String next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		String result = next;
+		next = null;
+		return result;
+	}
+
+	/**
+	 * Stop looking for notebooks. The iterator ends.
+	 */
+	void cancel() {
+		ended = true;
+		cancelled = true;
+		finder.interrupt();
+		if (null != pool) {
+			pool.shutdownNow();
+		}
+		found.clear();
+	}
+
+	private void put(String path) {
+		try {
+			found.put(path);
+		} catch (InterruptedException e) {
+			// The search is cancelled
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Traverses the directory tree and ends the stream. A failure is stored
+	 * for the iterator, unless the search has been cancelled, and the
+	 * directory walks still running are interrupted, so that they don't
+	 * wait for room in the queue when no one reads it any more.
+	 */
+	private class Walk implements Runnable {
+		private final Path root;
+
+		Walk(Path root) {
+			this.root = root;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (Files.isDirectory(root)) {
+					pool.invoke(new DirectoryWalk(root));
+				} else if (NotebookArchive.isArchive(root.toString()) && Files.isRegularFile(root)) {
+					listArchive(root.toString());
+				} else if (root.toString().endsWith(".ipynb")) {
+					put(root.toString());
+				}
+			} catch (RuntimeException | Error e) {
+				if (!cancelled) {
+					failure = e;
+				}
+			} finally {
+				pool.shutdownNow();
+				put(END);
+			}
+		}
+
+		private void listArchive(String archivePath) {
+			Utils.heartBeat("Listing " + archivePath);
+			try {
+				NotebookArchive archive = NotebookArchive.get(archivePath);
+				for (String entry: archive.notebookEntries()) {
+					if (Thread.currentThread().isInterrupted()) {
+						break;
+					}
+					put(NotebookArchive.entryPath(archivePath, entry));
+				}
+			} catch (IOException e) {
+				System.err.println("Could not read archive " + archivePath + ": " + e + ". Skipping archive!");
+			}
+		}
+	}
+
+	/**
+	 * Lists a directory, hands out the notebooks in it and traverses its
+	 * sub directories in parallel.
+	 */
+	private class DirectoryWalk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Path dir;
+
+		DirectoryWalk(Path dir) {
+			this.dir = dir;
+		}
+
+		@Override
+		protected void compute() {
+			Utils.heartBeat("Traversing " + dir);
+			List<DirectoryWalk> subDirs = new ArrayList<DirectoryWalk>();
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+				for (Path entry: entries) {
+					if (Files.isDirectory(entry)) {
+						subDirs.add(new DirectoryWalk(entry));
+					} else if (entry.getFileName().toString().endsWith(".ipynb")) {
+						put(entry.toString());
+					}
+				}
+			} catch (IOException | DirectoryIteratorException e) {
+				System.err.println("Could not traverse " + dir + ": " + e + ". Skipping directory!");
+			}
+			invokeAll(subDirs);
+		}
+	}
+
+	/**
+	 * Reads notebook paths from a file and ends the stream.
+	 */
+	private class PathListReader implements Runnable {
+		private final BufferedReader reader;
+		private final Path baseDir;
+		private final String pathsFile;
+
+		PathListReader(BufferedReader reader, Path baseDir, String pathsFile) {
+			this.reader = reader;
+			this.baseDir = baseDir;
+			this.pathsFile = pathsFile;
+		}
+
+		@Override
+		public void run() {
+			try {
+				String line = reader.readLine();
+				while (null != line && !Thread.currentThread().isInterrupted()) {
+					line = line.trim();
+					if (line.endsWith(".ipynb")) {
+						Path path = Paths.get(line);
+						if (!path.isAbsolute()) {
+							path = baseDir.resolve(path);
+						}
+						put(path.toString());
+					}
+					line = reader.readLine();
+				}
+			} catch (IOException e) {
+				System.err.println("Could not read notebook paths from " + pathsFile + ": " + e);
+			} finally {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					System.err.println("Could not close " + pathsFile + ": " + e);
+				}
+				put(END);
+			}
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package notebooks;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Streaming analysis of a sequence of notebooks. A producer thread walks the
+ * notebooks and submits one task per notebook to the thread executor. At most
+ * capacity tasks are in flight at the same time; when the limit is reached,
+ * the producer blocks until the oldest result has been consumed. The results
+ * are handed to the consumer (the thread calling run) in the same order as
+ * the notebooks were produced, as soon as they are available. Hence, the
+ * memory consumption of the pipeline does not grow with the size of the
+ * corpus.
+ * @param <T> Type of the result computed for each notebook
+ */
+public abstract class NotebookPipeline<T> {
+	private final static int CAPACITY_PER_CORE = 64;
+	private final int capacity;
+
+	public NotebookPipeline() {
+		this(CAPACITY_PER_CORE * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param capacity Maximum number of notebooks being analyzed, or waiting to be consumed, at the same time
+	 */
+	public NotebookPipeline(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Pipeline capacity must be positive!");
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param notebook Notebook to analyze
+	 * @return A task that analyzes notebook
+	 */
+	protected abstract Callable<T> task(Notebook notebook);
+
+	/**
+	 * Take care of the result of the analysis of a notebook. Called from the
+	 * thread executing run, in the order in which the notebooks are produced.
+	 * @param notebook Notebook that has been analyzed
+	 * @param result Result of the analysis of the notebook
+	 * @throws IOException On problems writing the result
+	 */
+	protected abstract void consume(Notebook notebook, T result) throws IOException;
+
+	/**
+	 * @param notebook Notebook for which the analysis failed
+	 * @param e Cause of the failure
+	 * @return Result to consume for notebook instead of the result of the failed analysis
+	 */
+	protected abstract T failed(Notebook notebook, Exception e);
+
+	/**
+	 * Analyze all notebooks returned by the iterator and consume the results.
+	 * The method returns when all results have been consumed.
+	 * @param notebooks Notebooks to analyze
+	 * @throws IOException If consume throws an IOException. The remaining analyses are cancelled.
+	 * @throws RuntimeException If the notebooks cannot be iterated over, or the analyses cannot be submitted. The results of the notebooks produced before the failure are consumed first.
+	 */
+	public void run(Iterator<Notebook> notebooks) throws IOException {
+		BlockingQueue<InFlight<T>> inFlight = new ArrayBlockingQueue<InFlight<T>>(capacity);
+		ThreadExecutor executor = ThreadExecutor.getInstance();
+		Thread producer = new Thread(new Producer(notebooks, executor, inFlight), "notebook-pipeline-producer");
+		producer.setDaemon(true);
+		producer.start();
+		boolean finished = false;
+		try {
+			InFlight<T> next = take(inFlight);
+			while (null != next.notebook) {
+				consume(next.notebook, resultOf(next));
+				next = take(inFlight);
+			}
+			if (next.failure instanceof RuntimeException) {
+				throw (RuntimeException)next.failure;
+			} else if (next.failure instanceof Error) {
+				throw (Error)next.failure;
+			}
+			finished = true;
+		} finally {
+			if (!finished) {
+				producer.interrupt();
+				for (InFlight<T> remaining: inFlight) {
+					if (null != remaining.result) {
+						remaining.result.cancel(true);
+					}
+				}
+			}
+		}
+	}
+
+	private T resultOf(InFlight<T> analysis) {
+		try {
+			return analysis.result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return failed(analysis.notebook, e);
+		} catch (ExecutionException e) {
+			return failed(analysis.notebook, e);
+		}
+	}
+
+	private static <T> InFlight<T> take(BlockingQueue<InFlight<T>> queue) throws IOException {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for notebook analysis", e);
+		}
+	}
+
+	/**
+	 * A notebook and the future result of its analysis. A notebook that is
+	 * null marks the end of the stream. If the producer failed, the end
+	 * marker carries the cause of the failure.
+	 */
+	private static class InFlight<T> {
+		final Notebook notebook;
+		final Future<T> result;
+		final Throwable failure;
+
+		InFlight(Notebook notebook, Future<T> result) {
+			this(notebook, result, null);
+		}
+
+		InFlight(Notebook notebook, Future<T> result, Throwable failure) {
+			this.notebook = notebook;
+			this.result = result;
+			this.failure = failure;
+		}
+	}
+
+	/**
+	 * Submits one task per notebook, blocking when capacity tasks are in
+	 * flight. Always ends the stream, also on failure, so that the consumer
+	 * doesn't wait forever. A failure is handed over to the consumer with the
+	 * end marker.
+	 */
+	private class Producer implements Runnable {
+		private final Iterator<Notebook> notebooks;
+		private final ThreadExecutor executor;
+		private final BlockingQueue<InFlight<T>> inFlight;
+
+		Producer(Iterator<Notebook> notebooks, ThreadExecutor executor, BlockingQueue<InFlight<T>> inFlight) {
+			this.notebooks = notebooks;
+			this.executor = executor;
+			this.inFlight = inFlight;
+		}
+
+		@Override
+		public void run() {
+			Throwable failure = null;
+			try {
+				while (notebooks.hasNext()) {
+					Notebook notebook = notebooks.next();
+					Future<T> result = executor.submit(notebook, task(notebook));
+					inFlight.put(new InFlight<T>(notebook, result));
+				}
+			} catch (InterruptedException e) {
+				// The consumer has given up. No one is waiting for the end marker.
+				return;
+			} catch (RuntimeException | Error e) {
+				failure = e;
+			}
+			try {
+				inFlight.put(new InFlight<T>(null, null, failure));
+			} catch (InterruptedException e) {
+				// The consumer has given up.
+			}
+		}
+	}
+}
@@ -0,0 +1,588 @@
+package notebooks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Streaming reader for notebook files. Only the parts of the notebook that
+ * are stored in a NotebookContents are decoded: the language fields of the
+ * metadata, and cell_type, source/input and language of each cell. All other
+ * values, notably cell outputs and attachments, are skipped byte by byte
+ * without being decoded or stored.
+ *
+ * The reader handles standard JSON encoded in UTF-8. When it encounters
+ * anything else, including values of unexpected types in the fields that it
+ * decodes, it gives up and lets the caller fall back to org.json, which
+ * reports (or tolerates) the irregularity. Duplicate keys are only detected
+ * in the objects that are decoded.
+ */
+final class NotebookReader {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+	private static final Unsupported UNSUPPORTED = new Unsupported();
+
+	private final InputStream input;
+	private final String path;
+	private final byte[] buffer;
+	private int position = 0;
+	private int limit = 0;
+	private char[] chars = new char[256];
+	private final List<String> messages = new ArrayList<String>();
+
+	private NotebookReader(InputStream input, String path) {
+		this.input = input;
+		this.path = path;
+		this.buffer = buffers.get();
+	}
+
+	/**
+	 * Read the contents of a notebook. Diagnostic messages about missing
+	 * fields are printed only if the notebook could be read.
+	 * @param input Stream to read the notebook from. The stream is not closed.
+	 * @param path Path to the notebook file, used in diagnostic messages
+	 * @return The contents of the notebook, or null if the notebook contains something that the reader doesn't handle
+	 * @throws IOException On problems reading from input
+	 */
+	static NotebookContents read(InputStream input, String path) throws IOException {
+		NotebookReader reader = new NotebookReader(input, path);
+		NotebookContents contents;
+		try {
+			contents = reader.readNotebook();
+		} catch (Unsupported e) {
+			return null;
+		}
+		for (String message: reader.messages) {
+			System.err.println(message);
+		}
+		return contents;
+	}
+
+	private NotebookContents readNotebook() throws IOException {
+		if ('{' != nextClean()) {
+			throw UNSUPPORTED;
+		}
+		boolean hasMetadata = false;
+		String metadataLanguage = null, languageInfoName = null;
+		String kernelspecLanguage = null, kernelspecName = null;
+		List<Cell> cells = new ArrayList<Cell>();
+		List<Cell> worksheetCells = new ArrayList<Cell>();
+		Set<String> keys = new HashSet<String>();
+		for (boolean more = firstMember(); more; more = nextMember()) {
+			String key = readKey(keys);
+			if ("metadata".equals(key)) {
+				hasMetadata = true;
+				expectObject();
+				Set<String> metadataKeys = new HashSet<String>();
+				for (boolean moreMetadata = firstMember(); moreMetadata; moreMetadata = nextMember()) {
+					String metadataKey = readKey(metadataKeys);
+					if ("language".equals(metadataKey)) {
+						metadataLanguage = readStringValue();
+					} else if ("language_info".equals(metadataKey)) {
+						languageInfoName = readNestedString("name");
+					} else if ("kernelspec".equals(metadataKey)) {
+						String[] kernelspec = readKernelspec();
+						kernelspecLanguage = kernelspec[0];
+						kernelspecName = kernelspec[1];
+					} else {
+						skipValue();
+					}
+				}
+			} else if ("cells".equals(key)) {
+				readCells(cells);
+			} else if ("worksheets".equals(key)) {
+				readWorksheets(worksheetCells);
+			} else {
+				skipValue();
+			}
+		}
+		cells.addAll(worksheetCells);
+
+		List<Object> sources = new ArrayList<Object>();
+		List<Object> languages = new ArrayList<Object>();
+		for (Cell cell: cells) {
+			if (null == cell.type) {
+				messages.add("Key \"cell_type\" is missing in a cell in " + path);
+			} else if ("code".equals(cell.type)) {
+				sources.add(cell.lines());
+				languages.add(cell.language);
+			}
+		}
+		return new NotebookContents(hasMetadata, metadataLanguage, languageInfoName,
+				kernelspecLanguage, kernelspecName, sources.toArray(), languages.toArray(), null);
+	}
+
+	/**
+	 * Read an object containing a cell array and/or a worksheet array (that
+	 * is, a worksheet) and add its cells to a list.
+	 */
+	private void readWorksheet(List<Cell> result) throws IOException {
+		expectObject();
+		List<Cell> worksheetCells = new ArrayList<Cell>();
+		Set<String> keys = new HashSet<String>();
+		for (boolean more = firstMember(); more; more = nextMember()) {
+			String key = readKey(keys);
+			if ("cells".equals(key)) {
+				readCells(result);
+			} else if ("worksheets".equals(key)) {
+				readWorksheets(worksheetCells);
+			} else {
+				skipValue();
+			}
+		}
+		result.addAll(worksheetCells);
+	}
+
+	private void readWorksheets(List<Cell> result) throws IOException {
+		expectArray();
+		for (boolean more = firstElement(); more; more = nextElement()) {
+			readWorksheet(result);
+		}
+	}
+
+	private void readCells(List<Cell> result) throws IOException {
+		expectArray();
+		for (boolean more = firstElement(); more; more = nextElement()) {
+			result.add(readCell());
+		}
+	}
+
+	private Cell readCell() throws IOException {
+		expectObject();
+		Cell cell = new Cell();
+		Set<String> keys = new HashSet<String>();
+		for (boolean more = firstMember(); more; more = nextMember()) {
+			String key = readKey(keys);
+			if ("cell_type".equals(key)) {
+				cell.type = readStringValue();
+			} else if (null != cell.type && !"code".equals(cell.type)) {
+				// Only the type of non-code cells is used.
+				skipValue();
+			} else if ("source".equals(key)) {
+				cell.source = readSource();
+			} else if ("input".equals(key)) {
+				cell.input = readSource();
+			} else if ("language".equals(key)) {
+				cell.language = readStringValue();
+			} else {
+				skipValue();
+			}
+		}
+		return cell;
+	}
+
+	/**
+	 * @return The source stored as a string or an array of strings
+	 */
+	private Object readSource() throws IOException {
+		int c = nextClean();
+		if ('"' == c) {
+			return readString();
+		} else if ('[' == c) {
+			List<String> lines = new ArrayList<String>();
+			for (boolean more = firstElement(); more; more = nextElement()) {
+				lines.add(readStringValue());
+			}
+			return lines.toArray(new String[lines.size()]);
+		} else {
+			throw UNSUPPORTED;
+		}
+	}
+
+	/**
+	 * @return The string value of key in the object read, null if key is missing
+	 */
+	private String readNestedString(String key) throws IOException {
+		expectObject();
+		String result = null;
+		Set<String> keys = new HashSet<String>();
+		for (boolean more = firstMember(); more; more = nextMember()) {
+			if (key.equals(readKey(keys))) {
+				result = readStringValue();
+			} else {
+				skipValue();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return language and name of the kernelspec read, null if missing
+	 */
+	private String[] readKernelspec() throws IOException {
+		expectObject();
+		String[] result = new String[2];
+		Set<String> keys = new HashSet<String>();
+		for (boolean more = firstMember(); more; more = nextMember()) {
+			String key = readKey(keys);
+			if ("language".equals(key)) {
+				result[0] = readStringValue();
+			} else if ("name".equals(key)) {
+				result[1] = readStringValue();
+			} else {
+				skipValue();
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Structure
+	 */
+
+	private void expectObject() throws IOException {
+		if ('{' != nextClean()) {
+			throw UNSUPPORTED;
+		}
+	}
+
+	private void expectArray() throws IOException {
+		if ('[' != nextClean()) {
+			throw UNSUPPORTED;
+		}
+	}
+
+	/**
+	 * Called after the opening brace of an object.
+	 * @return True if there is a member to read, false if the object is empty
+	 */
+	private boolean firstMember() throws IOException {
+		int c = nextClean();
+		if ('"' == c) {
+			return true;
+		} else if ('}' == c) {
+			return false;
+		} else {
+			throw UNSUPPORTED;
+		}
+	}
+
+	/**
+	 * Called after the value of an object member.
+	 * @return True if there is another member to read, false if the object has ended
+	 */
+	private boolean nextMember() throws IOException {
+		int c = nextClean();
+		if (',' == c) {
+			if ('"' != nextClean()) {
+				throw UNSUPPORTED;
+			}
+			return true;
+		} else if ('}' == c) {
+			return false;
+		} else {
+			throw UNSUPPORTED;
+		}
+	}
+
+	/**
+	 * Called after the opening bracket of an array.
+	 * @return True if there is an element to read, false if the array is empty
+	 */
+	private boolean firstElement() throws IOException {
+		int c = nextClean();
+		if (']' == c) {
+			return false;
+		} else if (-1 == c) {
+			throw UNSUPPORTED;
+		}
+		position--;
+		return true;
+	}
+
+	/**
+	 * Called after an array element.
+	 * @return True if there is another element to read, false if the array has ended
+	 */
+	private boolean nextElement() throws IOException {
+		int c = nextClean();
+		if (',' == c) {
+			return true;
+		} else if (']' == c) {
+			return false;
+		} else {
+			throw UNSUPPORTED;
+		}
+	}
+
+	/**
+	 * Read a key, whose opening quote has been consumed, and the following colon.
+	 * @param keys Keys read from the same object so far
+	 */
+	private String readKey(Set<String> keys) throws IOException {
+		String key = readString();
+		if (!keys.add(key) || ':' != nextClean()) {
+			throw UNSUPPORTED;
+		}
+		return key;
+	}
+
+	private String readStringValue() throws IOException {
+		if ('"' != nextClean()) {
+			throw UNSUPPORTED;
+		}
+		return readString();
+	}
+
+	private void skipValue() throws IOException {
+		int c = nextClean();
+		if ('"' == c) {
+			skipString();
+		} else if ('{' == c) {
+			for (boolean more = firstMember(); more; more = nextMember()) {
+				skipString();
+				if (':' != nextClean()) {
+					throw UNSUPPORTED;
+				}
+				skipValue();
+			}
+		} else if ('[' == c) {
+			for (boolean more = firstElement(); more; more = nextElement()) {
+				skipValue();
+			}
+		} else if (isTokenByte(c)) {
+			do {
+				c = next();
+			} while (isTokenByte(c));
+			if (-1 != c) {
+				position--;
+			}
+		} else {
+			throw UNSUPPORTED;
+		}
+	}
+
+	/**
+	 * @return True iff c may be part of a literal (true, false, null or a number)
+	 */
+	private static boolean isTokenByte(int c) {
+		return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z') || ('0' <= c && c <= '9')
+				|| '+' == c || '-' == c || '.' == c;
+	}
+
+	/*
+	 * Strings
+	 */
+
+	/**
+	 * Skip a string whose opening quote has been consumed.
+	 */
+	private void skipString() throws IOException {
+		for (;;) {
+			if (position == limit) {
+				fill();
+			}
+			int c = buffer[position++] & 0xFF;
+			if ('"' == c) {
+				return;
+			} else if ('\\' == c) {
+				readEscape();
+			} else if (0 == c || '\n' == c || '\r' == c) {
+				// Rejected by org.json
+				throw UNSUPPORTED;
+			}
+		}
+	}
+
+	/**
+	 * Read a string whose opening quote has been consumed.
+	 * @return The decoded string
+	 */
+	private String readString() throws IOException {
+		int length = 0;
+		for (;;) {
+			if (chars.length < length + 2) {
+				char[] newChars = new char[2 * chars.length];
+				System.arraycopy(chars, 0, newChars, 0, length);
+				chars = newChars;
+			}
+			if (position == limit) {
+				fill();
+			}
+			int c = buffer[position++] & 0xFF;
+			if ('"' == c) {
+				return new String(chars, 0, length);
+			} else if ('\\' == c) {
+				chars[length++] = readEscape();
+			} else if (0 == c || '\n' == c || '\r' == c) {
+				throw UNSUPPORTED;
+			} else if (c < 0x80) {
+				chars[length++] = (char)c;
+			} else {
+				length = decode(c, length);
+			}
+		}
+	}
+
+	/**
+	 * Read an escape sequence, whose backslash has been consumed.
+	 * @return The escaped character
+	 */
+	private char readEscape() throws IOException {
+		int c = next();
+		switch (c) {
+		case 'b':
+			return '\b';
+		case 't':
+			return '\t';
+		case 'n':
+			return '\n';
+		case 'f':
+			return '\f';
+		case 'r':
+			return '\r';
+		case '"':
+		case '\'':
+		case '\\':
+		case '/':
+			return (char)c;
+		case 'u':
+			int value = 0;
+			for (int i=0; i<4; i++) {
+				value = (value << 4) | hexValue(next());
+			}
+			return (char)value;
+		default:
+			throw UNSUPPORTED;
+		}
+	}
+
+	private static int hexValue(int c) {
+		if ('0' <= c && c <= '9') {
+			return c - '0';
+		} else if ('a' <= c && c <= 'f') {
+			return c - 'a' + 10;
+		} else if ('A' <= c && c <= 'F') {
+			return c - 'A' + 10;
+		} else {
+			throw UNSUPPORTED;
+		}
+	}
+
+	/**
+	 * Decode a multi-byte UTF-8 sequence and store the resulting character(s)
+	 * in chars. Malformed sequences are not handled.
+	 * @param first First byte of the sequence
+	 * @param length Number of characters stored in chars
+	 * @return The new number of characters stored in chars
+	 */
+	private int decode(int first, int length) throws IOException {
+		if (0xC2 <= first && first <= 0xDF) {
+			chars[length++] = (char)(((first & 0x1F) << 6) | continuation(0x80, 0xBF));
+		} else if (0xE0 <= first && first <= 0xEF) {
+			int second = continuation(0xE0 == first ? 0xA0 : 0x80, 0xED == first ? 0x9F : 0xBF);
+			chars[length++] = (char)(((first & 0x0F) << 12) | (second << 6) | continuation(0x80, 0xBF));
+		} else if (0xF0 <= first && first <= 0xF4) {
+			int second = continuation(0xF0 == first ? 0x90 : 0x80, 0xF4 == first ? 0x8F : 0xBF);
+			int third = continuation(0x80, 0xBF);
+			int codePoint = ((first & 0x07) << 18) | (second << 12) | (third << 6) | continuation(0x80, 0xBF);
+			chars[length++] = Character.highSurrogate(codePoint);
+			chars[length++] = Character.lowSurrogate(codePoint);
+		} else {
+			throw UNSUPPORTED;
+		}
+		return length;
+	}
+
+	/**
+	 * @return The payload of the next byte, if it is a continuation byte in the range [min, max]
+	 */
+	private int continuation(int min, int max) throws IOException {
+		int c = next();
+		if (c < min || max < c) {
+			throw UNSUPPORTED;
+		}
+		return c & 0x3F;
+	}
+
+	/*
+	 * Bytes
+	 */
+
+	/**
+	 * @return The next byte that is not white space (as defined by org.json), -1 at end of input
+	 */
+	private int nextClean() throws IOException {
+		int c;
+		do {
+			c = next();
+		} while (0 < c && c <= ' ');
+		return c;
+	}
+
+	/**
+	 * @return The next byte, -1 at end of input
+	 */
+	private int next() throws IOException {
+		if (position == limit) {
+			if (!tryFill()) {
+				return -1;
+			}
+		}
+		return buffer[position++] & 0xFF;
+	}
+
+	private void fill() throws IOException {
+		if (!tryFill()) {
+			throw UNSUPPORTED;
+		}
+	}
+
+	private boolean tryFill() throws IOException {
+		int read = input.read(buffer, 0, buffer.length);
+		while (0 == read) {
+			read = input.read(buffer, 0, buffer.length);
+		}
+		if (read < 0) {
+			return false;
+		}
+		position = 0;
+		limit = read;
+		return true;
+	}
+
+	/**
+	 * Fields of a cell used by the analyses.
+	 */
+	private class Cell {
+		String type;
+		Object source;
+		Object input;
+		String language;
+
+		/**
+		 * @return The source lines of the cell, each ending with a newline
+		 */
+		String[] lines() {
+			Object code = null != source ? source : input;
+			if (null == code) {
+				messages.add("Keys \"source\" and \"input\" are missing in a cell in " + path);
+				return new String[0];
+			} else if (code instanceof String) {
+				return NotebookContents.splitLines((String)code);
+			} else {
+				return NotebookContents.withNewlines((String[])code);
+			}
+		}
+	}
+
+	/**
+	 * Thrown when the notebook contains something that the reader doesn't
+	 * handle.
+	 */
+	private static class Unsupported extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+}
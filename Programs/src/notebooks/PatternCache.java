@@ -0,0 +1,88 @@
+package notebooks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A bounded cache of compiled regular expressions, for expressions that are
+ * built at run time, like the function call patterns of PythonModule.
+ *
+ * The compiled patterns are shared by all threads. Each thread also keeps
+ * its own matchers, which are reset for each new input instead of created.
+ * Hence, a matcher returned from matcher must not be used after the next
+ * call to matcher with the same regular expression on the same thread.
+ */
+class PatternCache {
+	static final int MAX_PATTERNS = 4096;
+	static final int MAX_MATCHERS_PER_THREAD = 256;
+	private static final Map<String, Pattern> patterns = new LeastRecentlyUsed<Pattern>(MAX_PATTERNS);
+	private static final ThreadLocal<Map<String, Matcher>> matchers = new ThreadLocal<Map<String, Matcher>>() {
+		@Override
+		protected Map<String, Matcher> initialValue() {
+			return new LeastRecentlyUsed<Matcher>(MAX_MATCHERS_PER_THREAD);
+		}
+	};
+
+	private PatternCache() {}
+
+	/**
+	 * @param regex Regular expression
+	 * @return The compiled regular expression, from the cache if it has been compiled before
+	 */
+	static Pattern pattern(String regex) {
+		synchronized (patterns) {
+			Pattern pattern = patterns.get(regex);
+			if (null == pattern) {
+				pattern = Pattern.compile(regex);
+				patterns.put(regex, pattern);
+			}
+			return pattern;
+		}
+	}
+
+	/**
+	 * @param regex Regular expression
+	 * @param input String to match the regular expression against
+	 * @return A matcher for regex and input, owned by the current thread
+	 */
+	static Matcher matcher(String regex, CharSequence input) {
+		Map<String, Matcher> threadMatchers = matchers.get();
+		Matcher matcher = threadMatchers.get(regex);
+		if (null == matcher) {
+			matcher = pattern(regex).matcher(input);
+			threadMatchers.put(regex, matcher);
+			return matcher;
+		}
+		return matcher.reset(input);
+	}
+
+	/**
+	 * @return The number of patterns in the cache
+	 */
+	static int size() {
+		synchronized (patterns) {
+			return patterns.size();
+		}
+	}
+
+	/**
+	 * A map that holds at most a given number of entries, and removes the
+	 * least recently used entry when it becomes full.
+	 */
+	private static class LeastRecentlyUsed<V> extends LinkedHashMap<String, V> {
+		private static final long serialVersionUID = 1L;
+		private final int maxSize;
+
+		LeastRecentlyUsed(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+			return size() > maxSize;
+		}
+	}
+}
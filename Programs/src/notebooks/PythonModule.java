@@ -7,11 +7,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class PythonModule {
 	// Name of single module (or function)
-	final static private String IDENTIFIER_CHAR = "[\\p{L}\\p{Nl}\\p{Nd}\\p{Mn}\\p{Pc}]";
+	final static String IDENTIFIER_CHAR = "[\\p{L}\\p{Nl}\\p{Nd}\\p{Mn}\\p{Pc}]";
 	final static public String IDENTIFIER = "[\\p{L}\\p{Nl}_]" + IDENTIFIER_CHAR + "*";
 	// Module, possibly with submodule(s)
 	final static public String SUB_MODULE_IDENTIFIER = IDENTIFIER + "\\s*(\\.\\s*" + IDENTIFIER + "\\s*)*";
@@ -195,14 +194,13 @@ public class PythonModule {
 	 * name, and line.
 	 * @param functionName Name of the function that we want to find calls to
 	 * @param line Line to match against the function call
-	 * @return The matcher described above
+	 * @return The matcher described above. It is reused by the current thread (see PatternCache).
 	 */
 	protected Matcher functionCallMatcher(String functionName, String line) {
 		/* We would like the look-behind group to contain \s* instead of \s+,
 		but Java doesn't support arbitrary length in look-behind. The case where
 		there is > 1 space should be very uncommon. */
-		Pattern usagePattern = Pattern.compile("(?<!\\.\\s?)(?<!" + IDENTIFIER_CHAR + ")(" + functionName + ")\\s*\\(");
-		return usagePattern.matcher(line);
+		return PatternCache.matcher("(?<!\\.\\s?)(?<!" + IDENTIFIER_CHAR + ")(" + functionName + ")\\s*\\(", line);
 	}
 	
 	/**
@@ -210,15 +208,14 @@ public class PythonModule {
 	 * of the current module, and line.
 	 * @param functionName Name of the function that we want to find calls to
 	 * @param line Line to match against the function call
-	 * @return The matcher described above
+	 * @return The matcher described above. It is reused by the current thread (see PatternCache).
 	 */
 	protected Matcher functionInModuleCallMatcher (String functionName, String line) {
 		/* We would like the look-behind group to contain \s* instead of \s+,
 		but Java doesn't support arbitrary length in look-behind. The case where
 		there is > 1 space should be very uncommon. */
-		Pattern usagePattern = Pattern.compile(
-				"(?<!\\.\\s?)(?<!" + IDENTIFIER_CHAR + ")" + this.qualifier() + "\\s*\\.\\s*(" + functionName + ")\\s*\\(");
-		return usagePattern.matcher(line);
+		return PatternCache.matcher(
+				"(?<!\\.\\s?)(?<!" + IDENTIFIER_CHAR + ")" + this.qualifier() + "\\s*\\.\\s*(" + functionName + ")\\s*\\(", line);
 	}
 	
 	/**
@@ -242,31 +239,41 @@ public class PythonModule {
 	protected static List<String> extractFunctionCalls(Matcher usageMatcher, String line) throws NotebookException {
 		List<String> result = new ArrayList<String>(1);	// Most of the times, there will only be 1 call/line(?)
 		while (usageMatcher.find()) {
-			CodeState state = new CodeState(line, usageMatcher.start(), new String[]{"\"", "'"});
-			boolean bracketFound = false;
-			int bracketLevel = 0;
-			String call = "";
-			while (!bracketFound || 0 != bracketLevel) {
-				if (!state.inCode()) {
-					// We have stepped outside the line without finding the expected parentheses.
-					throw new NotebookException("Invalid line: " + line);
-				}
-				char currentChar = state.currentChar();
-				// Comments are removed in preprocessing, but strings may still exist
-				if (!state.inString() && '(' == currentChar) {
-					bracketFound = true;
-					bracketLevel++;
-				} else if (!state.inString() && ')' == currentChar) {
-					bracketLevel--;
-				}
-				call += currentChar;
-				state.step();
-			}
-			result.add(call.trim());
+			result.add(extractFunctionCall(line, usageMatcher.start()));
 		}
 		return result;
 	}
 	
+	/**
+	 * @param line Code line containing a function call
+	 * @param start Index in line where the call starts
+	 * @return The call, up to and including the parenthesis that closes its argument list, without leading and trailing white space
+	 * @throws NotebookException when the argument list is not closed in line
+	 */
+	static String extractFunctionCall(String line, int start) throws NotebookException {
+		CodeState state = new CodeState(line, start, new String[]{"\"", "'"});
+		boolean bracketFound = false;
+		int bracketLevel = 0;
+		int end = start;
+		while (!bracketFound || 0 != bracketLevel) {
+			if (!state.inCode()) {
+				// We have stepped outside the line without finding the expected parentheses.
+				throw new NotebookException("Invalid line: " + line);
+			}
+			char currentChar = state.currentChar();
+			// Comments are removed in preprocessing, but strings may still exist
+			if (!state.inString() && '(' == currentChar) {
+				bracketFound = true;
+				bracketLevel++;
+			} else if (!state.inString() && ')' == currentChar) {
+				bracketLevel--;
+			}
+			end++;
+			state.step();
+		}
+		return line.substring(start, end).trim();
+	}
+	
 	public List<String> popFunctionCalls() {
 		List<String> result = new ArrayList<String>(functionCalls.size());
 		result.addAll(functionCalls);
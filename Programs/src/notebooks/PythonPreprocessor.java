@@ -5,125 +5,214 @@ import java.util.List;
 
 import org.json.JSONArray;
 
+/**
+ * Removes strings and comments from Python code, and splits it into
+ * statements.
+ *
+ * The code is processed in one pass, by a chain of state machines that each
+ * handle one character at a time and hand over the characters they keep to
+ * the next one:
+ * 1. Multi-line strings (enclosed by """ or ''') are removed.
+ * 2. Comments and newlines between brackets are removed, and semicolons are
+ *    replaced with newlines, unless they are inside a string.
+ * 3. Escaped newlines are replaced with spaces.
+ * 4. The code is split at newlines.
+ */
 public class PythonPreprocessor {
-	String code = "";
-	List<String> processed;
-	
+	private static final String[] MULTI_LINE_DELIMITERS = {"\"\"\"", "'''"};
+	private final String code;
+	private List<String> processed;
+
+	// State of step 1: index of the multi-line string delimiter we are inside, or -1
+	private int multiLineString;
+	private boolean multiLineEscaped;
+	private boolean multiLineComment;
+
+	// State of step 2: delimiter of the string we are inside, or 0
+	private char singleLineString;
+	private boolean singleLineEscaped;
+	private boolean inComment;
+	private int bracketLevel;
+
+	// State of step 3: character waiting for the next one to be read
+	private boolean hasPending;
+	private char pending;
+	private boolean pendingEscaped;
+
+	// State of step 4
+	private StringBuilder line;
+	private int numLinesKept;
+	private boolean anyCharacter;
+
 	public PythonPreprocessor(JSONArray input) {
-		mergeStrings(input);
-		processed = new ArrayList<String>();
+		StringBuilder merged = new StringBuilder();
+		for (int i=0; i<input.length(); i++) {
+			merged.append(input.getString(i));
+		}
+		code = merged.toString();
 	}
-	
+
+	public PythonPreprocessor(String[] input) {
+		StringBuilder merged = new StringBuilder();
+		for (String string: input) {
+			merged.append(string);
+		}
+		code = merged.toString();
+	}
+
 	/**
-	 * Merge all strings the JSON array given as argument. Store the result in
-	 * the instance variable 'code'.
+	 * Remove strings from input, and split all elements at newline and ';'.
+	 * @return A list of sub lines
 	 */
-	private void mergeStrings(JSONArray strings) {
-		for (int i=0; i<strings.length(); i++) {
-			code += strings.getString(i);
+	public List<String> process() {
+		processed = new ArrayList<String>();
+		multiLineString = -1;
+		multiLineEscaped = false;
+		multiLineComment = false;
+		singleLineString = 0;
+		singleLineEscaped = false;
+		inComment = false;
+		bracketLevel = 0;
+		hasPending = false;
+		pendingEscaped = false;
+		line = new StringBuilder();
+		numLinesKept = 0;
+		anyCharacter = false;
+
+		for (int i=0; i<code.length(); i++) {
+			removeMultiLineString(i);
+		}
+		if (hasPending) {
+			split(pending);
 		}
+		if (!anyCharacter) {
+			// There is always at least one line
+			processed.add("\n");
+		} else {
+			if (0 < line.length()) {
+				processed.add(line.append('\n').toString());
+				numLinesKept = processed.size();
+			}
+			// Trailing empty lines are not kept
+			processed.subList(numLinesKept, processed.size()).clear();
+		}
+		return processed;
 	}
-	
+
 	/**
-	 * Remove all escaped newlines from the code handled by the preprocessor
+	 * Step 1: Hand over the character at index in the code to step 2, unless
+	 * it is part of a multi-line string or its delimiters.
 	 */
-	public void removeEscapedNewLines() {
-		String result = "";
-		int index = 0;
-		boolean escaped = false;
-		while (index < code.length()-1) {
-			if ('\\' == code.charAt(index)) {
-				escaped = !escaped;
-			} else {
-				escaped = false;
-			}
-			if (escaped && '\n' == code.charAt(index+1)) {
-				index += 2;
-				result += ' ';
-			} else {
-				result += code.charAt(index++);
-			}
+	private void removeMultiLineString(int index) {
+		char current = code.charAt(index);
+		if (-1 == multiLineString && !atMultiLineDelimiter(index)) {
+			removeOutsideString(current);
+		}
+		int delimiter = multiLineDelimiterAt(index);
+		if (-1 != delimiter && (-1 == multiLineString || delimiter == multiLineString)
+				&& !multiLineEscaped && !multiLineComment) {
+			multiLineString = delimiter == multiLineString ? -1 : delimiter;
+		}
+		if (-1 == multiLineString && !multiLineEscaped && '#' == current) {
+			multiLineComment = true;
 		}
-		if (index < code.length()) {
-			// code did not end with an escaped newline
-			result += code.charAt(index);
+		if ('\n' == current) {
+			multiLineComment = false;
 		}
-		code = result;
+		multiLineEscaped = '\\' == current ? !multiLineEscaped : false;
 	}
-	
+
 	/**
-	 * Remove everything that should only be removed when it is not inside a
-	 * string, that is comments (starting with '#') and the newlines that occur
-	 * between brackets, from the code handled by the preprocessor. Also
-	 * replace semicolons that are outside strings with newlines.
-	 * @param delimiters Existing string delimiters. I a delimiter a is a substring of a delimiter b, b must precede a in the array.
+	 * @return True if the character at index is part of a multi-line string delimiter
 	 */
-	public void removeOutsideString(String[] delimiters) {
-		CodeState state = new CodeState(code, delimiters);
-		
-		String result = "";
-		int bracketLevel = 0;
-		while (state.inCode()) {
-			char current = state.currentChar();
-			if (!state.inString()) { // We are not inside a string. Do clean.
-				if ('(' == current) {
-					bracketLevel++;
-				} else if (')' == current) {
-					bracketLevel--;
-				} else if ('\n' == current && 0 < bracketLevel) {
-					state.stepPast();
-					continue;
-				} else if('#' == current && !state.escaped()) {
-					state.stepTo('\n');
-					continue;
-				} else if (';' == current) {
-					result += '\n';
-					state.stepPast();
-					continue;
+	private boolean atMultiLineDelimiter(int index) {
+		for (int i=0; i<MULTI_LINE_DELIMITERS.length; i++) {
+			for (int offset=0; offset<MULTI_LINE_DELIMITERS[i].length() && offset<=index; offset++) {
+				if (i == multiLineDelimiterAt(index-offset)) {
+					return true;
 				}
 			}
-			result += state.currentChar();
-			state.step();
 		}
-		code = result;
+		return false;
 	}
-	
+
 	/**
-	 * Remove strings that are enclosed by the specified delimiters from the
-	 * code handled by the preprocessor
+	 * @return The index of the first multi-line string delimiter that starts at index in the code, or -1 if there is none
 	 */
-	public void removeStrings(String[] delimiters) {
-		CodeState state = new CodeState(code, delimiters);
-		String result = "";
-		while (state.inCode()) {
-			if (!state.inString() && !state.atDelimiter()) {
-				result += state.currentChar();
+	private int multiLineDelimiterAt(int index) {
+		for (int i=0; i<MULTI_LINE_DELIMITERS.length; i++) {
+			if (code.startsWith(MULTI_LINE_DELIMITERS[i], index)) {
+				return i;
 			}
-			state.step();
 		}
-		code = result;
+		return -1;
 	}
-	
+
 	/**
-	 * Split a the code handled by the preprocessor at newlines, but keep the
-	 * newlines.
+	 * Step 2: Skip comments (starting with '#') and newlines between
+	 * brackets, and replace semicolons with newlines, unless they are inside
+	 * a string. Hand over the result to step 3.
 	 */
-	private void splitCode() {
-		String[] lines = code.split("\n");
-		for (String line: lines) {
-			processed.add(line + "\n");
+	private void removeOutsideString(char current) {
+		if (inComment) {
+			if ('\n' != current) {
+				return;
+			}
+			inComment = false;
+		}
+		if (0 == singleLineString) {
+			if ('(' == current) {
+				bracketLevel++;
+			} else if (')' == current) {
+				bracketLevel--;
+			} else if ('\n' == current && 0 < bracketLevel) {
+				return;
+			} else if ('#' == current && !singleLineEscaped) {
+				inComment = true;
+				return;
+			} else if (';' == current) {
+				removeEscapedNewLine('\n');
+				return;
+			}
 		}
+		removeEscapedNewLine(current);
+		if (('"' == current || '\'' == current)
+				&& (0 == singleLineString || current == singleLineString) && !singleLineEscaped) {
+			singleLineString = current == singleLineString ? 0 : current;
+		}
+		singleLineEscaped = '\\' == current ? !singleLineEscaped : false;
 	}
 
 	/**
-	 * Remove strings from input, and split all elements at newline and ';'.
-	 * @return A list of sub lines
+	 * Step 3: Replace escaped newlines with spaces. A character is handed
+	 * over to step 4 when the next character has been read.
 	 */
-	public List<String> process() {
-		removeStrings(new String[] {"\"\"\"", "'''"});
-		removeOutsideString(new String[]{"\"", "'"});
-		removeEscapedNewLines();
-		splitCode();
-		return processed;
+	private void removeEscapedNewLine(char current) {
+		if (hasPending) {
+			hasPending = false;
+			if (pendingEscaped && '\n' == current) {
+				split(' ');
+				return;
+			}
+			split(pending);
+		}
+		pendingEscaped = '\\' == current ? !pendingEscaped : false;
+		pending = current;
+		hasPending = true;
+	}
+
+	/**
+	 * Step 4: Split the code at newlines, but keep the newlines.
+	 */
+	private void split(char current) {
+		anyCharacter = true;
+		line.append(current);
+		if ('\n' == current) {
+			processed.add(line.toString());
+			if (1 < line.length()) {
+				numLinesKept = processed.size();
+			}
+			line.setLength(0);
+		}
 	}
 }
@@ -11,8 +11,12 @@ public class PythonZipDumper extends Dumper {
 	}
 
 	public static void main(String[] args) {
-		if (2 != args.length) {
-			System.out.println("Usage: PythonZipDumper <path to input file or directory> <path to output directory>");
+		if (2 == args.length) {
+			ThreadExecutor.setIoMode(false);
+		} else if (3 == args.length && "--io_mode".equals(args[2])) {
+			ThreadExecutor.setIoMode(true);
+		} else {
+			System.out.println("Usage: PythonZipDumper <path to input file or directory> <path to output directory> [--io_mode]");
 			System.exit(1);
 		}
 		new PythonZipDumper().dumpAll(args[0], args[1]);
@@ -0,0 +1,106 @@
+package notebooks;
+
+import java.util.Arrays;
+
+/**
+ * Set of repro ids, stored compactly in memory. Values are first stored in
+ * an int array that is kept sorted and free from duplicates, with new values
+ * appended at the end until the array is full. When the non-negative values
+ * in the array are dense enough, that is, when a bitmap covering all of them
+ * is at most half as large as the array, they are moved to a bitmap. Values
+ * that fall inside the bitmap are then set directly in it. Since repro ids
+ * are numbered from 0, a notebook connected to many repros is stored as a
+ * bitmap, and a notebook connected to few repros as a short array.
+ */
+final class ReproSet extends DistinctCounter {
+	private static final int INITIAL_CAPACITY = 8;
+
+	private long[] bits = new long[0];
+	private int numBits = 0;
+	// values[0..numSorted-1] is sorted and free from duplicates,
+	// values[numSorted..numValues-1] has been added since.
+	private int[] values = new int[INITIAL_CAPACITY];
+	private int numSorted = 0;
+	private int numValues = 0;
+
+	/**
+	 * Add value to the set, if it isn't already there.
+	 */
+	@Override
+	void add(int value) {
+		if (!inBitmap(value) && values.length == numValues) {
+			// May move values to the bitmap
+			compact();
+		}
+		if (inBitmap(value)) {
+			setBit(value);
+		} else {
+			values[numValues++] = value;
+		}
+	}
+
+	private boolean inBitmap(int value) {
+		return 0 <= value && value < 64*bits.length;
+	}
+
+	private void setBit(int value) {
+		long mask = 1L << value;
+		int word = value >>> 6;
+		if (0 == (bits[word] & mask)) {
+			bits[word] |= mask;
+			numBits++;
+		}
+	}
+
+	/**
+	 * @return Number of distinct values in the set
+	 */
+	@Override
+	int size() {
+		compact();
+		return numBits + numSorted;
+	}
+
+	/**
+	 * Sort the values in the array and remove duplicates. Move the
+	 * non-negative values to the bitmap if they are dense enough. Grow the
+	 * array if it is more than half full afterwards.
+	 */
+	private void compact() {
+		if (numSorted < numValues) {
+			Arrays.sort(values, 0, numValues);
+			int numDistinct = 1;
+			for (int i=1; i<numValues; i++) {
+				if (values[i] != values[numDistinct-1]) {
+					values[numDistinct++] = values[i];
+				}
+			}
+			numSorted = numValues = numDistinct;
+			moveToBitmapIfDense();
+		}
+		if (values.length < 2*numValues) {
+			values = Arrays.copyOf(values, 2*values.length);
+		}
+	}
+
+	private void moveToBitmapIfDense() {
+		if (0 == numValues || values[numValues-1] < 0) {
+			return;
+		}
+		int firstNonNegative = numValues;
+		while (0 < firstNonNegative && 0 <= values[firstNonNegative-1]) {
+			firstNonNegative--;
+		}
+		int numNonNegative = numValues - firstNonNegative;
+		int numWords = (values[numValues-1] >>> 6) + 1;
+		if (2 * Math.max(numWords, bits.length) <= numNonNegative) {
+			if (bits.length < numWords) {
+				bits = Arrays.copyOf(bits, numWords);
+			}
+			for (int i=firstNonNegative; i<numValues; i++) {
+				setBit(values[i]);
+			}
+			numSorted = numValues = firstNonNegative;
+		}
+	}
+}
@@ -3,27 +3,18 @@ package notebooks;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Writer;
 import java.time.LocalDateTime;
-import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 public class SccOutputAnalyzer extends Analyzer {
-	private Map<Integer, Set<SccSnippetId>> notebook2snippets;
 	private Map<Integer, SccNotebook> notebooks;
 	private Map<String, Integer> repros;
-	private Map <SccSnippetId, SccSnippet> snippets;
-	private String tmpDir = ".";
+	private SccSnippetTable snippets;
+	// Each pair thread keeps its own counters for all snippets and notebooks
+	private static final int MAX_DEFAULT_PAIR_THREADS = 4;
+	private int pairThreads = Math.min(Runtime.getRuntime().availableProcessors(), MAX_DEFAULT_PAIR_THREADS);
 	
 	/**
 	 * Perform the clone analysis based on SourcererCC output files. Write
@@ -62,7 +53,6 @@ public class SccOutputAnalyzer extends Analyzer {
 		System.out.println("since they are not included in the SourcererCC data!");
 		storeConnections(pairFile);
 		writeCloneFiles();
-		SccNotebook.removeDumpDirContents();
 	}
 	
 	/**
@@ -78,43 +68,36 @@ public class SccOutputAnalyzer extends Analyzer {
 	}
 	
 	/**
-	 * Initialize the maps containing information about each snippet
+	 * Initialize the table containing information about each snippet
 	 * @param statsFile Path to file stats file produced by the SourcererCC tokenizer
 	 * @param reproFile Path to file with mapping from notebook number to repro
 	 */
 	public void initializeSnippetInfo(String statsFile, String reproFile) throws IOException {
 		createNotebookMaps(reproFile);
 		BufferedReader statsReader = new BufferedReader(new FileReader(statsFile));
-		snippets = new HashMap<SccSnippetId, SccSnippet>();
-		notebook2snippets = new HashMap<Integer, Set<SccSnippetId>>();
+		snippets = new SccSnippetTable(notebooks);
 		String line = statsReader.readLine();
 		while(null != line) {
 			String[] columns = line.split(",");
-			SccSnippetId id = new SccSnippetId(columns[0], columns[1]);
+			int nbID = Integer.parseInt(columns[0]);
+			int snippetID = Integer.parseInt(columns[1]);
 			String path = columns[2];
 			// Remove directories from filename
 			String snippetFileName = path.substring(path.lastIndexOf(File.separatorChar) + 1);
 			// Remove suffix
 			snippetFileName = snippetFileName.substring(0, snippetFileName.lastIndexOf('.'));
 			String[] snippetSubStrings = snippetFileName.split("_");
-			// Create parent notebook
 			int notebookNumber = Integer.parseInt(snippetSubStrings[1]);
-			SccNotebook notebook = notebooks.get(notebookNumber);
 			/* Here we use the number of lines of source code (comments
 			   excluded), which is inconsistent with the clone analysis of the 
 			   notebook files, but so is the clone detection -SourcererCC
 			   doesn't consider comments in clone analysis. */
 			int loc = Integer.parseInt(columns[8]);
-			snippets.put(id, new SccSnippet(loc, notebook));
-			Set<SccSnippetId> snippetsForNotebook = notebook2snippets.get(notebookNumber);
-			if (null == snippetsForNotebook) {
-				snippetsForNotebook = new HashSet<SccSnippetId>();
-			}
-			snippetsForNotebook.add(id);
-			notebook2snippets.put(notebookNumber, snippetsForNotebook);
+			snippets.add(nbID, snippetID, loc, notebookNumber);
 			line = statsReader.readLine();
 		}
 		statsReader.close();
+		snippets.buildNotebookIndex();
 	}
 
 	/**
@@ -137,7 +120,7 @@ public class SccOutputAnalyzer extends Analyzer {
 					repros.put(reproName, repros.size());
 				}
 				int reproNumber = repros.get(reproName);
-				notebooks.put(notebookNumber, new SccNotebook(notebookName, reproNumber));
+				notebooks.put(notebookNumber, new SccNotebook(notebookName, reproNumber, approximateRepros));
 			} catch (NumberFormatException e) {
 				System.err.println("Notebook numbers in repro file must be integers! Notebook with \"number\" '"
 						+ subStrings[0] + "' is excluded from mapping!");
@@ -147,66 +130,24 @@ public class SccOutputAnalyzer extends Analyzer {
 		reader.close();
 	}
 
+	/**
+	 * Read the clone pairs in the zip file pairFileName, on pairThreads
+	 * threads, and store the connections in the snippets and notebooks.
+	 */
 	private void storeConnections(String pairFileName) throws IOException {
-		SccNotebook.setDumpDir(tmpDir);
-		ZipFile zippedPairFile = new ZipFile(pairFileName);
-		Enumeration<? extends ZipEntry> pairFileSet = zippedPairFile.entries();
-		while (pairFileSet.hasMoreElements()) {
-			ZipEntry pairFile = pairFileSet.nextElement();
-			InputStream zipStream = zippedPairFile.getInputStream(pairFile);
-			final BufferedReader reader = new BufferedReader(new InputStreamReader(zipStream));
-			long numRead = 0;
-			String line = reader.readLine();
-			while (null != line) {
-				if (0 == numRead%100000000) {
-					Utils.heartBeat("Reading clone pair " + numRead + ".");
-				}
-				storeConnection(line);
-				numRead++;
-				line = reader.readLine();
-			}
-			reader.close();
-		}
-		zippedPairFile.close();
+		new SccPairIngester(snippets, pairThreads).ingest(pairFileName);
 	}
-
+	
 	/**
-	 * @param line A line from the clone pairs file from the SourcererCC output
+	 * Each thread counts the connections in arrays of its own, which take 8
+	 * bytes per snippet and 8 bytes per notebook.
+	 * @param numThreads Number of threads that parse the clone pair file
 	 */
-	private void storeConnection(String line) {
-		String[] numbers = line.split(",");
-		if (4 != numbers.length) {
-			System.err.print("Invalid line \"" + line + "\" in pair file.");
-			System.err.println(" Skipping line!");
-		} else {
-			try {
-				SccSnippetId id1 = new SccSnippetId(numbers[0], numbers[1]);
-				SccSnippetId id2 = new SccSnippetId(numbers[2], numbers[3]);
-				SccSnippet snippet1 = snippets.get(id1);
-				SccSnippet snippet2 = snippets.get(id2);
-				if (null == snippet1) {
-					System.err.println("ID for nonexistent snippet (" + id1 + ") found on line \""
-							+ line + "\". Skipping clone pair!");
-				}
-				if (null == snippet2) {
-					System.err.println("ID for nonexistent snippet (" + id2 + ") found on line \""
-							+ line + "\". Skipping clone pair!");
-				}
-				if (null != snippet1 && null != snippet2) {
-					try {
-						snippet1.connect(snippet2);
-					} catch (NullPointerException e) {
-						// Notebook or repro was null for one of the snippets
-						System.err.println("Couldn't add connection between " + id1 + " and " + id2 + ". ");
-						System.err.println("Notebook or repro info is missing. Skipping line " + line);
-					}
-				}
-			} catch (NumberFormatException e) {
-				// We just skip this line
-				System.err.println("Number format exception when parsing line \""
-						+ line + "\": " + e.getMessage());
-			}
+	void setPairThreads(int numThreads) {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("Number of pair threads must be positive!");
 		}
+		this.pairThreads = numThreads;
 	}
 	
 	private static String getNotebookNameFromNumber(int notebookNumber) {
@@ -214,38 +155,38 @@ public class SccOutputAnalyzer extends Analyzer {
 	}
 	
 	private void printCloneLoc() throws IOException {
-		Writer writer = new FileWriter(outputDir + "/cloneLoc" + LocalDateTime.now() + ".csv");
-		for (SccSnippet snippet: snippets.values()) {
-			if (snippet.isClone()) {
-				writer.write(snippet.getLoc() + "\n");
+		CsvWriter writer = csvWriter(outputDir + "/cloneLoc" + LocalDateTime.now() + ".csv");
+		for (int row=0; row<snippets.size(); row++) {
+			if (snippets.isClone(row)) {
+				writer.newRow().append(snippets.loc(row));
+				writer.endRow();
 			}
 		}
 		writer.close();
 	}
 	
 	private void printCloneFrequencies() throws IOException {
-		Writer writer = new FileWriter(outputDir + "/cloneFrequency" + LocalDateTime.now() + ".csv");
+		CsvWriter writer = csvWriter(outputDir + "/cloneFrequency" + LocalDateTime.now() + ".csv");
 		writer.write(cloneFrequencyHeader());
-		for (Integer notebookNumber: notebook2snippets.keySet()) {
+		for (int group=0; group<snippets.numNotebookGroups(); group++) {
 			int numClones = 0, numUnique = 0, numEmpty = 0;
 			int numIntra = 0, numIntraNE = 0;	// # intra notebook clones
-			Set<SccSnippetId> snippetsInNotebook = notebook2snippets.get(notebookNumber);
-			for (SccSnippetId id: snippetsInNotebook) {
-				SccSnippet snippet = snippets.get(id);
-				if (snippet.isClone()) {
+			for (int member=0; member<snippets.groupSize(group); member++) {
+				int row = snippets.member(group, member);
+				if (snippets.isClone(row)) {
 					numClones++;
 				} else {
 					numUnique++;
 				}
-				if (0 == snippet.getLoc()) {
+				if (0 == snippets.loc(row)) {
 					numEmpty++;
 				}
-				if (snippet.isIntraNotebookClone()) {
+				if (snippets.isIntraNotebookClone(row)) {
 					numIntra++;
 				}
 			}
 			numIntraNE = numIntra;	// No empty clones for Scc data!
-			String notebookName = getNotebookNameFromNumber(notebookNumber);
+			String notebookName = getNotebookNameFromNumber(snippets.notebookNumber(group));
 			printCloneFrequencyLine(writer, notebookName, numClones, numUnique, numEmpty, numClones, numIntra, numIntraNE);
 		}
 		writer.close();
@@ -267,20 +208,19 @@ public class SccOutputAnalyzer extends Analyzer {
 	 * only repros for which there is a connection are included.
 	 */
 	private void printConnectionsFile() throws IOException {
-		Writer writer = new FileWriter(outputDir + "/connections" + LocalDateTime.now() + ".csv");
+		CsvWriter writer = csvWriter(outputDir + "/connections" + LocalDateTime.now() + ".csv");
 		writer.write(connectionsHeader());
-		for (Integer notebookNumber: notebook2snippets.keySet()) {
-			SccNotebook notebook = notebooks.get(notebookNumber);
-			if (null == notebook) {
-				String notebookName = getNotebookNameFromNumber(notebookNumber);
+		for (int group=0; group<snippets.numNotebookGroups(); group++) {
+			int notebookIndex = snippets.notebookIndex(snippets.notebookNumber(group));
+			if (notebookIndex < 0) {
+				String notebookName = getNotebookNameFromNumber(snippets.notebookNumber(group));
 				System.err.print("No repro information stored for notebook " + notebookName + "! ");
 				System.err.println("Connections will not be counted!");
 			} else {
+				SccNotebook notebook = snippets.notebookAt(notebookIndex);
 				int nonEmptySnippets = 0;
-				Set<SccSnippetId> snippetsForNotebook = notebook2snippets.get(notebookNumber);
-				for (SccSnippetId id: snippetsForNotebook) {
-					SccSnippet snippet = snippets.get(id);
-					if (0 != snippet.getLoc()) {
+				for (int member=0; member<snippets.groupSize(group); member++) {
+					if (0 != snippets.loc(snippets.member(group, member))) {
 						nonEmptySnippets++;
 					}
 				}
@@ -291,9 +231,11 @@ public class SccOutputAnalyzer extends Analyzer {
 				// Empty snippets are considered unique by SourcererCC
 				double normalizedNonEmptyConnections = ConnectionsLineBuilder.normalized(connections, nonEmptySnippets);
 				double meanNonEmptyInterReproConnections = ConnectionsLineBuilder.normalized(interConnections, numInterConnectedRepros);
-				writer.write(notebook.getName() + ", "
-						+ connections + ", " + String.format(Locale.US, "%.4f", normalizedNonEmptyConnections) + ", "
-					+ intraConnections + ", " + String.format(Locale.US, "%.4f", meanNonEmptyInterReproConnections) + "\n");
+				StringBuilder line = writer.newRow();
+				line.append(notebook.getName()).append(", ").append(connections).append(", ");
+				CsvWriter.appendDecimal(line, normalizedNonEmptyConnections, 4).append(", ").append(intraConnections).append(", ");
+				CsvWriter.appendDecimal(line, meanNonEmptyInterReproConnections, 4);
+				writer.endRow();
 			}
 		}
 		writer.close();
@@ -304,7 +246,7 @@ public class SccOutputAnalyzer extends Analyzer {
 	 */
 	private String connectionsHeader() {
 		return "file, non-empty connections, non-empty connections normalized, "
-				+ "non-empty intra repro connections, mean non-empty inter repro connections\n";
+				+ "non-empty intra repro connections, mean non-empty inter repro connections" + reproCountNote() + "\n";
 	}
 	
 	void analyze(String[] args) {
@@ -324,7 +266,17 @@ public class SccOutputAnalyzer extends Analyzer {
 			} else if (arg.startsWith("--output_dir")) {
 				outputDir = getValueFromArgument(arg);
 			} else if (arg.startsWith("--tmp_dir")) {
-				tmpDir = getValueFromArgument(arg);
+				System.err.println("Inter repro connections are counted in memory. " + arg + " is ignored.");
+			} else if (arg.startsWith("--pair_threads")) {
+				try {
+					setPairThreads(Integer.parseInt(getValueFromArgument(arg)));
+				} catch (IllegalArgumentException e) {
+					System.err.println("Invalid number of pair threads: " + arg + ". Using " + pairThreads + " threads.");
+				}
+			} else if (arg.equals("--background_flush")) {
+				backgroundFlush = true;
+			} else if (arg.equals("--approximate_repros")) {
+				setApproximateRepros(true);
 			} else {
 				System.err.println("Unknown argument: " + arg);
 			}
@@ -0,0 +1,537 @@
+package notebooks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the clone pairs found by SourcererCC and counts the connections of
+ * each snippet and notebook. The work is parallelized on two levels: the
+ * entries of the zip file are decompressed by several reader threads, and
+ * each reader cuts its entry into large blocks of whole lines that are parsed
+ * by a set of parser threads. Each parser counts the connections in its own
+ * primitive arrays, indexed by the rows of the snippets in the snippet table
+ * and the indices of the notebooks. When all pairs have been read, the counts
+ * of all parsers are summed and added to the snippet table and notebooks.
+ *
+ * The parsers decode the four numbers on each line directly from the bytes
+ * and look up the snippets in the snippet table, so a well-formed line does
+ * not create any objects. Lines that are not four comma separated decimal
+ * numbers are decoded to strings and parsed the same way as before, so that
+ * they are reported with the same messages.
+ */
+final class SccPairIngester {
+	private static final int BLOCK_SIZE = 1 << 20;
+	private static final int BLOCKS_PER_PARSER = 4;
+	private static final long HEART_BEAT_INTERVAL = 100000000;
+	// Number of inter connected repros a parser collects before adding them to the notebooks
+	private static final int REPRO_FLUSH_SIZE = 1 << 20;
+	private static final Block END = new Block(new byte[0], 0);
+
+	private final SccSnippetTable snippets;
+	// Repro of each notebook in snippets
+	private final int[] notebookRepro;
+	private final int numParsers;
+	private final AtomicLong numRead = new AtomicLong(0);
+
+	/**
+	 * @param snippets Table of all snippets in the SourcererCC data
+	 * @param numParsers Number of threads parsing lines in parallel. Each parser needs 8 bytes per snippet and 8 bytes per notebook for its counts.
+	 */
+	SccPairIngester(SccSnippetTable snippets, int numParsers) {
+		if (numParsers < 1) {
+			throw new IllegalArgumentException("Number of parsers must be positive!");
+		}
+		this.snippets = snippets;
+		this.numParsers = numParsers;
+		notebookRepro = new int[snippets.numNotebooks()];
+		for (int n=0; n<notebookRepro.length; n++) {
+			notebookRepro[n] = snippets.notebookAt(n).getRepro();
+		}
+	}
+
+	/**
+	 * Read all clone pairs in the zip file, and add the connections to the
+	 * snippets and notebooks.
+	 * @param pairFileName Path to zipped output file with clone pairs from the SourcererCC clone detection
+	 * @throws IOException If the pair file cannot be read
+	 * @throws RuntimeException If a reader or parser thread fails. No connections are added then.
+	 */
+	void ingest(String pairFileName) throws IOException {
+		ZipFile zippedPairFile = new ZipFile(pairFileName);
+		try {
+			BlockingQueue<Block> blocks = new ArrayBlockingQueue<Block>(BLOCKS_PER_PARSER * numParsers);
+			Parser[] parsers = new Parser[numParsers];
+			for (int i=0; i<numParsers; i++) {
+				parsers[i] = new Parser(blocks);
+				parsers[i].start();
+			}
+			Enumeration<? extends ZipEntry> entries = zippedPairFile.entries();
+			Reader[] readers = new Reader[Math.min(numParsers, zippedPairFile.size())];
+			for (int i=0; i<readers.length; i++) {
+				readers[i] = new Reader(zippedPairFile, entries, blocks);
+				readers[i].start();
+			}
+			Throwable failure = null;
+			for (Reader reader: readers) {
+				join(reader);
+				if (null == failure) {
+					failure = reader.failure;
+				}
+			}
+			for (int i=0; i<numParsers; i++) {
+				put(blocks, END);
+			}
+			for (Parser parser: parsers) {
+				join(parser);
+				if (null == failure) {
+					failure = parser.failure;
+				}
+			}
+			if (failure instanceof IOException) {
+				throw (IOException)failure;
+			} else if (failure instanceof RuntimeException) {
+				throw (RuntimeException)failure;
+			} else if (failure instanceof Error) {
+				throw (Error)failure;
+			} else if (null != failure) {
+				throw new IllegalStateException("Reading of clone pairs failed: " + failure, failure);
+			}
+			merge(parsers);
+		} finally {
+			zippedPairFile.close();
+		}
+	}
+
+	/**
+	 * Add the connections counted by all parsers to the snippets and
+	 * notebooks.
+	 */
+	private void merge(Parser[] parsers) {
+		for (int row=0; row<snippets.size(); row++) {
+			int intra = 0, inter = 0;
+			for (Parser parser: parsers) {
+				intra += parser.snippetIntraNotebook[row];
+				inter += parser.snippetInterNotebook[row];
+			}
+			snippets.addConnections(row, intra, inter);
+		}
+		for (int n=0; n<notebookRepro.length; n++) {
+			int intra = 0, inter = 0;
+			for (Parser parser: parsers) {
+				intra += parser.notebookIntraRepro[n];
+				inter += parser.notebookInterRepro[n];
+			}
+			snippets.notebookAt(n).addConnections(intra, inter);
+		}
+		for (Parser parser: parsers) {
+			addInterConnectedRepros(parser.interConnectedRepros);
+		}
+	}
+
+	/**
+	 * Add the inter connected repros in repros to the notebooks, and empty
+	 * repros. The notebooks are locked one at a time, since several parsers
+	 * may add repros concurrently.
+	 * @param repros Set of notebook index << 32 | repro id
+	 */
+	private void addInterConnectedRepros(LongSet repros) {
+		long[] entries = repros.toArray();
+		repros.clear();
+		Arrays.sort(entries);
+		int i = 0;
+		while (i < entries.length) {
+			int notebookIndex = (int)(entries[i] >>> 32);
+			SccNotebook notebook = snippets.notebookAt(notebookIndex);
+			synchronized (notebook) {
+				while (i < entries.length && notebookIndex == (int)(entries[i] >>> 32)) {
+					notebook.addInterConnectedRepro((int)entries[i]);
+					i++;
+				}
+			}
+		}
+	}
+
+	private static void join(Thread thread) throws IOException {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading clone pairs", e);
+		}
+	}
+
+	private static void put(BlockingQueue<Block> blocks, Block block) throws IOException {
+		try {
+			blocks.put(block);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading clone pairs", e);
+		}
+	}
+
+	/**
+	 * Bytes of a number of whole lines from the pair file.
+	 */
+	private static class Block {
+		final byte[] data;
+		final int length;
+
+		Block(byte[] data, int length) {
+			this.data = data;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Thread that decompresses zip entries, one at a time, and cuts them into
+	 * blocks of whole lines for the parsers.
+	 */
+	private class Reader extends Thread {
+		private final ZipFile zipFile;
+		private final Enumeration<? extends ZipEntry> entries;
+		private final BlockingQueue<Block> blocks;
+		volatile Throwable failure = null;
+
+		Reader(ZipFile zipFile, Enumeration<? extends ZipEntry> entries, BlockingQueue<Block> blocks) {
+			super("scc-pair-reader");
+			this.zipFile = zipFile;
+			this.entries = entries;
+			this.blocks = blocks;
+		}
+
+		@Override
+		public void run() {
+			try {
+				ZipEntry entry = nextEntry();
+				while (null != entry) {
+					read(entry);
+					entry = nextEntry();
+				}
+			} catch (Throwable e) {
+				failure = e;
+			}
+		}
+
+		private ZipEntry nextEntry() {
+			synchronized (entries) {
+				return entries.hasMoreElements() ? entries.nextElement() : null;
+			}
+		}
+
+		/**
+		 * Read entry in blocks. Each block is cut after its last line break,
+		 * and the rest is moved to the next block. A block is grown if a
+		 * single line does not fit in it.
+		 */
+		private void read(ZipEntry entry) throws IOException {
+			InputStream in = zipFile.getInputStream(entry);
+			try {
+				byte[] buffer = new byte[BLOCK_SIZE];
+				int length = 0;
+				int n = in.read(buffer, length, buffer.length - length);
+				while (0 <= n) {
+					length += n;
+					if (buffer.length == length) {
+						int end = lastLineBreak(buffer, length) + 1;
+						byte[] next = new byte[0 == end ? 2*buffer.length : BLOCK_SIZE];
+						System.arraycopy(buffer, end, next, 0, length - end);
+						if (0 < end) {
+							put(blocks, new Block(buffer, end));
+						}
+						buffer = next;
+						length -= end;
+					}
+					n = in.read(buffer, length, buffer.length - length);
+				}
+				if (0 < length) {
+					put(blocks, new Block(buffer, length));
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		private int lastLineBreak(byte[] buffer, int length) {
+			int i = length - 1;
+			while (0 <= i && '\n' != buffer[i]) {
+				i--;
+			}
+			return i;
+		}
+	}
+
+	/**
+	 * Thread that parses blocks of lines and counts the connections in them.
+	 * The END block tells the parser to stop. If parsing fails, the failure
+	 * is stored, and the remaining blocks are taken from the queue without
+	 * being parsed, so that the readers don't wait for room in it forever.
+	 */
+	private class Parser extends Thread {
+		private final BlockingQueue<Block> blocks;
+		private final Charset charset = Charset.defaultCharset();
+		private final int[] numbers = new int[4];
+		final int[] snippetIntraNotebook = new int[snippets.size()];
+		final int[] snippetInterNotebook = new int[snippets.size()];
+		final int[] notebookIntraRepro = new int[notebookRepro.length];
+		final int[] notebookInterRepro = new int[notebookRepro.length];
+		// Notebook id << 32 | id of a repro that the notebook is connected to
+		final LongSet interConnectedRepros = new LongSet();
+		volatile Throwable failure = null;
+
+		Parser(BlockingQueue<Block> blocks) {
+			super("scc-pair-parser");
+			this.blocks = blocks;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Block block = blocks.take();
+				while (END != block) {
+					if (null == failure) {
+						try {
+							parse(block);
+						} catch (Throwable e) {
+							failure = e;
+						}
+					}
+					block = blocks.take();
+				}
+			} catch (InterruptedException e) {
+				System.err.println("Parsing of clone pairs interrupted!");
+				failure = new IOException("Interrupted while reading clone pairs", e);
+			}
+		}
+
+		/**
+		 * Parse all lines in block. The last line need not end with a line
+		 * break. A carriage return before a line break is not part of the
+		 * line.
+		 */
+		private void parse(Block block) {
+			byte[] data = block.data;
+			int lineStart = 0;
+			int numLines = 0;
+			for (int i=0; i<block.length; i++) {
+				if ('\n' == data[i]) {
+					parse(data, lineStart, 0 < i && '\r' == data[i-1] ? i-1 : i);
+					lineStart = i + 1;
+					numLines++;
+				}
+			}
+			if (lineStart < block.length) {
+				int end = block.length;
+				parse(data, lineStart, '\r' == data[end-1] ? end-1 : end);
+				numLines++;
+			}
+			long before = numRead.getAndAdd(numLines);
+			if (before/HEART_BEAT_INTERVAL != (before + numLines)/HEART_BEAT_INTERVAL || 0 == before) {
+				Utils.heartBeat("Reading clone pair " + before + ".");
+			}
+		}
+
+		/**
+		 * Parse the line stored in data between start (inclusive) and end
+		 * (exclusive). If the line consists of four comma separated decimal
+		 * numbers that fit in an int, they are decoded directly. Otherwise
+		 * the line is handled as a string.
+		 */
+		private void parse(byte[] data, int start, int end) {
+			int numNumbers = 0;
+			long value = 0;
+			int numDigits = 0;
+			for (int i=start; i<end; i++) {
+				byte b = data[i];
+				if ('0' <= b && b <= '9') {
+					value = 10*value + (b - '0');
+					numDigits++;
+					if (Integer.MAX_VALUE < value) {
+						parseSlow(data, start, end);
+						return;
+					}
+				} else if (',' == b && 0 < numDigits && numNumbers < 3) {
+					numbers[numNumbers++] = (int)value;
+					value = 0;
+					numDigits = 0;
+				} else {
+					parseSlow(data, start, end);
+					return;
+				}
+			}
+			if (3 != numNumbers || 0 == numDigits) {
+				parseSlow(data, start, end);
+				return;
+			}
+			numbers[3] = (int)value;
+			handle(numbers[0], numbers[1], numbers[2], numbers[3], null);
+		}
+
+		/**
+		 * Decode the line stored in data between start and end to a string
+		 * and parse it like a BufferedReader would: a carriage return inside
+		 * it ends a line.
+		 */
+		private void parseSlow(byte[] data, int start, int end) {
+			String text = new String(data, start, end - start, charset);
+			for (String line: text.split("\r", -1)) {
+				parse(line);
+			}
+		}
+
+		/**
+		 * @param line A line from the clone pairs file from the SourcererCC output
+		 */
+		private void parse(String line) {
+			String[] numbers = line.split(",");
+			if (4 != numbers.length) {
+				System.err.println("Invalid line \"" + line + "\" in pair file. Skipping line!");
+			} else {
+				try {
+					handle(Integer.parseInt(numbers[0]), Integer.parseInt(numbers[1]),
+							Integer.parseInt(numbers[2]), Integer.parseInt(numbers[3]), line);
+				} catch (NumberFormatException e) {
+					// We just skip this line
+					System.err.println("Number format exception when parsing line \""
+							+ line + "\": " + e.getMessage());
+				}
+			}
+		}
+
+		/**
+		 * Count the clone pair with the given ids, or report why it cannot
+		 * be counted.
+		 * @param line The line that the ids were read from, or null if it has not been decoded
+		 */
+		private void handle(int nb1, int id1, int nb2, int id2, String line) {
+			int snippet1 = snippets.row(nb1, id1);
+			int snippet2 = snippets.row(nb2, id2);
+			if (snippet1 < 0 || snippet2 < 0
+					|| snippets.notebook(snippet1) < 0 || snippets.notebook(snippet2) < 0) {
+				if (null == line) {
+					line = nb1 + "," + id1 + "," + nb2 + "," + id2;
+				}
+				report(nb1, id1, nb2, id2, snippet1, snippet2, line);
+			} else {
+				connect(snippet1, snippet2);
+			}
+		}
+
+		private void report(int nb1, int id1, int nb2, int id2, int snippet1, int snippet2, String line) {
+			if (snippet1 < 0) {
+				System.err.println("ID for nonexistent snippet (" + nb1 + ":" + id1 + ") found on line \""
+						+ line + "\". Skipping clone pair!");
+			}
+			if (snippet2 < 0) {
+				System.err.println("ID for nonexistent snippet (" + nb2 + ":" + id2 + ") found on line \""
+						+ line + "\". Skipping clone pair!");
+			}
+			if (0 <= snippet1 && 0 <= snippet2) {
+				System.err.println("Couldn't add connection between " + nb1 + ":" + id1 + " and " + nb2 + ":" + id2 + ". \n"
+						+ "Notebook or repro info is missing. Skipping line " + line);
+			}
+		}
+
+		/**
+		 * Count a connection between snippet1 and snippet2 the same way as
+		 * SccSnippet.connect does.
+		 */
+		private void connect(int snippet1, int snippet2) {
+			int nb1 = snippets.notebook(snippet1), nb2 = snippets.notebook(snippet2);
+			int repro1 = notebookRepro[nb1], repro2 = notebookRepro[nb2];
+			if (repro1 == repro2) {
+				notebookIntraRepro[nb1]++;
+				notebookIntraRepro[nb2]++;
+			} else {
+				notebookInterRepro[nb1]++;
+				notebookInterRepro[nb2]++;
+				interConnectedRepros.add((long)nb1 << 32 | (repro2 & 0xFFFFFFFFL));
+				interConnectedRepros.add((long)nb2 << 32 | (repro1 & 0xFFFFFFFFL));
+				if (REPRO_FLUSH_SIZE <= interConnectedRepros.size()) {
+					addInterConnectedRepros(interConnectedRepros);
+				}
+			}
+			if (nb1 == nb2) {
+				snippetIntraNotebook[snippet1]++;
+				snippetIntraNotebook[snippet2]++;
+			} else {
+				snippetInterNotebook[snippet1]++;
+				snippetInterNotebook[snippet2]++;
+			}
+		}
+	}
+
+	/**
+	 * Set of longs, stored in an open addressing table.
+	 */
+	private static class LongSet {
+		private static final long EMPTY = -1;
+		private static final int INITIAL_CAPACITY = 1024;
+		private long[] table = newTable(INITIAL_CAPACITY);
+		private int size = 0;
+
+		int size() {
+			return size;
+		}
+
+		/**
+		 * @return The values in the set, in no particular order
+		 */
+		long[] toArray() {
+			long[] values = new long[size];
+			int i = 0;
+			for (long entry: table) {
+				if (EMPTY != entry) {
+					values[i++] = entry;
+				}
+			}
+			return values;
+		}
+
+		void clear() {
+			table = newTable(INITIAL_CAPACITY);
+			size = 0;
+		}
+
+		void add(long value) {
+			if (table.length <= 2*size) {
+				long[] oldTable = table;
+				table = newTable(2*oldTable.length);
+				for (long entry: oldTable) {
+					if (EMPTY != entry) {
+						insert(entry);
+					}
+				}
+			}
+			if (insert(value)) {
+				size++;
+			}
+		}
+
+		private boolean insert(long value) {
+			int mask = table.length - 1;
+			int slot = (int)((value * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+			while (EMPTY != table[slot]) {
+				if (value == table[slot]) {
+					return false;
+				}
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = value;
+			return true;
+		}
+
+		private static long[] newTable(int size) {
+			long[] table = new long[size];
+			Arrays.fill(table, EMPTY);
+			return table;
+		}
+	}
+}
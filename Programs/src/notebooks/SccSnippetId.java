@@ -15,6 +15,13 @@ public class SccSnippetId {
 		this(Integer.parseInt(nbID), Integer.parseInt(snippetID));
 	}
 
+	/**
+	 * @return nbID in the upper and snippetID in the lower 32 bits of a long
+	 */
+	static long pack(int nbID, int snippetID) {
+		return (long)nbID << 32 | (snippetID & 0xFFFFFFFFL);
+	}
+
 	@Override
 	public boolean equals(Object other) {
 		if (other instanceof SccSnippetId) {
@@ -0,0 +1,287 @@
+package notebooks;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Table of all snippets in the SourcererCC data. Each snippet is a row,
+ * identified by its snippet id packed into a long (see SccSnippetId.pack).
+ * The line count, the notebook and the connection counts of the snippets are
+ * stored in parallel int columns, and the snippets of each notebook number
+ * are stored as consecutive rows in a compressed sparse row index, so no
+ * objects are created per snippet.
+ *
+ * Snippets are added with add. Before the notebooks are traversed, the
+ * notebook index must be built by buildNotebookIndex.
+ */
+final class SccSnippetTable {
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// Notebooks, sorted by number
+	private final int[] notebookNumbers;
+	private final SccNotebook[] notebooks;
+
+	// Packed snippet id -> row
+	private final LongIntMap rows = new LongIntMap(INITIAL_CAPACITY);
+	private int size = 0;
+	private int[] loc = new int[INITIAL_CAPACITY];
+	// Index in notebooks of the notebook of each snippet, -1 if unknown
+	private int[] notebook = new int[INITIAL_CAPACITY];
+	private int[] intraNotebookConnections = new int[INITIAL_CAPACITY];
+	private int[] interNotebookConnections = new int[INITIAL_CAPACITY];
+	// Notebook number << 32 | row, for each snippet added
+	private long[] membership = new long[INITIAL_CAPACITY];
+	private int numMemberships = 0;
+
+	// Notebook index: the rows of the snippets with notebook number
+	// groupNumbers[i] are groupRows[groupStart[i]..groupStart[i+1]-1].
+	private int[] groupNumbers = new int[0];
+	private int[] groupStart = {0};
+	private int[] groupRows = new int[0];
+
+	/**
+	 * @param notebooks Map from notebook number to notebook, for all notebooks with repro information
+	 */
+	SccSnippetTable(Map<Integer, SccNotebook> notebooks) {
+		notebookNumbers = new int[notebooks.size()];
+		int i = 0;
+		for (Integer number: notebooks.keySet()) {
+			notebookNumbers[i++] = number;
+		}
+		Arrays.sort(notebookNumbers);
+		this.notebooks = new SccNotebook[notebookNumbers.length];
+		for (i=0; i<notebookNumbers.length; i++) {
+			this.notebooks[i] = notebooks.get(notebookNumbers[i]);
+		}
+	}
+
+	/**
+	 * Add a snippet to the table. If a snippet with the same id has already
+	 * been added, its line count and notebook are replaced.
+	 * @param nbID Notebook part of the snippet id
+	 * @param snippetID Snippet part of the snippet id
+	 * @param loc Line count of the snippet
+	 * @param notebookNumber Number of the notebook that the snippet belongs to
+	 */
+	void add(int nbID, int snippetID, int loc, int notebookNumber) {
+		long key = SccSnippetId.pack(nbID, snippetID);
+		int row = rows.get(key);
+		if (row < 0) {
+			row = size++;
+			if (this.loc.length < size) {
+				int capacity = 2*this.loc.length;
+				this.loc = Arrays.copyOf(this.loc, capacity);
+				notebook = Arrays.copyOf(notebook, capacity);
+				intraNotebookConnections = Arrays.copyOf(intraNotebookConnections, capacity);
+				interNotebookConnections = Arrays.copyOf(interNotebookConnections, capacity);
+			}
+			rows.put(key, row);
+		}
+		this.loc[row] = loc;
+		notebook[row] = notebookIndex(notebookNumber);
+		if (membership.length == numMemberships) {
+			membership = Arrays.copyOf(membership, 2*membership.length);
+		}
+		membership[numMemberships++] = (long)notebookNumber << 32 | row;
+	}
+
+	/**
+	 * Build the index from notebook number to snippets, from the snippets
+	 * added so far. Each snippet is listed once for each notebook number it
+	 * has been added with.
+	 */
+	void buildNotebookIndex() {
+		long[] sorted = Arrays.copyOf(membership, numMemberships);
+		Arrays.sort(sorted);
+		int numRows = 0, numGroups = 0;
+		groupNumbers = new int[sorted.length];
+		groupStart = new int[sorted.length + 1];
+		groupRows = new int[sorted.length];
+		for (int i=0; i<sorted.length; i++) {
+			if (0 < i && sorted[i] == sorted[i-1]) {
+				continue;
+			}
+			int number = (int)(sorted[i] >> 32);
+			if (0 == numGroups || groupNumbers[numGroups-1] != number) {
+				groupNumbers[numGroups] = number;
+				groupStart[numGroups++] = numRows;
+			}
+			groupRows[numRows++] = (int)sorted[i];
+		}
+		groupStart[numGroups] = numRows;
+		groupNumbers = Arrays.copyOf(groupNumbers, numGroups);
+		groupStart = Arrays.copyOf(groupStart, numGroups + 1);
+		groupRows = Arrays.copyOf(groupRows, numRows);
+		membership = new long[0];
+		numMemberships = 0;
+	}
+
+	/**
+	 * @return Number of snippets in the table
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return Row of the snippet with the given id, or -1 if there is none
+	 */
+	int row(int nbID, int snippetID) {
+		return rows.get(SccSnippetId.pack(nbID, snippetID));
+	}
+
+	int loc(int row) {
+		return loc[row];
+	}
+
+	/**
+	 * @return Index of the notebook of the snippet in row, or -1 if the notebook has no repro information
+	 */
+	int notebook(int row) {
+		return notebook[row];
+	}
+
+	int numIntraNotebookConnections(int row) {
+		return intraNotebookConnections[row];
+	}
+
+	int numInterNotebookConnections(int row) {
+		return interNotebookConnections[row];
+	}
+
+	boolean isClone(int row) {
+		return isIntraNotebookClone(row) || 0 < interNotebookConnections[row];
+	}
+
+	boolean isIntraNotebookClone(int row) {
+		return 0 < intraNotebookConnections[row];
+	}
+
+	/**
+	 * Add connections to the snippet in row.
+	 * @param intra Number of connections to snippets in the same notebook
+	 * @param inter Number of connections to snippets in other notebooks
+	 */
+	void addConnections(int row, int intra, int inter) {
+		intraNotebookConnections[row] += intra;
+		interNotebookConnections[row] += inter;
+	}
+
+	/**
+	 * @return Number of notebooks with repro information
+	 */
+	int numNotebooks() {
+		return notebooks.length;
+	}
+
+	/**
+	 * @return The notebook with index index
+	 */
+	SccNotebook notebookAt(int index) {
+		return notebooks[index];
+	}
+
+	/**
+	 * @return Index of the notebook with number notebookNumber, or -1 if it has no repro information
+	 */
+	int notebookIndex(int notebookNumber) {
+		int index = Arrays.binarySearch(notebookNumbers, notebookNumber);
+		return index < 0 ? -1 : index;
+	}
+
+	/**
+	 * @return Number of distinct notebook numbers that snippets have been added with
+	 */
+	int numNotebookGroups() {
+		return groupNumbers.length;
+	}
+
+	/**
+	 * @return Notebook number of group
+	 */
+	int notebookNumber(int group) {
+		return groupNumbers[group];
+	}
+
+	/**
+	 * @return Number of snippets in group
+	 */
+	int groupSize(int group) {
+		return groupStart[group+1] - groupStart[group];
+	}
+
+	/**
+	 * @return Row of snippet number member in group
+	 */
+	int member(int group, int member) {
+		return groupRows[groupStart[group] + member];
+	}
+
+	/**
+	 * Map from long to non-negative int, stored in an open addressing table.
+	 * May be read concurrently by several threads once it has been filled.
+	 */
+	private static class LongIntMap {
+		private long[] keys;
+		private int[] values;
+		private int size = 0;
+
+		LongIntMap(int capacity) {
+			keys = new long[capacity];
+			values = new int[capacity];
+			Arrays.fill(values, -1);
+		}
+
+		void put(long key, int value) {
+			if (keys.length <= 2*size) {
+				long[] oldKeys = keys;
+				int[] oldValues = values;
+				keys = new long[2*oldKeys.length];
+				values = new int[2*oldValues.length];
+				Arrays.fill(values, -1);
+				for (int i=0; i<oldKeys.length; i++) {
+					if (0 <= oldValues[i]) {
+						insert(oldKeys[i], oldValues[i]);
+					}
+				}
+			}
+			if (insert(key, value)) {
+				size++;
+			}
+		}
+
+		private boolean insert(long key, int value) {
+			int mask = keys.length - 1;
+			int slot = slot(key, mask);
+			while (0 <= values[slot]) {
+				if (key == keys[slot]) {
+					values[slot] = value;
+					return false;
+				}
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = key;
+			values[slot] = value;
+			return true;
+		}
+
+		/**
+		 * @return The value stored for key, or -1 if there is none
+		 */
+		int get(long key) {
+			int mask = keys.length - 1;
+			int slot = slot(key, mask);
+			while (0 <= values[slot]) {
+				if (key == keys[slot]) {
+					return values[slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		private static int slot(long key, int mask) {
+			return (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+		}
+	}
+}
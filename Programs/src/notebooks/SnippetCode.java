@@ -1,27 +1,112 @@
 package notebooks;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Objects;
-
 /**
- * Represents the code inside a snippet.
+ * Represents the code inside a snippet. The code is identified by its MD5
+ * hash, which is stored as two longs. The hexadecimal representation of the
+ * hash is only created when it is asked for.
  */
 public class SnippetCode {
+	// MD5 hash of the empty string
+	private static final long EMPTY_HIGH = 0xD41D8CD98F00B204L;
+	private static final long EMPTY_LOW = 0xE9800998ECF8427EL;
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+	private static final int HASH_LENGTH = 32;
+	
 	private int LOC;
-	private final String hash;
+	private final long high;
+	private final long low;
 	
-	public SnippetCode(int LOC, String hash) {
+	/**
+	 * @param LOC Number of lines of code in the snippet
+	 * @param high The 8 most significant bytes of the hash
+	 * @param low The 8 least significant bytes of the hash
+	 */
+	public SnippetCode(int LOC, long high, long low) {
 		this.LOC = LOC;
-		this.hash = hash;
+		this.high = high;
+		this.low = low;
+	}
+	
+	/**
+	 * @param LOC Number of lines of code in the snippet
+	 * @param digest MD5 digest (16 bytes) of the snippet
+	 */
+	public SnippetCode(int LOC, byte[] digest) {
+		this(LOC, toLong(digest, 0), toLong(digest, 8));
+	}
+	
+	/**
+	 * @param LOC Number of lines of code in the snippet
+	 * @param hash MD5 hash of the snippet, as 32 hexadecimal digits
+	 * @throws IllegalArgumentException If hash is not on the format specified above
+	 */
+	public SnippetCode(int LOC, String hash) {
+		this(LOC, parseHalf(hash, 0), parseHalf(hash, HASH_LENGTH/2));
 	}
 	
 	public SnippetCode(SnippetCode model) {
-		this(model.getLOC(), model.getHash());
+		this(model.getLOC(), model.high, model.low);
+	}
+	
+	private static long toLong(byte[] digest, int offset) {
+		long result = 0;
+		for (int i=offset; i<offset+8; i++) {
+			result = (result << 8) | (digest[i] & 0xFF);
+		}
+		return result;
+	}
+	
+	private static long parseHalf(String hash, int start) {
+		if (HASH_LENGTH != hash.length()) {
+			throw new IllegalArgumentException("Invalid snippet hash: " + hash);
+		}
+		long result = 0;
+		for (int i=start; i<start+HASH_LENGTH/2; i++) {
+			int digit = Character.digit(hash.charAt(i), 16);
+			if (digit < 0) {
+				throw new IllegalArgumentException("Invalid snippet hash: " + hash);
+			}
+			result = (result << 4) | digit;
+		}
+		return result;
 	}
 
+	/**
+	 * @return The hash as 32 upper case hexadecimal digits
+	 */
 	public String getHash() {
-		return hash;
+		return appendHash(new StringBuilder(HASH_LENGTH)).toString();
+	}
+	
+	/**
+	 * Append the hash, as 32 upper case hexadecimal digits, to a string builder.
+	 * @param builder Builder to append the hash to
+	 * @return builder
+	 */
+	public StringBuilder appendHash(StringBuilder builder) {
+		appendHex(builder, high);
+		appendHex(builder, low);
+		return builder;
+	}
+	
+	private static void appendHex(StringBuilder builder, long value) {
+		for (int shift=60; 0<=shift; shift-=4) {
+			builder.append(HEX_DIGITS[(int)(value >>> shift) & 0xF]);
+		}
+	}
+	
+	/**
+	 * @return The 8 most significant bytes of the hash
+	 */
+	long getHigh() {
+		return high;
+	}
+	
+	/**
+	 * @return The 8 least significant bytes of the hash
+	 */
+	long getLow() {
+		return low;
 	}
 	
 	public int getLOC() {
@@ -32,7 +117,7 @@ public class SnippetCode {
 	public boolean equals(Object other) {
 		if (other instanceof SnippetCode) {
 			SnippetCode otherCode = (SnippetCode)other;
-			return this.hash.equals(otherCode.getHash());
+			return this.high == otherCode.high && this.low == otherCode.low;
 		} else {
 			return false;
 		}
@@ -40,26 +125,19 @@ public class SnippetCode {
 	
 	@Override
 	public int hashCode() {
-		return Objects.hash(hash);
+		// The bits of an MD5 hash are already well mixed.
+		return Long.hashCode(31 * high + low);
 	}
 	
 	/**
 	 * @returns True if the snippet has 0 lines, or the hash represents an empty string, false otherwise
 	 */
 	public boolean isEmpty() {
-		if (0 == LOC) {
-			return true;
-		} else {
-			String emptyHash = "";
-			final String algorithm = "MD5";
-			try {
-				MessageDigest hasher = MessageDigest.getInstance(algorithm);
-				emptyHash = Utils.toHexString(hasher.digest("".getBytes()));
-			} catch (NoSuchAlgorithmException e) {
-				System.err.println("MessageDigest cannot hash using " + algorithm + "!");
-			}
-			return emptyHash.equals(this.hash);
-		}
+		return isEmpty(LOC, high, low);
+	}
+	
+	static boolean isEmpty(int LOC, long high, long low) {
+		return 0 == LOC || (EMPTY_HIGH == high && EMPTY_LOW == low);
 	}
 	
 	/**
@@ -85,7 +163,7 @@ public class SnippetCode {
 	
 	@Override
 	public String toString() {
-		return hash;
+		return getHash();
 	}
 	
 }
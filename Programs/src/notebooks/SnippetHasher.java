@@ -0,0 +1,145 @@
+package notebooks;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the MD5 hash of a snippet with all white space removed. The lines
+ * of the snippet are encoded as UTF-8 directly into a reusable buffer that is
+ * fed to the digest, so no intermediate strings are created. The result is
+ * identical to hashing the UTF-8 encoding of the concatenation of all lines
+ * after line.replaceAll("\\s", "").
+ *
+ * Each thread has its own hasher, fetched with forCurrentThread.
+ */
+final class SnippetHasher {
+	private static final int BUFFER_SIZE = 8192;
+	private static final ThreadLocal<SnippetHasher> hashers = new ThreadLocal<SnippetHasher>();
+
+	private final MessageDigest md5;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private final byte[] digest;
+	private int length = 0;
+	// High surrogate that may be completed by the first character of the next line, 0 if none
+	private char pendingHighSurrogate = 0;
+
+	private SnippetHasher() throws NoSuchAlgorithmException {
+		md5 = MessageDigest.getInstance("MD5");
+		digest = new byte[md5.getDigestLength()];
+	}
+
+	/**
+	 * @return The hasher of the current thread, reset
+	 * @throws NoSuchAlgorithmException If MD5 is not available
+	 */
+	static SnippetHasher forCurrentThread() throws NoSuchAlgorithmException {
+		SnippetHasher hasher = hashers.get();
+		if (null == hasher) {
+			hasher = new SnippetHasher();
+			hashers.set(hasher);
+		}
+		hasher.reset();
+		return hasher;
+	}
+
+	/**
+	 * Forget everything added since the last digest.
+	 */
+	void reset() {
+		md5.reset();
+		length = 0;
+		pendingHighSurrogate = 0;
+	}
+
+	/**
+	 * Add a line, with white space removed, to the snippet being hashed.
+	 * @param line Line to add
+	 * @return True iff the line contains anything but white space
+	 */
+	boolean add(String line) {
+		boolean nonEmpty = false;
+		for (int i=0; i<line.length(); i++) {
+			char c = line.charAt(i);
+			if (!isWhiteSpace(c)) {
+				nonEmpty = true;
+				encode(c);
+			}
+		}
+		return nonEmpty;
+	}
+
+	/**
+	 * Compute the hash of all lines added since the last reset. The hasher is
+	 * reset afterwards.
+	 * @return The MD5 digest. The array is reused by the next call.
+	 */
+	byte[] digest() {
+		if (0 != pendingHighSurrogate) {
+			put((byte)'?');
+			pendingHighSurrogate = 0;
+		}
+		flush();
+		try {
+			md5.digest(digest, 0, digest.length);
+		} catch (DigestException e) {
+			// Cannot happen, since the array has room for the digest.
+			throw new IllegalStateException(e);
+		}
+		length = 0;
+		return digest;
+	}
+
+	/**
+	 * @return True iff c matches the regular expression \s
+	 */
+	private static boolean isWhiteSpace(char c) {
+		return ' ' == c || '\t' == c || '\n' == c || '\u000B' == c || '\f' == c || '\r' == c;
+	}
+
+	/**
+	 * Encode a character as UTF-8 the same way as String.getBytes does,
+	 * including replacing unpaired surrogates with '?'.
+	 */
+	private void encode(char c) {
+		if (0 != pendingHighSurrogate) {
+			char high = pendingHighSurrogate;
+			pendingHighSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				int codePoint = Character.toCodePoint(high, c);
+				put((byte)(0xF0 | (codePoint >> 18)));
+				put((byte)(0x80 | ((codePoint >> 12) & 0x3F)));
+				put((byte)(0x80 | ((codePoint >> 6) & 0x3F)));
+				put((byte)(0x80 | (codePoint & 0x3F)));
+				return;
+			}
+			put((byte)'?');
+		}
+		if (c < 0x80) {
+			put((byte)c);
+		} else if (c < 0x800) {
+			put((byte)(0xC0 | (c >> 6)));
+			put((byte)(0x80 | (c & 0x3F)));
+		} else if (Character.isHighSurrogate(c)) {
+			pendingHighSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			put((byte)'?');
+		} else {
+			put((byte)(0xE0 | (c >> 12)));
+			put((byte)(0x80 | ((c >> 6) & 0x3F)));
+			put((byte)(0x80 | (c & 0x3F)));
+		}
+	}
+
+	private void put(byte b) {
+		if (buffer.length == length) {
+			flush();
+		}
+		buffer[length++] = b;
+	}
+
+	private void flush() {
+		md5.update(buffer, 0, length);
+		length = 0;
+	}
+}
@@ -1,69 +1,425 @@
 package notebooks;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
 
 /**
- * Wrapper class for a fixed thread pool containing 2*cores threads, where
- * cores is the number of available CPU cores. The class is written as a
- * singleton since we only want one thread pool per run.
+ * Execution layer shared by all analyses of a run. The tasks are executed by
+ * a work-stealing fork/join pool with a configurable number of threads
+ * (default: 2*cores, where cores is the number of available CPU cores). The
+ * class is written as a singleton since we only want one thread pool per run.
+ *
+ * Tasks can be executed in three ways:
+ * - invokeAll runs a list of tasks and returns when all of them are done. The
+ *   list is split recursively, so that idle threads steal work from threads
+ *   that got stuck with large notebooks.
+ * - submit queues a single task. At most QUEUED_TASKS_PER_THREAD tasks per
+ *   thread may be queued or running at the same time. When the limit is
+ *   reached, submit blocks until a task has finished.
+ * - A TaskStream queues tasks in the same bounded way and hands out the
+ *   results as the tasks finish, so that the caller can consume them while
+ *   new tasks are submitted.
+ *
+ * Tasks that are waited for are cancelled if the waiting thread is
+ * interrupted.
+ *
+ * In I/O mode, notebook files are read by a separate I/O executor, which
+ * runs each task on a virtual thread of its own if the JVM supports it, and
+ * on a large thread pool otherwise. Up to IO_QUEUED_TASKS files may be read
+ * at the same time, while the analyses are still run by the thread pool
+ * above, so that threads waiting for a slow file system don't leave the CPU
+ * cores idle, and the CPU work isn't oversubscribed.
  */
 public class ThreadExecutor {
+	private static final int QUEUED_TASKS_PER_THREAD = 32;
+	private static final int IO_QUEUED_TASKS = 2048;
+	private static int parallelism = 2 * Runtime.getRuntime().availableProcessors();
+	private static int ioThreads = 256;
+	private static boolean ioMode = false;
 	private static ThreadExecutor instance;
-	private final ExecutorService threadPool;
-	
-	private ThreadExecutor() {
-		int cores = Runtime.getRuntime().availableProcessors();
-		int threads = 2 * cores;
-		System.out.println("Setting up a thread pool with " + threads + " threads.");
-		threadPool = Executors.newFixedThreadPool(threads);
+	private static ThreadExecutor ioInstance;
+	private final ExecutorService pool;
+	private final Semaphore queueSlots;
+	private final int threads;
+	private final boolean io;
+
+	private ThreadExecutor(ExecutorService pool, int threads, int queueSize, boolean io) {
+		this.pool = pool;
+		this.threads = threads;
+		this.queueSlots = new Semaphore(queueSize);
+		this.io = io;
 	}
-	
+
 	/**
 	 * @return The thread executor
 	 */
-	public static ThreadExecutor getInstance() {
+	public static synchronized ThreadExecutor getInstance() {
 		if (null == instance) {
-			instance = new ThreadExecutor();
+			System.out.println("Setting up a thread pool with " + parallelism + " threads.");
+			ForkJoinPool pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+			instance = new ThreadExecutor(pool, parallelism, QUEUED_TASKS_PER_THREAD * parallelism, false);
 		}
 		return instance;
 	}
-	
+
 	/**
-	 * Invoke a list of Callables
+	 * @return The executor for tasks that read notebook files in I/O mode
+	 */
+	public static synchronized ThreadExecutor getIoInstance() {
+		if (null == ioInstance) {
+			ExecutorService pool = virtualThreadExecutor();
+			if (null != pool) {
+				System.out.println("Reading files on virtual threads.");
+				ioInstance = new ThreadExecutor(pool, 0, IO_QUEUED_TASKS, true);
+			} else {
+				System.out.println("Setting up an I/O thread pool with " + ioThreads + " threads.");
+				pool = Executors.newFixedThreadPool(ioThreads);
+				ioInstance = new ThreadExecutor(pool, ioThreads, IO_QUEUED_TASKS, true);
+			}
+		}
+		return ioInstance;
+	}
+
+	/**
+	 * @return An executor that starts a new virtual thread for each task, or null if the JVM doesn't support virtual threads
+	 */
+	private static ExecutorService virtualThreadExecutor() {
+		try {
+			Object executor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			return (ExecutorService)executor;
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Turn I/O mode on or off. In I/O mode, the notebook files of the tasks
+	 * given to invokeAll and submit(Notebook, Callable) are read by the I/O
+	 * executor before the tasks are run.
+	 */
+	public static synchronized void setIoMode(boolean on) {
+		ioMode = on;
+	}
+
+	/**
+	 * @return True iff I/O mode is on
+	 */
+	public static synchronized boolean isIoMode() {
+		return ioMode;
+	}
+
+	/**
+	 * Set the number of threads of the I/O executor, for JVMs without
+	 * virtual threads. If an I/O executor with another number of threads has
+	 * already been set up, it is closed down, and a new one is set up on the
+	 * next call to getIoInstance.
+	 * @param threads Number of threads
+	 * @throws IllegalArgumentException If threads is not positive
+	 */
+	public static synchronized void setIoThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of I/O threads must be positive!");
+		}
+		if (null != ioInstance && 0 != ioInstance.threads && ioInstance.threads != threads) {
+			ioInstance.shutDown();
+			ioInstance = null;
+		}
+		ioThreads = threads;
+	}
+
+	/**
+	 * Set the number of threads to execute tasks with. If a thread executor
+	 * with another number of threads has already been set up, it is closed
+	 * down, and a new one is set up on the next call to getInstance.
+	 * @param threads Number of threads
+	 * @throws IllegalArgumentException If threads is not positive
+	 */
+	public static synchronized void setParallelism(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive!");
+		}
+		if (null != instance && instance.threads != threads) {
+			instance.shutDown();
+			instance = null;
+		}
+		parallelism = threads;
+	}
+
+	/**
+	 * @return Number of threads that tasks are executed with, or 0 if each task is executed on a virtual thread of its own
+	 */
+	public int getParallelism() {
+		return threads;
+	}
+
+	/**
+	 * Execute a list of Callables and wait for all of them to finish. In I/O
+	 * mode, the tasks are started by the I/O executor, which reads the
+	 * notebook files of the tasks that are notebook Workers first.
+	 * @return Futures holding the results of the tasks, in the same order as the tasks
+	 * @throws CancellationException If the calling thread is interrupted while waiting. All tasks that haven't finished are cancelled, and the interrupt status of the thread is kept.
 	 */
 	public<T> List<Future<T>> invokeAll(List<Callable<T>> tasks) {
+		if (!io && isIoMode()) {
+			List<Callable<T>> ioTasks = new ArrayList<Callable<T>>(tasks.size());
+			for (Callable<T> task: tasks) {
+				Notebook notebook = null;
+				if (task instanceof Worker) {
+					notebook = ((Worker<?>)task).notebook;
+				}
+				ioTasks.add(new IoTask<T>(notebook, task));
+			}
+			return getIoInstance().invokeAll(ioTasks);
+		}
+		List<FutureTask<T>> futures = new ArrayList<FutureTask<T>>(tasks.size());
 		try {
-			return threadPool.invokeAll(tasks);
+			if (pool instanceof ForkJoinPool) {
+				for (Callable<T> task: tasks) {
+					futures.add(new FutureTask<T>(task));
+				}
+				((ForkJoinPool)pool).submit(new Batch<T>(futures, 0, futures.size())).get();
+			} else {
+				// Bounded by the task queue
+				for (Callable<T> task: tasks) {
+					SlotTask<T> future = new SlotTask<T>(task);
+					futures.add(future);
+					execute(future);
+				}
+				for (FutureTask<T> future: futures) {
+					await(future);
+				}
+			}
 		} catch (InterruptedException e) {
-			System.err.println("Thread interrupted: " + e.getMessage());
-			e.printStackTrace();
-			return null;
+			for (FutureTask<T> future: futures) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while waiting for tasks");
+		} catch (ExecutionException e) {
+			// The futures catch all failures of the tasks
+			throw new IllegalStateException("Task batch failed: " + e.getCause(), e);
 		}
+		return new ArrayList<Future<T>>(futures);
 	}
-	
+
+	private static void await(Future<?> future) throws InterruptedException {
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			// Reported by the future
+		}
+	}
+
 	/**
-	 * Submit a task for execution.
+	 * Submit a task for execution. Blocks while the task queue is full.
+	 * Tasks submitted from a task may deadlock, since only finished tasks
+	 * free room in the queue.
+	 * @throws InterruptedException If the calling thread is interrupted while waiting for room in the queue
 	 */
-	public<T> Future<T> submit(Callable<T> task) {
-		return threadPool.submit(task);
+	public<T> Future<T> submit(Callable<T> task) throws InterruptedException {
+		SlotTask<T> future = new SlotTask<T>(task);
+		execute(future);
+		return future;
 	}
-	
+
 	/**
-	 * Close the thread executor down and nullify it. (If getInstance is called
-	 * after a call to this method, a new thread executor will be set up.)
+	 * Submit the analysis of a notebook for execution. In I/O mode, the task
+	 * is submitted to the I/O executor, which reads the notebook file before
+	 * the analysis is run. Blocks while the task queue is full.
+	 * @param notebook Notebook that task analyzes
+	 * @param task Analysis of notebook
+	 * @throws InterruptedException If the calling thread is interrupted while waiting for room in the queue
 	 */
-	public static void tearDown() {
+	public<T> Future<T> submit(Notebook notebook, Callable<T> task) throws InterruptedException {
+		if (!io && isIoMode()) {
+			return getIoInstance().submit(new IoTask<T>(notebook, task));
+		}
+		return submit(task);
+	}
+
+	/**
+	 * @return A new stream of tasks, executed by this executor
+	 */
+	public<T> TaskStream<T> stream() {
+		return new TaskStream<T>();
+	}
+
+	private void execute(SlotTask<?> task) throws InterruptedException {
+		queueSlots.acquire();
+		try {
+			pool.execute(task);
+		} catch (RuntimeException e) {
+			queueSlots.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Close the thread executors down and nullify them. (If getInstance is
+	 * called after a call to this method, a new thread executor will be set
+	 * up.)
+	 */
+	public static synchronized void tearDown() {
 		if (null != instance) {
 			instance.shutDown();
 			instance = null;
 		}
+		if (null != ioInstance) {
+			ioInstance.shutDown();
+			ioInstance = null;
+		}
 	}
-	
+
 	private void shutDown() {
-		threadPool.shutdown();
+		pool.shutdown();
+	}
+
+	/**
+	 * Tasks that are submitted to a TaskStream are executed by the thread
+	 * executor. Their results are available from poll and take in the order
+	 * in which the tasks finish. The stream keeps track of the unfinished
+	 * tasks only, so its size is bounded by the task queue of the executor.
+	 * A stream should be used by one thread.
+	 */
+	public class TaskStream<T> {
+		private final Set<Future<T>> running = ConcurrentHashMap.newKeySet();
+		private final BlockingQueue<Future<T>> finished = new LinkedBlockingQueue<Future<T>>();
+		private int pending = 0;
+
+		private TaskStream() {}
+
+		/**
+		 * Submit a task for execution. Blocks while the task queue of the
+		 * executor is full.
+		 * @throws InterruptedException If the calling thread is interrupted while waiting for room in the queue
+		 */
+		public void submit(Callable<T> task) throws InterruptedException {
+			StreamTask future = new StreamTask(task);
+			running.add(future);
+			try {
+				execute(future);
+			} catch (InterruptedException e) {
+				running.remove(future);
+				throw e;
+			}
+			pending++;
+		}
+
+		/**
+		 * @return The future of the next finished task, or null if no submitted task has finished since the last call
+		 */
+		public Future<T> poll() {
+			Future<T> result = finished.poll();
+			if (null != result) {
+				pending--;
+			}
+			return result;
+		}
+
+		/**
+		 * Wait for the next task to finish.
+		 * @return The future of the next finished task, or null if there are no pending tasks
+		 * @throws InterruptedException If the calling thread is interrupted while waiting
+		 */
+		public Future<T> take() throws InterruptedException {
+			if (0 == pending) {
+				return null;
+			}
+			Future<T> result = finished.take();
+			pending--;
+			return result;
+		}
+
+		/**
+		 * @return Number of submitted tasks whose futures have not been returned by poll or take yet
+		 */
+		public int pending() {
+			return pending;
+		}
+
+		/**
+		 * Cancel all tasks that have not finished yet. Running tasks are
+		 * interrupted. The cancelled tasks are returned by poll and take
+		 * like finished tasks.
+		 */
+		public void cancel() {
+			for (Future<T> future: running) {
+				future.cancel(true);
+			}
+		}
+
+		private class StreamTask extends SlotTask<T> {
+			StreamTask(Callable<T> task) {
+				super(task);
+			}
+
+			@Override
+			protected void done() {
+				running.remove(this);
+				finished.add(this);
+			}
+		}
+	}
+
+	/**
+	 * Task that frees its slot in the task queue when the pool has run it.
+	 * A cancelled task keeps its slot until then, since cancel only
+	 * interrupts it and it may go on running.
+	 */
+	private class SlotTask<T> extends FutureTask<T> {
+		SlotTask(Callable<T> task) {
+			super(task);
+		}
+
+		@Override
+		public void run() {
+			try {
+				super.run();
+			} finally {
+				queueSlots.release();
+			}
+		}
+	}
+
+	/**
+	 * Runs the tasks futures[start..end-1], splitting the range in halves so
+	 * that other threads can steal them.
+	 */
+	private static class Batch<T> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<FutureTask<T>> futures;
+		private final int start, end;
+
+		Batch(List<FutureTask<T>> futures, int start, int end) {
+			this.futures = futures;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= 1) {
+				for (int i=start; i<end; i++) {
+					futures.get(i).run();
+				}
+			} else {
+				int middle = (start + end) >>> 1;
+				invokeAll(new Batch<T>(futures, start, middle), new Batch<T>(futures, middle, end));
+			}
+		}
 	}
 }
@@ -6,7 +6,7 @@ class TotalLOCCounter extends Worker<Integer> {
 	}
 
 	@Override
-	public Integer call() throws Exception {
+	protected Integer analyze() throws Exception {
 		return notebook.LOC();
 	}
 }
\ No newline at end of file
@@ -1,11 +1,12 @@
 package notebooks;
 
 import java.util.Map;
-import java.util.Collections;
+import java.util.function.Supplier;
 import java.util.List;
 
 public class Utils {
 	private final static long startTime = System.currentTimeMillis();
+	private final static int MAX_COUNTING_RANGE = 4096;
 	
 	/**
 	 * Print the given message to stdout, preceed by a time stamp.
@@ -38,21 +39,127 @@ public class Utils {
 	 * @param msg Specialized part of log message
 	 * @return median of values, 0 if values is empty
 	 */
-	public static int median(List<Integer> values, String msg) {
-		if (0 == values.size()) {
+	public static int median(List<Integer> values, final String msg) {
+		int[] primitiveValues = new int[values.size()];
+		for (int i=0; i<primitiveValues.length; i++) {
+			primitiveValues[i] = values.get(i);
+		}
+		return median(primitiveValues, primitiveValues.length, new Supplier<String>() {
+			@Override
+			public String get() {
+				return msg;
+			}
+		});
+	}
+	
+	/**
+	 * Log to stdout if the minimum and the maximum values are different.
+	 * Return the median. The median is found by counting when the values lie
+	 * in a small range, and by quickselect otherwise. The values may be
+	 * reordered.
+	 * @param values Array containing the values to check and compute median from
+	 * @param numValues Number of values, stored first in the array
+	 * @param msg Specialized part of log message. Only fetched if something is logged.
+	 * @return median of values, 0 if there are no values
+	 */
+	public static int median(int[] values, int numValues, Supplier<String> msg) {
+		if (0 == numValues) {
 			System.err.println("Trying to compute median of empty list. Returning 0."
-					+ " Line count message: " + msg);
+					+ " Line count message: " + msg.get());
 			return 0;
 		}
-		Collections.sort(values);
-		int min = values.get(0);
-		int max = values.get(values.size()-1);
-		if (min != max) {
-			System.out.println(msg + ". Min: " + min + ". Max: " + max + ".");
+		int min = values[0];
+		int max = values[0];
+		for (int i=1; i<numValues; i++) {
+			min = Math.min(min, values[i]);
+			max = Math.max(max, values[i]);
 		}
-		int numValues = values.size();
-		int median = (values.get(numValues/2) + values.get((numValues-1)/2))/2;
-		return median;
+		if (min == max) {
+			return min;
+		}
+		System.out.println(msg.get() + ". Min: " + min + ". Max: " + max + ".");
+		int lower, upper;	// Elements (numValues-1)/2 and numValues/2 in sorted order
+		long range = (long)max - min + 1;
+		if (range <= MAX_COUNTING_RANGE && range <= 4L*numValues) {
+			int[] counts = new int[(int)range];
+			for (int i=0; i<numValues; i++) {
+				counts[values[i] - min]++;
+			}
+			lower = min + rankInCounts(counts, (numValues-1)/2);
+			upper = min + rankInCounts(counts, numValues/2);
+		} else {
+			int k = numValues/2;
+			upper = select(values, numValues, k);
+			if (0 == numValues%2) {
+				// After select, all values before position k are <= upper.
+				lower = values[0];
+				for (int i=1; i<k; i++) {
+					lower = Math.max(lower, values[i]);
+				}
+			} else {
+				lower = upper;
+			}
+		}
+		return (upper + lower)/2;
+	}
+	
+	/**
+	 * @param counts Number of occurrences of each value, in increasing order of value
+	 * @param k Rank (0-based) to look for
+	 * @return Index in counts of the value with rank k
+	 */
+	private static int rankInCounts(int[] counts, int k) {
+		int seen = 0;
+		for (int i=0; i<counts.length; i++) {
+			seen += counts[i];
+			if (k < seen) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Rank " + k + " out of range!");
+	}
+	
+	/**
+	 * Reorder the first numValues elements of values so that the element at
+	 * position k is the one that would be there if they were sorted, all
+	 * elements before it are smaller than or equal to it, and all elements
+	 * after it are greater than or equal to it.
+	 * @return The element with rank k
+	 */
+	private static int select(int[] values, int numValues, int k) {
+		int low = 0, high = numValues-1;
+		while (low < high) {
+			int pivot = medianOf3(values[low], values[low + (high-low)/2], values[high]);
+			// Three-way partition, so that many duplicates don't slow us down
+			int lessEnd = low, i = low, greaterStart = high;
+			while (i <= greaterStart) {
+				if (values[i] < pivot) {
+					swap(values, lessEnd++, i++);
+				} else if (values[i] > pivot) {
+					swap(values, i, greaterStart--);
+				} else {
+					i++;
+				}
+			}
+			if (k < lessEnd) {
+				high = lessEnd - 1;
+			} else if (k > greaterStart) {
+				low = greaterStart + 1;
+			} else {
+				return pivot;
+			}
+		}
+		return values[k];
+	}
+	
+	private static int medianOf3(int a, int b, int c) {
+		return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+	}
+	
+	private static void swap(int[] values, int i, int j) {
+		int tmp = values[i];
+		values[i] = values[j];
+		values[j] = tmp;
 	}
 	
 	/**
@@ -8,4 +8,25 @@ abstract class Worker<T> implements Callable<T> {
 	Worker(Notebook notebook) {
 		this.notebook = notebook;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Perform the analysis and release the parsed contents of the notebook
+	 * afterwards, so that the contents of all notebooks in a corpus are not
+	 * kept in memory at the same time.
+	 */
+	@Override
+	public final T call() throws Exception {
+		try {
+			return analyze();
+		} finally {
+			if (null != notebook) {
+				notebook.discardContents();
+			}
+		}
+	}
+	
+	/**
+	 * @return The result of the analysis of the notebook
+	 */
+	protected abstract T analyze() throws Exception;
+}
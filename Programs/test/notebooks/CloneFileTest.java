@@ -0,0 +1,127 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CloneFileTest {
+	private static final String FILE_NAME = "clone_file_unit_test.bin";
+	private CloneIndex index;
+
+	@Before
+	public void setUp() {
+		index = new CloneIndex(TestUtils.cloneSnippets());
+	}
+
+	@After
+	public void tearDown() {
+		new File(FILE_NAME).delete();
+	}
+
+	/**
+	 * Verify that everything in the index can be read back from the file.
+	 */
+	@Test
+	public void testWriteAndRead() throws IOException {
+		CloneFile.write(index, FILE_NAME);
+		checkFile(new CloneFile(FILE_NAME));
+	}
+
+	/**
+	 * Verify that everything in the index can be read back from the file
+	 * when the sections are mapped in several chunks, with strings crossing
+	 * the chunk borders.
+	 */
+	@Test
+	public void testWriteAndRead_chunks() throws IOException {
+		CloneFile.write(index, FILE_NAME);
+		checkFile(new CloneFile(FILE_NAME, 5));
+	}
+
+	private void checkFile(CloneFile file) throws IOException {
+		try {
+			assertEquals("Wrong number of notebooks!", index.numNotebooks(), file.numNotebooks());
+			assertEquals("Wrong number of groups!", index.numGroups(), file.numGroups());
+			assertEquals("Wrong number of snippets!", 6, file.numSnippets());
+			assertEquals("Wrong number of repros!", 2, file.numRepros());
+			for (int n=0; n<index.numNotebooks(); n++) {
+				assertEquals("Wrong notebook name!", index.notebookName(n), file.notebookName(n));
+				assertEquals("Wrong repro!", index.reproName(index.repro(n)), file.reproName(file.repro(n)));
+				assertEquals("Wrong number of snippets!", index.numSnippets(n), file.numSnippets(n));
+				for (int c=0; c<index.numSnippets(n); c++) {
+					assertEquals("Wrong group for snippet!", index.group(n, c), file.group(n, c));
+				}
+			}
+			for (int g=0; g<index.numGroups(); g++) {
+				assertEquals("Wrong hash!", index.hash(g), file.hash(g));
+				assertEquals("Wrong line count!", index.loc(g), file.loc(g));
+				assertEquals("Wrong group size!", index.groupSize(g), file.groupSize(g));
+				assertEquals("Wrong clone status!", index.isClone(g), file.isClone(g));
+				for (int m=0; m<index.groupSize(g); m++) {
+					assertEquals("Wrong member notebook!", index.memberNotebook(g, m), file.memberNotebook(g, m));
+					assertEquals("Wrong member cell!", index.memberCell(g, m), file.memberCell(g, m));
+				}
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Verify that the clone frequency counts of each notebook are stored.
+	 */
+	@Test
+	public void testCloneCounts() throws IOException {
+		CloneFile.write(index, FILE_NAME);
+		CloneFile file = new CloneFile(FILE_NAME);
+		try {
+			assertEquals("Wrong number of clones!", 4, file.numClones(0));
+			assertEquals("Wrong number of unique snippets!", 0, file.numUnique(0));
+			assertEquals("Wrong number of empty clones!", 2, file.numEmpty(0));
+			assertEquals("Wrong number of intra clones!", 4, file.numIntraClones(0));
+			assertEquals("Wrong number of non-empty intra clones!", 2, file.numNonEmptyIntraClones(0));
+			assertEquals("Wrong number of clones!", 1, file.numClones(2));
+			assertEquals("Wrong number of unique snippets!", 1, file.numUnique(2));
+			assertEquals("Wrong number of intra clones!", 0, file.numIntraClones(2));
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Verify that a notebook without repro (because it is missing in the
+	 * repro file) is stored with an empty repro name.
+	 */
+	@Test
+	public void testWriteAndRead_unknownRepro() throws IOException {
+		Map<Notebook, SnippetCode[]> file2hashes = new LinkedHashMap<Notebook, SnippetCode[]>();
+		file2hashes.put(new Notebook("nb_1.ipynb", "repro1"), new SnippetCode[] {new SnippetCode(2, TestUtils.HASH_A)});
+		file2hashes.put(new Notebook("nb_2.ipynb", null), new SnippetCode[] {new SnippetCode(3, TestUtils.HASH_A)});
+		CloneFile.write(new CloneIndex(file2hashes), FILE_NAME);
+		CloneFile file = new CloneFile(FILE_NAME);
+		try {
+			assertEquals("Wrong number of repros!", 2, file.numRepros());
+			assertEquals("Wrong repro name!", "repro1", file.reproName(file.repro(0)));
+			assertEquals("Wrong name of unknown repro!", "", file.reproName(file.repro(1)));
+		} finally {
+			file.close();
+		}
+	}
+
+	@Test(expected=IOException.class)
+	public void testRead_invalidFile() throws IOException {
+		Writer writer = new FileWriter(FILE_NAME);
+		writer.write("Not a clone file");
+		writer.close();
+		new CloneFile(FILE_NAME).close();
+	}
+}
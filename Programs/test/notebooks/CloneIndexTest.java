@@ -0,0 +1,140 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CloneIndexTest {
+	private CloneIndex index;
+
+	@Before
+	public void setUp() {
+		index = new CloneIndex(TestUtils.cloneSnippets());
+	}
+
+	@Test
+	public void testNotebooks() {
+		assertEquals("Wrong number of notebooks!", 3, index.numNotebooks());
+		assertEquals("Wrong notebook name!", "nb_2_åäö.ipynb", index.notebookName(1));
+		assertEquals("Wrong number of snippets!", 4, index.numSnippets(0));
+		assertEquals("Wrong number of snippets for notebook without snippets!", 0, index.numSnippets(1));
+		assertEquals("Notebooks in same repro have different repro ids!", index.repro(0), index.repro(2));
+		assertNotEquals("Notebooks in different repros have same repro id!", index.repro(0), index.repro(1));
+	}
+
+	@Test
+	public void testGroups() {
+		assertEquals("Wrong number of groups!", 3, index.numGroups());
+		int groupA = index.group(0, 0);
+		assertEquals("Equal snippets in different groups!", groupA, index.group(0, 2));
+		assertEquals("Equal snippets in different groups!", groupA, index.group(2, 1));
+		assertNotEquals("Different snippets in same group!", groupA, index.group(2, 0));
+		assertEquals("Wrong hash for group!", TestUtils.HASH_A, index.hash(groupA));
+		assertEquals("Wrong group size!", 3, index.groupSize(groupA));
+		assertTrue("Clone not identified!", index.isClone(groupA));
+		assertFalse("Unique snippet considered clone!", index.isClone(index.group(2, 0)));
+		assertTrue("Empty snippet not identified!", index.isEmpty(index.group(0, 1)));
+		assertFalse("Non-empty snippet considered empty!", index.isEmpty(groupA));
+	}
+
+	@Test
+	public void testMembers() {
+		int groupA = index.group(0, 0);
+		int[] expectedNotebooks = {0, 0, 2};
+		int[] expectedCells = {0, 2, 1};
+		for (int member=0; member<expectedNotebooks.length; member++) {
+			assertEquals("Wrong notebook for member " + member, expectedNotebooks[member], index.memberNotebook(groupA, member));
+			assertEquals("Wrong cell for member " + member, expectedCells[member], index.memberCell(groupA, member));
+		}
+	}
+
+	@Test
+	public void testLoc() {
+		assertEquals("Wrong median line count!", 3, index.loc(index.group(0, 0)));
+		assertEquals("Wrong line count for unique snippet!", 5, index.loc(index.group(2, 0)));
+		assertEquals("Wrong line count for empty snippet!", 0, index.loc(index.group(0, 1)));
+	}
+
+	@Test
+	public void testToMap() {
+		Map<SnippetCode, List<Snippet>> map = index.toMap();
+		assertEquals("Wrong number of entries in map!", 3, map.size());
+		List<Snippet> snippets = map.get(new SnippetCode(0, TestUtils.HASH_A));
+		assertEquals("Wrong number of snippets in map!", 3, snippets.size());
+		assertEquals("Wrong snippet in map!", new Snippet("nb_3.ipynb", 1), snippets.get(2));
+		assertEquals("Wrong repro in map!", "repro1", snippets.get(2).getRepro());
+	}
+
+	/**
+	 * Verify that an index built from snippets collected notebook by
+	 * notebook is the same as one built from a map, and that the collected
+	 * snippets are released when the index is built.
+	 */
+	@Test
+	public void testSnippets() {
+		CloneIndex.Snippets snippets = new CloneIndex.Snippets();
+		for (Map.Entry<Notebook, SnippetCode[]> entry: TestUtils.cloneSnippets().entrySet()) {
+			snippets.add(entry.getKey(), entry.getValue());
+		}
+		assertEquals("Wrong number of notebooks added!", 3, snippets.numNotebooks());
+		CloneIndex collected = new CloneIndex(snippets, 2);
+		assertEquals("Snippets not released!", 0, snippets.numNotebooks());
+		assertEquals("Wrong number of notebooks!", index.numNotebooks(), collected.numNotebooks());
+		assertEquals("Wrong number of groups!", index.numGroups(), collected.numGroups());
+		for (int n=0; n<index.numNotebooks(); n++) {
+			assertEquals("Wrong notebook name!", index.notebookName(n), collected.notebookName(n));
+			assertEquals("Wrong repro!", index.reproName(index.repro(n)), collected.reproName(collected.repro(n)));
+			for (int c=0; c<index.numSnippets(n); c++) {
+				assertEquals("Wrong hash!", index.hash(index.group(n, c)), collected.hash(collected.group(n, c)));
+				assertEquals("Wrong line count!", index.loc(index.group(n, c)), collected.loc(collected.group(n, c)));
+			}
+		}
+	}
+
+	/**
+	 * Verify that an index built in shards contains the same groups, with the
+	 * same members and line counts, as an index built on one thread.
+	 */
+	@Test
+	public void testShards() {
+		Random random = new Random(17);
+		Map<Notebook, SnippetCode[]> file2hashes = new LinkedHashMap<Notebook, SnippetCode[]>();
+		for (int i=0; i<500; i++) {
+			SnippetCode[] snippets = new SnippetCode[random.nextInt(10)];
+			for (int j=0; j<snippets.length; j++) {
+				int code = random.nextInt(300);
+				// Spread the codes over all shards
+				snippets[j] = new SnippetCode(random.nextInt(5), code * 0x9E3779B97F4A7C15L, code);
+			}
+			file2hashes.put(new Notebook("nb_" + i + ".ipynb", "repro" + random.nextInt(50)), snippets);
+		}
+		CloneIndex expected = new CloneIndex(file2hashes);
+		CloneIndex sharded = new CloneIndex(file2hashes, 8);
+		assertEquals("Wrong number of groups!", expected.numGroups(), sharded.numGroups());
+		Map<String, Integer> expectedGroups = new HashMap<String, Integer>();
+		for (int g=0; g<expected.numGroups(); g++) {
+			expectedGroups.put(expected.hash(g), g);
+		}
+		for (int g=0; g<sharded.numGroups(); g++) {
+			int e = expectedGroups.get(sharded.hash(g));
+			assertEquals("Wrong line count for " + sharded.hash(g), expected.loc(e), sharded.loc(g));
+			assertEquals("Wrong group size for " + sharded.hash(g), expected.groupSize(e), sharded.groupSize(g));
+			for (int m=0; m<sharded.groupSize(g); m++) {
+				assertEquals("Wrong member notebook!", expected.memberNotebook(e, m), sharded.memberNotebook(g, m));
+				assertEquals("Wrong member cell!", expected.memberCell(e, m), sharded.memberCell(g, m));
+			}
+		}
+		for (int n=0; n<expected.numNotebooks(); n++) {
+			for (int c=0; c<expected.numSnippets(n); c++) {
+				assertEquals("Wrong group for snippet!", expected.hash(expected.group(n, c)), sharded.hash(sharded.group(n, c)));
+			}
+		}
+	}
+}
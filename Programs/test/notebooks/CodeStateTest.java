@@ -0,0 +1,178 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CodeStateTest {
+
+	/**
+	 * Verify that all characters of a delimiter, and only those, are
+	 * considered to be at a delimiter, also when delimiters overlap.
+	 */
+	@Test
+	public void testAtDelimiter() {
+		String code = "a'''' b";
+		boolean[] expected = {false, true, true, true, true, false, false};
+		CodeState state = new CodeState(code, new String[]{"'''", "'"});
+		for (int i=0; i<code.length(); i++) {
+			assertEquals("Wrong delimiter status at " + i + "!", expected[i], state.atDelimiter());
+			state.step();
+		}
+		assertFalse("Delimiter found outside code!", state.atDelimiter());
+	}
+
+	/**
+	 * Verify that strings are tracked, and that escaped delimiters, other
+	 * delimiters inside strings and delimiters in comments are ignored.
+	 */
+	@Test
+	public void testInString() {
+		String code = "f('a\\'\"b', c) # 'd\n'e'";
+		String expected = "0011111100000000000110";
+		CodeState state = new CodeState(code, new String[]{"\"", "'"});
+		for (int i=0; i<code.length(); i++) {
+			state.step();
+			assertEquals("Wrong string status after " + i + "!", '1' == expected.charAt(i), state.inString());
+		}
+	}
+
+	@Test
+	public void testStartIndex() {
+		CodeState state = new CodeState("x = 'a' + f('b')", 10, new String[]{"\"", "'"});
+		assertEquals("Wrong current character!", 'f', state.currentChar());
+		state.step();
+		state.step();
+		assertFalse("In string before delimiter!", state.inString());
+		state.step();
+		assertTrue("Not in string after delimiter!", state.inString());
+	}
+
+	/**
+	 * Verify that the state is the same as with the earlier implementation,
+	 * which looked up delimiter positions in lists, at each step through
+	 * random code, for different sets of delimiters and start indices.
+	 */
+	@Test
+	public void testStep_sameAsListLookup() {
+		String[][] delimiterSets = {{"\"", "'"}, {"\"\"\"", "'''"}, {"'''", "'"}, {"ab", "b"}};
+		char[] chars = {'a', 'b', ' ', '\n', '\\', '"', '\'', '#'};
+		Random random = new Random(24);
+		for (int i=0; i<20000; i++) {
+			StringBuilder code = new StringBuilder();
+			int length = 1 + random.nextInt(20);
+			for (int j=0; j<length; j++) {
+				code.append(chars[random.nextInt(chars.length)]);
+			}
+			String[] delimiters = delimiterSets[random.nextInt(delimiterSets.length)];
+			int start = random.nextInt(length);
+			CodeState actual = new CodeState(code.toString(), start, delimiters);
+			ListCodeState expected = new ListCodeState(code.toString(), start, delimiters);
+			while (expected.inCode()) {
+				String message = " at " + expected.index + " in \"" + code + "\"!";
+				assertTrue("Code ended" + message, actual.inCode());
+				assertEquals("Wrong character" + message, expected.currentChar(), actual.currentChar());
+				assertEquals("Wrong delimiter status" + message, expected.atDelimiter(), actual.atDelimiter());
+				assertEquals("Wrong string status" + message, expected.inString(), actual.inString());
+				assertEquals("Wrong escape status" + message, expected.escaped(), actual.escaped());
+				expected.step();
+				actual.step();
+			}
+			assertFalse("Code not ended in \"" + code + "\"!", actual.inCode());
+		}
+	}
+
+	/**
+	 * The earlier implementation of CodeState, which stored the positions of
+	 * each delimiter in a list, and searched the lists at each step.
+	 */
+	private static class ListCodeState {
+		private final String code;
+		private final String[] stringDelimiters;
+		private final List<List<Integer>> stringDelimiterPositions;
+		private final boolean[] inString;
+		private boolean escaped = false;
+		private boolean inComment = false;
+		int index;
+
+		ListCodeState(String code, int startIndex, String[] stringDelimiters) {
+			this.code = code;
+			this.stringDelimiters = stringDelimiters;
+			stringDelimiterPositions = new ArrayList<List<Integer>>();
+			for (int d=0; d<stringDelimiters.length; d++) {
+				stringDelimiterPositions.add(new ArrayList<Integer>());
+			}
+			for (int i=0; i<code.length(); i++) {
+				for (int d=0; d<stringDelimiters.length; d++) {
+					if (code.startsWith(stringDelimiters[d], i)) {
+						stringDelimiterPositions.get(d).add(i);
+						break;
+					}
+				}
+			}
+			inString = new boolean[stringDelimiters.length];
+			index = startIndex;
+		}
+
+		boolean atDelimiter() {
+			for (int i=0; i<stringDelimiterPositions.size(); i++) {
+				for (int position: stringDelimiterPositions.get(i)) {
+					if (index >= position && index < position + stringDelimiters[i].length()) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		char currentChar() {
+			return code.charAt(index);
+		}
+
+		boolean escaped() {
+			return escaped;
+		}
+
+		boolean inCode() {
+			return index < code.length();
+		}
+
+		boolean inString() {
+			for (boolean inside: inString) {
+				if (inside) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void step() {
+			for (int i=0; i<stringDelimiters.length; i++) {
+				if (!otherTrue(i) && stringDelimiterPositions.get(i).contains(index) && !escaped && !inComment) {
+					inString[i] = !inString[i];
+				}
+			}
+			if (!inString() && !escaped && '#' == code.charAt(index)) {
+				inComment = true;
+			}
+			if ('\n' == code.charAt(index)) {
+				inComment = false;
+			}
+			escaped = '\\' == code.charAt(index) ? !escaped : false;
+			index++;
+		}
+
+		private boolean otherTrue(int current) {
+			for (int i=0; i<inString.length; i++) {
+				if (inString[i] && i != current) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
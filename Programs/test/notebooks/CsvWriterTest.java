@@ -0,0 +1,101 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CsvWriterTest {
+	private static final String FILE_NAME = "csv_writer_unit_test.csv";
+
+	@After
+	public void tearDown() {
+		new File(FILE_NAME).delete();
+	}
+
+	/**
+	 * Verify that appendDecimal gives the same result as String.format for
+	 * typical ratios, values on and close to ties, and values that are
+	 * formatted by String.format.
+	 */
+	@Test
+	public void testAppendDecimal() {
+		double[] values = {0, -0.0, 1, 0.5, 0.00005, 0.00015, 0.12345, 0.99995, 0.999949999,
+				2.0/3, 1.0/3, 12345.678951, 99999.99995, 123456789.5, 1e20, -0.25, -1e-9,
+				Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE};
+		for (double value: values) {
+			for (int decimals=0; decimals<=9; decimals++) {
+				checkDecimal(value, decimals);
+			}
+		}
+		Random random = new Random(3);
+		for (int i=0; i<100000; i++) {
+			checkDecimal((double)random.nextInt(1000) / (1 + random.nextInt(1000)), 4);
+			checkDecimal(random.nextInt(100000) / 10000.0 + 0.00005, 4);
+			checkDecimal(random.nextDouble() * 1000, random.nextInt(10));
+		}
+	}
+
+	private static void checkDecimal(double value, int decimals) {
+		String expected = String.format(Locale.US, "%." + decimals + "f", value);
+		String actual = CsvWriter.appendDecimal(new StringBuilder(), value, decimals).toString();
+		assertEquals("Wrong formatting of " + value + " with " + decimals + " decimals!", expected, actual);
+	}
+
+	/**
+	 * Verify that the text written, through all write methods, ends up in the
+	 * file, also when it is much larger than the buffers, with and without
+	 * background flushing.
+	 */
+	@Test
+	public void testWrite() throws IOException {
+		for (boolean background: new boolean[] {false, true}) {
+			StringBuilder expected = new StringBuilder();
+			CsvWriter writer = new CsvWriter(FILE_NAME, background);
+			Random random = new Random(11);
+			for (int i=0; i<100000; i++) {
+				StringBuilder row = writer.newRow();
+				row.append("nb_").append(i).append(".ipynb, åäö, 😀, ");
+				CsvWriter.appendDecimal(row, random.nextDouble(), 4);
+				expected.append(row).append('\n');
+				writer.endRow();
+				if (0 == i%1000) {
+					writer.write("x");
+					writer.write('y');
+					writer.write(new char[] {'\ud83d', '\ude00', '\n'}, 0, 3);
+					expected.append("xy😀\n");
+				}
+			}
+			writer.close();
+			String actual = new String(Files.readAllBytes(new File(FILE_NAME).toPath()), Charset.defaultCharset());
+			assertEquals("Wrong file contents with background flushing " + background, encodable(expected.toString()), actual);
+		}
+	}
+
+	/**
+	 * @return text, with the characters that cannot be encoded with the default charset replaced, as CsvWriter does
+	 */
+	private static String encodable(String text) {
+		return new String(text.getBytes(Charset.defaultCharset()), Charset.defaultCharset());
+	}
+
+	/**
+	 * Verify that everything written is in the file after flush.
+	 */
+	@Test
+	public void testFlush() throws IOException {
+		CsvWriter writer = new CsvWriter(FILE_NAME, true);
+		writer.write("header\n");
+		writer.flush();
+		assertEquals("Text not written by flush!", "header\n",
+				new String(Files.readAllBytes(new File(FILE_NAME).toPath()), Charset.defaultCharset()));
+		writer.close();
+	}
+}
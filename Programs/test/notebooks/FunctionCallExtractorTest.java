@@ -0,0 +1,132 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FunctionCallExtractorTest {
+	private static final String[] TOKENS = {"np.array(", "numpy.zeros (", "sqrt(", "s (", "os.path.join(",
+			"path.join(", "a.b.f(", "a_b.f(", "b.f(", "pd.read_csv(", "np . random(", "x.f(",
+			"np", "os", "a", "b", "x", "_", ".", " ", "(", ")", ")", ",", "'", "\"", "\\", "ä"};
+	private static final String[] FUNCTIONS = {"numpy.array", "numpy.zeros", "numpy", "numpy.random",
+			"os.path.join", "math.sqrt", "a.b.f", "pandas.read_csv", "x.f"};
+
+	@Test
+	public void testExtract() {
+		List<PythonModule> functions = functions();
+		FunctionCallExtractor extractor = new FunctionCallExtractor(functions, modules(), "nb_1.ipynb");
+		Map<PythonModule, List<String>> result = emptyResult(functions);
+		extractor.extract("x = np.array([1, 2]) + np . array(f(3), ')') + xnp.array(4)", result);
+		extractor.extract("y = sqrt(os.path.join(a, b)) + math.sqrt(2)", result);
+		Map<PythonModule, List<String>> expected = emptyResult(functions);
+		expected.get(functions.get(0)).add("np.array([1, 2])");
+		expected.get(functions.get(0)).add("np . array(f(3), ')')");
+		expected.get(functions.get(4)).add("os.path.join(a, b)");
+		expected.get(functions.get(5)).add("sqrt(os.path.join(a, b))");
+		assertEquals("Wrong calls extracted!", expected, result);
+	}
+
+	/**
+	 * Verify that the extractor finds the same calls, in the same order, as
+	 * registerCalls on each module through which a function is reachable,
+	 * for random lines, and reports the same number of invalid calls.
+	 */
+	@Test
+	public void testExtract_sameAsRegisterCalls() {
+		Random random = new Random(42);
+		List<PythonModule> functions = functions();
+		List<PythonModule> expectedModules = modules();
+		FunctionCallExtractor extractor = new FunctionCallExtractor(functions, modules(), "nb_1.ipynb");
+		Map<PythonModule, List<String>> expected = emptyResult(functions);
+		Map<PythonModule, List<String>> actual = emptyResult(functions);
+		int expectedErrors = 0;
+		PrintStream stderr = System.err;
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(errors));
+		try {
+			for (int i=0; i<20000; i++) {
+				expectedErrors += extractRandomLine(random, functions, expectedModules, extractor, expected, actual);
+			}
+		} finally {
+			System.setErr(stderr);
+		}
+		assertEquals("Wrong calls extracted!", expected, actual);
+		String[] errorLines = errors.toString().split("\n");
+		assertEquals("Wrong number of errors reported!", expectedErrors, errorLines.length);
+		assertTrue("Wrong error message!", errorLines[0].startsWith("Could not extract function calls for nb_1.ipynb: Invalid line: "));
+	}
+
+	/**
+	 * Extract the calls from a random line, with registerCalls into expected
+	 * and with extractor into actual.
+	 * @return The number of errors from registerCalls
+	 */
+	private static int extractRandomLine(Random random, List<PythonModule> functions, List<PythonModule> expectedModules,
+			FunctionCallExtractor extractor, Map<PythonModule, List<String>> expected, Map<PythonModule, List<String>> actual) {
+		int errors = 0;
+		StringBuilder line = new StringBuilder();
+		int length = random.nextInt(12);
+		for (int j=0; j<length; j++) {
+			line.append(TOKENS[random.nextInt(TOKENS.length)]);
+		}
+		// Close most calls, to keep the number of invalid lines down
+		for (int j=0; j<length; j++) {
+			line.append(')');
+		}
+		for (PythonModule function: functions) {
+			for (PythonModule module: expectedModules) {
+				try {
+					if (function.is(module)) {
+						module.registerCalls(function.name, line.toString());
+						expected.get(function).addAll(module.popParentsCalls());
+					} else if (function.parentIs(module)) {
+						module.registerCalls(function.name, line.toString());
+						expected.get(function).addAll(module.popFunctionCalls());
+					}
+				} catch (NotebookException e) {
+					errors++;
+				}
+			}
+		}
+		extractor.extract(line.toString(), actual);
+		return errors;
+	}
+
+	private static List<PythonModule> functions() {
+		List<PythonModule> functions = new ArrayList<PythonModule>(FUNCTIONS.length);
+		for (String function: FUNCTIONS) {
+			functions.add(PythonModule.fromPedigreeString(function));
+		}
+		return functions;
+	}
+
+	/**
+	 * @return numpy as np, os.path, sqrt from math, b from a, pandas as pd and random from numpy
+	 */
+	private static List<PythonModule> modules() {
+		List<PythonModule> modules = new ArrayList<PythonModule>();
+		modules.add(new PythonModule("numpy", "np", ImportType.ALIAS));
+		modules.add(new PythonModule("path", ImportType.ORDINARY, new PythonModule("os")));
+		modules.add(new PythonModule("sqrt", ImportType.ORDINARY, new PythonModule("math", ImportType.FROM)));
+		modules.add(new PythonModule("b", ImportType.ORDINARY, new PythonModule("a", ImportType.FROM)));
+		modules.add(new PythonModule("pandas", "pd", ImportType.ALIAS));
+		modules.add(new PythonModule("random", ImportType.ORDINARY, new PythonModule("numpy", ImportType.FROM)));
+		return modules;
+	}
+
+	private static Map<PythonModule, List<String>> emptyResult(List<PythonModule> functions) {
+		Map<PythonModule, List<String>> result = new HashMap<PythonModule, List<String>>();
+		for (PythonModule function: functions) {
+			result.put(function, new ArrayList<String>());
+		}
+		return result;
+	}
+}
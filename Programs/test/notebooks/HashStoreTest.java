@@ -0,0 +1,199 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashStoreTest {
+	private static final String STORE_FILE = "hash_store_unit_test.bin";
+	private static final String NOTEBOOK_FILE = "hash_store_unit_test.ipynb";
+	private static final String ARCHIVE_FILE = "hash_store_unit_test.zip";
+	private Notebook notebook;
+
+	@Before
+	public void setUp() throws IOException {
+		Files.copy(new File(TestUtils.getPath("test/data/ccc", "nb_1.ipynb")).toPath(), new File(NOTEBOOK_FILE).toPath());
+		notebook = new Notebook(NOTEBOOK_FILE);
+	}
+
+	@After
+	public void tearDown() {
+		new File(STORE_FILE).delete();
+		new File(NOTEBOOK_FILE).delete();
+	}
+
+	/**
+	 * Verify that all results of a characteristics and clone analysis are
+	 * restored from the store file, without reading the notebook again.
+	 */
+	@Test
+	public void testCccTask_reused() throws Exception {
+		HashStore store = new HashStore(STORE_FILE);
+		store.load();
+		AllCccResults expected = store.cccTask(notebook).call();
+		assertEquals("Results reused from empty store!", 0, store.numReused());
+		store.save();
+
+		HashStore loaded = new HashStore(STORE_FILE);
+		loaded.load();
+		assertEquals("Wrong number of notebooks in store!", 1, loaded.size());
+		AllCccResults actual = loaded.cccTask(notebook).call();
+		assertEquals("Stored results not reused!", 1, loaded.numReused());
+		assertEquals("Wrong number of code cells!", expected.getNumCodeCells(), actual.getNumCodeCells());
+		assertEquals("Wrong total LOC!", expected.getTotalLOC(), actual.getTotalLOC());
+		assertEquals("Wrong non-blank LOC!", expected.getNonBlankLOC(), actual.getNonBlankLOC());
+		assertEquals("Wrong blank LOC!", expected.getBlankLOC(), actual.getBlankLOC());
+		assertEquals("Wrong language!", expected.getLanguage().toString(), actual.getLanguage().toString());
+		assertEquals("Wrong language values!", expected.getAllLanguages(), actual.getAllLanguages());
+		assertArrayEquals("Wrong snippets!", expected.getHashes(), actual.getHashes());
+		assertEquals("Wrong line count for snippet!", expected.getHashes()[0].getLOC(), actual.getHashes()[0].getLOC());
+	}
+
+	/**
+	 * Verify that a notebook is analyzed again when its file has changed.
+	 */
+	@Test
+	public void testHashTask_changedFile() throws Exception {
+		HashStore store = new HashStore(STORE_FILE);
+		SnippetCode[] expected = store.hashTask(notebook).call();
+		store.save();
+		File file = new File(NOTEBOOK_FILE);
+		assertTrue("Could not change modification time!", file.setLastModified(file.lastModified() - 10000));
+
+		HashStore loaded = new HashStore(STORE_FILE);
+		loaded.load();
+		assertArrayEquals("Wrong snippets for changed notebook!", expected, loaded.hashTask(notebook).call());
+		assertEquals("Results reused for changed notebook!", 0, loaded.numReused());
+		loaded.hashTask(notebook).call();
+		assertEquals("Results not reused after new analysis!", 1, loaded.numReused());
+	}
+
+	/**
+	 * Verify that a notebook in an archive is analyzed again when its entry
+	 * has changed, even if the archive has the same size.
+	 */
+	@Test
+	public void testHashTask_archiveEntry() throws Exception {
+		Notebook archived = new Notebook(NotebookArchive.entryPath(ARCHIVE_FILE, "nb_1.ipynb"));
+		try {
+			writeArchive(1000000000000L);
+			HashStore store = new HashStore(STORE_FILE);
+			SnippetCode[] expected = store.hashTask(archived).call();
+			store.save();
+			HashStore loaded = new HashStore(STORE_FILE);
+			loaded.load();
+			loaded.hashTask(archived).call();
+			assertEquals("Results not reused for unchanged entry!", 1, loaded.numReused());
+
+			NotebookArchive.closeAll();
+			writeArchive(1500000000000L);
+			loaded = new HashStore(STORE_FILE);
+			loaded.load();
+			assertArrayEquals("Wrong snippets for changed entry!", expected, loaded.hashTask(archived).call());
+			assertEquals("Results reused for changed entry!", 0, loaded.numReused());
+		} finally {
+			NotebookArchive.closeAll();
+			new File(ARCHIVE_FILE).delete();
+		}
+	}
+
+	/**
+	 * Verify that stored snippets alone are not used when all characteristics
+	 * are needed, but that a complete entry can be used for the snippets.
+	 */
+	@Test
+	public void testCccTask_onlySnippetsStored() throws Exception {
+		HashStore store = new HashStore(STORE_FILE);
+		store.hashTask(notebook).call();
+		AllCccResults results = store.cccTask(notebook).call();
+		assertEquals("Incomplete results reused!", 0, store.numReused());
+		assertEquals("Wrong number of code cells!", 1, results.getNumCodeCells());
+		store.hashTask(notebook).call();
+		assertEquals("Complete results not reused for snippets!", 1, store.numReused());
+	}
+
+	/**
+	 * Verify that the notebook file is only needed by the I/O executor when
+	 * there are no stored results to reuse.
+	 */
+	@Test
+	public void testCccTask_needsFile() throws Exception {
+		HashStore store = new HashStore(STORE_FILE);
+		IoTask.Analysis<AllCccResults> task = (IoTask.Analysis<AllCccResults>)store.cccTask(notebook);
+		assertTrue("File not needed without stored results!", task.needsFile());
+		task.call();
+		assertFalse("File needed for stored results!", task.needsFile());
+		IoTask.Analysis<SnippetCode[]> hashTask = (IoTask.Analysis<SnippetCode[]>)store.hashTask(notebook);
+		assertFalse("File needed for stored snippets!", hashTask.needsFile());
+	}
+
+	/**
+	 * Verify that the results of a notebook that cannot be parsed are not
+	 * stored.
+	 */
+	@Test
+	public void testCccTask_unparsable() throws Exception {
+		Writer writer = new FileWriter(NOTEBOOK_FILE);
+		writer.write("Not a notebook");
+		writer.close();
+		HashStore store = new HashStore(STORE_FILE);
+		PrintStream stdErr = System.err;
+		try {
+			System.setErr(new PrintStream(new ByteArrayOutputStream()));
+			store.cccTask(notebook).call();
+			new File(NOTEBOOK_FILE).delete();
+			store.hashTask(notebook).call();
+		} finally {
+			System.setErr(stdErr);
+		}
+		assertEquals("Results stored for unparsable notebook!", 0, store.size());
+	}
+
+	@Test(expected=IOException.class)
+	public void testLoad_invalidFile() throws IOException {
+		Writer writer = new FileWriter(STORE_FILE);
+		writer.write("Not a hash store");
+		writer.close();
+		new HashStore(STORE_FILE).load();
+	}
+
+	/**
+	 * Write a zip archive containing the test notebook, with the
+	 * modification time given, and the modification time of the archive
+	 * file unchanged.
+	 */
+	private static void writeArchive(long entryTime) throws IOException {
+		File archive = new File(ARCHIVE_FILE);
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive));
+		try {
+			ZipEntry entry = new ZipEntry("nb_1.ipynb");
+			entry.setTime(entryTime);
+			out.putNextEntry(entry);
+			out.write(Files.readAllBytes(new File(NOTEBOOK_FILE).toPath()));
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+		assertTrue("Could not set modification time!", archive.setLastModified(1000000000000L));
+	}
+
+	@Test
+	public void testLoad_missingFile() throws IOException {
+		HashStore store = new HashStore(STORE_FILE);
+		store.load();
+		assertEquals("Notebooks in store without file!", 0, store.size());
+	}
+}
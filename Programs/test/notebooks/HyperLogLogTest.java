@@ -0,0 +1,52 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+	/**
+	 * Verify that small numbers of distinct values are counted exactly.
+	 */
+	@Test
+	public void testSize_small() {
+		HyperLogLog counter = new HyperLogLog();
+		assertEquals("Wrong size of empty counter!", 0, counter.size());
+		for (int i=0; i<64; i++) {
+			counter.add(i*1000 - 7);
+			counter.add(i*1000 - 7);
+			assertEquals("Wrong size after " + (i+1) + " distinct values!", i+1, counter.size());
+		}
+	}
+
+	/**
+	 * Verify that the estimates for large numbers of distinct values, with
+	 * many duplicates, are within 4 standard errors of the real value.
+	 */
+	@Test
+	public void testSize_large() {
+		Random random = new Random(17);
+		int[] sizes = {65, 100, 1000, 5000, 100000, 1000000};
+		for (int size: sizes) {
+			HyperLogLog counter = new HyperLogLog();
+			int start = random.nextInt();
+			for (int i=0; i<2*size; i++) {
+				counter.add(start + random.nextInt(size));
+			}
+			for (int i=0; i<size; i++) {
+				counter.add(start + i);
+			}
+			double error = Math.abs(counter.size() - size) / (double)size;
+			assertTrue("Estimate " + counter.size() + " too far from " + size + "!",
+					error <= 4 * HyperLogLog.STANDARD_ERROR);
+		}
+	}
+
+	@Test
+	public void testColumnNote() {
+		assertEquals("Wrong column note!", " (approximate repro count, standard error 3.3%)", HyperLogLog.columnNote());
+	}
+}
@@ -0,0 +1,80 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ModuleUsageScannerTest {
+	private static final String[] TOKENS = {"np", "pd", "os", "path", "os.path", "os_path", "sqrt", "pi",
+			"a", "b", "xa", "f", "g2", "_h", "1", ".", ". ", " ", "  ", "(", ")", ",", "=", "\n", " ", "ä", "😀"};
+
+	@Test
+	public void testRegisterUsages() {
+		List<PythonModule> modules = modules();
+		ModuleUsageScanner scanner = new ModuleUsageScanner(modules);
+		scanner.registerUsages("x = np.array([1, 2]) + np . zeros(3)");
+		scanner.registerUsages("os.path.join(a, b); y = sqrt(pi) + m.sqrt(2)");
+		scanner.registerUsages("z = xnp.array(1) + np.dtype");
+		Map<String, Integer> expectedNumpy = new HashMap<String, Integer>();
+		expectedNumpy.put("array", 1);
+		expectedNumpy.put("zeros", 1);
+		assertEquals("Wrong usages of numpy!", expectedNumpy, modules.get(0).functionUsages);
+		Map<String, Integer> expectedPath = new HashMap<String, Integer>();
+		expectedPath.put("join", 1);
+		assertEquals("Wrong usages of os.path!", expectedPath, modules.get(2).functionUsages);
+		Map<String, Integer> expectedMath = new HashMap<String, Integer>();
+		expectedMath.put("sqrt", 1);
+		assertEquals("Wrong usages of math!", expectedMath, modules.get(3).parent.functionUsages);
+	}
+
+	/**
+	 * Verify that the scanner registers the same usages as registerUsage
+	 * for each module, for random lines.
+	 */
+	@Test
+	public void testRegisterUsages_sameAsRegisterUsage() {
+		Random random = new Random(42);
+		List<PythonModule> expected = modules();
+		List<PythonModule> actual = modules();
+		ModuleUsageScanner scanner = new ModuleUsageScanner(actual);
+		for (int i=0; i<20000; i++) {
+			StringBuilder line = new StringBuilder();
+			int length = random.nextInt(12);
+			for (int j=0; j<length; j++) {
+				line.append(TOKENS[random.nextInt(TOKENS.length)]);
+			}
+			for (PythonModule module: expected) {
+				module.registerUsage(line.toString());
+			}
+			scanner.registerUsages(line.toString());
+		}
+		for (int i=0; i<expected.size(); i++) {
+			assertEquals("Wrong usages of " + expected.get(i) + "!",
+					expected.get(i).functionUsages, actual.get(i).functionUsages);
+			if (null != expected.get(i).parent) {
+				assertEquals("Wrong usages of " + expected.get(i).parent + "!",
+						expected.get(i).parent.functionUsages, actual.get(i).parent.functionUsages);
+			}
+		}
+	}
+
+	/**
+	 * @return numpy as np, pandas as pd, os.path, sqrt from math and a.b
+	 */
+	private static List<PythonModule> modules() {
+		List<PythonModule> modules = new ArrayList<PythonModule>();
+		modules.add(new PythonModule("numpy", "np", ImportType.ALIAS));
+		modules.add(new PythonModule("pandas", "pd", ImportType.ALIAS));
+		modules.add(new PythonModule("path", ImportType.ORDINARY, new PythonModule("os")));
+		modules.add(new PythonModule("sqrt", ImportType.ORDINARY, new PythonModule("math", ImportType.FROM)));
+		modules.add(new PythonModule("pi", "a", ImportType.ALIAS, new PythonModule("math", ImportType.FROM)));
+		modules.add(new PythonModule("b", ImportType.ORDINARY, new PythonModule("a")));
+		return modules;
+	}
+}
@@ -84,6 +84,44 @@ public class NotebookAnalyzerTest extends AnalyzerTest {
 		deleteCloneCsvs();
 	}
 	
+	/**
+	 * Verify that the output of allCccAnalyzes is the same when the results
+	 * are taken from a hash store as when the notebook is analyzed.
+	 */
+	@Test
+	public void testAllCccAnalyzes_hashStore() throws IOException {
+		String testDir = "test/data/ccc";
+		String notebookFile = "nb_1.ipynb";
+		String storeFile = defaultOutputDirName + File.separator + "hash_store.bin";
+		String[] expectedLOCLines = {LOCHeader(),
+				notebookFile + ", 2, 1, 1"};
+		String[] expectedAllLangLines = {allLanguagesHeader(),
+				notebookFile + ", " + LangName.SCALA + ", " + LangName.JULIA + ", "
+				+ LangName.R + ", " + LangName.OTHER + ", " + LangName.PYTHON
+			};
+		String[] expectedFile2hashesLines = {file2hashesHeader(),
+				notebookFile + ", 33BE8D72467938FBB23EF42CF8C9E85F"};
+		
+		for (int run=0; run<2; run++) {
+			analyzer = new NotebookAnalyzer();
+			analyzer.outputDir = defaultOutputDirName;
+			analyzer.useHashStore(storeFile);
+			analyzer.initializeNotebooksFrom(TestUtils.getPath(testDir, notebookFile));
+			analyzer.allCccAnalyzes();
+			
+			checkCsv("loc", expectedLOCLines);
+			checkCsv("all_languages", expectedAllLangLines);
+			checkCsv("file2hashesA", expectedFile2hashesLines);
+			
+			lastOutputFile("code_cells").delete();
+			lastOutputFile("loc").delete();
+			lastOutputFile("languages").delete();
+			lastOutputFile("all_languages").delete();
+			deleteCloneCsvs();
+		}
+		assertTrue("Hash store not created!", new File(storeFile).delete());
+	}
+	
 	@Test
 	public void testAllCccAnalyzes_error() throws IOException {
 		String testDir = "test/data/ccc";
@@ -332,6 +370,50 @@ public class NotebookAnalyzerTest extends AnalyzerTest {
 		lastOutputFile("code_cells").delete();
 	}
 	
+	/**
+	 * Verify that the notebooks in an archive are analyzed when nb_path is
+	 * the path to the archive.
+	 * @throws IOException 
+	 */
+	@Test
+	public void testArgumentParsing_nbPathArchive() throws IOException {
+		String[] args = {
+				"--count",
+				"--nb_path=test/data/archive/notebooks.tar"
+		};
+		String[] expectedLines = {
+				codeCellsHeader(),
+				"one.ipynb, 1",
+				"two.ipynb, 2",
+				"three_with_md.ipynb, 3"
+		};
+		analyzer.analyze(args);
+		NotebookArchive.closeAll();
+		checkCsv_anyOrder("code_cells", expectedLines);
+		lastOutputFile("code_cells").delete();
+	}
+	
+	/**
+	 * Verify that the notebooks listed in the file given as nb_paths_file
+	 * are analyzed.
+	 * @throws IOException 
+	 */
+	@Test
+	public void testArgumentParsing_nbPathsFile() throws IOException {
+		String[] args = {
+				"--count",
+				"--nb_paths_file=test/data/paths/notebook_paths.txt"
+		};
+		String[] expectedLines = {
+				codeCellsHeader(),
+				"two.ipynb, 2",
+				"zero.ipynb, 0"
+		};
+		analyzer.analyze(args);
+		checkCsv_anyOrder("code_cells", expectedLines);
+		lastOutputFile("code_cells").delete();
+	}
+	
 	/**
 	 *  Verify that analyze runs smoothly when notebook path is not specified.
 	 */
@@ -382,6 +464,32 @@ public class NotebookAnalyzerTest extends AnalyzerTest {
 		deleteCloneCsvs();
 	}
 	
+	/**
+	 * Verify that the connections file states that the repros are counted
+	 * approximately when approximate repro counting is enabled.
+	 * @throws IOException
+	 */
+	@Test
+	public void testArgumentParsing_approximateRepros() throws IOException {
+		String[] args = {
+				"--nb_path=test/data/arg",
+				"--repro_file=test/data/arg/repros.csv",
+				"--clones",
+				"--approximate_repros"
+		};
+		String note = HyperLogLog.columnNote();
+		String[] expectedConnectionsLines = {
+				"file, connections, connections normalized, non-empty connections, non-empty connections normalized, "
+				+ "intra repro connections, non-empty intra repro connections, mean inter repro connections" + note
+				+ ", mean non-empty inter repro connections" + note,
+				"nb_1.ipynb, 1, 1.0000, 1, 1.0000, 0, 0, 1.0000, 1.0000",
+				"nb_2.ipynb, 1, 1.0000, 1, 1.0000, 0, 0, 1.0000, 1.0000"
+		};
+		analyzer.analyze(args);
+		checkCsv_anyOrder("connections", expectedConnectionsLines);
+		deleteCloneCsvs();
+	}
+	
 	/**
 	 * Verify that clone analysis runs smoothly also when repro information is
 	 * missing.
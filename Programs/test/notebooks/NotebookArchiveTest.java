@@ -0,0 +1,128 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+public class NotebookArchiveTest {
+	private static final String LONG_DIR = "a_directory_with_a_name_long_enough_to_need_an_extended_tar_header/";
+	private static final String[] ENTRIES = {"one.ipynb", "sub/two.ipynb",
+			LONG_DIR + LONG_DIR + "three_with_md.ipynb"};
+	private static final String[] FILES = {"one.ipynb", "two.ipynb", "three_with_md.ipynb"};
+
+	@AfterClass
+	public static void tearDown() {
+		NotebookArchive.closeAll();
+	}
+
+	@Test
+	public void testIsArchive() {
+		assertTrue("Zip file not considered an archive!", NotebookArchive.isArchive("dir/corpus.zip"));
+		assertTrue("Tar file not considered an archive!", NotebookArchive.isArchive("dir/corpus.TAR"));
+		assertFalse("Notebook considered an archive!", NotebookArchive.isArchive("dir/nb_1.ipynb"));
+	}
+
+	@Test
+	public void testSeparatorIndex() {
+		assertEquals("Wrong separator index for entry!",
+				10, NotebookArchive.separatorIndex("corpus.zip!/dir/nb_1.ipynb"));
+		assertEquals("Wrong separator index for entry in archive in odd directory!",
+				15, NotebookArchive.separatorIndex("odd!/corpus.tar!/nb_1.ipynb"));
+		assertEquals("Separator found in ordinary path!",
+				-1, NotebookArchive.separatorIndex("dir!/nb_1.ipynb"));
+	}
+
+	@Test
+	public void testZip() throws IOException {
+		checkArchive("test/data/archive/notebooks.zip");
+	}
+
+	/**
+	 * Verify that the entries of a pax tar archive, with a long name stored
+	 * in an extended header, are read correctly.
+	 */
+	@Test
+	public void testTar_pax() throws IOException {
+		checkArchive("test/data/archive/notebooks.tar");
+	}
+
+	/**
+	 * Verify that the entries of a GNU tar archive, with a long name stored
+	 * in a separate entry, are read correctly.
+	 */
+	@Test
+	public void testTar_gnu() throws IOException {
+		checkArchive("test/data/archive/notebooks_gnu.tar");
+	}
+
+	@Test(expected=FileNotFoundException.class)
+	public void testOpen_missingEntry() throws IOException {
+		NotebookArchive.openEntry("test/data/archive/notebooks.tar!/missing.ipynb");
+	}
+
+	@Test(expected=IOException.class)
+	public void testOpen_missingArchive() throws IOException {
+		NotebookArchive.get("test/data/archive/missing.zip");
+	}
+
+	/**
+	 * Verify that the size and modification time of an entry are taken from
+	 * the archive, and those of the archive file are used for a missing entry.
+	 */
+	@Test
+	public void testEntrySizeAndTime() {
+		for (String archive: new String[]{"notebooks.zip", "notebooks.tar"}) {
+			String path = "test/data/archive/" + archive;
+			long[] sizeAndTime = NotebookArchive.entrySizeAndTime(NotebookArchive.entryPath(path, ENTRIES[1]));
+			assertEquals("Wrong size of " + ENTRIES[1] + " in " + archive + "!", 82, sizeAndTime[0]);
+			assertTrue("No modification time for " + ENTRIES[1] + " in " + archive + "!", 0 <= sizeAndTime[1]);
+			File file = new File(path);
+			assertArrayEquals("Wrong size and time for missing entry in " + archive + "!",
+					new long[]{file.length(), file.lastModified()},
+					NotebookArchive.entrySizeAndTime(NotebookArchive.entryPath(path, "missing.ipynb")));
+		}
+	}
+
+	/**
+	 * Verify that notebooks in archives are parsed like notebook files.
+	 */
+	@Test
+	public void testNotebook() {
+		int[] expectedCells = {1, 2, 3};
+		for (String archive: new String[]{"notebooks.zip", "notebooks.tar"}) {
+			for (int i=0; i<ENTRIES.length; i++) {
+				Notebook notebook = new Notebook(NotebookArchive.entryPath("test/data/archive/" + archive, ENTRIES[i]));
+				assertEquals("Wrong name of notebook in " + archive + "!", FILES[i], notebook.getName());
+				assertEquals("Wrong number of code cells in " + ENTRIES[i] + " in " + archive + "!",
+						expectedCells[i], notebook.numCodeCells());
+			}
+		}
+	}
+
+	private static void checkArchive(String path) throws IOException {
+		NotebookArchive archive = NotebookArchive.get(path);
+		assertSame("Archive opened twice!", archive, NotebookArchive.get(path));
+		List<String> entries = archive.notebookEntries();
+		assertEquals("Wrong number of notebooks in " + path + "!", ENTRIES.length, entries.size());
+		for (int i=0; i<ENTRIES.length; i++) {
+			assertEquals("Wrong notebook entry in " + path + "!", ENTRIES[i], entries.get(i));
+			byte[] expected = Files.readAllBytes(Paths.get("test/data/count", FILES[i]));
+			InputStream input = archive.open(ENTRIES[i]);
+			try {
+				assertArrayEquals("Wrong contents of " + ENTRIES[i] + " in " + path + "!",
+						expected, input.readAllBytes());
+			} finally {
+				input.close();
+			}
+		}
+	}
+}
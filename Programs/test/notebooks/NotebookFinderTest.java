@@ -0,0 +1,108 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class NotebookFinderTest {
+
+	/**
+	 * Verify that all notebooks in a directory and its sub directories are
+	 * found, and nothing else.
+	 */
+	@Test
+	public void testWalk_directory() {
+		String dir = "test/data/count";
+		String[] expectedFiles = {"empty.ipynb", "four_cells_and_worksheets.ipynb",
+				"missing_cell_type.ipynb", "missing_cells.ipynb", "missing_cells_in_worksheet.ipynb",
+				"one.ipynb", "three_in_worksheets.ipynb", "three_with_md.ipynb", "two.ipynb",
+				"zero.ipynb", "subdir/zero.ipynb", "subdir/1/zero.ipynb"};
+		Set<String> expected = new HashSet<String>();
+		for (String file: expectedFiles) {
+			expected.add(dir + File.separator + file.replace('/', File.separatorChar));
+		}
+		assertEquals("Wrong notebooks found!", expected, collect(NotebookFinder.walk(dir)));
+	}
+
+	@Test
+	public void testWalk_notebook() {
+		String path = "test/data/count/two.ipynb";
+		Set<String> expected = new HashSet<String>();
+		expected.add(path);
+		assertEquals("Wrong notebooks found from notebook path!", expected, collect(NotebookFinder.walk(path)));
+	}
+
+	/**
+	 * Verify that the notebooks in an archive are found, in the order in
+	 * which they are stored.
+	 */
+	@Test
+	public void testWalk_archive() {
+		String archive = "test/data/archive/notebooks.zip";
+		String longDir = "a_directory_with_a_name_long_enough_to_need_an_extended_tar_header/";
+		String[] expectedEntries = {"one.ipynb", "sub/two.ipynb", longDir + longDir + "three_with_md.ipynb"};
+		NotebookFinder paths = NotebookFinder.walk(archive);
+		for (String entry: expectedEntries) {
+			assertTrue("Too few notebooks found in archive!", paths.hasNext());
+			assertEquals("Wrong notebook found in archive!", NotebookArchive.entryPath(archive, entry), paths.next());
+		}
+		assertFalse("Too many notebooks found in archive!", paths.hasNext());
+		NotebookArchive.closeAll();
+	}
+
+	@Test
+	public void testWalk_otherFile() {
+		Iterator<String> paths = NotebookFinder.walk("test/data/count/non_notebook_file.txt");
+		assertFalse("Notebook found from non-notebook path!", paths.hasNext());
+	}
+
+	/**
+	 * Verify that the notebooks in a path list are found, relative to the
+	 * directory of the list, and that other lines are skipped.
+	 */
+	@Test
+	public void testReadPathList() throws IOException {
+		String pathsFile = "test/data/paths/notebook_paths.txt";
+		File base = new File(pathsFile).getAbsoluteFile().getParentFile();
+		File[] expectedFiles = {
+				new File(new File(base, ".."), "count/two.ipynb"),
+				new File(new File(base, ".."), "count/subdir/zero.ipynb")
+		};
+		Set<String> found = new HashSet<String>();
+		for (String path: collect(NotebookFinder.readPathList(pathsFile))) {
+			found.add(new File(path).getCanonicalPath());
+		}
+		Set<String> expected = new HashSet<String>();
+		for (File file: expectedFiles) {
+			expected.add(file.getCanonicalPath());
+		}
+		assertEquals("Wrong notebooks read from path list!", expected, found);
+	}
+
+	@Test(expected=IOException.class)
+	public void testReadPathList_missingFile() throws IOException {
+		NotebookFinder.readPathList("test/data/paths/missing.txt");
+	}
+
+	@Test
+	public void testCancel() {
+		NotebookFinder paths = NotebookFinder.walk("test/data/count");
+		paths.cancel();
+		assertFalse("Paths handed out after cancel!", paths.hasNext());
+	}
+
+	private static Set<String> collect(Iterator<String> paths) {
+		Set<String> result = new HashSet<String>();
+		while (paths.hasNext()) {
+			String path = paths.next();
+			assertTrue("Path " + path + " found twice!", result.add(path));
+		}
+		return result;
+	}
+}
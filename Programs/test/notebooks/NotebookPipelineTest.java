@@ -0,0 +1,146 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+public class NotebookPipelineTest {
+
+	@AfterClass
+	public static void tearDown() {
+		ThreadExecutor.tearDown();
+	}
+
+	/**
+	 * Verify that the results are consumed in the same order as the notebooks
+	 * are produced, also when there are more notebooks than the capacity of
+	 * the pipeline.
+	 */
+	@Test
+	public void testRun_order() throws IOException {
+		List<Notebook> notebooks = new ArrayList<Notebook>();
+		for (int i=0; i<100; i++) {
+			notebooks.add(new Notebook("nb_" + i + ".ipynb"));
+		}
+		NamePipeline pipeline = new NamePipeline(3);
+		pipeline.run(notebooks.iterator());
+		assertEquals("Wrong number of results consumed!", notebooks.size(), pipeline.consumed.size());
+		for (int i=0; i<notebooks.size(); i++) {
+			assertEquals("Result " + i + " consumed in wrong order!",
+					notebooks.get(i).getName(), pipeline.consumed.get(i));
+		}
+	}
+
+	/**
+	 * Verify that the fallback result is consumed when the analysis of a
+	 * notebook fails.
+	 */
+	@Test
+	public void testRun_failure() throws IOException {
+		List<Notebook> notebooks = new ArrayList<Notebook>();
+		notebooks.add(new Notebook("nb_1.ipynb"));
+		notebooks.add(new Notebook("fail"));
+		notebooks.add(new Notebook("nb_2.ipynb"));
+		NamePipeline pipeline = new NamePipeline(2);
+		pipeline.run(notebooks.iterator());
+		assertEquals("Wrong first result!", "nb_1.ipynb", pipeline.consumed.get(0));
+		assertEquals("Fallback result not consumed!", "FAILED", pipeline.consumed.get(1));
+		assertEquals("Wrong last result!", "nb_2.ipynb", pipeline.consumed.get(2));
+	}
+
+	/**
+	 * Verify that an exception thrown by the consumer is propagated.
+	 */
+	@Test(expected=IOException.class)
+	public void testRun_consumerFailure() throws IOException {
+		List<Notebook> notebooks = new ArrayList<Notebook>();
+		for (int i=0; i<10; i++) {
+			notebooks.add(new Notebook("nb_" + i + ".ipynb"));
+		}
+		NamePipeline pipeline = new NamePipeline(2) {
+			@Override
+			protected void consume(Notebook notebook, String result) throws IOException {
+				throw new IOException("Disk full");
+			}
+		};
+		pipeline.run(notebooks.iterator());
+	}
+
+	/**
+	 * Verify that a failure of the producer is propagated to the caller,
+	 * after the results of the notebooks produced before it have been
+	 * consumed.
+	 */
+	@Test
+	public void testRun_producerFailure() throws IOException {
+		final List<Notebook> notebooks = new ArrayList<Notebook>();
+		for (int i=0; i<5; i++) {
+			notebooks.add(new Notebook("nb_" + i + ".ipynb"));
+		}
+		Iterator<Notebook> failing = new Iterator<Notebook>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public Notebook next() {
+				if (notebooks.size() == next) {
+					throw new IllegalStateException("Directory listing failed");
+				}
+				return notebooks.get(next++);
+			}
+		};
+		NamePipeline pipeline = new NamePipeline(2);
+		try {
+			pipeline.run(failing);
+			fail("Producer failure not propagated!");
+		} catch (IllegalStateException e) {
+			assertEquals("Wrong exception propagated!", "Directory listing failed", e.getMessage());
+		}
+		assertEquals("Results before the failure not consumed!", notebooks.size(), pipeline.consumed.size());
+	}
+
+	/**
+	 * Pipeline that "analyzes" each notebook by returning its name.
+	 */
+	private static class NamePipeline extends NotebookPipeline<String> {
+		final List<String> consumed = new ArrayList<String>();
+
+		NamePipeline(int capacity) {
+			super(capacity);
+		}
+
+		@Override
+		protected Callable<String> task(final Notebook notebook) {
+			return new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					if ("fail".equals(notebook.getName())) {
+						throw new Exception("Analysis failed");
+					}
+					return notebook.getName();
+				}
+			};
+		}
+
+		@Override
+		protected void consume(Notebook notebook, String result) throws IOException {
+			consumed.add(result);
+		}
+
+		@Override
+		protected String failed(Notebook notebook, Exception e) {
+			return "FAILED";
+		}
+	}
+}
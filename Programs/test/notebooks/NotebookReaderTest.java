@@ -0,0 +1,136 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.Test;
+
+public class NotebookReaderTest {
+
+	/**
+	 * Verify that the streaming reader extracts the same contents as org.json
+	 * from all notebooks in the test data that it can read.
+	 */
+	@Test
+	public void testRead_testData() throws IOException {
+		List<File> notebookFiles = new ArrayList<File>();
+		addNotebookFiles(new File("test/data"), notebookFiles);
+		int numRead = 0;
+		for (File file: notebookFiles) {
+			NotebookContents streamed = read(file);
+			if (null != streamed) {
+				numRead++;
+				assertSameContents(file.getPath(), parse(file), streamed);
+			}
+		}
+		assertTrue("Too few notebooks read by the streaming reader!", 100 < numRead);
+	}
+
+	/**
+	 * Verify that outputs and other values not used by the analyses are
+	 * skipped, and that the code cells are extracted correctly.
+	 */
+	@Test
+	public void testRead_skipOutputs() throws IOException {
+		String notebook = "{\"cells\": [{\"cell_type\": \"code\", \"outputs\": [{\"data\": "
+				+ "{\"image/png\": \"iVBORw0KGgo\\\"AAAA\\u00e5\"}, \"execution_count\": 1, \"x\": [true, false, null, -1.5e3, {}]}],"
+				+ " \"source\": [\"import numpy\\n\", \"print(\\\"\u00e5\u00e4\u00f6\u20ac\ud83d\ude00\\\")\"]},"
+				+ " {\"cell_type\": \"markdown\", \"source\": {\"not\": \"checked\"}},"
+				+ " {\"source\": \"a = 1\\nb = 2\", \"language\": \"python\", \"cell_type\": \"code\"}],"
+				+ " \"metadata\": {\"kernelspec\": {\"display_name\": \"Python 3\", \"name\": \"python3\"},"
+				+ " \"language_info\": {\"name\": \"python\", \"version\": \"3.7.3\"}}, \"nbformat\": 4}";
+		NotebookContents contents = read(notebook);
+		assertNotNull("Valid notebook not read!", contents);
+		assertSameContents("inline notebook",
+				NotebookContents.fromJson(new JSONObject(notebook), "inline notebook"), contents);
+		assertEquals("Wrong number of code cells!", 2, contents.numCodeCells());
+		assertArrayEquals("Wrong source in first cell!",
+				new String[]{"import numpy\n", "print(\"\u00e5\u00e4\u00f6\u20ac\ud83d\ude00\")\n"}, contents.source(0));
+		assertArrayEquals("Wrong source in second cell!", new String[]{"a = 1\n", "b = 2\n"}, contents.source(1));
+		assertEquals("Wrong language in second cell!", "python", contents.codeCellLanguage(1));
+		assertEquals("Wrong language_info name!", "python", contents.languageInfoName());
+		assertEquals("Wrong kernelspec name!", "python3", contents.kernelspecName());
+		assertNull("Missing kernelspec language not null!", contents.kernelspecLanguage());
+	}
+
+	/**
+	 * Verify that the reader gives up on content that it doesn't handle.
+	 */
+	@Test
+	public void testRead_unsupported() throws IOException {
+		String[] notebooks = {
+				"",
+				"[]",
+				"{\"cells\": [{\"cell_type\": 1}]}",
+				"{\"cells\": [{\"cell_type\": \"code\", \"source\": 17}]}",
+				"{\"cells\": [{\"cell_type\": \"code\", \"source\": [\"a\", null]}]}",
+				"{\"metadata\": {\"language\": null}}",
+				"{\"metadata\": {\"language\": \"python\", \"language\": \"R\"}}",
+				"{\"metadata\": {\"language\": \"python\",}}",
+				"{'metadata': {}}",
+				"{\"metadata\": {\"x\": \"line\nbreak\"}}",
+				"{\"metadata\": {\"x\": \"\\q\"}}",
+				"{\"metadata\": {\"language\": \"\u00e5",
+		};
+		for (String notebook: notebooks) {
+			assertNull("Unsupported notebook read: " + notebook, read(notebook));
+		}
+	}
+
+	private static NotebookContents read(String notebook) throws IOException {
+		return NotebookReader.read(
+				new ByteArrayInputStream(notebook.getBytes(StandardCharsets.UTF_8)), "inline notebook");
+	}
+
+	private static NotebookContents read(File file) throws IOException {
+		InputStream input = new FileInputStream(file);
+		try {
+			return NotebookReader.read(input, file.getPath());
+		} finally {
+			input.close();
+		}
+	}
+
+	private static NotebookContents parse(File file) throws IOException {
+		InputStream input = new FileInputStream(file);
+		try {
+			return NotebookContents.fromJson(new JSONObject(new JSONTokener(input)), file.getPath());
+		} finally {
+			input.close();
+		}
+	}
+
+	private static void addNotebookFiles(File dir, List<File> files) {
+		for (File file: dir.listFiles()) {
+			if (file.isDirectory()) {
+				addNotebookFiles(file, files);
+			} else if (file.getName().endsWith(".ipynb")) {
+				files.add(file);
+			}
+		}
+	}
+
+	private static void assertSameContents(String name, NotebookContents expected, NotebookContents actual) {
+		assertEquals("Wrong metadata flag for " + name, expected.hasMetadata(), actual.hasMetadata());
+		assertEquals("Wrong metadata language for " + name, expected.metadataLanguage(), actual.metadataLanguage());
+		assertEquals("Wrong language_info name for " + name, expected.languageInfoName(), actual.languageInfoName());
+		assertEquals("Wrong kernelspec language for " + name, expected.kernelspecLanguage(), actual.kernelspecLanguage());
+		assertEquals("Wrong kernelspec name for " + name, expected.kernelspecName(), actual.kernelspecName());
+		assertEquals("Wrong number of code cells for " + name, expected.numCodeCells(), actual.numCodeCells());
+		for (int i=0; i<expected.numCodeCells(); i++) {
+			assertArrayEquals("Wrong source in cell " + i + " of " + name, expected.source(i), actual.source(i));
+			assertEquals("Wrong language in cell " + i + " of " + name,
+					expected.codeCellLanguage(i), actual.codeCellLanguage(i));
+		}
+	}
+}
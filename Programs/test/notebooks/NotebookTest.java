@@ -184,6 +184,40 @@ public class NotebookTest {
 	    }
 	}
 	
+	/**
+	 * Verify that the notebook is parsed only once, until its contents are
+	 * discarded.
+	 */
+	@Test
+	public void testGetContents() {
+		Notebook notebook = new Notebook("test/data/count/three_with_md.ipynb");
+		NotebookContents contents = notebook.getContents();
+		assertEquals("Wrong number of code cells in contents!", 3, contents.numCodeCells());
+		assertSame("Notebook parsed again!", contents, notebook.getContents());
+		notebook.numCodeCells();
+		notebook.language();
+		assertSame("Notebook parsed again after analyses!", contents, notebook.getContents());
+		notebook.discardContents();
+		assertNotSame("Contents not discarded!", contents, notebook.getContents());
+	}
+	
+	/**
+	 * Verify that a notebook that has been read into memory is parsed
+	 * correctly, and that a file that cannot be read is still reported as
+	 * empty.
+	 */
+	@Test
+	public void testReadFile() {
+		Notebook notebook = new Notebook("test/data/count/three_with_md.ipynb");
+		notebook.readFile();
+		assertEquals("Wrong number of code cells in notebook read into memory!",
+				3, notebook.getContents().numCodeCells());
+		Notebook missing = new Notebook("test/data/count/missing.ipynb");
+		missing.readFile();
+		assertEquals("Wrong number of code cells in missing notebook!",
+				0, missing.getContents().numCodeCells());
+	}
+
 	@SuppressWarnings("unlikely-arg-type")
 	@Test
 	public void testEquals_diffType() {
@@ -0,0 +1,65 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.util.regex.Matcher;
+
+import org.junit.Test;
+
+public class PatternCacheTest {
+
+	@Test
+	public void testPattern_cached() {
+		String regex = "(np)\\s*\\.\\s*(array)\\s*\\(";
+		assertSame("Pattern compiled twice!", PatternCache.pattern(regex), PatternCache.pattern(regex));
+	}
+
+	/**
+	 * Verify that a matcher is reused for a new input on the same thread,
+	 * and that it then matches the new input only.
+	 */
+	@Test
+	public void testMatcher_reset() {
+		String regex = "(foo)\\s*\\(";
+		Matcher first = PatternCache.matcher(regex, "foo() + foo()");
+		int count = 0;
+		while (first.find()) {
+			count++;
+		}
+		assertEquals("Wrong number of matches in first input!", 2, count);
+		Matcher second = PatternCache.matcher(regex, "bar(foo (1))");
+		assertSame("Matcher not reused!", first, second);
+		assertTrue("Match in second input not found!", second.find());
+		assertEquals("Wrong match start!", 4, second.start());
+		assertFalse("Match from first input found in second!", second.find());
+	}
+
+	/**
+	 * Verify that different threads get different matchers for the same
+	 * regular expression.
+	 */
+	@Test
+	public void testMatcher_perThread() throws InterruptedException {
+		final String regex = "(bar)\\s*\\(";
+		final Matcher[] other = new Matcher[1];
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				other[0] = PatternCache.matcher(regex, "bar()");
+			}
+		};
+		thread.start();
+		thread.join();
+		Matcher own = PatternCache.matcher(regex, "bar()");
+		assertNotSame("Matcher shared between threads!", own, other[0]);
+		assertSame("Pattern not shared between threads!", own.pattern(), other[0].pattern());
+	}
+
+	@Test
+	public void testPattern_bounded() {
+		for (int i=0; i<PatternCache.MAX_PATTERNS + 10; i++) {
+			PatternCache.pattern("f" + i + "\\(");
+		}
+		assertEquals("Wrong size of cache!", PatternCache.MAX_PATTERNS, PatternCache.size());
+	}
+}
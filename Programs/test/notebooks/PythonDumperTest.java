@@ -101,6 +101,29 @@ public class PythonDumperTest extends DumperTest {
 		}
 	}
 
+	/**
+	 * Verify that dumper dumps all notebooks in I/O mode.
+	 */
+	@Test
+	public void testDump_wholeDir_ioMode() throws IOException {
+		String dir = "dump";
+		String src = "test/data/" + dir;
+		String[] expectedOutputs = {"nb1_0.py", "nb1_1.py", "nb2_0.py", "nb3_0.py", "sub/nb4_0.py"};
+		
+		ThreadExecutor.setIoMode(true);
+		try {
+			dumper.dumpAll(src, targetDir);
+		} finally {
+			ThreadExecutor.setIoMode(false);
+		}
+		
+		for (String fileName: expectedOutputs) {
+			File output = new File(targetDir + File.separator + dir + File.separator + fileName);
+			assertTrue(fileName + " is missing in I/O mode!", output.exists());
+			output.delete();
+		}
+	}
+
 	/**
 	 * Verify that dumper dumps notebooks in subdirectories correctly. 
 	 */
@@ -1,9 +1,12 @@
 package notebooks;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.json.JSONArray;
 import org.junit.Test;
@@ -306,6 +309,61 @@ public class PythonPreprocessorTest {
 		processAndCheck(strings, expectedOutput);
 	}
 
+	@Test
+	public void testProcess_commentWithoutNewLine() {
+		String[] strings = {"import numpy as np\n", "a = np.sin(b)  # Last line of the cell"};
+		List<String> expectedOutput = new ArrayList<String>(2);
+		expectedOutput.add("import numpy as np\n");
+		expectedOutput.add("a = np.sin(b)  \n");
+		processAndCheck(strings, expectedOutput);
+	}
+
+	@Test(timeout=10000)
+	public void testProcess_largeCell() {
+		int numLines = 100000;
+		String[] strings = new String[numLines];
+		List<String> expectedOutput = new ArrayList<String>(numLines);
+		for (int i=0; i<numLines; i++) {
+			strings[i] = "x" + i + " = f('''" + i + "''', \"#\")  # " + i + "\n";
+			expectedOutput.add("x" + i + " = f(, \"#\")  \n");
+		}
+		processAndCheck(strings, expectedOutput);
+	}
+
+	/**
+	 * Verify that process gives the same result as the earlier
+	 * implementation, which made one pass per step over the whole code, for
+	 * random code. Code for which the earlier implementation failed (a
+	 * comment at the end without a newline) is skipped.
+	 */
+	@Test
+	public void testProcess_sameAsStepwise() {
+		String[] tokens = {"a", "b1", " ", "\n", "\\", "\"", "'", "\"\"\"", "'''", "#", ";", "(", ")", "x = f(", "\\\n"};
+		Random random = new Random(23);
+		int numCompared = 0;
+		for (int i=0; i<20000; i++) {
+			String[] strings = new String[1 + random.nextInt(3)];
+			for (int j=0; j<strings.length; j++) {
+				StringBuilder string = new StringBuilder();
+				int length = random.nextInt(10);
+				for (int k=0; k<length; k++) {
+					string.append(tokens[random.nextInt(tokens.length)]);
+				}
+				strings[j] = string.toString();
+			}
+			List<String> expected;
+			try {
+				expected = new StepwisePreprocessor(strings).process();
+			} catch (StringIndexOutOfBoundsException e) {
+				continue;
+			}
+			assertEquals("Wrong output for " + Arrays.toString(strings) + "!",
+					expected, new PythonPreprocessor(strings).process());
+			numCompared++;
+		}
+		assertTrue("Too few inputs compared!", 10000 < numCompared);
+	}
+
 	private void processAndCheck(String[] inputStrings, List<String> expectedResult) {
 		JSONArray input = new JSONArray();
 		for (String str: inputStrings) {
@@ -316,4 +374,96 @@ public class PythonPreprocessorTest {
 		assertEquals("Errorneous output of process.", expectedResult, result);
 	}
 
+	/**
+	 * The earlier implementation of PythonPreprocessor, which removes
+	 * multi-line strings, then comments, newlines between brackets and
+	 * semicolons, then escaped newlines, each in a pass of its own, and then
+	 * splits the code.
+	 */
+	private static class StepwisePreprocessor {
+		private String code;
+
+		StepwisePreprocessor(String[] input) {
+			StringBuilder merged = new StringBuilder();
+			for (String string: input) {
+				merged.append(string);
+			}
+			code = merged.toString();
+		}
+
+		List<String> process() {
+			removeStrings(new String[] {"\"\"\"", "'''"});
+			removeOutsideString(new String[]{"\"", "'"});
+			removeEscapedNewLines();
+			List<String> processed = new ArrayList<String>();
+			for (String line: code.split("\n")) {
+				processed.add(line + "\n");
+			}
+			return processed;
+		}
+
+		private void removeEscapedNewLines() {
+			StringBuilder result = new StringBuilder();
+			int index = 0;
+			boolean escaped = false;
+			while (index < code.length()-1) {
+				if ('\\' == code.charAt(index)) {
+					escaped = !escaped;
+				} else {
+					escaped = false;
+				}
+				if (escaped && '\n' == code.charAt(index+1)) {
+					index += 2;
+					result.append(' ');
+				} else {
+					result.append(code.charAt(index++));
+				}
+			}
+			if (index < code.length()) {
+				result.append(code.charAt(index));
+			}
+			code = result.toString();
+		}
+
+		private void removeOutsideString(String[] delimiters) {
+			CodeState state = new CodeState(code, delimiters);
+			StringBuilder result = new StringBuilder();
+			int bracketLevel = 0;
+			while (state.inCode()) {
+				char current = state.currentChar();
+				if (!state.inString()) {
+					if ('(' == current) {
+						bracketLevel++;
+					} else if (')' == current) {
+						bracketLevel--;
+					} else if ('\n' == current && 0 < bracketLevel) {
+						state.stepPast();
+						continue;
+					} else if('#' == current && !state.escaped()) {
+						state.stepTo('\n');
+						continue;
+					} else if (';' == current) {
+						result.append('\n');
+						state.stepPast();
+						continue;
+					}
+				}
+				result.append(state.currentChar());
+				state.step();
+			}
+			code = result.toString();
+		}
+
+		private void removeStrings(String[] delimiters) {
+			CodeState state = new CodeState(code, delimiters);
+			StringBuilder result = new StringBuilder();
+			while (state.inCode()) {
+				if (!state.inString() && !state.atDelimiter()) {
+					result.append(state.currentChar());
+				}
+				state.step();
+			}
+			code = result.toString();
+		}
+	}
 }
@@ -3,11 +3,11 @@ package notebooks;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
-import static org.junit.Assert.fail;
 
-import java.io.File;
-import java.io.IOException;
+import java.util.HashSet;
 import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -99,18 +99,32 @@ public class SccNotebookTest {
 				4, notebook.numInterReproConnections());
 	}
 	
+	/**
+	 * Verify that the number of inter connected repros is counted correctly
+	 * when a notebook is connected to many repros, many times each.
+	 */
 	@Test
-	public void testDumping() {
-		SccNotebook.setDumpDir("scc_notebook_dump_dir_unittest");
-		int otherReproNumber = 99;
-		SccNotebook otherRepro = new SccNotebook("otherRepro", otherReproNumber);
-		notebook.connect(otherRepro);
-		int yetAnotherReproNumber = 1002;
-		SccNotebook yetAnotherRepro = new SccNotebook("yetAnotherRepro", yetAnotherReproNumber);
-		notebook.connect(yetAnotherRepro);
-		notebook.dumpReprosIfLargerOrEq(2);
-		assertEquals("Dumped repros don't seem to be read correctly", 2, notebook.numReprosInterConnected());
-		SccNotebook.removeDumpDirContents();
+	public void testConnect_manyRepros() {
+		Set<Integer> expectedRepros = new HashSet<Integer>();
+		Random random = new Random(5);
+		for (int i=0; i<100000; i++) {
+			int otherReproNumber = random.nextInt(5000) - 10;
+			SccNotebook otherNotebook = new SccNotebook("other.ipynb", otherReproNumber);
+			notebook.connect(otherNotebook);
+			if (reproNumber != otherReproNumber) {
+				expectedRepros.add(otherReproNumber);
+			}
+			if (0 == i%9973) {
+				assertEquals("Wrong number of inter connected repros after " + (i+1) + " connections",
+						expectedRepros.size(), notebook.numReprosInterConnected());
+			}
+		}
+		assertEquals("Wrong number of inter connected repros",
+				expectedRepros.size(), notebook.numReprosInterConnected());
+		notebook.connect(new SccNotebook("far.ipynb", Integer.MAX_VALUE));
+		notebook.connect(new SccNotebook("negative.ipynb", Integer.MIN_VALUE));
+		assertEquals("Wrong number of inter connected repros after extreme repro ids",
+				expectedRepros.size() + 2, notebook.numReprosInterConnected());
 	}
 	
 	@Test
@@ -141,32 +155,4 @@ public class SccNotebookTest {
 		int expectedHashCode = Objects.hash(notebookName);
 		assertEquals("Wrong hash code returned for notebook", expectedHashCode, notebook.hashCode());
 	}
-	
-	@Test
-	public void testSetDumpDir() {
-		String dirName = "scc_notebook_dump_dir_unittest";
-		SccNotebook.setDumpDir(dirName);
-		File dir = new File(dirName);
-		assertTrue("Dump dir not created", dir.exists());
-		SccNotebook.removeDumpDirContents();
-		File subDir = new File(dirName + "/inter_connected_repros_dump");
-		assertFalse("Dump dir contents not removed", subDir.exists());
-		dir.delete();
-	}
-	
-	@Test
-	public void testRemoveDumpDirContents() {
-		String dirName = "scc_notebook_dump_dir_unittest";
-		SccNotebook.setDumpDir(dirName);
-		String subDirName = dirName + "/inter_connected_repros_dump";
-		try {
-			new File(subDirName + "/empty_dump_file.repros").createNewFile();
-		} catch (IOException e) {
-			fail("Could not create test dump file: " + e.getMessage());
-		}
-		SccNotebook.removeDumpDirContents();
-		File subDir = new File(subDirName);
-		assertFalse("Dump dir contents not removed", subDir.exists());
-		new File(dirName).delete();
-	}
 }
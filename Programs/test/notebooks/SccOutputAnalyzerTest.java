@@ -267,6 +267,30 @@ public class SccOutputAnalyzerTest extends AnalyzerTest {
 		deleteCloneCsvs();
 	}
 	
+	/**
+	 * Verify that the connections file states that the repros are counted
+	 * approximately, and that the small repro counts are still exact, when
+	 * approximate repro counting is enabled.
+	 */
+	@Test
+	public void testArgumentParsing_approximateRepros() throws IOException {
+		String[] args = {
+				"--stats_file=test/data/scc/inter_repro_opt/file_stats",
+				"--pair_file=test/data/scc/inter_repro_opt/clone_pairs.zip",
+				"--repro_file=test/data/scc/inter_repro_opt/repros",
+				"--approximate_repros"};
+		
+		String[] expectedLines = {
+				connectionsHeader() + HyperLogLog.columnNote(),
+				"nb_1.ipynb, 208, 208.0000, 0, 2.0000",
+				"nb_2.ipynb, 1, 1.0000, 0, 1.0000",
+				"nb_105.ipynb, 1, 1.0000, 0, 1.0000"
+		};
+		analyzer.analyze(args);
+		checkCsv_contains("connections", expectedLines);
+		deleteCloneCsvs();
+	}
+	
 	/**
 	 * Verify that connections are identified correctly at clone analysis when
 	 * the number of clone pairs > 100 (the limit for start using tmp file for
@@ -357,6 +381,59 @@ public class SccOutputAnalyzerTest extends AnalyzerTest {
 		deleteCloneCsvs();
 	}
 	
+	/**
+	 * Verify that the results are the same when the clone pairs are read by
+	 * one thread and by several threads, when the pairs are distributed in
+	 * several files in the zip file.
+	 * @throws IOException
+	 */
+	@Test
+	public void testClones_pairThreads() throws IOException {
+		String dataDir = "test/data/scc";
+		String statsFile = dataDir + "/file_stats";
+		String pairFile = dataDir + "/clone_pairs_split.zip";
+		String reproFile = "test/data/hash/repros.csv";
+		
+		String[] expectedFrequencyLines = {
+				cloneFrequencyHeader(),
+				"nb_1.ipynb, 0, 2, 0, 1.0000, 1.0000, 2, 2",
+				"nb_2.ipynb, 0, 3, 0, 1.0000, 1.0000, 2, 2",
+				"nb_3.ipynb, 1, 1, 0, 0.5000, 0.5000, 0, 0",
+				"nb_4.ipynb, 2, 0, 2, 0.0000, 0, 0, 0",
+				"nb_5.ipynb, 1, 1, 1, 0.5000, 1.0000, 0, 0",
+				"nb_6.ipynb, 0, 2, 0, 1.0000, 1.0000, 2, 2",
+				"nb_7.ipynb, 0, 3, 0, 1.0000, 1.0000, 0, 0",
+				"nb_8.ipynb, 0, 1, 0, 1.0000, 1.0000, 0, 0",
+				"nb_9.ipynb, 0, 2, 0, 1.0000, 1.0000, 2, 2",
+				"nb_10.ipynb, 1, 0, 1, 0.0000, 0, 0, 0",
+				"nb_11.ipynb, 0, 1, 0, 1.0000, 1.0000, 0, 0"
+		};
+		String[] expectedConnectionsLines = {
+				connectionsHeader(),
+				"nb_4.ipynb, 0, 0.0000, 0, 0.0000",
+				"nb_5.ipynb, 1, 1.0000, 0, 1.0000",
+				"nb_1.ipynb, 6, 3.0000, 2, 4.0000",
+				"nb_2.ipynb, 7, 2.3333, 3, 4.0000",
+				"nb_3.ipynb, 1, 0.5000, 1, 0.0000",
+				"nb_6.ipynb, 4, 2.0000, 4, 0.0000",
+				"nb_7.ipynb, 5, 1.6667, 2, 1.5000",
+				"nb_10.ipynb, 0, 0.0000, 0, 0.0000",
+				"nb_8.ipynb, 1, 1.0000, 0, 1.0000",
+				"nb_9.ipynb, 4, 2.0000, 2, 2.0000",
+				"nb_11.ipynb, 1, 1.0000, 0, 1.0000",
+		};
+		
+		for (int threads=1; threads<=4; threads++) {
+			analyzer = new SccOutputAnalyzer();
+			analyzer.outputDir = defaultOutputDirName;
+			analyzer.setPairThreads(threads);
+			analyzer.clones(statsFile, reproFile, pairFile);
+			checkCsv_anyOrder("cloneFrequency", expectedFrequencyLines);
+			checkCsv_anyOrder("connections", expectedConnectionsLines);
+			deleteCloneCsvs();
+		}
+	}
+	
 	/**
 	 * Verify that intra notebook connections are computed correctly.
 	 * @throws IOException
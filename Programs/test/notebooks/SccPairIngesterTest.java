@@ -0,0 +1,194 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SccPairIngesterTest {
+	private static final String PAIR_FILE = "scc_pair_ingester_unit_test.zip";
+	private static final int NUM_NOTEBOOKS = 20;
+	private static final int SNIPPETS_PER_NOTEBOOK = 5;
+	private Map<Integer, SccNotebook> notebooks;
+	private SccSnippetTable snippets;
+	private Map<Integer, SccNotebook> expectedNotebooks;
+	private Map<SccSnippetId, SccSnippet> expectedSnippets;
+
+	@Before
+	public void setUp() {
+		resetSnippets();
+	}
+
+	private void resetSnippets() {
+		notebooks = new LinkedHashMap<Integer, SccNotebook>();
+		expectedNotebooks = new LinkedHashMap<Integer, SccNotebook>();
+		expectedSnippets = new HashMap<SccSnippetId, SccSnippet>();
+		createSnippets(notebooks, new HashMap<SccSnippetId, SccSnippet>());
+		createSnippets(expectedNotebooks, expectedSnippets);
+		snippets = new SccSnippetTable(notebooks);
+		for (int nb=1; nb<=NUM_NOTEBOOKS; nb++) {
+			for (int snippet=0; snippet<SNIPPETS_PER_NOTEBOOK; snippet++) {
+				snippets.add(nb, snippet, 1, nb);
+			}
+		}
+		snippets.add(0, 0, 1, 0);
+		snippets.buildNotebookIndex();
+	}
+
+	@After
+	public void tearDown() {
+		new File(PAIR_FILE).delete();
+	}
+
+	/**
+	 * Create notebooks 1-NUM_NOTEBOOKS, spread over 3 repros, with
+	 * SNIPPETS_PER_NOTEBOOK snippets each, and a snippet without notebook
+	 * with id 0:0.
+	 */
+	private static void createSnippets(Map<Integer, SccNotebook> notebooks,
+			Map<SccSnippetId, SccSnippet> snippets) {
+		for (int nb=1; nb<=NUM_NOTEBOOKS; nb++) {
+			SccNotebook notebook = new SccNotebook("nb_" + nb + ".ipynb", nb%3);
+			notebooks.put(nb, notebook);
+			for (int snippet=0; snippet<SNIPPETS_PER_NOTEBOOK; snippet++) {
+				snippets.put(new SccSnippetId(nb, snippet), new SccSnippet(1, notebook));
+			}
+		}
+		snippets.put(new SccSnippetId(0, 0), new SccSnippet(1, null));
+	}
+
+	/**
+	 * Verify that the connections are counted like SccSnippet.connect counts
+	 * them, for many lines split over several zip entries and blocks, with
+	 * one and several parser threads.
+	 */
+	@Test
+	public void testIngest() throws IOException {
+		Random random = new Random(13);
+		StringBuilder[] entries = {new StringBuilder(), new StringBuilder(), new StringBuilder()};
+		for (int i=0; i<400000; i++) {
+			int nb1 = 1 + random.nextInt(NUM_NOTEBOOKS), nb2 = 1 + random.nextInt(NUM_NOTEBOOKS);
+			int id1 = random.nextInt(SNIPPETS_PER_NOTEBOOK), id2 = random.nextInt(SNIPPETS_PER_NOTEBOOK);
+			entries[i%entries.length].append(nb1).append(',').append(id1).append(',')
+				.append(nb2).append(',').append(id2).append(0 == i%7 ? "\r\n" : "\n");
+		}
+		writePairFile(entries[0].toString(), entries[1].toString(), entries[2].toString());
+		for (int parsers=1; parsers<=3; parsers+=2) {
+			resetSnippets();
+			for (StringBuilder entry: entries) {
+				for (String line: entry.toString().split("\r?\n")) {
+					String[] ids = line.split(",");
+					connectExpected(Integer.parseInt(ids[0]), Integer.parseInt(ids[1]),
+							Integer.parseInt(ids[2]), Integer.parseInt(ids[3]));
+				}
+			}
+			new SccPairIngester(snippets, parsers).ingest(PAIR_FILE);
+			checkConnections();
+		}
+	}
+
+	/**
+	 * Verify that lines that are not plain pairs are handled and reported as
+	 * when the lines were parsed as strings.
+	 */
+	@Test
+	public void testIngest_irregularLines() throws IOException {
+		writePairFile("1,1,1,2\r\n"
+				+ "\n"
+				+ "1,1,3,1,\n"
+				+ "1,1\n"
+				+ "99,1,1,1\n"
+				+ "1,1,99,2\n"
+				+ "0,0,1,1\n"
+				+ "a,1,1,1\n"
+				+ "1,1,99999999999,1\n"
+				+ "+2,1,3,01\n"
+				+ "2,2\r3,3,4,4\n"
+				+ "1,2,3,1");
+		connectExpected(1, 1, 1, 2);
+		connectExpected(1, 1, 3, 1);
+		connectExpected(2, 1, 3, 1);
+		connectExpected(3, 3, 4, 4);
+		connectExpected(1, 2, 3, 1);
+
+		PrintStream stderr = System.err;
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(errors));
+		try {
+			new SccPairIngester(snippets, 1).ingest(PAIR_FILE);
+		} finally {
+			System.setErr(stderr);
+		}
+		checkConnections();
+		String[] expectedErrors = {
+				"Invalid line \"\" in pair file. Skipping line!",
+				"Invalid line \"1,1\" in pair file. Skipping line!",
+				"ID for nonexistent snippet (99:1) found on line \"99,1,1,1\". Skipping clone pair!",
+				"ID for nonexistent snippet (99:2) found on line \"1,1,99,2\". Skipping clone pair!",
+				"Couldn't add connection between 0:0 and 1:1. ",
+				"Notebook or repro info is missing. Skipping line 0,0,1,1",
+				"Number format exception when parsing line \"a,1,1,1\": For input string: \"a\"",
+				"Number format exception when parsing line \"1,1,99999999999,1\": For input string: \"99999999999\"",
+				"Invalid line \"2,2\" in pair file. Skipping line!"
+		};
+		String[] actualErrors = errors.toString().split("\r?\n");
+		assertArrayEquals("Wrong error messages!", expectedErrors, actualErrors);
+	}
+
+	private void connectExpected(int nb1, int id1, int nb2, int id2) {
+		expectedSnippets.get(new SccSnippetId(nb1, id1)).connect(expectedSnippets.get(new SccSnippetId(nb2, id2)));
+	}
+
+	private void checkConnections() {
+		for (int nb=0; nb<=NUM_NOTEBOOKS; nb++) {
+			for (int id=0; id<SNIPPETS_PER_NOTEBOOK; id++) {
+				SccSnippet expected = expectedSnippets.get(new SccSnippetId(nb, id));
+				int row = snippets.row(nb, id);
+				if (null == expected) {
+					assertEquals("Nonexistent snippet " + nb + ":" + id + " found!", -1, row);
+				} else {
+					assertEquals("Wrong number of intra notebook connections for " + nb + ":" + id,
+							expected.numIntraNotebookConnections(), snippets.numIntraNotebookConnections(row));
+					assertEquals("Wrong number of inter notebook connections for " + nb + ":" + id,
+							expected.numInterNotebookConnections(), snippets.numInterNotebookConnections(row));
+				}
+			}
+		}
+		for (Map.Entry<Integer, SccNotebook> entry: expectedNotebooks.entrySet()) {
+			SccNotebook expected = entry.getValue();
+			SccNotebook actual = notebooks.get(entry.getKey());
+			assertEquals("Wrong number of intra repro connections for " + expected.getName(),
+					expected.numIntraReproConnections(), actual.numIntraReproConnections());
+			assertEquals("Wrong number of inter repro connections for " + expected.getName(),
+					expected.numInterReproConnections(), actual.numInterReproConnections());
+			assertEquals("Wrong number of inter connected repros for " + expected.getName(),
+					expected.numReprosInterConnected(), actual.numReprosInterConnected());
+		}
+	}
+
+	private static void writePairFile(String... entries) throws IOException {
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(PAIR_FILE));
+		try {
+			for (int i=0; i<entries.length; i++) {
+				out.putNextEntry(new ZipEntry("pairs" + i + ".txt"));
+				out.write(entries[i].getBytes());
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
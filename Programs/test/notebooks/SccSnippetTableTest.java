@@ -0,0 +1,100 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SccSnippetTableTest {
+	private Map<Integer, SccNotebook> notebooks;
+	private SccSnippetTable table;
+
+	@Before
+	public void setUp() {
+		notebooks = new HashMap<Integer, SccNotebook>();
+		notebooks.put(7, new SccNotebook("nb_7.ipynb", 0));
+		notebooks.put(3, new SccNotebook("nb_3.ipynb", 1));
+		table = new SccSnippetTable(notebooks);
+	}
+
+	/**
+	 * Verify that added snippets can be looked up by id, also when the table
+	 * has grown many times.
+	 */
+	@Test
+	public void testAdd() {
+		for (int i=0; i<10000; i++) {
+			table.add(i%100, i, i+1, 7);
+		}
+		table.add(-1, -2, 5, 3);
+		assertEquals("Wrong number of snippets!", 10001, table.size());
+		for (int i=0; i<10000; i++) {
+			int row = table.row(i%100, i);
+			assertEquals("Wrong line count!", i+1, table.loc(row));
+			assertSame("Wrong notebook!", notebooks.get(7), table.notebookAt(table.notebook(row)));
+		}
+		assertEquals("Wrong line count for negative ids!", 5, table.loc(table.row(-1, -2)));
+		assertEquals("Nonexistent snippet found!", -1, table.row(1, 2));
+	}
+
+	/**
+	 * Verify that a snippet added twice is stored once, with the last
+	 * values, and listed in all its notebooks.
+	 */
+	@Test
+	public void testAdd_duplicate() {
+		table.add(1, 1, 4, 3);
+		table.add(1, 1, 4, 3);
+		table.add(1, 1, 6, 7);
+		table.buildNotebookIndex();
+		assertEquals("Wrong number of snippets!", 1, table.size());
+		assertEquals("Wrong line count!", 6, table.loc(0));
+		assertEquals("Wrong notebook!", table.notebookIndex(7), table.notebook(0));
+		assertEquals("Wrong number of notebooks!", 2, table.numNotebookGroups());
+		assertEquals("Wrong number of snippets in notebook!", 1, table.groupSize(0));
+		assertEquals("Wrong number of snippets in notebook!", 1, table.groupSize(1));
+	}
+
+	/**
+	 * Verify that the notebook index lists the snippets of each notebook
+	 * number, also notebooks without repro information.
+	 */
+	@Test
+	public void testNotebookIndex() {
+		table.add(1, 1, 4, 3);
+		table.add(1, 2, 0, 7);
+		table.add(1, 3, 2, 3);
+		table.add(1, 4, 2, 12);
+		table.buildNotebookIndex();
+		int[] expectedNumbers = {3, 7, 12};
+		int[][] expectedRows = {{0, 2}, {1}, {3}};
+		assertEquals("Wrong number of notebooks!", expectedNumbers.length, table.numNotebookGroups());
+		for (int group=0; group<expectedNumbers.length; group++) {
+			assertEquals("Wrong notebook number!", expectedNumbers[group], table.notebookNumber(group));
+			assertEquals("Wrong number of snippets in notebook!", expectedRows[group].length, table.groupSize(group));
+			for (int member=0; member<expectedRows[group].length; member++) {
+				assertEquals("Wrong snippet in notebook!", expectedRows[group][member], table.member(group, member));
+			}
+		}
+		assertEquals("Notebook without repro information has an index!", -1, table.notebook(3));
+		assertEquals("Notebook without repro information has an index!", -1, table.notebookIndex(12));
+	}
+
+	/**
+	 * Verify that connections are added to the right snippet.
+	 */
+	@Test
+	public void testAddConnections() {
+		table.add(1, 1, 4, 3);
+		table.add(1, 2, 4, 3);
+		table.addConnections(1, 2, 3);
+		assertFalse("Snippet without connections marked as clone!", table.isClone(0));
+		assertTrue("Snippet with connections not marked as clone!", table.isClone(1));
+		assertTrue("Snippet with intra connections not marked as intra clone!", table.isIntraNotebookClone(1));
+		assertEquals("Wrong number of intra connections!", 2, table.numIntraNotebookConnections(1));
+		assertEquals("Wrong number of inter connections!", 3, table.numInterNotebookConnections(1));
+	}
+}
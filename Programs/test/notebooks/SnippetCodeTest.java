@@ -2,15 +2,13 @@ package notebooks;
 
 import static org.junit.Assert.*;
 
-import java.util.Objects;
-
 import org.junit.Before;
 import org.junit.Test;
 
 public class SnippetCodeTest {
 	SnippetCode code;
 	private final int LOC = 4;
-	private final String hash = "ABCD";
+	private final String hash = "0123456789ABCDEF0123456789ABCDEF";
 	
 	@Before
 	public void setUp() {
@@ -38,7 +36,7 @@ public class SnippetCodeTest {
 	
 	@Test
 	public void testEquals_diffHash() {
-		SnippetCode different = new SnippetCode(LOC, "FFFF");
+		SnippetCode different = new SnippetCode(LOC, "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF");
 		assertFalse("Snippet codes considered equal when hashes differ!", code.equals(different));
 	}
 	
@@ -55,9 +53,38 @@ public class SnippetCodeTest {
 		assertTrue("Equal snippet codes considered different!", code.equals(equal));
 	}
 	
+	@Test
+	public void testConstructor_digest() {
+		byte[] digest = new byte[16];
+		for (int i=0; i<digest.length; i++) {
+			digest[i] = (byte)(0x01 + 0x22*i);
+		}
+		SnippetCode fromDigest = new SnippetCode(LOC, digest);
+		assertEquals("Wrong hash in SnippetCode created from digest!",
+				"0123456789ABCDEF1133557799BBDDFF", fromDigest.getHash());
+	}
+	
+	@Test
+	public void testConstructor_lowerCase() {
+		SnippetCode lowerCase = new SnippetCode(LOC, hash.toLowerCase());
+		assertEquals("Hash in lower case not parsed correctly!", code, lowerCase);
+		assertEquals("Hash not upper case!", hash, lowerCase.getHash());
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testConstructor_invalidHash() {
+		new SnippetCode(LOC, "0123456789ABCDEF0123456789ABCDEG");
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testConstructor_shortHash() {
+		new SnippetCode(LOC, "ABCD");
+	}
+	
 	@Test
 	public void testHashCode() {
-		assertEquals("Wrong hash code returned!", Objects.hash(hash), code.hashCode());
+		SnippetCode equal = new SnippetCode(1000, hash);
+		assertEquals("Different hash codes for equal snippet codes!", code.hashCode(), equal.hashCode());
 	}
 	
 	@Test
@@ -80,10 +107,10 @@ public class SnippetCodeTest {
 	@Test
 	public void testIsIntraClone_unique() {
 		SnippetCode[] nbSnippets = {
-			new SnippetCode(1, "DEFG"),
+			new SnippetCode(1, "DEF0DEF0DEF0DEF0DEF0DEF0DEF0DEF0"),
 			new SnippetCode(code),
-			new SnippetCode(1, "DEFG"),
-			new SnippetCode(5, "HIJK")
+			new SnippetCode(1, "DEF0DEF0DEF0DEF0DEF0DEF0DEF0DEF0"),
+			new SnippetCode(5, "0000000000000000000000000000000A")
 		};
 		assertFalse("Incorrect intra clone found!", code.isIntraClone(nbSnippets));
 	}
@@ -92,7 +119,7 @@ public class SnippetCodeTest {
 	public void testIsIntraClone_1copy() {
 		SnippetCode[] nbSnippets = {
 			new SnippetCode(code),
-			new SnippetCode(3, "BLAHA"),
+			new SnippetCode(3, "B1A4AB1A4AB1A4AB1A4AB1A4AB1A4A00"),
 			new SnippetCode(code)
 		};
 		assertTrue("Intra clone missed!", code.isIntraClone(nbSnippets));
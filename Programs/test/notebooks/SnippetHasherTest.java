@@ -0,0 +1,82 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SnippetHasherTest {
+
+	@Test
+	public void testDigest_empty() throws NoSuchAlgorithmException {
+		SnippetHasher hasher = SnippetHasher.forCurrentThread();
+		assertFalse("White space line considered non-empty!", hasher.add(" \t\n"));
+		assertEquals("Wrong hash for empty snippet!",
+				"D41D8CD98F00B204E9800998ECF8427E", Utils.toHexString(hasher.digest()));
+	}
+
+	@Test
+	public void testDigest_lines() throws NoSuchAlgorithmException {
+		String[][] snippets = {
+				{"import numpy as np\n", "\n", "x = np.zeros(3)\n"},
+				{"print('åäö €')\n", "s = '😀'\n"},
+				{"a = '\ud83d", "\ude00'\n"},
+				{"lone = '\ud83d'\n", "'\ude00'\n"},
+				{"\u000B\f\r  x\n"},
+		};
+		for (String[] snippet: snippets) {
+			assertEquals("Wrong hash for " + String.join("", snippet),
+					referenceHash(snippet), hash(snippet));
+		}
+	}
+
+	/**
+	 * Verify that the hasher produces the same hashes as the original
+	 * String based implementation for random snippets, including snippets
+	 * larger than the internal buffer and unpaired surrogates.
+	 */
+	@Test
+	public void testDigest_random() throws NoSuchAlgorithmException {
+		final char[] alphabet = {' ', '\t', '\n', '\r', '\f', '\u000B', 'a', 'Z', '0', '(', '#',
+				'å', '߿', 'ࠀ', '€', '￿', '\ud83d', '\ude00', '\ud800', '\udfff'};
+		Random random = new Random(42);
+		for (int i=0; i<500; i++) {
+			String[] snippet = new String[random.nextInt(20)];
+			for (int j=0; j<snippet.length; j++) {
+				char[] line = new char[random.nextInt(0 == i % 50 ? 5000 : 40)];
+				for (int k=0; k<line.length; k++) {
+					line[k] = alphabet[random.nextInt(alphabet.length)];
+				}
+				snippet[j] = new String(line);
+			}
+			assertEquals("Wrong hash for random snippet " + i, referenceHash(snippet), hash(snippet));
+		}
+	}
+
+	@Test
+	public void testAdd_nonEmpty() throws NoSuchAlgorithmException {
+		SnippetHasher hasher = SnippetHasher.forCurrentThread();
+		assertTrue("Non-empty line considered empty!", hasher.add("  x\n"));
+		assertFalse("Empty line considered non-empty!", hasher.add(""));
+	}
+
+	private static String hash(String[] snippet) throws NoSuchAlgorithmException {
+		SnippetHasher hasher = SnippetHasher.forCurrentThread();
+		for (String line: snippet) {
+			hasher.add(line);
+		}
+		return Utils.toHexString(hasher.digest());
+	}
+
+	private static String referenceHash(String[] snippet) throws NoSuchAlgorithmException {
+		String code = "";
+		for (String line: snippet) {
+			code += line.replaceAll("\\s", "");
+		}
+		return Utils.toHexString(MessageDigest.getInstance("MD5").digest(code.getBytes(StandardCharsets.UTF_8)));
+	}
+}
@@ -44,4 +44,23 @@ public class TestDataZipDumperTest extends DumperTest {
 		}
 	}
 	
+	/**
+	 * Verify that the notebooks in an archive are dumped as if the archive
+	 * were a directory.
+	 */
+	@Test
+	public void testDump_archive() throws IOException {
+		String src = "test/data/archive/notebooks.tar";
+		String longDir = "a_directory_with_a_name_long_enough_to_need_an_extended_tar_header/";
+		String[] expectedZipFiles = {"notebooks.tar/one.zip", "notebooks.tar/sub/two.zip",
+				"notebooks.tar/" + longDir + longDir + "three_with_md.zip"};
+		
+		dumper.dumpAll(src, targetDir);
+		
+		for (String fileName: expectedZipFiles) {
+			File output = new File(TestUtils.getPath(targetDir, fileName));
+			assertTrue(fileName + " is missing!", output.exists());
+		}
+	}
+	
 }
@@ -8,8 +8,36 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class TestUtils {
+	static final String HASH_A = "0123456789ABCDEF0123456789ABCDEF";
+	static final String HASH_B = "FEDCBA9876543210FEDCBA9876543210";
+	static final String EMPTY_HASH = "D41D8CD98F00B204E9800998ECF8427E";
+
+	/**
+	 * Create the snippets of the clone index tests: nb_1.ipynb (repro1) has
+	 * two equal snippets and two empty ones, nb_2_åäö.ipynb (repro2) has no
+	 * snippets and nb_3.ipynb (repro1) has one unique snippet and one equal
+	 * to those in nb_1.
+	 * @return Map from each notebook to its snippets, in the order above
+	 */
+	static Map<Notebook, SnippetCode[]> cloneSnippets() {
+		Map<Notebook, SnippetCode[]> file2hashes = new LinkedHashMap<Notebook, SnippetCode[]>();
+		file2hashes.put(new Notebook("nb_1.ipynb", "repro1"), new SnippetCode[] {
+				new SnippetCode(2, HASH_A),
+				new SnippetCode(0, EMPTY_HASH),
+				new SnippetCode(3, HASH_A),
+				new SnippetCode(0, EMPTY_HASH)
+		});
+		file2hashes.put(new Notebook("nb_2_åäö.ipynb", "repro2"), new SnippetCode[0]);
+		file2hashes.put(new Notebook("nb_3.ipynb", "repro1"), new SnippetCode[] {
+				new SnippetCode(5, HASH_B),
+				new SnippetCode(6, HASH_A)
+		});
+		return file2hashes;
+	}
 	
 	/**
 	 * Check that the most recent file <dir>/<prefix><timestamp>.csv has the
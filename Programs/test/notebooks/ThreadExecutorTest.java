@@ -0,0 +1,319 @@
+package notebooks;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ThreadExecutorTest {
+
+	@After
+	public void tearDown() {
+		ThreadExecutor.setIoMode(false);
+		ThreadExecutor.setIoThreads(256);
+		ThreadExecutor.setParallelism(2 * Runtime.getRuntime().availableProcessors());
+		ThreadExecutor.tearDown();
+	}
+
+	/**
+	 * Verify that invokeAll returns the results in the same order as the
+	 * tasks, also when the tasks take different amounts of time.
+	 */
+	@Test
+	public void testInvokeAll_order() throws InterruptedException, ExecutionException {
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i=0; i<200; i++) {
+			tasks.add(new Sleeper(i, i%7));
+		}
+		List<Future<Integer>> results = ThreadExecutor.getInstance().invokeAll(tasks);
+		assertEquals("Wrong number of results!", tasks.size(), results.size());
+		for (int i=0; i<results.size(); i++) {
+			assertTrue("Task " + i + " not done!", results.get(i).isDone());
+			assertEquals("Wrong result for task " + i + "!", Integer.valueOf(i), results.get(i).get());
+		}
+	}
+
+	/**
+	 * Verify that an exception thrown by a task is available from its future,
+	 * and that the other tasks are still executed.
+	 */
+	@Test
+	public void testInvokeAll_failure() throws InterruptedException, ExecutionException {
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		tasks.add(new Sleeper(1, 0));
+		tasks.add(new Failure());
+		tasks.add(new Sleeper(3, 0));
+		List<Future<Integer>> results = ThreadExecutor.getInstance().invokeAll(tasks);
+		assertEquals("Wrong first result!", Integer.valueOf(1), results.get(0).get());
+		try {
+			results.get(1).get();
+			fail("Failure of task not reported!");
+		} catch (ExecutionException e) {
+			assertTrue("Wrong cause of failure!", e.getCause() instanceof IllegalStateException);
+		}
+		assertEquals("Wrong last result!", Integer.valueOf(3), results.get(2).get());
+	}
+
+	/**
+	 * Verify that invokeAll cancels the tasks and keeps the interrupt status
+	 * when the calling thread is interrupted.
+	 */
+	@Test
+	public void testInvokeAll_interrupted() {
+		CountDownLatch release = new CountDownLatch(1);
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i=0; i<10; i++) {
+			tasks.add(new Blocker(release));
+		}
+		Thread.currentThread().interrupt();
+		try {
+			ThreadExecutor.getInstance().invokeAll(tasks);
+			fail("Interrupted invokeAll returned!");
+		} catch (CancellationException e) {
+			assertTrue("Interrupt status lost!", Thread.interrupted());
+		} finally {
+			release.countDown();
+		}
+	}
+
+	/**
+	 * Verify that invokeAll returns the same results in I/O mode, where the
+	 * notebooks are read by the I/O executor, as otherwise.
+	 */
+	@Test
+	public void testInvokeAll_ioMode() throws InterruptedException, ExecutionException {
+		String[] names = {"zero.ipynb", "one.ipynb", "two.ipynb", "three_with_md.ipynb",
+				"three_in_worksheets.ipynb", "four_cells_and_worksheets.ipynb", "missing.ipynb"};
+		int[] expectedCells = {0, 1, 2, 3, 3, 4, 0};
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (String name: names) {
+			tasks.add(new CodeCellCounter(new Notebook("test/data/count/" + name)));
+		}
+		tasks.add(new Sleeper(42, 0));
+		ThreadExecutor.setIoMode(true);
+		ThreadExecutor.setIoThreads(3);
+		List<Future<Integer>> results = ThreadExecutor.getInstance().invokeAll(tasks);
+		for (int i=0; i<names.length; i++) {
+			assertEquals("Wrong number of code cells in " + names[i] + " in I/O mode!",
+					Integer.valueOf(expectedCells[i]), results.get(i).get());
+		}
+		assertEquals("Wrong result of task without notebook in I/O mode!",
+				Integer.valueOf(42), results.get(names.length).get());
+	}
+
+	@Test
+	public void testSetParallelism() {
+		ThreadExecutor.setParallelism(3);
+		assertEquals("Wrong parallelism!", 3, ThreadExecutor.getInstance().getParallelism());
+		ThreadExecutor.setParallelism(1);
+		assertEquals("Parallelism not changed!", 1, ThreadExecutor.getInstance().getParallelism());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testSetParallelism_invalid() {
+		ThreadExecutor.setParallelism(0);
+	}
+
+	/**
+	 * Verify that submit blocks when the task queue is full, and continues
+	 * when a task has finished.
+	 */
+	@Test
+	public void testSubmit_backpressure() throws InterruptedException, ExecutionException {
+		ThreadExecutor.setParallelism(1);
+		final ThreadExecutor executor = ThreadExecutor.getInstance();
+		CountDownLatch release = new CountDownLatch(1);
+		List<Future<Integer>> blocked = new ArrayList<Future<Integer>>();
+		// The task queue holds 32 tasks per thread
+		for (int i=0; i<32; i++) {
+			blocked.add(executor.submit(new Blocker(release)));
+		}
+		final List<Future<Integer>> late = new ArrayList<Future<Integer>>();
+		Thread submitter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					late.add(executor.submit(new Sleeper(42, 0)));
+				} catch (InterruptedException e) {
+					// The test fails below
+				}
+			}
+		};
+		submitter.start();
+		submitter.join(200);
+		assertTrue("Submit didn't block on full queue!", submitter.isAlive());
+		release.countDown();
+		submitter.join(10000);
+		assertFalse("Submit still blocked after tasks finished!", submitter.isAlive());
+		assertEquals("Wrong result of late task!", Integer.valueOf(42), late.get(0).get());
+		for (Future<Integer> future: blocked) {
+			assertEquals("Wrong result of blocked task!", Integer.valueOf(0), future.get());
+		}
+	}
+
+	/**
+	 * Verify that a task stream hands out the results of all tasks.
+	 */
+	@Test
+	public void testStream() throws InterruptedException, ExecutionException {
+		ThreadExecutor.TaskStream<Integer> stream = ThreadExecutor.getInstance().stream();
+		int expectedSum = 0, sum = 0;
+		for (int i=0; i<1000; i++) {
+			stream.submit(new Sleeper(i, 0));
+			expectedSum += i;
+			Future<Integer> done = stream.poll();
+			while (null != done) {
+				sum += done.get();
+				done = stream.poll();
+			}
+		}
+		Future<Integer> done = stream.take();
+		while (null != done) {
+			assertTrue("Task returned before it was done!", done.isDone());
+			sum += done.get();
+			done = stream.take();
+		}
+		assertEquals("Wrong number of pending tasks!", 0, stream.pending());
+		assertEquals("Wrong sum of results!", expectedSum, sum);
+	}
+
+	/**
+	 * Verify that the results of a task stream are handed out as soon as the
+	 * tasks finish.
+	 */
+	@Test
+	public void testStream_completionOrder() throws InterruptedException, ExecutionException {
+		CountDownLatch release = new CountDownLatch(1);
+		ThreadExecutor.TaskStream<Integer> stream = ThreadExecutor.getInstance().stream();
+		stream.submit(new Blocker(release));
+		stream.submit(new Sleeper(7, 0));
+		Future<Integer> first = stream.take();
+		assertEquals("Fast task not handed out first!", Integer.valueOf(7), first.get());
+		release.countDown();
+		assertEquals("Wrong result of slow task!", Integer.valueOf(0), stream.take().get());
+	}
+
+	/**
+	 * Verify that cancel cancels the unfinished tasks of a stream.
+	 */
+	@Test
+	public void testStream_cancel() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		ThreadExecutor.TaskStream<Integer> stream = ThreadExecutor.getInstance().stream();
+		for (int i=0; i<10; i++) {
+			stream.submit(new Blocker(release));
+		}
+		stream.cancel();
+		for (int i=0; i<10; i++) {
+			Future<Integer> future = stream.poll();
+			assertNotNull("Cancelled task " + i + " not handed out!", future);
+			assertTrue("Task " + i + " not cancelled!", future.isCancelled());
+		}
+		assertNull("Too many tasks handed out!", stream.take());
+		release.countDown();
+	}
+
+	/**
+	 * Verify that a cancelled task keeps its slot in the task queue until it
+	 * has stopped running.
+	 */
+	@Test
+	public void testStream_cancelKeepsSlot() throws InterruptedException {
+		ThreadExecutor.setParallelism(1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		final ThreadExecutor.TaskStream<Integer> stream = ThreadExecutor.getInstance().stream();
+		// Fill the task queue, which holds 32 tasks per thread
+		stream.submit(new Stubborn(started, release));
+		started.await();
+		for (int i=1; i<32; i++) {
+			stream.submit(new Sleeper(i, 0));
+		}
+		stream.cancel();
+		Thread submitter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					stream.submit(new Sleeper(42, 0));
+				} catch (InterruptedException e) {
+					// The test fails below
+				}
+			}
+		};
+		submitter.start();
+		submitter.join(200);
+		assertTrue("Slot freed while cancelled task was running!", submitter.isAlive());
+		release.countDown();
+		submitter.join(10000);
+		assertFalse("Submit still blocked after cancelled task stopped!", submitter.isAlive());
+	}
+
+	private static class Sleeper implements Callable<Integer> {
+		private final int result;
+		private final int millis;
+
+		Sleeper(int result, int millis) {
+			this.result = result;
+			this.millis = millis;
+		}
+
+		@Override
+		public Integer call() throws InterruptedException {
+			Thread.sleep(millis);
+			return result;
+		}
+	}
+
+	private static class Blocker implements Callable<Integer> {
+		private final CountDownLatch release;
+
+		Blocker(CountDownLatch release) {
+			this.release = release;
+		}
+
+		@Override
+		public Integer call() throws InterruptedException {
+			release.await(10, TimeUnit.SECONDS);
+			return 0;
+		}
+	}
+
+	/**
+	 * Like Blocker, but ignores interrupts. It spins instead of blocking, so
+	 * that the pool doesn't start another thread while it waits.
+	 */
+	private static class Stubborn implements Callable<Integer> {
+		private final CountDownLatch started;
+		private final CountDownLatch release;
+
+		Stubborn(CountDownLatch started, CountDownLatch release) {
+			this.started = started;
+			this.release = release;
+		}
+
+		@Override
+		public Integer call() {
+			started.countDown();
+			while (0 < release.getCount()) {
+				Thread.yield();
+			}
+			return 0;
+		}
+	}
+
+	private static class Failure implements Callable<Integer> {
+		@Override
+		public Integer call() {
+			throw new IllegalStateException("Failing task");
+		}
+	}
+}
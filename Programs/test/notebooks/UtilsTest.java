@@ -3,9 +3,12 @@ package notebooks;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
 
 import org.junit.Test;
 
@@ -85,6 +88,65 @@ public class UtilsTest {
 		assertEquals("Wrong median returned for empty list", 0, Utils.median(numbers, "Mediantest"));
 	}
 	
+	/**
+	 * Verify that the primitive median is computed correctly when the values
+	 * lie in a small range, and when they are spread out.
+	 */
+	@Test
+	public void testMedian_primitive() {
+		int[] close = {9, 2, 5, 7, 0};
+		assertEquals("Wrong median returned for values in small range", 6, Utils.median(close, 4, constant("Mediantest")));
+		int[] spread = {22, 57000000, -20, 7, 3};
+		assertEquals("Wrong median returned for spread values", 14, Utils.median(spread, 4, constant("Mediantest")));
+		assertEquals("Wrong median returned for no values", 0, Utils.median(new int[0], 0, constant("Mediantest")));
+	}
+	
+	/**
+	 * Verify that the primitive median is the same as the median computed by
+	 * sorting, for random values with and without many duplicates.
+	 */
+	@Test
+	public void testMedian_random() {
+		Random random = new Random(7);
+		for (int i=0; i<1000; i++) {
+			int[] values = new int[1 + random.nextInt(200)];
+			int bound = 0 == i%2 ? 10 : 1000000;
+			for (int j=0; j<values.length; j++) {
+				values[j] = random.nextInt(bound);
+			}
+			int[] sorted = Arrays.copyOf(values, values.length);
+			Arrays.sort(sorted);
+			int expected = (sorted[values.length/2] + sorted[(values.length-1)/2])/2;
+			assertEquals("Wrong median returned for " + Arrays.toString(sorted),
+					expected, Utils.median(values, values.length, constant("Mediantest")));
+		}
+	}
+	
+	/**
+	 * Verify that the log message is not created when all values are equal.
+	 */
+	@Test
+	public void testMedian_lazyMessage() {
+		int[] values = {4, 4, 4};
+		Supplier<String> message = new Supplier<String>() {
+			@Override
+			public String get() {
+				fail("Message created although nothing is logged!");
+				return null;
+			}
+		};
+		assertEquals("Wrong median returned for equal values", 4, Utils.median(values, values.length, message));
+	}
+	
+	private static Supplier<String> constant(final String message) {
+		return new Supplier<String>() {
+			@Override
+			public String get() {
+				return message;
+			}
+		};
+	}
+	
 	/**
 	 * Verify that timeStamp precedes the specified message with
 	 * ">>> (<seconds since program start> s) "